@@ -0,0 +1,50 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A connection of the {@link DataSourceState data source under test} per benchmark thread, with the
+ * query prepared.
+ *
+ * @author Peter Van den Bosch
+ */
+@State(Scope.Thread)
+public class ConnectionState {
+	Connection connection;
+	PreparedStatement query;
+
+	@Setup(Level.Trial)
+	public void openConnection(DataSourceState dataSourceState) throws SQLException {
+		connection = dataSourceState.dataSource.getConnection();
+		query = connection.prepareStatement(DataSourceState.QUERY);
+		query.setInt(1, DataSourceState.ROWS);
+	}
+
+	@TearDown(Level.Trial)
+	public void closeConnection() throws SQLException {
+		query.close();
+		connection.close();
+	}
+
+}
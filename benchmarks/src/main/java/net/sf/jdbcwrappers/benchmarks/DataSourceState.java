@@ -0,0 +1,134 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.benchmarks;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.CompositeWrapperFactory;
+import net.sf.jdbcwrappers.benchmarks.stub.StubDataSource;
+import net.sf.jdbcwrappers.trim.TrimmingWrapperFactory;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The data source under test: an embedded Derby database or the in-memory stub driver, either raw
+ * or wrapped by a {@link TrimmingWrapperFactory} in one of its modes.
+ *
+ * @author Peter Van den Bosch
+ */
+@State(Scope.Benchmark)
+public class DataSourceState {
+	static final int ROWS = 100;
+	static final String QUERY = "SELECT ID, CODE, NAME FROM ITEM WHERE ID <= ?";
+	private static final String DATABASE = "target/benchmarkDB";
+
+	/**
+	 * <tt>derby</tt> for an embedded Derby database, or <tt>stub</tt> for the in-memory stub driver
+	 */
+	@Param({ "derby", "stub" })
+	public String driver;
+
+	/**
+	 * <tt>raw</tt> for the unwrapped data source, or the mode of the {@link TrimmingWrapperFactory}:
+	 * <tt>proxy</tt>, <tt>delegates</tt> or <tt>composite</tt>
+	 */
+	@Param({ "raw", "proxy", "delegates", "composite" })
+	public String wrapper;
+
+	DataSource dataSource;
+	private EmbeddedDataSource derbyDataSource;
+
+	@Setup(Level.Trial)
+	public void createDataSource() throws SQLException {
+		DataSource rawDataSource;
+		if (driver.equals("derby")) {
+			System.setProperty("derby.stream.error.file", new File("target/derby.log").getAbsolutePath());
+			derbyDataSource = new EmbeddedDataSource();
+			derbyDataSource.setDatabaseName(DATABASE);
+			derbyDataSource.setUser("bench");
+			derbyDataSource.setCreateDatabase("create");
+			createTable(derbyDataSource);
+			rawDataSource = derbyDataSource;
+		} else if (driver.equals("stub")) {
+			rawDataSource = new StubDataSource(ROWS);
+		} else {
+			throw new IllegalArgumentException("Unknown driver " + driver);
+		}
+		if (wrapper.equals("raw")) {
+			dataSource = rawDataSource;
+		} else {
+			TrimmingWrapperFactory wrapperFactory = new TrimmingWrapperFactory();
+			if (wrapper.equals("composite")) {
+				dataSource = new CompositeWrapperFactory(wrapperFactory).wrapDataSource(rawDataSource);
+			} else if (wrapper.equals("proxy") || wrapper.equals("delegates")) {
+				wrapperFactory.setUseDelegates(wrapper.equals("delegates"));
+				dataSource = wrapperFactory.wrapDataSource(rawDataSource);
+			} else {
+				throw new IllegalArgumentException("Unknown wrapper " + wrapper);
+			}
+		}
+	}
+
+	private static void createTable(DataSource dataSource) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			ResultSet tables = connection.getMetaData().getTables(null, "BENCH", "ITEM", null);
+			boolean exists = tables.next();
+			tables.close();
+			if (exists) {
+				return;
+			}
+			Statement statement = connection.createStatement();
+			statement.execute("CREATE TABLE ITEM (ID INTEGER, CODE CHAR(20), NAME VARCHAR(20))");
+			statement.close();
+			PreparedStatement insert = connection.prepareStatement("INSERT INTO ITEM VALUES (?, ?, ?)");
+			for (int i = 1; i <= ROWS; i++) {
+				insert.setInt(1, i);
+				insert.setString(2, "code");
+				insert.setString(3, "name");
+				insert.executeUpdate();
+			}
+			insert.close();
+		} finally {
+			connection.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void shutdown() {
+		if (derbyDataSource != null) {
+			derbyDataSource.setShutdownDatabase("shutdown");
+			try {
+				derbyDataSource.getConnection();
+			} catch (SQLException ex) {
+				// This always throws an exception; just continue
+			}
+			derbyDataSource = null;
+		}
+	}
+
+}
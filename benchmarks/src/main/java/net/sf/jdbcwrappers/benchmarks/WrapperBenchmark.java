@@ -0,0 +1,129 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.benchmarks;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost per call of <tt>getConnection</tt>, <tt>prepareStatement</tt>, <tt>next</tt> and <tt>getString</tt>,
+ * for each {@link DataSourceState driver and wrapper}. The <tt>Contended</tt> variants run the same
+ * operation on 4 threads sharing the data source (each with its own connection). The overhead of a
+ * wrapper is the difference with the <tt>raw</tt> score of the same driver; with the <tt>stub</tt>
+ * driver, it is the pure proxy overhead.
+ *
+ * @author Peter Van den Bosch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WrapperBenchmark {
+	private static final int GETS_PER_ROW = 10;
+	private static final int CONTENDED_THREADS = 4;
+
+	@Benchmark
+	public void getConnection(DataSourceState state) throws SQLException {
+		state.dataSource.getConnection().close();
+	}
+
+	@Benchmark
+	@Threads(CONTENDED_THREADS)
+	public void getConnectionContended(DataSourceState state) throws SQLException {
+		state.dataSource.getConnection().close();
+	}
+
+	@Benchmark
+	public void prepareStatement(ConnectionState state) throws SQLException {
+		state.connection.prepareStatement(DataSourceState.QUERY).close();
+	}
+
+	@Benchmark
+	@Threads(CONTENDED_THREADS)
+	public void prepareStatementContended(ConnectionState state) throws SQLException {
+		state.connection.prepareStatement(DataSourceState.QUERY).close();
+	}
+
+	/**
+	 * Executes the query and moves over its rows; the cost of the execution is spread over the rows.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(DataSourceState.ROWS)
+	public int next(ConnectionState state) throws SQLException {
+		return countRows(state);
+	}
+
+	@Benchmark
+	@Threads(CONTENDED_THREADS)
+	@OperationsPerInvocation(DataSourceState.ROWS)
+	public int nextContended(ConnectionState state) throws SQLException {
+		return countRows(state);
+	}
+
+	/**
+	 * Reads the <tt>CHAR</tt> column of each row several times, so that its cost dominates the execution of the query.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(DataSourceState.ROWS * GETS_PER_ROW)
+	public void getString(ConnectionState state, Blackhole blackhole) throws SQLException {
+		readRows(state, blackhole);
+	}
+
+	@Benchmark
+	@Threads(CONTENDED_THREADS)
+	@OperationsPerInvocation(DataSourceState.ROWS * GETS_PER_ROW)
+	public void getStringContended(ConnectionState state, Blackhole blackhole) throws SQLException {
+		readRows(state, blackhole);
+	}
+
+	private static int countRows(ConnectionState state) throws SQLException {
+		ResultSet rs = state.query.executeQuery();
+		try {
+			int rows = 0;
+			while (rs.next()) {
+				rows++;
+			}
+			return rows;
+		} finally {
+			rs.close();
+		}
+	}
+
+	private static void readRows(ConnectionState state, Blackhole blackhole) throws SQLException {
+		ResultSet rs = state.query.executeQuery();
+		try {
+			while (rs.next()) {
+				for (int i = 0; i < GETS_PER_ROW; i++) {
+					blackhole.consume(rs.getString(2));
+				}
+			}
+		} finally {
+			rs.close();
+		}
+	}
+
+}
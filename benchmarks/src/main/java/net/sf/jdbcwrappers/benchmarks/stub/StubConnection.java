@@ -0,0 +1,80 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.benchmarks.stub;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import net.sf.jdbcwrappers.delegate.ConnectionDelegate;
+
+/**
+ * Connection of a {@link StubDataSource}.
+ *
+ * @author Peter Van den Bosch
+ */
+class StubConnection extends ConnectionDelegate {
+	private final int rows;
+	private boolean autoCommit = true;
+	private boolean closed;
+
+	StubConnection(int rows) {
+		super(null);
+		this.rows = rows;
+	}
+
+	@Override
+	public Statement createStatement() {
+		return new StubStatement(this, rows);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql) {
+		return new StubStatement(this, rows);
+	}
+
+	@Override
+	public boolean getAutoCommit() {
+		return autoCommit;
+	}
+
+	@Override
+	public void setAutoCommit(boolean autoCommit) {
+		this.autoCommit = autoCommit;
+	}
+
+	@Override
+	public void commit() {
+	}
+
+	@Override
+	public void rollback() {
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.benchmarks.stub;
+
+import java.sql.Connection;
+
+import net.sf.jdbcwrappers.delegate.DataSourceDelegate;
+
+/**
+ * In-memory data source returning canned rows, to measure the overhead of the wrappers without the
+ * cost of a real driver. Only the methods used by the benchmarks are implemented; the other methods
+ * fail with a {@link NullPointerException}.
+ *
+ * @author Peter Van den Bosch
+ */
+public class StubDataSource extends DataSourceDelegate {
+	private final int rows;
+
+	/**
+	 * @param rows the number of rows returned by every query
+	 */
+	public StubDataSource(int rows) {
+		super(null);
+		this.rows = rows;
+	}
+
+	@Override
+	public Connection getConnection() {
+		return new StubConnection(rows);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) {
+		return new StubConnection(rows);
+	}
+
+}
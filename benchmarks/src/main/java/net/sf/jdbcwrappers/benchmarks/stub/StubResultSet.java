@@ -0,0 +1,122 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.benchmarks.stub;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import net.sf.jdbcwrappers.delegate.ResultSetDelegate;
+
+/**
+ * Result set of a {@link StubDataSource}, with the columns described by {@link StubResultSetMetaData}:
+ * <tt>ID</tt> (the row number), <tt>CODE</tt> (a padded <tt>CHAR</tt> value) and <tt>NAME</tt>.
+ *
+ * @author Peter Van den Bosch
+ */
+class StubResultSet extends ResultSetDelegate {
+	private static final String CODE = "code                ";
+	private static final String NAME = "name";
+
+	private final Statement statement;
+	private final int rows;
+	private int row;
+	private boolean closed;
+
+	StubResultSet(Statement statement, int rows) {
+		super(null);
+		this.statement = statement;
+		this.rows = rows;
+	}
+
+	@Override
+	public boolean next() {
+		if (row < rows) {
+			row++;
+			return true;
+		}
+		row = rows + 1;
+		return false;
+	}
+
+	@Override
+	public int getInt(int columnIndex) {
+		return row;
+	}
+
+	@Override
+	public String getString(int columnIndex) throws SQLException {
+		switch (columnIndex) {
+			case 1:
+				return String.valueOf(row);
+			case 2:
+				return CODE;
+			case 3:
+				return NAME;
+			default:
+				throw new SQLException("Invalid column index " + columnIndex);
+		}
+	}
+
+	@Override
+	public String getString(String columnLabel) throws SQLException {
+		return getString(StubResultSetMetaData.INSTANCE.findColumn(columnLabel));
+	}
+
+	@Override
+	public Object getObject(int columnIndex) throws SQLException {
+		return columnIndex == 1 ? Integer.valueOf(row) : getString(columnIndex);
+	}
+
+	@Override
+	public boolean wasNull() {
+		return false;
+	}
+
+	@Override
+	public int findColumn(String columnLabel) throws SQLException {
+		return StubResultSetMetaData.INSTANCE.findColumn(columnLabel);
+	}
+
+	@Override
+	public ResultSetMetaData getMetaData() {
+		return StubResultSetMetaData.INSTANCE;
+	}
+
+	@Override
+	public Statement getStatement() {
+		return statement;
+	}
+
+	@Override
+	public int getType() {
+		return TYPE_FORWARD_ONLY;
+	}
+
+	@Override
+	public int getConcurrency() {
+		return CONCUR_READ_ONLY;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+}
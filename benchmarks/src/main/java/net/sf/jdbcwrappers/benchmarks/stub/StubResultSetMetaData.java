@@ -0,0 +1,192 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.benchmarks.stub;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Metadata of the result sets of a {@link StubDataSource}.
+ *
+ * @author Peter Van den Bosch
+ */
+final class StubResultSetMetaData implements ResultSetMetaData {
+	static final StubResultSetMetaData INSTANCE = new StubResultSetMetaData();
+
+	private static final String[] LABELS = { "ID", "CODE", "NAME" };
+	private static final int[] TYPES = { Types.INTEGER, Types.CHAR, Types.VARCHAR };
+	private static final int[] PRECISIONS = { 10, 20, 20 };
+
+	private StubResultSetMetaData() {
+	}
+
+	int findColumn(String label) throws SQLException {
+		for (int i = 0; i < LABELS.length; i++) {
+			if (LABELS[i].equalsIgnoreCase(label)) {
+				return i + 1;
+			}
+		}
+		throw new SQLException("Column not found: " + label);
+	}
+
+	private static void check(int column) throws SQLException {
+		if (column < 1 || column > LABELS.length) {
+			throw new SQLException("Invalid column index " + column);
+		}
+	}
+
+	@Override
+	public int getColumnCount() {
+		return LABELS.length;
+	}
+
+	@Override
+	public boolean isAutoIncrement(int column) throws SQLException {
+		check(column);
+		return false;
+	}
+
+	@Override
+	public boolean isCaseSensitive(int column) throws SQLException {
+		check(column);
+		return TYPES[column - 1] != Types.INTEGER;
+	}
+
+	@Override
+	public boolean isSearchable(int column) throws SQLException {
+		check(column);
+		return true;
+	}
+
+	@Override
+	public boolean isCurrency(int column) throws SQLException {
+		check(column);
+		return false;
+	}
+
+	@Override
+	public int isNullable(int column) throws SQLException {
+		check(column);
+		return columnNullable;
+	}
+
+	@Override
+	public boolean isSigned(int column) throws SQLException {
+		check(column);
+		return TYPES[column - 1] == Types.INTEGER;
+	}
+
+	@Override
+	public int getColumnDisplaySize(int column) throws SQLException {
+		check(column);
+		return PRECISIONS[column - 1];
+	}
+
+	@Override
+	public String getColumnLabel(int column) throws SQLException {
+		check(column);
+		return LABELS[column - 1];
+	}
+
+	@Override
+	public String getColumnName(int column) throws SQLException {
+		return getColumnLabel(column);
+	}
+
+	@Override
+	public String getSchemaName(int column) throws SQLException {
+		check(column);
+		return "";
+	}
+
+	@Override
+	public int getPrecision(int column) throws SQLException {
+		check(column);
+		return PRECISIONS[column - 1];
+	}
+
+	@Override
+	public int getScale(int column) throws SQLException {
+		check(column);
+		return 0;
+	}
+
+	@Override
+	public String getTableName(int column) throws SQLException {
+		check(column);
+		return "ITEM";
+	}
+
+	@Override
+	public String getCatalogName(int column) throws SQLException {
+		check(column);
+		return "";
+	}
+
+	@Override
+	public int getColumnType(int column) throws SQLException {
+		check(column);
+		return TYPES[column - 1];
+	}
+
+	@Override
+	public String getColumnTypeName(int column) throws SQLException {
+		switch (getColumnType(column)) {
+			case Types.INTEGER:
+				return "INTEGER";
+			case Types.CHAR:
+				return "CHAR";
+			default:
+				return "VARCHAR";
+		}
+	}
+
+	@Override
+	public boolean isReadOnly(int column) throws SQLException {
+		check(column);
+		return true;
+	}
+
+	@Override
+	public boolean isWritable(int column) throws SQLException {
+		check(column);
+		return false;
+	}
+
+	@Override
+	public boolean isDefinitelyWritable(int column) throws SQLException {
+		check(column);
+		return false;
+	}
+
+	@Override
+	public String getColumnClassName(int column) throws SQLException {
+		return getColumnType(column) == Types.INTEGER ? Integer.class.getName() : String.class.getName();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException("Not a wrapper for " + iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) {
+		return iface.isInstance(this);
+	}
+
+}
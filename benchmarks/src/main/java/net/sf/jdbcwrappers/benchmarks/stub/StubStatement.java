@@ -0,0 +1,71 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.benchmarks.stub;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+
+import net.sf.jdbcwrappers.delegate.PreparedStatementDelegate;
+
+/**
+ * Statement or prepared statement of a {@link StubDataSource}; every query returns the same rows,
+ * whatever the SQL text and parameters.
+ *
+ * @author Peter Van den Bosch
+ */
+class StubStatement extends PreparedStatementDelegate {
+	private final Connection connection;
+	private final int rows;
+	private boolean closed;
+
+	StubStatement(Connection connection, int rows) {
+		super(null);
+		this.connection = connection;
+		this.rows = rows;
+	}
+
+	@Override
+	public ResultSet executeQuery() {
+		return new StubResultSet(this, rows);
+	}
+
+	@Override
+	public ResultSet executeQuery(String sql) {
+		return new StubResultSet(this, rows);
+	}
+
+	@Override
+	public void setInt(int parameterIndex, int x) {
+	}
+
+	@Override
+	public void setString(int parameterIndex, String x) {
+	}
+
+	@Override
+	public Connection getConnection() {
+		return connection;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+}
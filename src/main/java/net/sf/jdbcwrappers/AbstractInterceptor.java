@@ -0,0 +1,41 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers;
+
+import java.lang.reflect.Method;
+
+import javax.sql.DataSource;
+
+/**
+ * Base class for interceptors that can also be used on their own as a {@link WrapperFactory}.
+ * When combined with other interceptors in a {@link CompositeWrapperFactory}, they share a single proxy layer.
+ * 
+ * @author Peter Van den Bosch
+ */
+public abstract class AbstractInterceptor implements Interceptor, WrapperFactory {
+
+	/**
+	 * Wraps all jdbc objects. Subclasses should override this to restrict wrapping to the objects they need.
+	 */
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		return true;
+	}
+
+	@Override
+	public DataSource wrapDataSource(DataSource dataSource) {
+		return new CompositeWrapperFactory(this).wrapDataSource(dataSource);
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Invocation handler of the proxies created by {@link CompositeWrapperFactory}.
+ * Passes each call through the interceptors interested in the method, and wraps jdbc objects
+ * returned by the call with another proxy using the same interceptors, if any of the
+ * interceptors {@link Interceptor#wraps(Class, Class, Method) needs} them.
+ *
+ * @author Peter Van den Bosch
+ */
+public class CompositeInvocationHandler implements InvocationHandler {
+	private final InterceptorChain chain;
+	private final ConcurrentMap<Method, InterceptorChain.Binding> bindings;
+	private final Class<?> jdbcClass;
+	private final Object target;
+	private final CompositeInvocationHandler parent;
+	private final Method origin;
+	private final Object[] originArgs;
+	private final Object[] states;
+	private Object proxy;
+
+	CompositeInvocationHandler(InterceptorChain chain, Class<?> jdbcClass, Object target, CompositeInvocationHandler parent, Method origin, Object[] originArgs) {
+		this.chain = chain;
+		this.bindings = chain.getBindings(jdbcClass);
+		this.jdbcClass = jdbcClass;
+		this.target = target;
+		this.parent = parent;
+		this.origin = origin;
+		this.originArgs = originArgs;
+		this.states = new Object[chain.size()];
+	}
+
+	/**
+	 * Create a proxy for the given jdbc object.
+	 */
+	static Object createProxy(InterceptorChain chain, Class<?> jdbcClass, Object target, CompositeInvocationHandler parent, Method origin, Object[] originArgs) {
+		CompositeInvocationHandler handler = new CompositeInvocationHandler(chain, jdbcClass, target, parent, origin, originArgs);
+		handler.proxy = ProxyHelper.createProxy(jdbcClass, handler);
+		return handler.proxy;
+	}
+
+	InterceptorChain getChain() {
+		return chain;
+	}
+
+	public Class<?> getJdbcClass() {
+		return jdbcClass;
+	}
+
+	public Object getTarget() {
+		return target;
+	}
+
+	public Object getProxy() {
+		return proxy;
+	}
+
+	/**
+	 * @return the handler of the object that returned the wrapped object, or null for a DataSource
+	 */
+	public CompositeInvocationHandler getParent() {
+		return parent;
+	}
+
+	/**
+	 * @return the method (called on {@link #getParent()}) that returned the wrapped object, or null for a DataSource
+	 */
+	public Method getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * @return the arguments passed to {@link #getOrigin()}, e.g. the SQL text of a prepared statement; may be null
+	 */
+	public Object[] getOriginArgs() {
+		return originArgs;
+	}
+
+	/**
+	 * @return the SQL text the wrapped object was created with (a prepared or callable statement, or a
+	 *         result set returned by {@link java.sql.Statement#executeQuery(String)}), or null if there is none
+	 */
+	public String getOriginSql() {
+		if (originArgs != null && originArgs.length > 0 && originArgs[0] instanceof String
+				&& (origin.getName().startsWith("prepare") || origin.getName().equals("executeQuery"))) {
+			return (String) originArgs[0];
+		}
+		return null;
+	}
+
+	Object getState(int interceptor) {
+		return states[interceptor];
+	}
+
+	void setState(int interceptor, Object state) {
+		states[interceptor] = state;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		InterceptorChain.Binding binding = chain.resolve(jdbcClass, bindings, method);
+		Object result;
+		if (binding.interceptors.length == 0) {
+			result = binding.dispatcher.invoke(target, args);
+		} else {
+			result = new Invocation(this, binding, args).proceed();
+		}
+		if (!binding.dispatcher.mayReturnJdbcObject()) {
+			return result;
+		}
+		int index = binding.dispatcher.getJdbcClassIndex(result);
+		if (index < 0 || !binding.wrapResult[index] || isWrappedByChain(result)) {
+			return result;
+		}
+		return createProxy(chain, binding.dispatcher.getJdbcReturnClass(index), result, this, method, args);
+	}
+
+	private boolean isWrappedByChain(Object object) {
+		if (object instanceof Proxy) {
+			InvocationHandler h = Proxy.getInvocationHandler(object);
+			return h instanceof CompositeInvocationHandler && ((CompositeInvocationHandler) h).chain == chain;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * {@link WrapperFactory} combining several wrappers.
+ * <p>
+ * The components are {@link Interceptor}s and/or {@link WrapperFactory} instances, in order from
+ * outermost to innermost. Consecutive interceptors are merged into a single proxy per JDBC object,
+ * so stacking them costs one proxy layer and one dispatch per call. A component that is only a
+ * {@link WrapperFactory} gets its own layer(s) at its position in the list.
+ *
+ * @author Peter Van den Bosch
+ */
+public class CompositeWrapperFactory implements WrapperFactory {
+	private List<?> components;
+
+	public CompositeWrapperFactory() {
+	}
+
+	public CompositeWrapperFactory(List<?> components) {
+		setComponents(components);
+	}
+
+	public CompositeWrapperFactory(Interceptor... interceptors) {
+		this(Arrays.asList(interceptors));
+	}
+
+	/**
+	 * @param components {@link Interceptor} or {@link WrapperFactory} instances, outermost first
+	 */
+	public void setComponents(List<?> components) {
+		for (Object component : components) {
+			if (!(component instanceof Interceptor || component instanceof WrapperFactory)) {
+				throw new IllegalArgumentException("Not an Interceptor or WrapperFactory: " + component);
+			}
+		}
+		this.components = new ArrayList<Object>(components);
+	}
+
+	@Override
+	public DataSource wrapDataSource(DataSource dataSource) {
+		if (components == null) {
+			throw new IllegalStateException("components not set");
+		}
+		DataSource result = dataSource;
+		List<Interceptor> interceptors = new ArrayList<Interceptor>();
+		// wrap from the inside out
+		for (int i = components.size()-1; i >= 0; i--) {
+			Object component = components.get(i);
+			if (component instanceof Interceptor) {
+				interceptors.add(0, (Interceptor) component);
+			} else {
+				result = wrap(result, interceptors);
+				interceptors.clear();
+				result = ((WrapperFactory) component).wrapDataSource(result);
+			}
+		}
+		return wrap(result, interceptors);
+	}
+
+	private static DataSource wrap(DataSource dataSource, List<Interceptor> interceptors) {
+		if (interceptors.isEmpty()) {
+			return dataSource;
+		}
+		return (DataSource) CompositeInvocationHandler.createProxy(new InterceptorChain(interceptors), DataSource.class, dataSource, null, null, null);
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers;
+
+import java.lang.reflect.Method;
+
+/**
+ * Intercepts calls on JDBC objects wrapped by a {@link CompositeWrapperFactory}.
+ * <p>
+ * Any number of interceptors can share a single proxy per JDBC object. For each JDBC class and
+ * method, the composite asks every interceptor once whether it is interested, and afterwards only
+ * calls the interested ones. Interceptors are shared by all wrapped objects; per object state
+ * can be kept with {@link Invocation#getState()} and {@link Invocation#setState(Object)}.
+ * <p>
+ * Interceptors also declare which JDBC objects need to be wrapped at all. A returned object
+ * that none of the interceptors needs is passed to the caller unwrapped, which avoids the proxy
+ * allocation and the dispatch overhead of every call on it.
+ * 
+ * @author Peter Van den Bosch
+ */
+public interface Interceptor {
+
+	/**
+	 * Determine whether calls of the given method on objects of the given jdbc class must be
+	 * passed to this interceptor. The result is cached, so it must not depend on any other state.
+	 * 
+	 * @param jdbcClass the jdbc interface of the wrapped object (one of the classes wrapped by {@link ProxyHelper})
+	 * @param method the method being called
+	 * @return true to have {@link #invoke(Invocation)} called for the method
+	 */
+	boolean isInterestedIn(Class<?> jdbcClass, Method method);
+
+	/**
+	 * Determine whether jdbc objects returned by the given method must be wrapped for this interceptor,
+	 * either because it intercepts methods on them, or because it needs the objects they return to be
+	 * wrapped. The result is cached, so it must not depend on any other state.
+	 * 
+	 * @param jdbcClass the jdbc interface of the returned object
+	 * @param ownerClass the jdbc interface of the object the method was called on
+	 * @param origin the method returning the object
+	 * @return true if the object must be wrapped
+	 */
+	boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin);
+
+	/**
+	 * Intercept a method call. Implementations call {@link Invocation#proceed()} to continue
+	 * with the next interceptor, or with the target object if this is the last one.
+	 * 
+	 * @param invocation the method invocation
+	 * @return the return value of the method
+	 * @throws Throwable any exception that should be thrown to the caller
+	 */
+	Object invoke(Invocation invocation) throws Throwable;
+
+}
@@ -0,0 +1,109 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The interceptors merged into a single proxy layer, together with the per class and method
+ * resolution of the interested interceptors.
+ *
+ * @author Peter Van den Bosch
+ */
+class InterceptorChain {
+
+	/**
+	 * Pre-resolved information for a method called on a given jdbc class.
+	 */
+	static class Binding {
+		final MethodDispatcher dispatcher;
+		// indexes into InterceptorChain.interceptors
+		final int[] interceptors;
+		// for each of the dispatcher's jdbc return classes, whether any interceptor needs the returned object to be wrapped
+		final boolean[] wrapResult;
+
+		Binding(MethodDispatcher dispatcher, int[] interceptors, boolean[] wrapResult) {
+			this.dispatcher = dispatcher;
+			this.interceptors = interceptors;
+			this.wrapResult = wrapResult;
+		}
+	}
+
+	private final Interceptor[] interceptors;
+	private final ConcurrentMap<Class<?>, ConcurrentMap<Method, Binding>> bindings = new ConcurrentHashMap<Class<?>, ConcurrentMap<Method, Binding>>();
+
+	InterceptorChain(List<Interceptor> interceptors) {
+		this.interceptors = interceptors.toArray(new Interceptor[interceptors.size()]);
+	}
+
+	Interceptor getInterceptor(int index) {
+		return interceptors[index];
+	}
+
+	int size() {
+		return interceptors.length;
+	}
+
+	/**
+	 * @return the (shared) binding table of the given jdbc class
+	 */
+	ConcurrentMap<Method, Binding> getBindings(Class<?> jdbcClass) {
+		ConcurrentMap<Method, Binding> result = bindings.get(jdbcClass);
+		if (result == null) {
+			result = new ConcurrentHashMap<Method, Binding>();
+			ConcurrentMap<Method, Binding> existing = bindings.putIfAbsent(jdbcClass, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		return result;
+	}
+
+	Binding resolve(Class<?> jdbcClass, ConcurrentMap<Method, Binding> table, Method method) {
+		Binding binding = table.get(method);
+		if (binding == null) {
+			List<Integer> interested = new ArrayList<Integer>();
+			for (int i = 0; i < interceptors.length; i++) {
+				if (interceptors[i].isInterestedIn(jdbcClass, method)) {
+					interested.add(i);
+				}
+			}
+			int[] indexes = new int[interested.size()];
+			for (int i = 0; i < indexes.length; i++) {
+				indexes[i] = interested.get(i);
+			}
+			MethodDispatcher dispatcher = MethodDispatcher.forMethod(method);
+			boolean[] wrapResult = new boolean[dispatcher.getJdbcReturnClassCount()];
+			for (int i = 0; i < wrapResult.length; i++) {
+				for (Interceptor interceptor : interceptors) {
+					if (interceptor.wraps(dispatcher.getJdbcReturnClass(i), jdbcClass, method)) {
+						wrapResult[i] = true;
+						break;
+					}
+				}
+			}
+			binding = new Binding(dispatcher, indexes, wrapResult);
+			Binding existing = table.putIfAbsent(method, binding);
+			if (existing != null) {
+				binding = existing;
+			}
+		}
+		return binding;
+	}
+
+}
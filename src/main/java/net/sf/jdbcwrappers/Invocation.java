@@ -0,0 +1,112 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers;
+
+import java.lang.reflect.Method;
+
+/**
+ * A method call passing through the interested {@link Interceptor}s of a {@link CompositeInvocationHandler}.
+ * An instance is only valid during the call and must not be used by other threads.
+ *
+ * @author Peter Van den Bosch
+ */
+public final class Invocation {
+	private final CompositeInvocationHandler handler;
+	private final InterceptorChain.Binding binding;
+	private final Object[] args;
+	// number of interceptors entered so far; the current interceptor is binding.interceptors[position-1]
+	private int position;
+
+	Invocation(CompositeInvocationHandler handler, InterceptorChain.Binding binding, Object[] args) {
+		this.handler = handler;
+		this.binding = binding;
+		this.args = args;
+	}
+
+	/**
+	 * @return the handler of the proxy the method was called on
+	 */
+	public CompositeInvocationHandler getHandler() {
+		return handler;
+	}
+
+	public Object getProxy() {
+		return handler.getProxy();
+	}
+
+	public Object getTarget() {
+		return handler.getTarget();
+	}
+
+	public Class<?> getJdbcClass() {
+		return handler.getJdbcClass();
+	}
+
+	public Method getMethod() {
+		return binding.dispatcher.getMethod();
+	}
+
+	public MethodDispatcher getDispatcher() {
+		return binding.dispatcher;
+	}
+
+	/**
+	 * @return the arguments of the call; interceptors may replace elements before calling {@link #proceed()}.
+	 *         May be null for methods without parameters.
+	 */
+	public Object[] getArgs() {
+		return args;
+	}
+
+	/**
+	 * @return the state the current interceptor keeps for the wrapped object, or null if none was set
+	 */
+	public Object getState() {
+		return handler.getState(binding.interceptors[position-1]);
+	}
+
+	public void setState(Object state) {
+		handler.setState(binding.interceptors[position-1], state);
+	}
+
+	/**
+	 * Get the state the current interceptor keeps for another object wrapped by the same composite,
+	 * typically {@link CompositeInvocationHandler#getParent()}.
+	 */
+	public Object getState(CompositeInvocationHandler other) {
+		return other.getState(binding.interceptors[position-1]);
+	}
+
+	/**
+	 * Continue the call with the next interceptor, or call the target if there are no more interceptors.
+	 *
+	 * @return return value of the method call
+	 * @throws Throwable Any exception thrown by the next interceptor or the target method
+	 */
+	public Object proceed() throws Throwable {
+		int current = position;
+		int[] interceptors = binding.interceptors;
+		if (current == interceptors.length) {
+			return binding.dispatcher.invoke(handler.getTarget(), args);
+		}
+		position = current + 1;
+		try {
+			return handler.getChain().getInterceptor(interceptors[current]).invoke(this);
+		} finally {
+			// restore the position, so that the interceptor can call getState() (or proceed() again) afterwards
+			position = current;
+		}
+	}
+
+}
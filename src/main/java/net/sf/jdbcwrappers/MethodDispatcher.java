@@ -0,0 +1,157 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolved dispatch information for a single interface method.
+ * <p>
+ * Instances are obtained through {@link #forMethod(Method)} and are cached, so that the
+ * reflective work (resolving the {@link MethodHandle}, inspecting the parameter and return
+ * types) is done only once per method instead of on every intercepted call. Invoking the
+ * target through {@link #invoke(Object, Object[])} doesn't allocate anything besides what
+ * the target method itself allocates.
+ *
+ * @author Peter Van den Bosch
+ */
+public final class MethodDispatcher {
+
+	private static final ConcurrentMap<Method, MethodDispatcher> CACHE = new ConcurrentHashMap<Method, MethodDispatcher>();
+
+	private final Method method;
+	private final String name;
+	private final Class<?>[] parameterTypes;
+	private final MethodHandle handle;
+	// the jdbc classes the return value of the method may be an instance of, in the order of ProxyHelper.CLASSES_TO_WRAP
+	private final Class<?>[] jdbcReturnClasses;
+
+	private MethodDispatcher(Method method) {
+		this.method = method;
+		this.name = method.getName();
+		this.parameterTypes = method.getParameterTypes();
+		try {
+			// the generic (Object, Object[])Object shape allows a single invokeExact call site for all methods
+			this.handle = MethodHandles.publicLookup().unreflect(method)
+				.asFixedArity()
+				.asType(MethodType.genericMethodType(parameterTypes.length + 1))
+				.asSpreader(Object[].class, parameterTypes.length);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+		this.jdbcReturnClasses = ProxyHelper.getJdbcClasses(method.getReturnType());
+	}
+
+	/**
+	 * @param method the (interface) method to dispatch
+	 * @return the cached dispatcher for the given method
+	 */
+	public static MethodDispatcher forMethod(Method method) {
+		MethodDispatcher dispatcher = CACHE.get(method);
+		if (dispatcher == null) {
+			dispatcher = new MethodDispatcher(method);
+			MethodDispatcher existing = CACHE.putIfAbsent(method, dispatcher);
+			if (existing != null) {
+				dispatcher = existing;
+			}
+		}
+		return dispatcher;
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return the name of the method; the returned string is interned, like {@link Method#getName()}
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public int getParameterCount() {
+		return parameterTypes.length;
+	}
+
+	/**
+	 * Get a parameter type without the defensive copy made by {@link Method#getParameterTypes()}.
+	 */
+	public Class<?> getParameterType(int index) {
+		return parameterTypes[index];
+	}
+
+	/**
+	 * Invoke the method on the given target.
+	 *
+	 * @param target the object to invoke the method on
+	 * @param args the arguments, as passed to {@link java.lang.reflect.InvocationHandler#invoke(Object, Method, Object[])};
+	 *        may be null for methods without parameters
+	 * @return return value of the method call
+	 * @throws Throwable Any exception thrown by the underlying method, unwrapped
+	 */
+	public Object invoke(Object target, Object[] args) throws Throwable {
+		return (Object) handle.invokeExact(target, args);
+	}
+
+	/**
+	 * @return false if the declared return type guarantees that the method never returns a jdbc object that needs to be wrapped
+	 */
+	public boolean mayReturnJdbcObject() {
+		return jdbcReturnClasses.length > 0;
+	}
+
+	/**
+	 * Equivalent to {@link ProxyHelper#getJdbcClass(Object)}, but only checks the classes compatible
+	 * with the declared return type of the method.
+	 *
+	 * @param result a value returned by this method
+	 * @return the jdbc class of the result, or null if it isn't an instance of a jdbc class
+	 */
+	public Class<?> getJdbcClass(Object result) {
+		int index = getJdbcClassIndex(result);
+		return index < 0 ? null : jdbcReturnClasses[index];
+	}
+
+	/**
+	 * @return the index of the jdbc class of the result among the {@link #getJdbcReturnClass(int) candidate classes}, or -1
+	 */
+	public int getJdbcClassIndex(Object result) {
+		Class<?>[] classes = jdbcReturnClasses;
+		if (classes.length == 0 || result == null) {
+			return -1;
+		}
+		for (int i = 0; i < classes.length; i++) {
+			if (classes[i].isInstance(result)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of jdbc classes the return value of the method may be an instance of
+	 */
+	public int getJdbcReturnClassCount() {
+		return jdbcReturnClasses.length;
+	}
+
+	public Class<?> getJdbcReturnClass(int index) {
+		return jdbcReturnClasses[index];
+	}
+}
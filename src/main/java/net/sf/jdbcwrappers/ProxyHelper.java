@@ -14,7 +14,6 @@
 package net.sf.jdbcwrappers;
 
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.CallableStatement;
@@ -73,15 +72,7 @@ public class ProxyHelper {
 		 * @throws Throwable Any exception propagated of the underlying method call, or a runtime exception when making the call (e.g. method doesn't exist) 
 		 */
 		public Object invoke() throws Throwable {
-			try {
-				return method.invoke(target, args);
-			} catch(IllegalAccessException e) {
-				// illegal access exception is checked and isn't in the original method's signature, so rethrow it as a runtime exception
-				throw new IllegalStateException(e);
-			} catch (InvocationTargetException e) {
-				// rethrow any exception from the method invocation
-				throw e.getCause();
-			}
+			return MethodDispatcher.forMethod(method).invoke(target, args);
 		}
 	}
 	
@@ -97,6 +88,77 @@ public class ProxyHelper {
 		return null;
 	}
 	
+	/**
+	 * Determine which jdbc classes a value of the given (declared) type may be an instance of.
+	 * 
+	 * @return the candidate classes, in the same order as used by {@link #getJdbcClass(Object)}; empty if
+	 *         a value of the given type can never be a jdbc object (e.g. primitives, String, void)
+	 */
+	public static Class<?>[] getJdbcClasses(Class<?> type) {
+		List<Class<?>> result = new ArrayList<Class<?>>();
+		for (Class<?> clazz : CLASSES_TO_WRAP) {
+			// either the type is a jdbc class (or a subclass), or it's a supertype such as Object that may hold one
+			if (clazz.isAssignableFrom(type) || type.isAssignableFrom(clazz)) {
+				result.add(clazz);
+			}
+		}
+		return result.toArray(new Class<?>[result.size()]);
+	}
+	
+	/**
+	 * Determine whether a result set returned by a method holds the rows of a query executed by a statement,
+	 * as opposed to the generated keys of a statement or the result of a {@link DatabaseMetaData} method.
+	 * 
+	 * @param ownerClass jdbc class of the object the method was called on
+	 * @param methodName name of the method
+	 */
+	public static boolean isQueryResultSet(Class<?> ownerClass, String methodName) {
+		return Statement.class.isAssignableFrom(ownerClass) && !"getGeneratedKeys".equals(methodName);
+	}
+	
+	/**
+	 * Determine whether an object returned by a method is on the path from a data source to the result sets
+	 * of its queries (see {@link #isQueryResultSet(Class, String)}), i.e. whether an interceptor of those
+	 * result sets needs to wrap it.
+	 * 
+	 * @param jdbcClass jdbc class of the returned object
+	 * @param ownerClass jdbc class of the object the method was called on
+	 * @param methodName name of the method
+	 */
+	public static boolean isQueryResultSetPath(Class<?> jdbcClass, Class<?> ownerClass, String methodName) {
+		if (ResultSet.class.equals(jdbcClass)) {
+			return isQueryResultSet(ownerClass, methodName);
+		}
+		return !DatabaseMetaData.class.equals(jdbcClass);
+	}
+	
+	/**
+	 * @return the jdbc classes that are wrapped, subclasses first
+	 */
+	public static List<Class<?>> getWrappedClasses() {
+		return Collections.unmodifiableList(CLASSES_TO_WRAP);
+	}
+	
+	/**
+	 * Generate the proxy class of a jdbc class and resolve the {@link MethodDispatcher}s of its methods,
+	 * which otherwise happens when the first object of the class is wrapped and its methods are called.
+	 * 
+	 * @param clazz one of the classes returned by {@link #getWrappedClasses()}
+	 * @param classLoader the class loader of the invocation handlers that will be used (see {@link #createProxy(Class, InvocationHandler)})
+	 */
+	public static void preload(Class<?> clazz, ClassLoader classLoader) {
+		// creating an instance generates the class; Proxy.getProxyClass is deprecated
+		Proxy.newProxyInstance(classLoader, new Class[]{clazz}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				throw new UnsupportedOperationException();
+			}
+		});
+		for (Method method : clazz.getMethods()) {
+			MethodDispatcher.forMethod(method);
+		}
+	}
+	
 	/**
 	 * Create proxy object implementing a single class.
 	 *
@@ -122,4 +184,18 @@ public class ProxyHelper {
 		}
 	}
 	
+	/**
+	 * Check whether the target object is a proxy instance using either of the given InvocationHandlers.
+	 * Unlike calling {@link #isWrapped(Object, Class)} twice, this looks up the InvocationHandler only once. 
+	 */
+	public static boolean isWrapped(Object target, Class<? extends InvocationHandler> invocationHandlerClazz1,
+			Class<? extends InvocationHandler> invocationHandlerClazz2) {
+		if(target instanceof Proxy) {
+			InvocationHandler h = Proxy.getInvocationHandler((Proxy) target);
+			return invocationHandlerClazz1.isInstance(h) || invocationHandlerClazz2.isInstance(h);
+		} else {
+			return false;
+		}
+	}
+	
 }
@@ -0,0 +1,134 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Normalizes SQL text into a fingerprint that is identical for all executions of the same statement
+ * with different literal values: string and numeric literals are replaced by <tt>?</tt>, comments are
+ * removed and whitespace is collapsed.
+ * <p>
+ * Fingerprints are cached by SQL text, so normalizing a statement that is executed repeatedly (in
+ * particular prepared statements, whose SQL text doesn't contain literals) is a single map lookup.
+ * The cache is bounded; when it is full, it is cleared.
+ *
+ * @author Peter Van den Bosch
+ */
+public final class SqlFingerprint {
+	private static final int MAX_CACHE_SIZE = 10000;
+	private static final ConcurrentMap<String, String> CACHE = new ConcurrentHashMap<String, String>();
+
+	private SqlFingerprint() {
+	}
+
+	/**
+	 * @param sql the SQL text, may be null
+	 * @return the fingerprint, or null if sql is null
+	 */
+	public static String of(String sql) {
+		if (sql == null) {
+			return null;
+		}
+		String fingerprint = CACHE.get(sql);
+		if (fingerprint == null) {
+			fingerprint = normalize(sql);
+			if (CACHE.size() >= MAX_CACHE_SIZE) {
+				CACHE.clear();
+			}
+			CACHE.put(sql, fingerprint);
+		}
+		return fingerprint;
+	}
+
+	static String normalize(String sql) {
+		StringBuilder result = new StringBuilder(sql.length());
+		int length = sql.length();
+		int i = 0;
+		boolean pendingSpace = false;
+		while (i < length) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				pendingSpace = true;
+				i++;
+				continue;
+			}
+			if (c == '-' && i+1 < length && sql.charAt(i+1) == '-') {
+				// line comment
+				while (i < length && sql.charAt(i) != '\n') {
+					i++;
+				}
+				pendingSpace = true;
+				continue;
+			}
+			if (c == '/' && i+1 < length && sql.charAt(i+1) == '*') {
+				int end = sql.indexOf("*/", i+2);
+				i = end < 0 ? length : end+2;
+				pendingSpace = true;
+				continue;
+			}
+			if (pendingSpace && result.length() > 0) {
+				result.append(' ');
+			}
+			pendingSpace = false;
+			if (c == '\'') {
+				// string literal; '' is an escaped quote
+				i++;
+				while (i < length) {
+					if (sql.charAt(i) == '\'') {
+						if (i+1 < length && sql.charAt(i+1) == '\'') {
+							i += 2;
+						} else {
+							break;
+						}
+					} else {
+						i++;
+					}
+				}
+				i++;
+				result.append('?');
+			} else if (c == '"') {
+				// quoted identifier, kept as is
+				int end = sql.indexOf('"', i+1);
+				end = end < 0 ? length : end+1;
+				result.append(sql, i, end);
+				i = end;
+			} else if (Character.isDigit(c) && !isIdentifierPart(result)) {
+				// numeric literal (including decimals and exponents)
+				while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				result.append('?');
+			} else if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+				while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')) {
+					result.append(sql.charAt(i++));
+				}
+			} else {
+				result.append(c);
+				i++;
+			}
+		}
+		return result.toString();
+	}
+
+	private static boolean isIdentifierPart(StringBuilder result) {
+		if (result.length() == 0) {
+			return false;
+		}
+		char last = result.charAt(result.length()-1);
+		return Character.isLetterOrDigit(last) || last == '_' || last == '$';
+	}
+
+}
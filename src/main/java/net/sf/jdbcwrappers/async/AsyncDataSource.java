@@ -0,0 +1,307 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.async;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+/**
+ * Runs JDBC work on a bounded executor, for callers that must not block, such as event loops, or
+ * virtual threads that would be pinned by drivers blocking inside <tt>synchronized</tt> blocks.
+ * <p>
+ * The work runs on at most <tt>poolSize</tt> threads, which should not exceed the size of the connection
+ * pool behind the data source: the other submissions wait in memory, in submission order, instead of
+ * waiting for a connection in the pool. The threads are virtual threads if the JVM supports them, and
+ * daemon threads otherwise. The data source is typically one wrapped by a
+ * {@link net.sf.jdbcwrappers.WrapperFactory}; each piece of work gets its own connection.
+ * <p>
+ * Large results can be streamed in batches with
+ * {@link #stream(String, Object[], int, RowMapper, BatchSubscriber)}: the next batch is only read from
+ * the result set once the subscriber has requested it.
+ *
+ * @author Peter Van den Bosch
+ */
+public class AsyncDataSource {
+	private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+	/**
+	 * The subscription of a stream: the number of batches requested and not delivered yet.
+	 */
+	private static class Demand implements BatchSubscriber.Subscription {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition requested = lock.newCondition();
+		private long batches;
+		private boolean cancelled;
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				throw new IllegalArgumentException("Invalid number of batches: " + n);
+			}
+			lock.lock();
+			try {
+				batches = batches + n < 0 ? Long.MAX_VALUE : batches + n;
+				requested.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			lock.lock();
+			try {
+				cancelled = true;
+				requested.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Wait until a batch is requested.
+		 *
+		 * @return false if the subscription is cancelled
+		 */
+		boolean take() throws InterruptedException {
+			lock.lock();
+			try {
+				while (batches == 0 && !cancelled) {
+					requested.await();
+				}
+				if (cancelled) {
+					return false;
+				}
+				batches--;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private final DataSource dataSource;
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Create an instance queueing any number of submissions.
+	 */
+	public AsyncDataSource(DataSource dataSource, int poolSize) {
+		this(dataSource, poolSize, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param poolSize the maximum number of submissions executed concurrently
+	 * @param maxQueueSize the maximum number of submissions waiting for a thread; further submissions fail
+	 *            with a {@link SQLTransientConnectionException}
+	 */
+	public AsyncDataSource(DataSource dataSource, int poolSize, int maxQueueSize) {
+		this.dataSource = dataSource;
+		executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(maxQueueSize), createThreadFactory("jdbcwrappers-async-" + POOL_NUMBER.incrementAndGet()));
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	private static ThreadFactory createThreadFactory(final String name) {
+		try {
+			// Java 21
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception ex) {
+			final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+			final AtomicInteger threadNumber = new AtomicInteger();
+			return new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = threadFactory.newThread(runnable);
+					thread.setName(name + "-" + threadNumber.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+		}
+	}
+
+	/**
+	 * @return the number of submissions waiting for a thread
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return the number of submissions being executed
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * Reject new submissions; the submitted ones are still executed.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Execute the callback with a connection of the data source, which is closed afterwards.
+	 */
+	public <T> AsyncResult<T> execute(final ConnectionCallback<T> callback) {
+		AsyncResult<T> result = new AsyncResult<T>(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				Connection connection = dataSource.getConnection();
+				try {
+					return callback.doInConnection(connection);
+				} finally {
+					connection.close();
+				}
+			}
+		});
+		try {
+			executor.execute(result);
+		} catch (RejectedExecutionException ex) {
+			result.fail(new SQLTransientConnectionException(executor.isShutdown() ? "Shut down"
+					: "Too many pending submissions (" + executor.getQueue().size() + ")", ex));
+		}
+		return result;
+	}
+
+	/**
+	 * Execute an update.
+	 *
+	 * @param parameters the values of the parameters, set with <tt>setObject</tt>; may be null
+	 * @return the update count
+	 */
+	public AsyncResult<Integer> update(final String sql, final Object... parameters) {
+		return execute(new ConnectionCallback<Integer>() {
+			@Override
+			public Integer doInConnection(Connection connection) throws SQLException {
+				PreparedStatement statement = prepare(connection, sql, parameters);
+				try {
+					return statement.executeUpdate();
+				} finally {
+					statement.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Execute a query and convert all its rows.
+	 *
+	 * @param parameters the values of the parameters, set with <tt>setObject</tt>; may be null
+	 */
+	public <R> AsyncResult<List<R>> query(final String sql, final Object[] parameters, final RowMapper<R> mapper) {
+		return execute(new ConnectionCallback<List<R>>() {
+			@Override
+			public List<R> doInConnection(Connection connection) throws SQLException {
+				PreparedStatement statement = prepare(connection, sql, parameters);
+				try {
+					ResultSet resultSet = statement.executeQuery();
+					List<R> rows = new ArrayList<R>();
+					while (resultSet.next()) {
+						rows.add(mapper.mapRow(resultSet));
+					}
+					resultSet.close();
+					return rows;
+				} finally {
+					statement.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Execute a query and deliver its rows to the subscriber in batches, as it requests them. The
+	 * connection is held until the last batch is delivered or the subscription is cancelled; cancelling
+	 * the returned result interrupts the stream too.
+	 *
+	 * @param parameters the values of the parameters, set with <tt>setObject</tt>; may be null
+	 * @param batchSize the maximum number of rows per batch, also used as fetch size
+	 * @return the number of rows delivered
+	 */
+	public <R> AsyncResult<Long> stream(final String sql, final Object[] parameters, final int batchSize,
+			final RowMapper<R> mapper, final BatchSubscriber<R> subscriber) {
+		return execute(new ConnectionCallback<Long>() {
+			@Override
+			public Long doInConnection(Connection connection) throws SQLException {
+				Demand demand = new Demand();
+				subscriber.onSubscribe(demand);
+				PreparedStatement statement = prepare(connection, sql, parameters);
+				try {
+					statement.setFetchSize(batchSize);
+					ResultSet resultSet = statement.executeQuery();
+					long rows = 0;
+					// The next batch is only read once it is requested, so that the database is the buffer. The cursor
+					// is moved to the first row of the batch beforehand, so that the end of the result is detected (and
+					// the connection released) without waiting for a request that may never come.
+					boolean hasRow = resultSet.next();
+					while (hasRow && take(demand)) {
+						List<R> batch = new ArrayList<R>(batchSize);
+						do {
+							batch.add(mapper.mapRow(resultSet));
+							hasRow = resultSet.next();
+						} while (hasRow && batch.size() < batchSize);
+						rows += batch.size();
+						subscriber.onBatch(batch);
+					}
+					resultSet.close();
+					return rows;
+				} finally {
+					statement.close();
+				}
+			}
+		});
+	}
+
+	private static boolean take(Demand demand) throws SQLException {
+		try {
+			return demand.take();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a batch to be requested", ex);
+		}
+	}
+
+	private static PreparedStatement prepare(Connection connection, String sql, Object[] parameters) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		if (parameters != null) {
+			for (int i = 0; i < parameters.length; i++) {
+				statement.setObject(i + 1, parameters[i]);
+			}
+		}
+		return statement;
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The pending result of work submitted to an {@link AsyncDataSource}.
+ * <p>
+ * Besides blocking with {@link #get()}, callers can register {@link AsyncCallback}s, which are called
+ * by the thread completing the work, or immediately if it is already complete. With Java 8, this
+ * adapts to a <tt>CompletableFuture</tt>:
+ * <pre>
+ * CompletableFuture&lt;T&gt; future = new CompletableFuture&lt;&gt;();
+ * result.addCallback(new AsyncCallback&lt;T&gt;() {
+ *     public void onSuccess(T value) { future.complete(value); }
+ *     public void onFailure(Throwable failure) { future.completeExceptionally(failure); }
+ * });
+ * </pre>
+ *
+ * @author Peter Van den Bosch
+ */
+public class AsyncResult<T> extends FutureTask<T> {
+	private static final Log LOG = LogFactory.getLog(AsyncResult.class);
+
+	// guarded by this; null once done() took the pending callbacks
+	private List<AsyncCallback<? super T>> callbacks = new ArrayList<AsyncCallback<? super T>>(2);
+
+	AsyncResult(Callable<T> callable) {
+		super(callable);
+	}
+
+	/**
+	 * Call the callback when the result is complete. If it is already complete (i.e. {@link #isDone()}
+	 * returns true), the callback is called by the current thread before this method returns.
+	 */
+	public void addCallback(AsyncCallback<? super T> callback) {
+		// get() may return before done() ran; don't leave the callback to the completing thread then
+		if (!isDone()) {
+			synchronized (this) {
+				if (callbacks != null) {
+					callbacks.add(callback);
+					return;
+				}
+			}
+		}
+		invokeCallback(callback);
+	}
+
+	/**
+	 * Complete the result with a failure without running the work.
+	 */
+	void fail(Throwable failure) {
+		setException(failure);
+	}
+
+	@Override
+	protected void done() {
+		List<AsyncCallback<? super T>> pending;
+		synchronized (this) {
+			pending = callbacks;
+			callbacks = null;
+		}
+		for (AsyncCallback<? super T> callback : pending) {
+			try {
+				invokeCallback(callback);
+			} catch (RuntimeException ex) {
+				LOG.error("Callback failed", ex);
+			}
+		}
+	}
+
+	private void invokeCallback(AsyncCallback<? super T> callback) {
+		T result;
+		try {
+			result = get();
+		} catch (ExecutionException ex) {
+			callback.onFailure(ex.getCause());
+			return;
+		} catch (CancellationException ex) {
+			callback.onFailure(ex);
+			return;
+		} catch (InterruptedException ex) {
+			// can't happen: the result is complete
+			Thread.currentThread().interrupt();
+			callback.onFailure(ex);
+			return;
+		}
+		callback.onSuccess(result);
+	}
+
+}
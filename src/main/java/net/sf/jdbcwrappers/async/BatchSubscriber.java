@@ -0,0 +1,57 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.async;
+
+import java.util.List;
+
+/**
+ * Receives the rows streamed by {@link AsyncDataSource#stream(String, Object[], int, RowMapper, BatchSubscriber)}
+ * in batches, as requested through its {@link Subscription}.
+ * <p>
+ * The methods are called by the thread executing the query; a subscriber that processes the batches
+ * asynchronously requests the next batch when it is ready for it. The end of the stream, or its failure,
+ * is signalled by the {@link AsyncResult} returned by <tt>stream</tt>.
+ *
+ * @author Peter Van den Bosch
+ */
+public interface BatchSubscriber<R> {
+
+	/**
+	 * Control of the flow of batches.
+	 */
+	interface Subscription {
+
+		/**
+		 * Allow the given number of batches to be delivered, in addition to the ones requested before.
+		 */
+		void request(long batches);
+
+		/**
+		 * Stop the stream; the query is closed before the next batch is read.
+		 */
+		void cancel();
+
+	}
+
+	/**
+	 * Called before the query is executed. No batch is delivered until one is requested.
+	 */
+	void onSubscribe(Subscription subscription);
+
+	/**
+	 * @param rows the next rows, at most the batch size; the list isn't used by the stream afterwards
+	 */
+	void onBatch(List<R> rows);
+
+}
@@ -0,0 +1,32 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.async;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Work executed by {@link AsyncDataSource#execute(ConnectionCallback)} with a connection.
+ *
+ * @author Peter Van den Bosch
+ */
+public interface ConnectionCallback<T> {
+
+	/**
+	 * @param connection the connection, closed when the method returns
+	 * @return the result of the {@link AsyncResult}
+	 */
+	T doInConnection(Connection connection) throws SQLException;
+
+}
@@ -0,0 +1,258 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.batch;
+
+import java.lang.reflect.Method;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.CompositeInvocationHandler;
+import net.sf.jdbcwrappers.Invocation;
+import net.sf.jdbcwrappers.SqlFingerprint;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} turning consecutive <tt>executeUpdate()</tt> calls on the
+ * same prepared statement into a JDBC batch.
+ * <p>
+ * The statements to batch are configured by SQL text and matched by {@link SqlFingerprint fingerprint}.
+ * They must only be used by code that ignores the update counts: when auto-commit is off, their
+ * <tt>executeUpdate()</tt> adds the current parameters to the batch of the statement and returns 1
+ * without executing anything. The batch is executed when it reaches the configured size, and before
+ * any other statement of the same connection is executed, before the transaction is committed (or a
+ * savepoint is set or released, or auto-commit is enabled), and before the statement is closed or used
+ * for anything but another <tt>executeUpdate()</tt>. A rollback or closing the connection discards it.
+ * <p>
+ * Consequently, errors (e.g. constraint violations) of batched updates are thrown by the call executing
+ * the batch, as a {@link java.sql.BatchUpdateException}. Statements with auto-generated keys, callable
+ * statements and statements of connections not obtained from the wrapped {@link DataSource} are never
+ * batched.
+ * <p>
+ * The batches are executed directly on the target statements. Interceptors combined with this one in a
+ * {@link net.sf.jdbcwrappers.CompositeWrapperFactory} should therefore precede it: they see the calls
+ * as made by the application.
+ *
+ * @author Peter Van den Bosch
+ */
+public class AutoBatchingWrapperFactory extends AbstractInterceptor {
+	// state of statements that are not batched
+	private static final Object NOT_BATCHED = new Object();
+	private static final Integer DEFERRED_UPDATE_COUNT = 1;
+
+	/**
+	 * State kept for connections.
+	 */
+	private static class ConnectionState {
+		boolean autoCommit;
+		// the statement with a pending batch, if any
+		StatementState pending;
+
+		ConnectionState(boolean autoCommit) {
+			this.autoCommit = autoCommit;
+		}
+	}
+
+	/**
+	 * State kept for batched statements.
+	 */
+	private static class StatementState {
+		final PreparedStatement target;
+		final ConnectionState connectionState;
+		// number of deferred updates in the pending batch
+		int batchSize;
+
+		StatementState(PreparedStatement target, ConnectionState connectionState) {
+			this.target = target;
+			this.connectionState = connectionState;
+		}
+	}
+
+	private Set<String> statements = Collections.emptySet();
+	private int batchSize = 100;
+	private final AtomicLong deferredUpdates = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+
+	/**
+	 * @param statements the SQL text of the statements whose updates may be batched
+	 */
+	public void setStatements(Collection<String> statements) {
+		Set<String> fingerprints = new HashSet<String>();
+		for (String statement : statements) {
+			fingerprints.add(SqlFingerprint.of(statement));
+		}
+		this.statements = fingerprints;
+	}
+
+	/**
+	 * @param batchSize the number of updates from which a batch is executed (default 100)
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @return the number of <tt>executeUpdate()</tt> calls that were added to a batch
+	 */
+	public long getDeferredUpdates() {
+		return deferredUpdates.get();
+	}
+
+	/**
+	 * @return the number of batches executed
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		String name = method.getName();
+		if (Connection.class.equals(jdbcClass)) {
+			return name.equals("prepareStatement") || name.equals("commit") || name.equals("rollback") || name.equals("setAutoCommit")
+					|| name.equals("setSavepoint") || name.equals("releaseSavepoint") || name.equals("close");
+		} else if (Statement.class.isAssignableFrom(jdbcClass)) {
+			return name.startsWith("execute") || name.equals("addBatch") || name.equals("clearBatch") || name.equals("close");
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		return DataSource.class.equals(jdbcClass) || Connection.class.equals(jdbcClass) || Statement.class.isAssignableFrom(jdbcClass);
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		if (Connection.class.equals(invocation.getJdbcClass())) {
+			return invokeConnection(invocation);
+		}
+		CompositeInvocationHandler parent = invocation.getHandler().getParent();
+		ConnectionState connectionState = parent != null && Connection.class.equals(parent.getJdbcClass())
+				? (ConnectionState) invocation.getState(parent) : null;
+		if (connectionState == null) {
+			// a statement of a connection that wasn't obtained from the wrapped data source
+			return invocation.proceed();
+		}
+		Object state = invocation.getState();
+		if (state == null) {
+			state = isBatchable(invocation) ? new StatementState((PreparedStatement) invocation.getTarget(), connectionState) : NOT_BATCHED;
+			invocation.setState(state);
+		}
+		String name = invocation.getMethod().getName();
+		if (state != NOT_BATCHED && name.equals("executeUpdate") && invocation.getArgs() == null && !connectionState.autoCommit) {
+			return deferUpdate((StatementState) state);
+		}
+		if (name.startsWith("execute")) {
+			flush(connectionState);
+		} else if (state != NOT_BATCHED && connectionState.pending == state) {
+			// addBatch, clearBatch or close of the statement with the pending batch
+			try {
+				flush(connectionState);
+			} catch (SQLException ex) {
+				if (name.equals("close")) {
+					invocation.proceed();
+				}
+				throw ex;
+			}
+		}
+		return invocation.proceed();
+	}
+
+	private boolean isBatchable(Invocation invocation) {
+		CompositeInvocationHandler handler = invocation.getHandler();
+		String sql = handler.getOriginSql();
+		return sql != null && PreparedStatement.class.isAssignableFrom(handler.getJdbcClass())
+				&& !CallableStatement.class.isAssignableFrom(handler.getJdbcClass())
+				// prepareStatement(String, int) and the variants with key columns request generated keys
+				&& handler.getOriginArgs().length != 2 && statements.contains(SqlFingerprint.of(sql));
+	}
+
+	private Object deferUpdate(StatementState state) throws SQLException {
+		ConnectionState connectionState = state.connectionState;
+		if (connectionState.pending != state) {
+			flush(connectionState);
+		}
+		state.target.addBatch();
+		state.batchSize++;
+		connectionState.pending = state;
+		deferredUpdates.incrementAndGet();
+		if (state.batchSize >= batchSize) {
+			flush(connectionState);
+		}
+		return DEFERRED_UPDATE_COUNT;
+	}
+
+	/**
+	 * Execute the pending batch of a connection, if any.
+	 */
+	private void flush(ConnectionState connectionState) throws SQLException {
+		StatementState state = connectionState.pending;
+		if (state == null) {
+			return;
+		}
+		connectionState.pending = null;
+		state.batchSize = 0;
+		batches.incrementAndGet();
+		state.target.executeBatch();
+	}
+
+	/**
+	 * Discard the pending batch of a connection, if any.
+	 */
+	private static void discard(ConnectionState connectionState) {
+		StatementState state = connectionState.pending;
+		if (state == null) {
+			return;
+		}
+		connectionState.pending = null;
+		state.batchSize = 0;
+		try {
+			state.target.clearBatch();
+		} catch (SQLException ex) {
+			// ignore; the statement is most likely closed together with its connection
+		}
+	}
+
+	private Object invokeConnection(Invocation invocation) throws Throwable {
+		ConnectionState state = (ConnectionState) invocation.getState();
+		if (state == null) {
+			state = new ConnectionState(((Connection) invocation.getTarget()).getAutoCommit());
+			invocation.setState(state);
+		}
+		String name = invocation.getMethod().getName();
+		Object[] args = invocation.getArgs();
+		if (name.equals("close") || (name.equals("rollback") && args == null)) {
+			discard(state);
+		} else if (!name.equals("prepareStatement")) {
+			flush(state);
+		}
+		Object result = invocation.proceed();
+		if (name.equals("setAutoCommit")) {
+			state.autoCommit = (Boolean) args[0];
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.batch;
+
+/**
+ * A single row <tt>INSERT ... VALUES (...)</tt> statement that can be rewritten to insert several rows.
+ * <p>
+ * This is not a parser: the statement is accepted if it starts with <tt>INSERT</tt>, contains no
+ * parameter markers before the (only) top level <tt>VALUES</tt> keyword, and ends with the single
+ * parenthesized row following it. Anything else, e.g. <tt>INSERT ... SELECT</tt>, several rows or
+ * trailing clauses, is rejected.
+ *
+ * @author Peter Van den Bosch
+ */
+final class MultiRowInsert {
+	private final String prefix;
+	private final String row;
+	private final int parameterCount;
+
+	private MultiRowInsert(String prefix, String row, int parameterCount) {
+		this.prefix = prefix;
+		this.row = row;
+		this.parameterCount = parameterCount;
+	}
+
+	/**
+	 * @return the statement, or null if it can't be rewritten
+	 */
+	static MultiRowInsert parse(String sql) {
+		int length = sql.length();
+		int i = 0;
+		boolean first = true;
+		while (i < length) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '\'' || c == '"') {
+				i = skipQuoted(sql, i);
+			} else if (Character.isLetter(c) || c == '_') {
+				int start = i;
+				while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')) {
+					i++;
+				}
+				String word = sql.substring(start, i);
+				if (first && !word.equalsIgnoreCase("INSERT")) {
+					return null;
+				}
+				first = false;
+				if (word.equalsIgnoreCase("VALUES")) {
+					return parseRow(sql, sql.substring(0, i), i);
+				}
+			} else if (c == '?' || first) {
+				// a parameter in the column list (or a statement not starting with INSERT)
+				return null;
+			} else if (c == '(') {
+				// column list
+				i = skipParentheses(sql, i);
+				if (i < 0) {
+					return null;
+				}
+			} else if (c == '-' || c == '/' || c == ';') {
+				// comments and statement separators
+				return null;
+			} else {
+				i++;
+			}
+		}
+		return null;
+	}
+
+	private static MultiRowInsert parseRow(String sql, String prefix, int start) {
+		int length = sql.length();
+		int i = start;
+		while (i < length && Character.isWhitespace(sql.charAt(i))) {
+			i++;
+		}
+		if (i == length || sql.charAt(i) != '(') {
+			return null;
+		}
+		int rowStart = i;
+		int end = skipParentheses(sql, i);
+		if (end < 0) {
+			return null;
+		}
+		for (int j = end; j < length; j++) {
+			if (!Character.isWhitespace(sql.charAt(j))) {
+				return null;
+			}
+		}
+		String row = sql.substring(rowStart, end);
+		int parameterCount = 0;
+		i = 0;
+		while (i < row.length()) {
+			char c = row.charAt(i);
+			if (c == '\'' || c == '"') {
+				i = skipQuoted(row, i);
+			} else {
+				if (c == '?') {
+					parameterCount++;
+				} else if ((c == '-' || c == '/') && i + 1 < row.length() && (row.charAt(i + 1) == '-' || row.charAt(i + 1) == '*')) {
+					return null;
+				}
+				i++;
+			}
+		}
+		return parameterCount == 0 ? null : new MultiRowInsert(prefix, row, parameterCount);
+	}
+
+	/**
+	 * @return the index following the literal or quoted identifier starting at <tt>start</tt>
+	 */
+	private static int skipQuoted(String sql, int start) {
+		char quote = sql.charAt(start);
+		int i = sql.indexOf(quote, start + 1);
+		while (i >= 0 && i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+			i = sql.indexOf(quote, i + 2);
+		}
+		return i < 0 ? sql.length() : i + 1;
+	}
+
+	/**
+	 * @return the index following the parenthesis matching the one at <tt>start</tt>, or -1 if there is none
+	 */
+	private static int skipParentheses(String sql, int start) {
+		int depth = 0;
+		int i = start;
+		while (i < sql.length()) {
+			char c = sql.charAt(i);
+			if (c == '\'' || c == '"') {
+				i = skipQuoted(sql, i);
+				continue;
+			}
+			if (c == '(') {
+				depth++;
+			} else if (c == ')' && --depth == 0) {
+				return i + 1;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of parameters of a single row
+	 */
+	int getParameterCount() {
+		return parameterCount;
+	}
+
+	/**
+	 * @return the SQL text inserting the given number of rows
+	 */
+	String getSql(int rows) {
+		StringBuilder sql = new StringBuilder(prefix.length() + (row.length() + 2) * rows);
+		sql.append(prefix).append(' ');
+		for (int i = 0; i < rows; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append(row);
+		}
+		return sql.toString();
+	}
+
+}
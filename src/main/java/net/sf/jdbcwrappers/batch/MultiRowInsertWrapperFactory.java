@@ -0,0 +1,272 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.batch;
+
+import java.lang.reflect.Method;
+import java.sql.BatchUpdateException;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.CompositeInvocationHandler;
+import net.sf.jdbcwrappers.Invocation;
+import net.sf.jdbcwrappers.MethodDispatcher;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} executing batches of single row <tt>INSERT ... VALUES (...)</tt>
+ * prepared statements as multi-row inserts.
+ * <p>
+ * Many drivers execute each row of a batch separately. For prepared statements whose SQL text can
+ * be rewritten (see {@link MultiRowInsert}), the rows added to the batch are recorded instead, and
+ * <tt>executeBatch</tt> inserts them with <tt>INSERT ... VALUES (...), (...), ...</tt> statements of
+ * as many rows as the configured maximum number of rows and parameters allow. The update counts are
+ * expanded to one per row: 1 if the statement inserted as many rows as it contained, {@link
+ * Statement#SUCCESS_NO_INFO} otherwise. If a statement fails, a {@link BatchUpdateException} is thrown
+ * with the update counts of the statements executed before it.
+ * <p>
+ * Batches of a single row, and batches of statements that can't be rewritten, are executed as usual.
+ * The multi-row statements are prepared on the connection of the batched statement and don't inherit
+ * its properties (e.g. the query timeout).
+ *
+ * @author Peter Van den Bosch
+ */
+public class MultiRowInsertWrapperFactory extends AbstractInterceptor {
+	// state of statements that are not rewritten
+	private static final Object NOT_REWRITTEN = new Object();
+
+	/**
+	 * A recorded call setting a parameter.
+	 */
+	private static class Setter {
+		final MethodDispatcher dispatcher;
+		final Object[] args;
+
+		Setter(MethodDispatcher dispatcher, Object[] args) {
+			this.dispatcher = dispatcher;
+			this.args = args;
+		}
+
+		void apply(PreparedStatement statement, int offset) throws Throwable {
+			Object[] shiftedArgs = args.clone();
+			shiftedArgs[0] = (Integer) args[0] + offset;
+			dispatcher.invoke(statement, shiftedArgs);
+		}
+	}
+
+	/**
+	 * State kept for rewritten statements.
+	 */
+	private static class StatementState {
+		final MultiRowInsert insert;
+		// the current parameters, by index
+		final Setter[] parameters;
+		final List<Setter[]> rows = new ArrayList<Setter[]>();
+		// statement inserting the maximum number of rows at once, prepared by the first batch needing it
+		PreparedStatement chunkStatement;
+
+		StatementState(MultiRowInsert insert) {
+			this.insert = insert;
+			this.parameters = new Setter[insert.getParameterCount()];
+		}
+	}
+
+	private int maxRows = 100;
+	private int maxParameters = 2000;
+	private final AtomicLong rewrittenBatches = new AtomicLong();
+	private final AtomicLong executedInserts = new AtomicLong();
+
+	/**
+	 * @param maxRows the maximum number of rows inserted by a single statement (default 100)
+	 */
+	public void setMaxRows(int maxRows) {
+		this.maxRows = maxRows;
+	}
+
+	/**
+	 * @param maxParameters the maximum number of parameters of a single statement, which must not exceed
+	 *        the limit of the driver (default 2000)
+	 */
+	public void setMaxParameters(int maxParameters) {
+		this.maxParameters = maxParameters;
+	}
+
+	/**
+	 * @return the number of batches executed as multi-row inserts
+	 */
+	public long getRewrittenBatches() {
+		return rewrittenBatches.get();
+	}
+
+	/**
+	 * @return the number of multi-row insert statements executed
+	 */
+	public long getExecutedInserts() {
+		return executedInserts.get();
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		if (!PreparedStatement.class.isAssignableFrom(jdbcClass) || CallableStatement.class.isAssignableFrom(jdbcClass)) {
+			return false;
+		}
+		String name = method.getName();
+		if (name.equals("addBatch") || name.equals("clearBatch") || name.equals("executeBatch") || name.equals("executeLargeBatch")
+				|| name.equals("clearParameters") || name.equals("close")) {
+			return true;
+		}
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		return name.startsWith("set") && parameterTypes.length >= 2 && parameterTypes[0] == int.class;
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		return DataSource.class.equals(jdbcClass) || Connection.class.equals(jdbcClass)
+				|| (PreparedStatement.class.equals(jdbcClass) && origin.getName().equals("prepareStatement"));
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		Object state = invocation.getState();
+		if (state == null) {
+			state = createState(invocation.getHandler());
+			invocation.setState(state);
+		}
+		if (state == NOT_REWRITTEN) {
+			return invocation.proceed();
+		}
+		StatementState statementState = (StatementState) state;
+		String name = invocation.getMethod().getName();
+		Object[] args = invocation.getArgs();
+		if (name.equals("addBatch")) {
+			if (args != null || Arrays.asList(statementState.parameters).contains(null)) {
+				// let the driver report the error
+				return invocation.proceed();
+			}
+			statementState.rows.add(statementState.parameters.clone());
+			return null;
+		} else if (name.equals("executeBatch") || name.equals("executeLargeBatch")) {
+			int[] updateCounts = executeBatch(invocation, statementState);
+			if (name.equals("executeBatch")) {
+				return updateCounts;
+			}
+			long[] largeUpdateCounts = new long[updateCounts.length];
+			for (int i = 0; i < updateCounts.length; i++) {
+				largeUpdateCounts[i] = updateCounts[i];
+			}
+			return largeUpdateCounts;
+		}
+		Object result = invocation.proceed();
+		if (name.equals("clearBatch")) {
+			statementState.rows.clear();
+		} else if (name.equals("clearParameters")) {
+			Arrays.fill(statementState.parameters, null);
+		} else if (name.equals("close")) {
+			statementState.rows.clear();
+			if (statementState.chunkStatement != null) {
+				statementState.chunkStatement.close();
+				statementState.chunkStatement = null;
+			}
+		} else {
+			int index = (Integer) args[0];
+			if (index >= 1 && index <= statementState.parameters.length) {
+				statementState.parameters[index - 1] = new Setter(invocation.getDispatcher(), args.clone());
+			}
+		}
+		return result;
+	}
+
+	private static Object createState(CompositeInvocationHandler handler) {
+		CompositeInvocationHandler parent = handler.getParent();
+		Object[] originArgs = handler.getOriginArgs();
+		// prepareStatement(String, int) and the variants with key columns request generated keys
+		if (parent == null || !Connection.class.equals(parent.getJdbcClass()) || originArgs == null || originArgs.length == 2) {
+			return NOT_REWRITTEN;
+		}
+		MultiRowInsert insert = MultiRowInsert.parse((String) originArgs[0]);
+		return insert == null ? NOT_REWRITTEN : new StatementState(insert);
+	}
+
+	private int[] executeBatch(Invocation invocation, StatementState state) throws Throwable {
+		List<Setter[]> rows = state.rows;
+		int parameterCount = state.insert.getParameterCount();
+		int chunkSize = Math.min(maxRows, maxParameters / parameterCount);
+		PreparedStatement target = (PreparedStatement) invocation.getTarget();
+		try {
+			if (rows.size() < 2 || chunkSize < 2) {
+				// execute the batch as usual
+				for (Setter[] row : rows) {
+					apply(row, target, 0);
+					target.addBatch();
+				}
+				if (!rows.isEmpty()) {
+					// restore the current parameters
+					apply(state.parameters, target, 0);
+				}
+				return (int[]) invocation.proceed();
+			}
+			rewrittenBatches.incrementAndGet();
+			Connection connection = (Connection) invocation.getHandler().getParent().getTarget();
+			int[] updateCounts = new int[rows.size()];
+			int offset = 0;
+			while (offset < rows.size()) {
+				int count = Math.min(chunkSize, rows.size() - offset);
+				PreparedStatement statement;
+				if (count == chunkSize) {
+					if (state.chunkStatement == null) {
+						state.chunkStatement = connection.prepareStatement(state.insert.getSql(chunkSize));
+					}
+					statement = state.chunkStatement;
+				} else {
+					statement = connection.prepareStatement(state.insert.getSql(count));
+				}
+				try {
+					for (int i = 0; i < count; i++) {
+						apply(rows.get(offset + i), statement, i * parameterCount);
+					}
+					int inserted = statement.executeUpdate();
+					executedInserts.incrementAndGet();
+					Arrays.fill(updateCounts, offset, offset + count, inserted == count ? 1 : Statement.SUCCESS_NO_INFO);
+				} catch (SQLException ex) {
+					throw new BatchUpdateException(ex.getMessage(), ex.getSQLState(), ex.getErrorCode(), Arrays.copyOf(updateCounts, offset), ex);
+				} finally {
+					if (statement != state.chunkStatement) {
+						statement.close();
+					}
+				}
+				offset += count;
+			}
+			return updateCounts;
+		} finally {
+			rows.clear();
+		}
+	}
+
+	private static void apply(Setter[] row, PreparedStatement statement, int offset) throws Throwable {
+		for (Setter setter : row) {
+			if (setter != null) {
+				setter.apply(statement, offset);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.sf.jdbcwrappers.trim.TrimmingWrapperFactory;
+
+/**
+ * The rows of a result set, read into memory. Instances are immutable and can be replayed
+ * concurrently by several {@link MemoryResultSet}s.
+ *
+ * @author Peter Van den Bosch
+ */
+final class CachedRows {
+	private final MemoryResultSetMetaData metaData;
+	private final int type;
+	private final List<Object[]> rows;
+	private final boolean complete;
+	private final boolean[] trimmed;
+
+	private CachedRows(MemoryResultSetMetaData metaData, int type, List<Object[]> rows, boolean complete, boolean[] trimmed) {
+		this.metaData = metaData;
+		this.type = type;
+		this.rows = Collections.unmodifiableList(rows);
+		this.complete = complete;
+		this.trimmed = trimmed;
+	}
+
+	/**
+	 * @return true if the values of all columns can be kept after the result set is closed
+	 */
+	static boolean isCacheable(ResultSetMetaData metaData) throws SQLException {
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			switch (metaData.getColumnType(i)) {
+				case Types.ARRAY:
+				case Types.STRUCT:
+				case Types.REF:
+				case Types.DISTINCT:
+				case Types.JAVA_OBJECT:
+				case Types.OTHER:
+				case Types.DATALINK:
+				case Types.SQLXML:
+				case Types.ROWID:
+				// Types.REF_CURSOR (Java 8)
+				case 2012:
+					return false;
+				default:
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read the rows of a result set. LOBs are read into strings and byte arrays. If there are more than
+	 * <tt>maxRows</tt> rows, the result is incomplete and the result set is left on the first row that wasn't read.
+	 *
+	 * @param trimCharColumns whether to trim the values of <tt>CHAR</tt> columns
+	 */
+	static CachedRows read(ResultSet resultSet, int maxRows, boolean trimCharColumns) throws SQLException {
+		MemoryResultSetMetaData metaData = new MemoryResultSetMetaData(resultSet.getMetaData());
+		boolean[] trimmed = getTrimmedColumns(metaData, trimCharColumns);
+		List<Object[]> rows = new ArrayList<Object[]>();
+		boolean complete = true;
+		while (resultSet.next()) {
+			if (rows.size() == maxRows) {
+				complete = false;
+				break;
+			}
+			rows.add(readRow(resultSet, trimmed));
+		}
+		return new CachedRows(metaData, resultSet.getType(), rows, complete, trimmed);
+	}
+
+	/**
+	 * @param trimCharColumns whether to trim the values of <tt>CHAR</tt> columns
+	 * @return for each column, whether {@link #readRow(ResultSet, boolean[])} must trim its values
+	 */
+	static boolean[] getTrimmedColumns(MemoryResultSetMetaData metaData, boolean trimCharColumns) throws SQLException {
+		int columnCount = metaData.getColumnCount();
+		boolean[] trimmed = new boolean[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			int type = metaData.getColumnType(i + 1);
+			trimmed[i] = trimCharColumns && (type == Types.CHAR || type == Types.NCHAR);
+		}
+		return trimmed;
+	}
+
+	/**
+	 * Read the values of the current row of a result set. LOBs are read into strings and byte arrays.
+	 *
+	 * @param trimmed for each column, whether to trim its values
+	 */
+	static Object[] readRow(ResultSet resultSet, boolean[] trimmed) throws SQLException {
+		Object[] row = new Object[trimmed.length];
+		for (int i = 0; i < trimmed.length; i++) {
+			Object value = resultSet.getObject(i + 1);
+			if (value instanceof Clob) {
+				Clob clob = (Clob) value;
+				value = clob.getSubString(1, (int) clob.length());
+			} else if (value instanceof Blob) {
+				Blob blob = (Blob) value;
+				value = blob.getBytes(1, (int) blob.length());
+			} else if (trimmed[i] && value instanceof String) {
+				value = TrimmingWrapperFactory.trim((String) value);
+			}
+			row[i] = value;
+		}
+		return row;
+	}
+
+	MemoryResultSetMetaData getMetaData() {
+		return metaData;
+	}
+
+	/**
+	 * @return the column index, or 0 if there is no column with the given label
+	 */
+	int findColumn(String label) {
+		return metaData.findColumn(label);
+	}
+
+	/**
+	 * @return whether the values of the column (starting at 1) were trimmed; false for an invalid index
+	 */
+	boolean isTrimmed(int column) {
+		return column >= 1 && column <= trimmed.length && trimmed[column - 1];
+	}
+
+	int getType() {
+		return type;
+	}
+
+	List<Object[]> getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return false if the result set had more rows than read
+	 */
+	boolean isComplete() {
+		return complete;
+	}
+
+}
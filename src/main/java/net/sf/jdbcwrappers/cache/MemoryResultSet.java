@@ -0,0 +1,357 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.List;
+
+import net.sf.jdbcwrappers.ProxyHelper;
+import net.sf.jdbcwrappers.trim.TrimmingWrapperFactory;
+
+/**
+ * Invocation handler of a read-only {@link ResultSet} replaying {@link CachedRows}.
+ * <p>
+ * Scrolling is supported regardless of the result set type. Values are converted by the getters
+ * the way most drivers do; calendars passed to the date and time getters are ignored, since the
+ * values were read in the default time zone. LOBs, arrays and other locators are not supported.
+ * <p>
+ * If the rows are {@link CachedRows#isComplete() incomplete}, the remaining rows are read from
+ * the original result set once the cached rows are exhausted. The strings and character streams
+ * read from the columns whose cached values were trimmed are trimmed as well.
+ *
+ * @author Peter Van den Bosch
+ */
+class MemoryResultSet implements InvocationHandler {
+	private final CachedRows cachedRows;
+	private final List<Object[]> rows;
+	private final Statement statement;
+	private final ResultSet remainder;
+	private Object proxy;
+	// 0 is before the first row, rows.size()+1 after the last row
+	private int position;
+	private boolean onRemainder;
+	private boolean wasNull;
+	private boolean closed;
+
+	private MemoryResultSet(CachedRows cachedRows, Statement statement, ResultSet remainder) {
+		this.cachedRows = cachedRows;
+		this.rows = cachedRows.getRows();
+		this.statement = statement;
+		this.remainder = remainder;
+	}
+
+	/**
+	 * @param statement the statement to be returned by {@link ResultSet#getStatement()}
+	 * @param remainder the result set positioned on the row following the cached rows, or null if the rows are complete
+	 */
+	static ResultSet create(CachedRows cachedRows, Statement statement, ResultSet remainder) {
+		MemoryResultSet handler = new MemoryResultSet(cachedRows, statement, remainder);
+		ResultSet proxy = ProxyHelper.createProxy(ResultSet.class, handler);
+		handler.proxy = proxy;
+		return proxy;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (method.getDeclaringClass() == Object.class) {
+			if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else {
+				return "MemoryResultSet[" + rows.size() + " rows]";
+			}
+		}
+		if (name.equals("close")) {
+			closed = true;
+			if (remainder != null) {
+				remainder.close();
+			}
+			return null;
+		} else if (name.equals("isClosed")) {
+			return closed;
+		} else if (closed) {
+			throw new SQLException("ResultSet is closed");
+		} else if (name.equals("getStatement")) {
+			return statement;
+		} else if (name.equals("getMetaData")) {
+			return cachedRows.getMetaData();
+		} else if (onRemainder) {
+			return invokeRemainder(method, args);
+		} else if (name.startsWith("get") && args != null && (args[0] instanceof Integer || args[0] instanceof String)) {
+			return getValue(method, args);
+		} else {
+			return invokeOther(method, args);
+		}
+	}
+
+	private Object invokeRemainder(Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (name.startsWith("get") && args != null && (args[0] instanceof Integer || args[0] instanceof String)) {
+			int column = args[0] instanceof Integer ? (Integer) args[0] : cachedRows.findColumn((String) args[0]);
+			if (cachedRows.isTrimmed(column)) {
+				if (name.equals("getCharacterStream") || name.equals("getNCharacterStream")) {
+					String value = remainder.getString(column);
+					return value == null ? null : new StringReader(TrimmingWrapperFactory.trim(value));
+				}
+				Object value = invokeRemainderTarget(method, args);
+				return value instanceof String ? TrimmingWrapperFactory.trim((String) value) : value;
+			}
+		}
+		return invokeRemainderTarget(method, args);
+	}
+
+	private Object invokeRemainderTarget(Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(remainder, args);
+		} catch (InvocationTargetException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	private Object invokeOther(Method method, Object[] args) throws SQLException {
+		String name = method.getName();
+		int size = rows.size();
+		if (name.equals("next")) {
+			if (position < size) {
+				position++;
+				return true;
+			}
+			position = size + 1;
+			if (remainder != null) {
+				// the remainder is already on its first row
+				onRemainder = true;
+				return true;
+			}
+			return false;
+		} else if (name.equals("previous")) {
+			position = Math.max(position - 1, 0);
+			return position >= 1;
+		} else if (name.equals("first") || name.equals("last") || name.equals("absolute") || name.equals("relative")
+				|| name.equals("beforeFirst") || name.equals("afterLast")) {
+			checkScrollable();
+			int row;
+			if (name.equals("first")) {
+				row = 1;
+			} else if (name.equals("last")) {
+				row = size;
+			} else if (name.equals("absolute")) {
+				int n = (Integer) args[0];
+				row = n >= 0 ? n : size + 1 + n;
+			} else if (name.equals("relative")) {
+				row = position + (Integer) args[0];
+			} else if (name.equals("beforeFirst")) {
+				row = 0;
+			} else {
+				row = size + 1;
+			}
+			position = Math.max(0, Math.min(row, size + 1));
+			return method.getReturnType() == void.class ? null : (Object) (position >= 1 && position <= size);
+		} else if (name.equals("isBeforeFirst")) {
+			return position == 0 && size > 0;
+		} else if (name.equals("isAfterLast")) {
+			return position > size && size > 0;
+		} else if (name.equals("isFirst")) {
+			return position == 1 && size > 0;
+		} else if (name.equals("isLast")) {
+			return position == size && size > 0 && remainder == null;
+		} else if (name.equals("getRow")) {
+			return position <= size ? position : 0;
+		} else if (name.equals("wasNull")) {
+			return wasNull;
+		} else if (name.equals("findColumn")) {
+			return findColumn((String) args[0]);
+		} else if (name.equals("getType")) {
+			return remainder == null ? ResultSet.TYPE_SCROLL_INSENSITIVE : cachedRows.getType();
+		} else if (name.equals("getConcurrency")) {
+			return ResultSet.CONCUR_READ_ONLY;
+		} else if (name.equals("getHoldability")) {
+			return ResultSet.HOLD_CURSORS_OVER_COMMIT;
+		} else if (name.equals("getFetchSize")) {
+			return 0;
+		} else if (name.equals("getFetchDirection")) {
+			return ResultSet.FETCH_FORWARD;
+		} else if (name.equals("setFetchSize") || name.equals("setFetchDirection") || name.equals("clearWarnings")) {
+			return null;
+		} else if (name.equals("getWarnings")) {
+			return null;
+		} else if (name.equals("rowUpdated") || name.equals("rowInserted") || name.equals("rowDeleted")) {
+			return false;
+		} else if (name.equals("isWrapperFor")) {
+			return ((Class<?>) args[0]).isInstance(proxy);
+		} else if (name.equals("unwrap")) {
+			if (((Class<?>) args[0]).isInstance(proxy)) {
+				return proxy;
+			}
+			throw new SQLException("Not a wrapper for " + args[0]);
+		} else if (name.startsWith("update") || name.endsWith("Row") || name.equals("moveToCurrentRow") || name.equals("cancelRowUpdates")) {
+			throw new SQLException("The result set is read-only");
+		} else {
+			throw new SQLFeatureNotSupportedException(name + " is not supported by cached result sets");
+		}
+	}
+
+	private void checkScrollable() throws SQLException {
+		if (remainder != null) {
+			throw new SQLException("The result set is forward only");
+		}
+	}
+
+	private int findColumn(String label) throws SQLException {
+		int column = cachedRows.findColumn(label);
+		if (column == 0) {
+			throw new SQLException("Column not found: " + label);
+		}
+		return column;
+	}
+
+	private Object getValue(Method method, Object[] args) throws SQLException {
+		if (position < 1 || position > rows.size()) {
+			throw new SQLException("Not on a row");
+		}
+		Object[] row = rows.get(position - 1);
+		int column = args[0] instanceof Integer ? (Integer) args[0] : findColumn((String) args[0]);
+		if (column < 1 || column > row.length) {
+			throw new SQLException("Invalid column index " + column);
+		}
+		Object value = row[column - 1];
+		wasNull = value == null;
+		return getValue(value, method, args);
+	}
+
+	/**
+	 * Convert a value to the type returned by a getter.
+	 *
+	 * @param method the getter
+	 * @param args the arguments of the getter, the first one being the column
+	 */
+	static Object getValue(Object value, Method method, Object[] args) throws SQLException {
+		Class<?> type = method.getReturnType();
+		String name = method.getName();
+		if (name.equals("getObject") && args.length == 2 && args[1] instanceof Class) {
+			// getObject(column, Class)
+			type = (Class<?>) args[1];
+		} else if (name.equals("getCharacterStream") || name.equals("getNCharacterStream")) {
+			return value == null ? null : new StringReader(value.toString());
+		} else if (name.equals("getAsciiStream") || name.equals("getBinaryStream")) {
+			if (value == null) {
+				return null;
+			}
+			byte[] bytes = value instanceof byte[] ? (byte[]) value
+					: value.toString().getBytes(name.equals("getAsciiStream") ? StandardCharsets.US_ASCII : StandardCharsets.UTF_8);
+			return new ByteArrayInputStream(bytes);
+		}
+		Object result = convert(value, type, name);
+		if (result instanceof BigDecimal && args.length == 2 && args[1] instanceof Integer) {
+			// deprecated getBigDecimal(column, scale)
+			result = ((BigDecimal) result).setScale((Integer) args[1], RoundingMode.HALF_UP);
+		}
+		return result;
+	}
+
+	private static Object convert(Object value, Class<?> type, String getter) throws SQLException {
+		if (value == null) {
+			if (type == boolean.class) {
+				return false;
+			} else if (type.isPrimitive()) {
+				return convert(0, type, getter);
+			} else {
+				return null;
+			}
+		}
+		if (type == Object.class || type.isInstance(value)) {
+			// the cached rows are shared by all replays: don't hand out mutable values
+			if (value instanceof java.util.Date) {
+				return ((java.util.Date) value).clone();
+			} else if (value instanceof byte[]) {
+				return ((byte[]) value).clone();
+			}
+			return value;
+		}
+		if (type == String.class) {
+			return value.toString();
+		}
+		if (type == boolean.class || type == Boolean.class) {
+			if (value instanceof Number) {
+				return ((Number) value).intValue() != 0;
+			}
+			String string = value.toString().trim();
+			return string.equals("1") || string.equalsIgnoreCase("true");
+		}
+		if (value instanceof Boolean) {
+			value = (Boolean) value ? 1 : 0;
+		}
+		if (type.isPrimitive() || Number.class.isAssignableFrom(type)) {
+			Number number;
+			try {
+				number = value instanceof Number ? (Number) value : new BigDecimal(value.toString().trim());
+			} catch (NumberFormatException ex) {
+				throw new SQLException("Can't convert '" + value + "' with " + getter);
+			}
+			if (type == int.class || type == Integer.class) {
+				return number.intValue();
+			} else if (type == long.class || type == Long.class) {
+				return number.longValue();
+			} else if (type == double.class || type == Double.class) {
+				return number.doubleValue();
+			} else if (type == float.class || type == Float.class) {
+				return number.floatValue();
+			} else if (type == short.class || type == Short.class) {
+				return number.shortValue();
+			} else if (type == byte.class || type == Byte.class) {
+				return number.byteValue();
+			} else if (type == BigDecimal.class) {
+				return number instanceof BigDecimal ? number : new BigDecimal(number.toString());
+			}
+		}
+		if (value instanceof java.util.Date) {
+			long time = ((java.util.Date) value).getTime();
+			if (type == java.sql.Date.class) {
+				return new java.sql.Date(time);
+			} else if (type == java.sql.Time.class) {
+				return new java.sql.Time(time);
+			} else if (type == java.sql.Timestamp.class) {
+				return new java.sql.Timestamp(time);
+			}
+		} else if (value instanceof String) {
+			try {
+				if (type == java.sql.Date.class) {
+					return java.sql.Date.valueOf(((String) value).trim());
+				} else if (type == java.sql.Time.class) {
+					return java.sql.Time.valueOf(((String) value).trim());
+				} else if (type == java.sql.Timestamp.class) {
+					return java.sql.Timestamp.valueOf(((String) value).trim());
+				} else if (type == byte[].class) {
+					return ((String) value).getBytes(StandardCharsets.UTF_8);
+				}
+			} catch (IllegalArgumentException ex) {
+				throw new SQLException("Can't convert '" + value + "' with " + getter);
+			}
+		}
+		throw new SQLFeatureNotSupportedException(getter + " is not supported for values of type " + value.getClass().getName() + " by cached result sets");
+	}
+
+}
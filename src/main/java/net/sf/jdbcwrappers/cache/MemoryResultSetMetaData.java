@@ -0,0 +1,229 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Copy of the {@link ResultSetMetaData} of a result set, so that it can be used after the result set is closed.
+ *
+ * @author Peter Van den Bosch
+ */
+class MemoryResultSetMetaData implements ResultSetMetaData {
+	private final int columnCount;
+	private final String[] labels;
+	private final String[] names;
+	private final int[] types;
+	private final String[] typeNames;
+	private final String[] classNames;
+	private final int[] precisions;
+	private final int[] scales;
+	private final int[] nullables;
+	private final int[] displaySizes;
+	private final boolean[] signed;
+	private final boolean[] autoIncrement;
+	private final boolean[] caseSensitive;
+	private final boolean[] searchable;
+	private final boolean[] currency;
+	private final String[] schemaNames;
+	private final String[] tableNames;
+	private final String[] catalogNames;
+	private final Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
+
+	MemoryResultSetMetaData(ResultSetMetaData metadata) throws SQLException {
+		columnCount = metadata.getColumnCount();
+		labels = new String[columnCount];
+		names = new String[columnCount];
+		types = new int[columnCount];
+		typeNames = new String[columnCount];
+		classNames = new String[columnCount];
+		precisions = new int[columnCount];
+		scales = new int[columnCount];
+		nullables = new int[columnCount];
+		displaySizes = new int[columnCount];
+		signed = new boolean[columnCount];
+		autoIncrement = new boolean[columnCount];
+		caseSensitive = new boolean[columnCount];
+		searchable = new boolean[columnCount];
+		currency = new boolean[columnCount];
+		schemaNames = new String[columnCount];
+		tableNames = new String[columnCount];
+		catalogNames = new String[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			int column = i + 1;
+			labels[i] = metadata.getColumnLabel(column);
+			names[i] = metadata.getColumnName(column);
+			types[i] = metadata.getColumnType(column);
+			typeNames[i] = metadata.getColumnTypeName(column);
+			classNames[i] = metadata.getColumnClassName(column);
+			precisions[i] = metadata.getPrecision(column);
+			scales[i] = metadata.getScale(column);
+			nullables[i] = metadata.isNullable(column);
+			displaySizes[i] = metadata.getColumnDisplaySize(column);
+			signed[i] = metadata.isSigned(column);
+			autoIncrement[i] = metadata.isAutoIncrement(column);
+			caseSensitive[i] = metadata.isCaseSensitive(column);
+			searchable[i] = metadata.isSearchable(column);
+			currency[i] = metadata.isCurrency(column);
+			schemaNames[i] = metadata.getSchemaName(column);
+			tableNames[i] = metadata.getTableName(column);
+			catalogNames[i] = metadata.getCatalogName(column);
+		}
+		for (int i = columnCount - 1; i >= 0; i--) {
+			// JDBC uses the first matching column
+			columnIndexes.put(labels[i].toUpperCase(Locale.ENGLISH), i + 1);
+		}
+	}
+
+	/**
+	 * @return the column index, or 0 if there is no column with the given label
+	 */
+	int findColumn(String label) {
+		Integer index = columnIndexes.get(label.toUpperCase(Locale.ENGLISH));
+		return index == null ? 0 : index;
+	}
+
+	private int index(int column) throws SQLException {
+		if (column < 1 || column > columnCount) {
+			throw new SQLException("Invalid column index " + column);
+		}
+		return column - 1;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return columnCount;
+	}
+
+	@Override
+	public String getColumnLabel(int column) throws SQLException {
+		return labels[index(column)];
+	}
+
+	@Override
+	public String getColumnName(int column) throws SQLException {
+		return names[index(column)];
+	}
+
+	@Override
+	public int getColumnType(int column) throws SQLException {
+		return types[index(column)];
+	}
+
+	@Override
+	public String getColumnTypeName(int column) throws SQLException {
+		return typeNames[index(column)];
+	}
+
+	@Override
+	public String getColumnClassName(int column) throws SQLException {
+		return classNames[index(column)];
+	}
+
+	@Override
+	public int getPrecision(int column) throws SQLException {
+		return precisions[index(column)];
+	}
+
+	@Override
+	public int getScale(int column) throws SQLException {
+		return scales[index(column)];
+	}
+
+	@Override
+	public int isNullable(int column) throws SQLException {
+		return nullables[index(column)];
+	}
+
+	@Override
+	public int getColumnDisplaySize(int column) throws SQLException {
+		return displaySizes[index(column)];
+	}
+
+	@Override
+	public boolean isSigned(int column) throws SQLException {
+		return signed[index(column)];
+	}
+
+	@Override
+	public boolean isAutoIncrement(int column) throws SQLException {
+		return autoIncrement[index(column)];
+	}
+
+	@Override
+	public boolean isCaseSensitive(int column) throws SQLException {
+		return caseSensitive[index(column)];
+	}
+
+	@Override
+	public boolean isSearchable(int column) throws SQLException {
+		return searchable[index(column)];
+	}
+
+	@Override
+	public boolean isCurrency(int column) throws SQLException {
+		return currency[index(column)];
+	}
+
+	@Override
+	public String getSchemaName(int column) throws SQLException {
+		return schemaNames[index(column)];
+	}
+
+	@Override
+	public String getTableName(int column) throws SQLException {
+		return tableNames[index(column)];
+	}
+
+	@Override
+	public String getCatalogName(int column) throws SQLException {
+		return catalogNames[index(column)];
+	}
+
+	@Override
+	public boolean isReadOnly(int column) throws SQLException {
+		index(column);
+		return true;
+	}
+
+	@Override
+	public boolean isWritable(int column) throws SQLException {
+		index(column);
+		return false;
+	}
+
+	@Override
+	public boolean isDefinitelyWritable(int column) throws SQLException {
+		index(column);
+		return false;
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException("Not a wrapper for " + iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) {
+		return iface.isInstance(this);
+	}
+
+}
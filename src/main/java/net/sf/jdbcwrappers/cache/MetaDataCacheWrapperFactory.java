@@ -0,0 +1,312 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.CompositeInvocationHandler;
+import net.sf.jdbcwrappers.Invocation;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} caching the result sets returned by {@link DatabaseMetaData}.
+ * <p>
+ * The results of the configured methods (by default <tt>getTables</tt>, <tt>getColumns</tt>,
+ * <tt>getPrimaryKeys</tt>, <tt>getImportedKeys</tt>, <tt>getExportedKeys</tt>, <tt>getCrossReference</tt>
+ * and <tt>getIndexInfo</tt>) are cached per method and arguments, for the configured time to live, and
+ * returned as read-only in-memory result sets. The cache is shared by all connections of the wrapped
+ * {@link DataSource}, so it should only be used if they all see the same schema (e.g. the same user).
+ * Results with more than the configured number of rows are not cached.
+ * <p>
+ * Schema changes (<tt>CREATE</tt>, <tt>ALTER</tt>, <tt>DROP</tt>, ...) executed through the wrapped
+ * {@link DataSource} clear the cache, and clear it again when their transaction ends; until then, the
+ * connection that made them bypasses the cache. Changes made by
+ * other applications are only seen when the results expire or after {@link #invalidate()}.
+ *
+ * @author Peter Van den Bosch
+ */
+public class MetaDataCacheWrapperFactory extends AbstractInterceptor {
+
+	/**
+	 * Cache key: method name and arguments.
+	 */
+	private static final class Key {
+		private final String method;
+		private final Object[] args;
+		private final int hashCode;
+
+		Key(String method, Object[] args) {
+			this.method = method;
+			this.args = args;
+			this.hashCode = method.hashCode() * 31 + Arrays.deepHashCode(args);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hashCode == other.hashCode && method.equals(other.method) && Arrays.deepEquals(args, other.args);
+		}
+	}
+
+	private static final class Entry {
+		final CachedRows rows;
+		final long expires;
+
+		Entry(CachedRows rows, long expires) {
+			this.rows = rows;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * State kept for connections: whether the current transaction changed the schema.
+	 */
+	private static class ConnectionState {
+		boolean schemaChanged;
+	}
+
+	private Set<String> methods = new HashSet<String>(Arrays.asList("getTables", "getColumns", "getPrimaryKeys",
+			"getImportedKeys", "getExportedKeys", "getCrossReference", "getIndexInfo"));
+	private long timeToLiveMillis = 600000;
+	private int cacheSize = 10000;
+	private int maxRows = 10000;
+	private final Map<Key, Entry> cache = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+			return size() > cacheSize;
+		}
+	};
+	// incremented by every invalidation, so that results read concurrently with a schema change aren't cached
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param methods the names of the {@link DatabaseMetaData} methods whose result sets are cached
+	 */
+	public void setMethods(Collection<String> methods) {
+		this.methods = new HashSet<String>(methods);
+	}
+
+	/**
+	 * @param timeToLiveMillis the time results stay in the cache (default 600000)
+	 */
+	public void setTimeToLiveMillis(long timeToLiveMillis) {
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+
+	/**
+	 * @param cacheSize the maximum number of cached results; the least recently used result is evicted first (default 10000)
+	 */
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * @param maxRows the maximum number of rows of a cached result (default 10000)
+	 */
+	public void setMaxRows(int maxRows) {
+		this.maxRows = maxRows;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of cached results, including expired ones that weren't removed yet
+	 */
+	public int getSize() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		String name = method.getName();
+		if (DatabaseMetaData.class.equals(jdbcClass)) {
+			return methods.contains(name) && ResultSet.class.equals(method.getReturnType());
+		} else if (Connection.class.equals(jdbcClass)) {
+			return name.equals("createStatement") || name.startsWith("prepare") || name.equals("commit")
+					|| name.equals("rollback") || name.equals("setAutoCommit");
+		} else if (Statement.class.isAssignableFrom(jdbcClass)) {
+			return name.startsWith("execute") || name.equals("addBatch");
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		return DataSource.class.equals(jdbcClass) || Connection.class.equals(jdbcClass)
+				|| DatabaseMetaData.class.equals(jdbcClass) || Statement.class.isAssignableFrom(jdbcClass);
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		Class<?> jdbcClass = invocation.getJdbcClass();
+		if (DatabaseMetaData.class.equals(jdbcClass)) {
+			return getMetaData(invocation);
+		}
+		if (Connection.class.equals(jdbcClass)) {
+			return invokeConnection(invocation);
+		}
+		String name = invocation.getMethod().getName();
+		Object[] args = invocation.getArgs();
+		boolean definition;
+		if (name.equals("executeBatch") || name.equals("executeLargeBatch")) {
+			definition = invocation.getState() != null;
+			invocation.setState(null);
+		} else {
+			String sql = args != null && args.length > 0 ? (String) args[0] : invocation.getHandler().getOriginSql();
+			definition = sql != null && SqlTables.isDefinition(sql);
+			if (name.equals("addBatch")) {
+				if (definition) {
+					invocation.setState(Boolean.TRUE);
+				}
+				return invocation.proceed();
+			}
+		}
+		if (!definition) {
+			return invocation.proceed();
+		}
+		try {
+			return invocation.proceed();
+		} finally {
+			invalidate();
+			CompositeInvocationHandler parent = invocation.getHandler().getParent();
+			if (parent != null && Connection.class.equals(parent.getJdbcClass())) {
+				ConnectionState state = (ConnectionState) invocation.getState(parent);
+				if (state != null && !((Connection) parent.getTarget()).getAutoCommit()) {
+					state.schemaChanged = true;
+				}
+			}
+		}
+	}
+
+	private Object invokeConnection(Invocation invocation) throws Throwable {
+		ConnectionState state = (ConnectionState) invocation.getState();
+		if (state == null) {
+			state = new ConnectionState();
+			invocation.setState(state);
+		}
+		String name = invocation.getMethod().getName();
+		Object result = invocation.proceed();
+		if (state.schemaChanged && (name.equals("commit") || name.equals("rollback") || name.equals("setAutoCommit"))) {
+			// other connections only see the change now, and a rollback may undo it
+			state.schemaChanged = false;
+			invalidate();
+		}
+		return result;
+	}
+
+	private Object getMetaData(Invocation invocation) throws Throwable {
+		CompositeInvocationHandler parent = invocation.getHandler().getParent();
+		if (parent != null && Connection.class.equals(parent.getJdbcClass())) {
+			ConnectionState state = (ConnectionState) invocation.getState(parent);
+			if (state != null && state.schemaChanged) {
+				// the connection sees its own uncommitted schema changes: neither use nor fill the shared cache
+				return invocation.proceed();
+			}
+		}
+		Key key = new Key(invocation.getMethod().getName(), copy(invocation.getArgs()));
+		Entry entry;
+		synchronized (cache) {
+			entry = cache.get(key);
+			if (entry != null && entry.expires < System.currentTimeMillis()) {
+				cache.remove(key);
+				entry = null;
+			}
+		}
+		if (entry != null) {
+			hits.incrementAndGet();
+			return MemoryResultSet.create(entry.rows, null, null);
+		}
+		misses.incrementAndGet();
+		long expectedGeneration = generation.get();
+		ResultSet resultSet = (ResultSet) invocation.proceed();
+		if (resultSet == null || !CachedRows.isCacheable(resultSet.getMetaData())) {
+			return resultSet;
+		}
+		CachedRows rows = CachedRows.read(resultSet, maxRows, false);
+		if (!rows.isComplete()) {
+			return MemoryResultSet.create(rows, null, resultSet);
+		}
+		resultSet.close();
+		synchronized (cache) {
+			if (generation.get() == expectedGeneration) {
+				cache.put(key, new Entry(rows, System.currentTimeMillis() + timeToLiveMillis));
+			}
+		}
+		return MemoryResultSet.create(rows, null, null);
+	}
+
+	/**
+	 * Copy the arguments, including arrays such as the table types of <tt>getTables</tt>, so that the
+	 * caller can't change the key of a cached result.
+	 */
+	private static Object[] copy(Object[] args) {
+		if (args == null) {
+			return new Object[0];
+		}
+		Object[] copy = args.clone();
+		for (int i = 0; i < copy.length; i++) {
+			if (copy[i] instanceof Object[]) {
+				copy[i] = ((Object[]) copy[i]).clone();
+			} else if (copy[i] instanceof int[]) {
+				copy[i] = ((int[]) copy[i]).clone();
+			}
+		}
+		return copy;
+	}
+
+}
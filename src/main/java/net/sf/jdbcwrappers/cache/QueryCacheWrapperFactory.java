@@ -0,0 +1,467 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.CompositeInvocationHandler;
+import net.sf.jdbcwrappers.Invocation;
+import net.sf.jdbcwrappers.SqlFingerprint;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} caching the results of selected queries.
+ * <p>
+ * The queries to cache are configured by SQL text; they are matched by {@link SqlFingerprint fingerprint},
+ * so a single entry covers a query executed with different literals. Results are cached per SQL text
+ * and parameter values, for the configured time to live, and returned as read-only, scrollable
+ * in-memory result sets. Statements with parameters other than strings, numbers, booleans, dates
+ * and byte arrays, or with a maximum number of rows, are not cached, and neither are results with
+ * more than the configured number of rows.
+ * <p>
+ * Updates executed through the wrapped {@link DataSource} invalidate the cached results of the
+ * queries referencing the updated tables (see {@link SqlTables} for the limitations of the table
+ * detection; updates for which no table is found invalidate the whole cache). Within a transaction,
+ * the results are invalidated again when the transaction ends, and the connection neither reads
+ * nor populates the cache until then. Changes made by other applications are only seen when the results expire.
+ * <p>
+ * Values of <tt>CHAR</tt> columns are cached as returned by the driver, so that a {@link
+ * net.sf.jdbcwrappers.trim.TrimmingWrapperFactory} wrapped around this one trims them as usual. With
+ * <tt>trimCharColumns</tt>, they are trimmed once when they are cached instead.
+ *
+ * @author Peter Van den Bosch
+ */
+public class QueryCacheWrapperFactory extends AbstractInterceptor {
+	private static final Object[] NO_PARAMETERS = new Object[0];
+
+	/**
+	 * Cache key: SQL text and parameter values.
+	 */
+	private static final class Key {
+		private final String sql;
+		private final Object[] parameters;
+		private final int hashCode;
+
+		Key(String sql, Object[] parameters) {
+			this.sql = sql;
+			this.parameters = parameters;
+			this.hashCode = sql.hashCode() * 31 + Arrays.deepHashCode(parameters);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hashCode == other.hashCode && sql.equals(other.sql) && Arrays.deepEquals(parameters, other.parameters);
+		}
+	}
+
+	private static final class Entry {
+		final CachedRows rows;
+		final Set<String> tables;
+		final long expires;
+
+		Entry(CachedRows rows, Set<String> tables, long expires) {
+			this.rows = rows;
+			this.tables = tables;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * State kept for connections: the tables updated in the current transaction.
+	 */
+	private static class ConnectionState {
+		boolean autoCommit;
+		// null if an update with unknown tables was executed
+		Set<String> updatedTables = Collections.emptySet();
+
+		ConnectionState(boolean autoCommit) {
+			this.autoCommit = autoCommit;
+		}
+
+		boolean isTransactionDirty() {
+			return updatedTables == null || !updatedTables.isEmpty();
+		}
+	}
+
+	/**
+	 * State kept for statements: the parameters and batched SQL.
+	 */
+	private static class StatementState {
+		Object[] parameters = NO_PARAMETERS;
+		int parameterCount;
+		// set when a parameter can't be part of a cache key
+		boolean uncacheableParameters;
+		// set when a maximum number of rows is set
+		boolean limited;
+		List<String> batch;
+	}
+
+	private Set<String> queries = Collections.emptySet();
+	private long timeToLiveMillis = 60000;
+	private int cacheSize = 1000;
+	private int maxRows = 1000;
+	private boolean trimCharColumns;
+	private final Map<Key, Entry> cache = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+			return size() > cacheSize;
+		}
+	};
+	// incremented by every invalidation, so that results read concurrently with an update aren't cached
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * @param queries the SQL text of the queries to cache
+	 */
+	public void setQueries(Collection<String> queries) {
+		Set<String> fingerprints = new HashSet<String>();
+		for (String query : queries) {
+			fingerprints.add(SqlFingerprint.of(query));
+		}
+		this.queries = fingerprints;
+	}
+
+	/**
+	 * @param timeToLiveMillis the time results stay in the cache (default 60000)
+	 */
+	public void setTimeToLiveMillis(long timeToLiveMillis) {
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+
+	/**
+	 * @param cacheSize the maximum number of cached results; the least recently used result is evicted first (default 1000)
+	 */
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * @param maxRows the maximum number of rows of a cached result (default 1000)
+	 */
+	public void setMaxRows(int maxRows) {
+		this.maxRows = maxRows;
+	}
+
+	/**
+	 * @param trimCharColumns whether to trim the values of <tt>CHAR</tt> columns when caching them (default false)
+	 */
+	public void setTrimCharColumns(boolean trimCharColumns) {
+		this.trimCharColumns = trimCharColumns;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of cached results removed because of updates
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * @return the number of cached results, including expired ones that weren't removed yet
+	 */
+	public int getSize() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public void invalidate() {
+		invalidate((Set<String>) null);
+	}
+
+	/**
+	 * Remove the cached results of queries referencing a table.
+	 */
+	public void invalidate(String table) {
+		invalidate(Collections.singleton(table.toUpperCase(Locale.ENGLISH)));
+	}
+
+	/**
+	 * @param tables upper case table names, or null to remove all results
+	 */
+	private void invalidate(Set<String> tables) {
+		generation.incrementAndGet();
+		synchronized (cache) {
+			if (tables == null) {
+				invalidations.addAndGet(cache.size());
+				cache.clear();
+				return;
+			}
+			for (Iterator<Entry> it = cache.values().iterator(); it.hasNext(); ) {
+				if (!Collections.disjoint(it.next().tables, tables)) {
+					it.remove();
+					invalidations.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private Entry lookup(Key key) {
+		synchronized (cache) {
+			Entry entry = cache.get(key);
+			if (entry != null && entry.expires < System.currentTimeMillis()) {
+				cache.remove(key);
+				entry = null;
+			}
+			return entry;
+		}
+	}
+
+	private void store(Key key, Entry entry, long expectedGeneration) {
+		synchronized (cache) {
+			if (generation.get() == expectedGeneration) {
+				cache.put(key, entry);
+			}
+		}
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		String name = method.getName();
+		if (Connection.class.equals(jdbcClass)) {
+			return name.equals("createStatement") || name.startsWith("prepare") || name.equals("setAutoCommit")
+					|| name.equals("commit") || name.equals("rollback");
+		} else if (Statement.class.isAssignableFrom(jdbcClass)) {
+			if (name.startsWith("execute") || name.equals("addBatch") || name.equals("clearBatch")
+					|| name.equals("setMaxRows") || name.equals("setLargeMaxRows") || name.equals("clearParameters")) {
+				return true;
+			}
+			Class<?>[] parameterTypes = method.getParameterTypes();
+			return PreparedStatement.class.isAssignableFrom(jdbcClass) && name.startsWith("set")
+					&& parameterTypes.length >= 2 && parameterTypes[0] == int.class;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		return DataSource.class.equals(jdbcClass) || Connection.class.equals(jdbcClass) || Statement.class.isAssignableFrom(jdbcClass);
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		if (Connection.class.equals(invocation.getJdbcClass())) {
+			return invokeConnection(invocation);
+		}
+		StatementState state = (StatementState) invocation.getState();
+		if (state == null) {
+			state = new StatementState();
+			invocation.setState(state);
+		}
+		String name = invocation.getMethod().getName();
+		Object[] args = invocation.getArgs();
+		if (name.equals("executeQuery")) {
+			return executeQuery(invocation, state);
+		} else if (name.equals("executeBatch") || name.equals("executeLargeBatch")) {
+			Set<String> tables;
+			if (state.batch == null) {
+				tables = getUpdatedTables(invocation.getHandler().getOriginSql());
+			} else {
+				tables = new HashSet<String>();
+				for (String sql : state.batch) {
+					Set<String> sqlTables = getUpdatedTables(sql);
+					if (sqlTables == null) {
+						tables = null;
+						break;
+					}
+					tables.addAll(sqlTables);
+				}
+			}
+			state.batch = null;
+			return executeUpdate(invocation, tables);
+		} else if (name.startsWith("execute")) {
+			String sql = args != null && args.length > 0 ? (String) args[0] : invocation.getHandler().getOriginSql();
+			if (sql != null && SqlTables.isQuery(sql)) {
+				return invocation.proceed();
+			}
+			return executeUpdate(invocation, getUpdatedTables(sql));
+		}
+		Object result = invocation.proceed();
+		if (name.equals("addBatch")) {
+			if (args != null) {
+				if (state.batch == null) {
+					state.batch = new ArrayList<String>();
+				}
+				state.batch.add((String) args[0]);
+			}
+		} else if (name.equals("clearBatch")) {
+			state.batch = null;
+		} else if (name.equals("setMaxRows") || name.equals("setLargeMaxRows")) {
+			state.limited = ((Number) args[0]).longValue() > 0;
+		} else if (name.equals("clearParameters")) {
+			Arrays.fill(state.parameters, 0, state.parameterCount, null);
+			state.parameterCount = 0;
+			state.uncacheableParameters = false;
+		} else {
+			setParameter(state, name, args);
+		}
+		return result;
+	}
+
+	private static void setParameter(StatementState state, String name, Object[] args) {
+		int index = (Integer) args[0];
+		Object value = name.equals("setNull") ? null : args[1];
+		if (index < 1 || (args.length > 2 && !name.equals("setNull"))
+				|| !(value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+						|| value instanceof java.util.Date || value instanceof byte[])) {
+			// streams, LOBs, calendars, ...
+			state.uncacheableParameters = true;
+			return;
+		}
+		if (index > state.parameters.length) {
+			state.parameters = Arrays.copyOf(state.parameters, Math.max(index, state.parameters.length * 2));
+		}
+		state.parameters[index - 1] = value instanceof byte[] ? ((byte[]) value).clone() : value;
+		state.parameterCount = Math.max(state.parameterCount, index);
+	}
+
+	/**
+	 * @return the tables updated by the given SQL text, or null if unknown
+	 */
+	private static Set<String> getUpdatedTables(String sql) {
+		if (sql == null) {
+			return null;
+		}
+		Set<String> tables = SqlTables.getTables(sql);
+		return tables.isEmpty() ? null : tables;
+	}
+
+	private Object invokeConnection(Invocation invocation) throws Throwable {
+		ConnectionState state = (ConnectionState) invocation.getState();
+		if (state == null) {
+			state = new ConnectionState(((Connection) invocation.getTarget()).getAutoCommit());
+			invocation.setState(state);
+		}
+		String name = invocation.getMethod().getName();
+		Object result = invocation.proceed();
+		if (name.equals("setAutoCommit")) {
+			state.autoCommit = (Boolean) invocation.getArgs()[0];
+			// enabling auto-commit commits the transaction
+			endTransaction(state);
+		} else if (name.equals("commit") || name.equals("rollback")) {
+			endTransaction(state);
+		}
+		return result;
+	}
+
+	private void endTransaction(ConnectionState state) {
+		if (state.isTransactionDirty()) {
+			invalidate(state.updatedTables);
+			state.updatedTables = Collections.emptySet();
+		}
+	}
+
+	private ConnectionState getConnectionState(Invocation invocation) {
+		CompositeInvocationHandler parent = invocation.getHandler().getParent();
+		return parent != null && Connection.class.equals(parent.getJdbcClass()) ? (ConnectionState) invocation.getState(parent) : null;
+	}
+
+	private Object executeUpdate(Invocation invocation, Set<String> tables) throws Throwable {
+		ConnectionState connectionState = getConnectionState(invocation);
+		try {
+			return invocation.proceed();
+		} finally {
+			invalidate(tables);
+			if (connectionState != null && !connectionState.autoCommit) {
+				if (tables == null || connectionState.updatedTables == null) {
+					connectionState.updatedTables = null;
+				} else {
+					if (connectionState.updatedTables.isEmpty()) {
+						connectionState.updatedTables = new HashSet<String>();
+					}
+					connectionState.updatedTables.addAll(tables);
+				}
+			}
+		}
+	}
+
+	private Object executeQuery(Invocation invocation, StatementState state) throws Throwable {
+		Object[] args = invocation.getArgs();
+		boolean prepared = args == null || args.length == 0;
+		String sql = prepared ? invocation.getHandler().getOriginSql() : (String) args[0];
+		if (sql == null || state.uncacheableParameters || state.limited || !queries.contains(SqlFingerprint.of(sql))) {
+			return invocation.proceed();
+		}
+		ConnectionState connectionState = getConnectionState(invocation);
+		if (connectionState != null && connectionState.isTransactionDirty()) {
+			// the transaction may see its own uncommitted updates: neither use nor fill the shared cache
+			return invocation.proceed();
+		}
+		Key key = new Key(sql, prepared ? Arrays.copyOf(state.parameters, state.parameterCount) : NO_PARAMETERS);
+		Statement statement = (Statement) invocation.getProxy();
+		Entry entry = lookup(key);
+		if (entry != null) {
+			hits.incrementAndGet();
+			return MemoryResultSet.create(entry.rows, statement, null);
+		}
+		misses.incrementAndGet();
+		long expectedGeneration = generation.get();
+		ResultSet resultSet = (ResultSet) invocation.proceed();
+		if (resultSet.getConcurrency() != ResultSet.CONCUR_READ_ONLY || !CachedRows.isCacheable(resultSet.getMetaData())) {
+			return resultSet;
+		}
+		CachedRows rows = CachedRows.read(resultSet, maxRows, trimCharColumns);
+		if (!rows.isComplete()) {
+			return MemoryResultSet.create(rows, statement, resultSet);
+		}
+		resultSet.close();
+		store(key, new Entry(rows, SqlTables.getTables(sql), System.currentTimeMillis() + timeToLiveMillis), expectedGeneration);
+		return MemoryResultSet.create(rows, statement, null);
+	}
+
+}
@@ -0,0 +1,344 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.jdbcwrappers.ProxyHelper;
+
+/**
+ * Invocation handler of a forward only, read-only {@link ResultSet} whose rows are read from the
+ * original result set by a producer task into a bounded buffer.
+ * <p>
+ * The producer reads the rows in chunks and blocks when the buffer is full. An exception thrown by
+ * the original result set is thrown by the <tt>next()</tt> call that reaches the row that couldn't
+ * be read. Closing the result set stops the producer, waits for it to finish the row it is reading
+ * and then closes the original result set. The producer also stops if the original result set was
+ * closed by closing its statement or connection directly. Values are converted like {@link MemoryResultSet} does.
+ *
+ * @author Peter Van den Bosch
+ */
+class ReadAheadResultSet implements InvocationHandler {
+	private static final Object[][] END = new Object[0][];
+	// time the producer waits for space in the buffer before checking whether the result set (or the original one) was closed
+	private static final long OFFER_INTERVAL_MILLIS = 10;
+
+	private final ResultSet target;
+	private final Statement statement;
+	private final MemoryResultSetMetaData metaData;
+	private final boolean[] trimmed;
+	private final int chunkSize;
+	private final BlockingQueue<Object[][]> buffer;
+	private final CountDownLatch finished = new CountDownLatch(1);
+	private volatile boolean closed;
+	// set by the producer before it queues END
+	private volatile Throwable failure;
+	private Object proxy;
+	// the consumer's position
+	private Object[][] chunk;
+	private int index;
+	private int row;
+	private boolean exhausted;
+	private boolean wasNull;
+
+	private ReadAheadResultSet(ResultSet target, Statement statement, MemoryResultSetMetaData metaData, boolean[] trimmed, int bufferSize, int chunkSize) {
+		this.target = target;
+		this.statement = statement;
+		this.metaData = metaData;
+		this.trimmed = trimmed;
+		this.chunkSize = chunkSize;
+		this.buffer = new ArrayBlockingQueue<Object[][]>(Math.max(1, bufferSize / chunkSize));
+	}
+
+	/**
+	 * Start reading the rows of a result set ahead.
+	 *
+	 * @param statement the statement to be returned by {@link ResultSet#getStatement()}
+	 * @param bufferSize the maximum number of rows read ahead
+	 * @param trimCharColumns whether to trim the values of <tt>CHAR</tt> columns
+	 * @return the handler of the new result set, or null if the values of the result set can't be read ahead
+	 *         or the executor rejected the producer
+	 */
+	static ReadAheadResultSet start(ResultSet target, Statement statement, int bufferSize, boolean trimCharColumns, Executor executor) throws SQLException {
+		if (!CachedRows.isCacheable(target.getMetaData())) {
+			return null;
+		}
+		MemoryResultSetMetaData metaData = new MemoryResultSetMetaData(target.getMetaData());
+		boolean[] trimmed = CachedRows.getTrimmedColumns(metaData, trimCharColumns);
+		final ReadAheadResultSet handler = new ReadAheadResultSet(target, statement, metaData, trimmed, bufferSize, Math.min(64, bufferSize));
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					handler.produce();
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			return null;
+		}
+		handler.proxy = ProxyHelper.createProxy(ResultSet.class, handler);
+		return handler;
+	}
+
+	ResultSet getProxy() {
+		return (ResultSet) proxy;
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+	private void produce() {
+		try {
+			Object[][] rows = new Object[chunkSize][];
+			int count = 0;
+			while (!closed && target.next()) {
+				rows[count++] = CachedRows.readRow(target, trimmed);
+				if (count == chunkSize) {
+					if (!offer(rows)) {
+						return;
+					}
+					rows = new Object[chunkSize][];
+					count = 0;
+				}
+			}
+			if (count > 0 && !offer(Arrays.copyOf(rows, count))) {
+				return;
+			}
+		} catch (Throwable ex) {
+			failure = ex;
+		} finally {
+			if (!offer(END) && !closed) {
+				// the original result set was closed while the buffer was full: the rows that are still
+				// buffered are dropped, so that the consumer gets the failure instead of waiting forever
+				buffer.clear();
+				buffer.offer(END);
+			}
+			finished.countDown();
+		}
+	}
+
+	/**
+	 * Add a chunk to the buffer, waiting for space.
+	 *
+	 * @return false if the result set was closed, or if the original result set was closed (in which case
+	 *         {@link #failure} is set)
+	 */
+	private boolean offer(Object[][] rows) {
+		try {
+			while (!closed) {
+				if (buffer.offer(rows, OFFER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+				if (isTargetClosed()) {
+					// the connection or statement was closed without closing this result set
+					if (failure == null) {
+						failure = new SQLException("The result set was closed while reading ahead");
+					}
+					return false;
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	private boolean isTargetClosed() {
+		try {
+			return target.isClosed();
+		} catch (SQLException ex) {
+			return true;
+		} catch (AbstractMethodError ex) {
+			// pre JDBC 4 driver; the producer only stops when this result set is closed
+			return false;
+		}
+	}
+
+	void close() throws SQLException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		chunk = null;
+		try {
+			// the producer notices the flag after the row it is reading
+			finished.await();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while closing the result set");
+		} finally {
+			buffer.clear();
+		}
+		target.close();
+	}
+
+	private boolean next() throws SQLException {
+		if (chunk != null && index + 1 < chunk.length) {
+			index++;
+			row++;
+			return true;
+		}
+		chunk = nextChunk();
+		if (chunk == null) {
+			return false;
+		}
+		index = 0;
+		row++;
+		return true;
+	}
+
+	/**
+	 * Take the next chunk from the buffer, waiting for the producer if necessary.
+	 *
+	 * @return the chunk, or null if all rows were read
+	 */
+	private Object[][] nextChunk() throws SQLException {
+		if (exhausted) {
+			return null;
+		}
+		Object[][] rows;
+		try {
+			rows = buffer.take();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the next row");
+		}
+		if (rows != END) {
+			return rows;
+		}
+		exhausted = true;
+		Throwable cause = failure;
+		if (cause instanceof SQLException) {
+			SQLException ex = (SQLException) cause;
+			throw new SQLException(ex.getMessage(), ex.getSQLState(), ex.getErrorCode(), ex);
+		} else if (cause != null) {
+			throw new SQLException("Failed to read the result set", cause);
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if the result set is positioned before its first row and has rows
+	 */
+	private boolean isBeforeFirst() throws SQLException {
+		if (row > 0) {
+			return false;
+		}
+		if (chunk == null) {
+			// look at the first chunk without moving to its first row
+			chunk = nextChunk();
+			index = -1;
+		}
+		return chunk != null;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (method.getDeclaringClass() == Object.class) {
+			if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else {
+				return "ReadAheadResultSet[" + target + "]";
+			}
+		}
+		if (name.equals("close")) {
+			close();
+			return null;
+		} else if (name.equals("isClosed")) {
+			return closed;
+		} else if (closed) {
+			throw new SQLException("ResultSet is closed");
+		} else if (name.equals("next")) {
+			return next();
+		} else if (name.startsWith("get") && args != null && (args[0] instanceof Integer || args[0] instanceof String)) {
+			if (chunk == null || index < 0) {
+				throw new SQLException("Not on a row");
+			}
+			Object[] values = chunk[index];
+			int column = args[0] instanceof Integer ? (Integer) args[0] : findColumn((String) args[0]);
+			if (column < 1 || column > values.length) {
+				throw new SQLException("Invalid column index " + column);
+			}
+			Object value = values[column - 1];
+			wasNull = value == null;
+			return MemoryResultSet.getValue(value, method, args);
+		} else if (name.equals("getStatement")) {
+			return statement;
+		} else if (name.equals("getMetaData")) {
+			return metaData;
+		} else if (name.equals("wasNull")) {
+			return wasNull;
+		} else if (name.equals("findColumn")) {
+			return findColumn((String) args[0]);
+		} else if (name.equals("getRow")) {
+			return chunk == null || index < 0 ? 0 : row;
+		} else if (name.equals("isBeforeFirst")) {
+			return isBeforeFirst();
+		} else if (name.equals("isAfterLast")) {
+			return exhausted && row > 0;
+		} else if (name.equals("isFirst")) {
+			return chunk != null && index >= 0 && row == 1;
+		} else if (name.equals("getType")) {
+			return ResultSet.TYPE_FORWARD_ONLY;
+		} else if (name.equals("getConcurrency")) {
+			return ResultSet.CONCUR_READ_ONLY;
+		} else if (name.equals("getHoldability")) {
+			return target.getHoldability();
+		} else if (name.equals("getFetchSize")) {
+			return 0;
+		} else if (name.equals("getFetchDirection")) {
+			return ResultSet.FETCH_FORWARD;
+		} else if (name.equals("setFetchSize") || name.equals("setFetchDirection") || name.equals("clearWarnings")) {
+			return null;
+		} else if (name.equals("getWarnings")) {
+			return null;
+		} else if (name.equals("isWrapperFor")) {
+			return ((Class<?>) args[0]).isInstance(proxy);
+		} else if (name.equals("unwrap")) {
+			if (((Class<?>) args[0]).isInstance(proxy)) {
+				return proxy;
+			}
+			throw new SQLException("Not a wrapper for " + args[0]);
+		} else if (name.startsWith("update") || name.endsWith("Row") || name.equals("moveToCurrentRow") || name.equals("cancelRowUpdates")) {
+			throw new SQLException("The result set is read-only");
+		} else {
+			throw new SQLFeatureNotSupportedException(name + " is not supported by read-ahead result sets");
+		}
+	}
+
+	private int findColumn(String label) throws SQLException {
+		int column = metaData.findColumn(label);
+		if (column == 0) {
+			throw new SQLException("Column not found: " + label);
+		}
+		return column;
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.Invocation;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} reading the rows of selected queries ahead on another
+ * thread, so that fetching rows from the database overlaps with their processing by the application.
+ * <p>
+ * Read-ahead is enabled per query by a hint in the SQL text, by default the comment
+ * <tt>-- READ_AHEAD</tt> at the end of the query (or on a line of its own). A line comment is used
+ * rather than a bracketed one because not all databases accept the latter. The result set returned by <tt>executeQuery</tt> is then forward
+ * only and read-only; its rows are read by a producer task into a buffer of the configured size, and
+ * the producer waits when the buffer is full. An exception thrown while reading a row is thrown by
+ * the <tt>next()</tt> call reaching that row. Result sets with LOB locators are read into strings and
+ * byte arrays; result sets with columns that can't be detached from the result set (arrays, structs,
+ * ...) are returned as usual.
+ * <p>
+ * The producer tasks run on virtual threads if the JVM supports them, and on new daemon threads
+ * otherwise, unless an {@link Executor} is set. Since the original result set is used by another thread,
+ * the driver must support concurrent use of a connection. Executing the statement again or closing it
+ * closes the read-ahead result set first.
+ * <p>
+ * Values of <tt>CHAR</tt> columns are returned as read, so that a {@link
+ * net.sf.jdbcwrappers.trim.TrimmingWrapperFactory} wrapped around this one trims them as usual. With
+ * <tt>trimCharColumns</tt>, they are trimmed by the producer instead.
+ *
+ * @author Peter Van den Bosch
+ */
+public class ReadAheadWrapperFactory extends AbstractInterceptor {
+	private String hint = "-- READ_AHEAD";
+	private int bufferSize = 1024;
+	private boolean trimCharColumns;
+	private Executor executor;
+	private final AtomicLong resultSets = new AtomicLong();
+
+	/**
+	 * @param hint the text enabling read-ahead for queries containing it (default <tt>-- READ_AHEAD</tt>)
+	 */
+	public void setHint(String hint) {
+		this.hint = hint;
+	}
+
+	/**
+	 * @param bufferSize the maximum number of rows read ahead per result set (default 1024)
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @param trimCharColumns whether to trim the values of <tt>CHAR</tt> columns when reading them (default false)
+	 */
+	public void setTrimCharColumns(boolean trimCharColumns) {
+		this.trimCharColumns = trimCharColumns;
+	}
+
+	/**
+	 * @param executor the executor running the producer tasks
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the number of result sets read ahead
+	 */
+	public long getResultSets() {
+		return resultSets.get();
+	}
+
+	private synchronized Executor getExecutor() {
+		if (executor == null) {
+			executor = createDefaultExecutor();
+		}
+		return executor;
+	}
+
+	private static Executor createDefaultExecutor() {
+		try {
+			// Java 21
+			return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception ex) {
+			return new Executor() {
+				private final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+				@Override
+				public void execute(Runnable command) {
+					Thread thread = threadFactory.newThread(command);
+					thread.setName("jdbcwrappers-read-ahead");
+					thread.setDaemon(true);
+					thread.start();
+				}
+			};
+		}
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		if (!Statement.class.isAssignableFrom(jdbcClass)) {
+			return false;
+		}
+		String name = method.getName();
+		return name.startsWith("execute") || name.equals("getResultSet") || name.equals("getMoreResults") || name.equals("close");
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		return DataSource.class.equals(jdbcClass) || Connection.class.equals(jdbcClass) || Statement.class.isAssignableFrom(jdbcClass);
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		ReadAheadResultSet current = (ReadAheadResultSet) invocation.getState();
+		String name = invocation.getMethod().getName();
+		if (current != null) {
+			if (name.equals("getResultSet")) {
+				return current.isClosed() ? null : current.getProxy();
+			}
+			invocation.setState(null);
+			current.close();
+		}
+		if (!name.equals("executeQuery")) {
+			return invocation.proceed();
+		}
+		Object[] args = invocation.getArgs();
+		String sql = args != null ? (String) args[0] : invocation.getHandler().getOriginSql();
+		if (sql == null || !sql.contains(hint)) {
+			return invocation.proceed();
+		}
+		ResultSet resultSet = (ResultSet) invocation.proceed();
+		ReadAheadResultSet readAhead = ReadAheadResultSet.start(resultSet, (Statement) invocation.getProxy(), bufferSize, trimCharColumns, getExecutor());
+		if (readAhead == null) {
+			return resultSet;
+		}
+		resultSets.incrementAndGet();
+		invocation.setState(readAhead);
+		return readAhead.getProxy();
+	}
+
+}
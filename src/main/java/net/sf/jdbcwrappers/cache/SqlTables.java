@@ -0,0 +1,199 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Approximate extraction of the tables referenced by a SQL statement. This is not a parser: it
+ * collects the identifiers following <tt>FROM</tt>, <tt>JOIN</tt>, <tt>INTO</tt>, <tt>UPDATE</tt>
+ * and <tt>TABLE</tt> (including comma separated <tt>FROM</tt> lists). Table names are reduced to
+ * their last component and upper cased unless quoted, so that matching errs on the side of
+ * too many rather than too few tables.
+ * <p>
+ * The statement classification methods are public, since the trimming wrappers need them as well.
+ *
+ * @author Peter Van den Bosch
+ */
+public final class SqlTables {
+	private static final Set<String> TABLE_KEYWORDS = new HashSet<String>(Arrays.asList("FROM", "JOIN", "INTO", "UPDATE", "TABLE"));
+	// words that end a table reference instead of being an alias
+	private static final Set<String> NOT_ALIASES = new HashSet<String>(Arrays.asList(
+			"WHERE", "JOIN", "INNER", "LEFT", "RIGHT", "FULL", "OUTER", "CROSS", "NATURAL", "ON", "USING", "SET",
+			"VALUES", "SELECT", "GROUP", "ORDER", "HAVING", "UNION", "EXCEPT", "INTERSECT", "FETCH", "OFFSET",
+			"LIMIT", "FOR", "WITH", "DEFAULT"));
+
+	private SqlTables() {
+	}
+
+	/**
+	 * @return true if the statement is a query (<tt>SELECT</tt>, <tt>VALUES</tt> or <tt>WITH</tt>)
+	 */
+	static boolean isQuery(String sql) {
+		String first = getFirstKeyword(sql);
+		return first.equals("SELECT") || first.equals("VALUES") || first.equals("WITH");
+	}
+
+	/**
+	 * @return true if the statement changes the schema (<tt>CREATE</tt>, <tt>ALTER</tt>, <tt>DROP</tt>,
+	 *         <tt>RENAME</tt> or <tt>COMMENT</tt>)
+	 */
+	public static boolean isDefinition(String sql) {
+		String first = getFirstKeyword(sql);
+		return first.equals("CREATE") || first.equals("ALTER") || first.equals("DROP") || first.equals("RENAME")
+				|| first.equals("COMMENT");
+	}
+
+	/**
+	 * @return true if the statement changes the default schema of the connection (<tt>SET SCHEMA</tt>,
+	 *         <tt>SET CURRENT SCHEMA</tt>, <tt>SET SEARCH_PATH</tt> or <tt>USE</tt>)
+	 */
+	public static boolean isSchemaSwitch(String sql) {
+		String first = getFirstKeyword(sql);
+		if (first.equals("USE")) {
+			return true;
+		}
+		if (!first.equals("SET")) {
+			return false;
+		}
+		List<String> tokens = tokenize(sql);
+		String second = tokens.size() > 1 ? tokens.get(1).toUpperCase(Locale.ENGLISH) : "";
+		return second.equals("SCHEMA") || second.equals("CURRENT") || second.equals("CURRENT_SCHEMA")
+				|| second.equals("SEARCH_PATH");
+	}
+
+	/**
+	 * @return the upper cased keyword the statement starts with, skipping whitespace, comments and
+	 *         opening parentheses; empty if there is none
+	 */
+	private static String getFirstKeyword(String sql) {
+		int length = sql.length();
+		int i = 0;
+		while (i < length) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c) || c == '(') {
+				i++;
+			} else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+				i = sql.indexOf('\n', i);
+				i = i < 0 ? length : i;
+			} else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+				i = sql.indexOf("*/", i + 2);
+				i = i < 0 ? length : i + 2;
+			} else {
+				break;
+			}
+		}
+		int start = i;
+		while (i < length && Character.isLetter(sql.charAt(i))) {
+			i++;
+		}
+		return sql.substring(start, i).toUpperCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * @return the tables referenced by the statement; may be empty
+	 */
+	static Set<String> getTables(String sql) {
+		List<String> tokens = tokenize(sql);
+		Set<String> tables = new HashSet<String>();
+		for (int i = 0; i < tokens.size(); i++) {
+			String keyword = tokens.get(i).toUpperCase(Locale.ENGLISH);
+			if (!TABLE_KEYWORDS.contains(keyword)) {
+				continue;
+			}
+			int j = i + 1;
+			while (j < tokens.size() && isIdentifier(tokens.get(j))) {
+				tables.add(normalize(tokens.get(j++)));
+				// skip the alias
+				if (j < tokens.size() && tokens.get(j).equalsIgnoreCase("AS")) {
+					j += 2;
+				} else if (j < tokens.size() && isIdentifier(tokens.get(j)) && !NOT_ALIASES.contains(tokens.get(j).toUpperCase(Locale.ENGLISH))) {
+					j++;
+				}
+				if (keyword.equals("FROM") && j < tokens.size() && tokens.get(j).equals(",")) {
+					j++;
+				} else {
+					break;
+				}
+			}
+		}
+		return tables;
+	}
+
+	private static boolean isIdentifier(String token) {
+		char c = token.charAt(0);
+		return c == '"' || Character.isLetter(c) || c == '_';
+	}
+
+	private static String normalize(String name) {
+		// a quoted name may contain dots
+		if (name.endsWith("\"")) {
+			int quote = name.lastIndexOf('"', name.length() - 2);
+			return name.substring(quote + 1, name.length() - 1);
+		}
+		return name.substring(name.lastIndexOf('.') + 1).toUpperCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Split the SQL text in (possibly qualified and quoted) identifiers and single character symbols,
+	 * skipping whitespace, literals and comments.
+	 */
+	private static List<String> tokenize(String sql) {
+		List<String> tokens = new ArrayList<String>();
+		int length = sql.length();
+		int i = 0;
+		while (i < length) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '\'') {
+				i = sql.indexOf('\'', i + 1);
+				while (i >= 0 && i + 1 < length && sql.charAt(i + 1) == '\'') {
+					i = sql.indexOf('\'', i + 2);
+				}
+				i = i < 0 ? length : i + 1;
+			} else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+				i = sql.indexOf('\n', i);
+				i = i < 0 ? length : i;
+			} else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+				i = sql.indexOf("*/", i + 2);
+				i = i < 0 ? length : i + 2;
+			} else if (c == '"' || Character.isLetterOrDigit(c) || c == '_') {
+				int start = i;
+				while (i < length) {
+					c = sql.charAt(i);
+					if (c == '"') {
+						int end = sql.indexOf('"', i + 1);
+						i = end < 0 ? length : end + 1;
+					} else if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.') {
+						i++;
+					} else {
+						break;
+					}
+				}
+				tokens.add(sql.substring(start, i));
+			} else {
+				tokens.add(String.valueOf(c));
+				i++;
+			}
+		}
+		return tokens;
+	}
+
+}
@@ -0,0 +1,322 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.CompositeInvocationHandler;
+import net.sf.jdbcwrappers.Invocation;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} caching prepared and callable statements per connection.
+ * <p>
+ * Statements are cached by SQL text, result set type, concurrency and holdability; statements
+ * prepared with auto-generated keys or key columns are not cached. Closing a statement clears its
+ * parameters, batch and warnings, closes its current result set and returns it to the cache of its
+ * connection instead of closing it. Each call to <tt>prepareStatement</tt> or <tt>prepareCall</tt>
+ * returns a new wrapper, which can't be used anymore once it is closed. When the cache of a
+ * connection is full, the least recently returned statement is closed. The idle statements are
+ * closed when the connection is closed.
+ * <p>
+ * Statements on which the application changed the maximum number of rows, the query timeout or
+ * other properties are closed rather than cached, so that the changes don't leak into later uses.
+ * Only statements of connections obtained from the wrapped {@link DataSource} are cached.
+ *
+ * @author Peter Van den Bosch
+ */
+public class StatementCacheWrapperFactory extends AbstractInterceptor {
+	// state of statements that are not cached
+	private static final Object NOT_CACHED = new Object();
+
+	/**
+	 * Cache key of a statement.
+	 */
+	static final class Key {
+		private final String sql;
+		private final boolean callable;
+		private final int resultSetType;
+		private final int resultSetConcurrency;
+		// -1 for the default holdability of the connection
+		private final int resultSetHoldability;
+
+		Key(String sql, boolean callable, int resultSetType, int resultSetConcurrency, int resultSetHoldability) {
+			this.sql = sql;
+			this.callable = callable;
+			this.resultSetType = resultSetType;
+			this.resultSetConcurrency = resultSetConcurrency;
+			this.resultSetHoldability = resultSetHoldability;
+		}
+
+		/**
+		 * @return the key of the statement returned by the given <tt>prepareStatement</tt> or <tt>prepareCall</tt> call,
+		 *         or null if the statement is not to be cached
+		 */
+		static Key forCall(String methodName, Object[] args) {
+			boolean callable = methodName.equals("prepareCall");
+			if (!callable && !methodName.equals("prepareStatement")) {
+				return null;
+			}
+			String sql = (String) args[0];
+			switch (args.length) {
+				case 1:
+					return new Key(sql, callable, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, -1);
+				case 3:
+					return new Key(sql, callable, (Integer) args[1], (Integer) args[2], -1);
+				case 4:
+					return new Key(sql, callable, (Integer) args[1], (Integer) args[2], (Integer) args[3]);
+				default:
+					// auto-generated keys
+					return null;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return sql.hashCode() * 31 + (callable ? 1 : 0) + resultSetType * 7 + resultSetConcurrency * 11 + resultSetHoldability * 13;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return sql.equals(other.sql) && callable == other.callable && resultSetType == other.resultSetType
+					&& resultSetConcurrency == other.resultSetConcurrency && resultSetHoldability == other.resultSetHoldability;
+		}
+	}
+
+	/**
+	 * The idle statements of a connection, from least to most recently returned.
+	 */
+	private class ConnectionCache {
+		private final Map<Key, PreparedStatement> statements = new LinkedHashMap<Key, PreparedStatement>();
+		private boolean closed;
+
+		synchronized PreparedStatement checkout(Key key) {
+			return statements.remove(key);
+		}
+
+		/**
+		 * Return a statement to the cache.
+		 *
+		 * @return true if the statement was cached; false if it must be closed
+		 */
+		synchronized boolean release(Key key, PreparedStatement statement) {
+			if (closed || statements.containsKey(key)) {
+				return false;
+			}
+			try {
+				ResultSet resultSet = statement.getResultSet();
+				if (resultSet != null) {
+					resultSet.close();
+				}
+				statement.clearParameters();
+				statement.clearBatch();
+				statement.clearWarnings();
+			} catch (SQLException ex) {
+				return false;
+			}
+			statements.put(key, statement);
+			if (statements.size() > cacheSize) {
+				Iterator<PreparedStatement> it = statements.values().iterator();
+				PreparedStatement eldest = it.next();
+				it.remove();
+				evictions.incrementAndGet();
+				closeQuietly(eldest);
+			}
+			return true;
+		}
+
+		synchronized void close() {
+			closed = true;
+			for (PreparedStatement statement : statements.values()) {
+				closeQuietly(statement);
+			}
+			statements.clear();
+		}
+	}
+
+	/**
+	 * State of a cached statement.
+	 */
+	private static class StatementState {
+		final Key key;
+		boolean closed;
+		// set when a property of the statement was changed
+		boolean modified;
+
+		StatementState(Key key) {
+			this.key = key;
+		}
+	}
+
+	private int cacheSize = 50;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param cacheSize the maximum number of idle statements per connection (default 50)
+	 */
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * @return the number of statements taken from a cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of cacheable statements that had to be prepared
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of statements closed because the cache of their connection was full
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	private static void closeQuietly(PreparedStatement statement) {
+		try {
+			statement.close();
+		} catch (SQLException ex) {
+			// ignore; the statement is discarded anyway
+		}
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		String name = method.getName();
+		if (Connection.class.equals(jdbcClass)) {
+			return name.equals("prepareStatement") || name.equals("prepareCall") || name.equals("close");
+		} else if (PreparedStatement.class.isAssignableFrom(jdbcClass)) {
+			return name.equals("close") || name.equals("isClosed") || name.startsWith("execute") || name.equals("addBatch")
+					|| (name.startsWith("set") && method.getParameterTypes().length == 1);
+		} else if (ResultSet.class.equals(jdbcClass)) {
+			return name.equals("getStatement");
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		if (ResultSet.class.equals(jdbcClass)) {
+			// to return the statement wrapper from ResultSet.getStatement()
+			return PreparedStatement.class.isAssignableFrom(ownerClass);
+		}
+		return Connection.class.equals(jdbcClass) || PreparedStatement.class.isAssignableFrom(jdbcClass) || DataSource.class.equals(jdbcClass);
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		Class<?> jdbcClass = invocation.getJdbcClass();
+		if (Connection.class.equals(jdbcClass)) {
+			return invokeConnection(invocation);
+		} else if (ResultSet.class.equals(jdbcClass)) {
+			// don't let the application close a cached statement through the result set
+			CompositeInvocationHandler parent = invocation.getHandler().getParent();
+			return parent == null ? invocation.proceed() : parent.getProxy();
+		} else {
+			return invokeStatement(invocation);
+		}
+	}
+
+	private Object invokeConnection(Invocation invocation) throws Throwable {
+		ConnectionCache cache = (ConnectionCache) invocation.getState();
+		String name = invocation.getMethod().getName();
+		if (name.equals("close")) {
+			if (cache != null) {
+				cache.close();
+			}
+			return invocation.proceed();
+		}
+		Key key = Key.forCall(name, invocation.getArgs());
+		CompositeInvocationHandler parent = invocation.getHandler().getParent();
+		if (key == null || parent == null || !DataSource.class.equals(parent.getJdbcClass())) {
+			return invocation.proceed();
+		}
+		if (cache == null) {
+			cache = new ConnectionCache();
+			invocation.setState(cache);
+		}
+		PreparedStatement statement = cache.checkout(key);
+		if (statement != null) {
+			hits.incrementAndGet();
+			return statement;
+		}
+		misses.incrementAndGet();
+		return invocation.proceed();
+	}
+
+	private Object invokeStatement(Invocation invocation) throws Throwable {
+		Object state = invocation.getState();
+		CompositeInvocationHandler handler = invocation.getHandler();
+		CompositeInvocationHandler parent = handler.getParent();
+		if (state == null) {
+			Key key = null;
+			if (parent != null && parent.getTarget() instanceof Connection && invocation.getState(parent) != null) {
+				key = Key.forCall(handler.getOrigin().getName(), handler.getOriginArgs());
+			}
+			state = key == null ? NOT_CACHED : new StatementState(key);
+			invocation.setState(state);
+		}
+		if (state == NOT_CACHED) {
+			return invocation.proceed();
+		}
+		StatementState statementState = (StatementState) state;
+		String name = invocation.getMethod().getName();
+		if (name.equals("isClosed")) {
+			return statementState.closed ? Boolean.TRUE : invocation.proceed();
+		}
+		if (statementState.closed) {
+			if (name.equals("close")) {
+				return null;
+			}
+			throw new SQLException("Statement is closed");
+		}
+		if (name.equals("close")) {
+			statementState.closed = true;
+			ConnectionCache cache = (ConnectionCache) invocation.getState(parent);
+			if (statementState.modified || !cache.release(statementState.key, (PreparedStatement) invocation.getTarget())) {
+				return invocation.proceed();
+			}
+			return null;
+		}
+		if (name.startsWith("set")) {
+			statementState.modified = true;
+		}
+		return invocation.proceed();
+	}
+
+}
@@ -0,0 +1,186 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.columnar;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The values of a single column for the rows of a {@link ColumnarReader} batch.
+ * <p>
+ * Depending on the {@link Kind} of the column, the values are stored in one of the arrays, or, for
+ * strings and binary values, in a direct {@link ByteBuffer}: the value of row <tt>i</tt> is stored
+ * from position <tt>getOffsets()[i]</tt> (inclusive) to <tt>getOffsets()[i+1]</tt> (exclusive),
+ * strings encoded in UTF-8. Null values are flagged in a bitmap; their slots contain 0 or an empty value.
+ * <p>
+ * The arrays and the buffer are reused by the next batch, so their content must be copied if it is
+ * needed afterwards.
+ *
+ * @author Peter Van den Bosch
+ */
+public final class ColumnVector {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Storage of the values of a column.
+	 */
+	public enum Kind {
+		/** {@link #getInts()}: integer types of up to 32 bits and booleans (0 or 1) */
+		INT,
+		/** {@link #getLongs()}: <tt>BIGINT</tt>, decimals without scale, and dates, times and timestamps (milliseconds since the epoch) */
+		LONG,
+		/** {@link #getDoubles()}: floating point types */
+		DOUBLE,
+		/** {@link #getData()} and {@link #getOffsets()}: character types, and decimals with a scale (as text) */
+		STRING,
+		/** {@link #getData()} and {@link #getOffsets()}: binary types */
+		BINARY,
+		/** {@link #getObjects()}: all other types, as returned by <tt>getObject</tt> */
+		OBJECT
+	}
+
+	private final Kind kind;
+	private final String label;
+	private int[] ints;
+	private long[] longs;
+	private double[] doubles;
+	private Object[] objects;
+	private int[] offsets;
+	private ByteBuffer data;
+	private final long[] nulls;
+
+	ColumnVector(Kind kind, String label, int capacity) {
+		this.kind = kind;
+		this.label = label;
+		switch (kind) {
+			case INT:
+				ints = new int[capacity];
+				break;
+			case LONG:
+				longs = new long[capacity];
+				break;
+			case DOUBLE:
+				doubles = new double[capacity];
+				break;
+			case OBJECT:
+				objects = new Object[capacity];
+				break;
+			default:
+				offsets = new int[capacity + 1];
+				data = ByteBuffer.allocateDirect(capacity * 16);
+		}
+		nulls = new long[(capacity + 63) >>> 6];
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public int[] getInts() {
+		return ints;
+	}
+
+	public long[] getLongs() {
+		return longs;
+	}
+
+	public double[] getDoubles() {
+		return doubles;
+	}
+
+	public Object[] getObjects() {
+		return objects;
+	}
+
+	/**
+	 * @return the start offset of the value of each row in {@link #getData()}, followed by the end offset of the last row
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * @return the values of a {@link Kind#STRING} or {@link Kind#BINARY} column; positioned at 0, with the end of the last value as limit
+	 */
+	public ByteBuffer getData() {
+		return data;
+	}
+
+	/**
+	 * @return the null bitmap: bit <tt>i &amp; 63</tt> of element <tt>i &gt;&gt;&gt; 6</tt> is set if the value of row <tt>i</tt> is null
+	 */
+	public long[] getNulls() {
+		return nulls;
+	}
+
+	public boolean isNull(int row) {
+		return (nulls[row >>> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * Decode the value of a row of a {@link Kind#STRING} column. Provided for convenience; it allocates a string.
+	 */
+	public String getString(int row) {
+		if (isNull(row)) {
+			return null;
+		}
+		byte[] bytes = new byte[offsets[row + 1] - offsets[row]];
+		ByteBuffer buffer = data.duplicate();
+		buffer.position(offsets[row]);
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	void reset() {
+		Arrays.fill(nulls, 0);
+		if (data != null) {
+			data.clear();
+		}
+		if (objects != null) {
+			Arrays.fill(objects, null);
+		}
+	}
+
+	void setNull(int row) {
+		nulls[row >>> 6] |= 1L << row;
+	}
+
+	/**
+	 * Make room for at least the given number of bytes in the data buffer, which must be in write mode.
+	 */
+	ByteBuffer ensureRemaining(int bytes) {
+		if (data.remaining() < bytes) {
+			ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(data.capacity() * 2, data.position() + bytes));
+			data.flip();
+			larger.put(data);
+			data = larger;
+		}
+		return data;
+	}
+
+	/**
+	 * Switch the data buffer from writing to reading.
+	 */
+	void finish() {
+		if (data != null) {
+			data.flip();
+		}
+	}
+
+}
@@ -0,0 +1,356 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.columnar;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import net.sf.jdbcwrappers.columnar.ColumnVector.Kind;
+
+/**
+ * Reads the rows of a {@link ResultSet} in batches into {@link ColumnVector}s.
+ * <p>
+ * The getter used for each column is chosen once from the {@link ResultSetMetaData}, so that
+ * numeric values are read with the primitive getters and stored without boxing, and strings are
+ * encoded straight into the (reused) buffer of their column. With <tt>trimCharColumns</tt>, the
+ * trailing spaces of <tt>CHAR</tt> values are left out while encoding them, which gives the same
+ * result as a {@link net.sf.jdbcwrappers.trim.TrimmingWrapperFactory} without the intermediate
+ * substring. The result set may be a wrapped one; the reader only uses standard JDBC methods.
+ * <p>
+ * Typical use:
+ * <pre>
+ * ColumnarReader reader = new ColumnarReader(resultSet, 4096, true);
+ * int rows;
+ * while ((rows = reader.read()) &gt; 0) {
+ *     int[] ids = reader.getColumn(1).getInts();
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author Peter Van den Bosch
+ */
+public class ColumnarReader {
+
+	/**
+	 * Reads the values of a column with the getter matching its type.
+	 */
+	private abstract static class ColumnGetter {
+		final int column;
+		final ColumnVector vector;
+
+		ColumnGetter(int column, ColumnVector vector) {
+			this.column = column;
+			this.vector = vector;
+		}
+
+		abstract void read(ResultSet resultSet, int row) throws SQLException;
+	}
+
+	private static class IntGetter extends ColumnGetter {
+		IntGetter(int column, ColumnVector vector) {
+			super(column, vector);
+		}
+
+		@Override
+		void read(ResultSet resultSet, int row) throws SQLException {
+			vector.getInts()[row] = resultSet.getInt(column);
+			if (resultSet.wasNull()) {
+				vector.setNull(row);
+			}
+		}
+	}
+
+	private static class BooleanGetter extends ColumnGetter {
+		BooleanGetter(int column, ColumnVector vector) {
+			super(column, vector);
+		}
+
+		@Override
+		void read(ResultSet resultSet, int row) throws SQLException {
+			vector.getInts()[row] = resultSet.getBoolean(column) ? 1 : 0;
+			if (resultSet.wasNull()) {
+				vector.setNull(row);
+			}
+		}
+	}
+
+	private static class LongGetter extends ColumnGetter {
+		LongGetter(int column, ColumnVector vector) {
+			super(column, vector);
+		}
+
+		@Override
+		void read(ResultSet resultSet, int row) throws SQLException {
+			vector.getLongs()[row] = resultSet.getLong(column);
+			if (resultSet.wasNull()) {
+				vector.setNull(row);
+			}
+		}
+	}
+
+	private static class DoubleGetter extends ColumnGetter {
+		DoubleGetter(int column, ColumnVector vector) {
+			super(column, vector);
+		}
+
+		@Override
+		void read(ResultSet resultSet, int row) throws SQLException {
+			vector.getDoubles()[row] = resultSet.getDouble(column);
+			if (resultSet.wasNull()) {
+				vector.setNull(row);
+			}
+		}
+	}
+
+	private static class TimestampGetter extends ColumnGetter {
+		TimestampGetter(int column, ColumnVector vector) {
+			super(column, vector);
+		}
+
+		@Override
+		void read(ResultSet resultSet, int row) throws SQLException {
+			java.util.Date value = resultSet.getTimestamp(column);
+			if (value == null) {
+				vector.getLongs()[row] = 0;
+				vector.setNull(row);
+			} else {
+				vector.getLongs()[row] = value.getTime();
+			}
+		}
+	}
+
+	private static class ObjectGetter extends ColumnGetter {
+		ObjectGetter(int column, ColumnVector vector) {
+			super(column, vector);
+		}
+
+		@Override
+		void read(ResultSet resultSet, int row) throws SQLException {
+			Object value = resultSet.getObject(column);
+			vector.getObjects()[row] = value;
+			if (value == null) {
+				vector.setNull(row);
+			}
+		}
+	}
+
+	private static class StringGetter extends ColumnGetter {
+		private final boolean trim;
+
+		StringGetter(int column, ColumnVector vector, boolean trim) {
+			super(column, vector);
+			this.trim = trim;
+		}
+
+		@Override
+		void read(ResultSet resultSet, int row) throws SQLException {
+			int[] offsets = vector.getOffsets();
+			String value = getString(resultSet);
+			if (value == null) {
+				vector.setNull(row);
+				offsets[row + 1] = offsets[row];
+				return;
+			}
+			int length = value.length();
+			if (trim) {
+				while (length > 0 && value.charAt(length - 1) == ' ') {
+					length--;
+				}
+			}
+			ByteBuffer data = vector.ensureRemaining(length * 3);
+			for (int i = 0; i < length; i++) {
+				char c = value.charAt(i);
+				if (c < 0x80) {
+					data.put((byte) c);
+				} else if (c < 0x800) {
+					data.put((byte) (0xC0 | (c >> 6)));
+					data.put((byte) (0x80 | (c & 0x3F)));
+				} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					data.put((byte) (0xF0 | (codePoint >> 18)));
+					data.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+					data.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+					data.put((byte) (0x80 | (codePoint & 0x3F)));
+				} else if (Character.isSurrogate(c)) {
+					// unpaired surrogate, replaced like String.getBytes does
+					data.put((byte) '?');
+				} else {
+					data.put((byte) (0xE0 | (c >> 12)));
+					data.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+					data.put((byte) (0x80 | (c & 0x3F)));
+				}
+			}
+			offsets[row + 1] = data.position();
+		}
+
+		String getString(ResultSet resultSet) throws SQLException {
+			return resultSet.getString(column);
+		}
+	}
+
+	private static class DecimalGetter extends StringGetter {
+		DecimalGetter(int column, ColumnVector vector) {
+			super(column, vector, false);
+		}
+
+		@Override
+		String getString(ResultSet resultSet) throws SQLException {
+			BigDecimal value = resultSet.getBigDecimal(column);
+			return value == null ? null : value.toPlainString();
+		}
+	}
+
+	private static class BinaryGetter extends ColumnGetter {
+		BinaryGetter(int column, ColumnVector vector) {
+			super(column, vector);
+		}
+
+		@Override
+		void read(ResultSet resultSet, int row) throws SQLException {
+			int[] offsets = vector.getOffsets();
+			byte[] value = resultSet.getBytes(column);
+			if (value == null) {
+				vector.setNull(row);
+				offsets[row + 1] = offsets[row];
+				return;
+			}
+			vector.ensureRemaining(value.length).put(value);
+			offsets[row + 1] = vector.getData().position();
+		}
+	}
+
+	private final ResultSet resultSet;
+	private final int batchSize;
+	private final ColumnVector[] vectors;
+	private final ColumnGetter[] getters;
+	private int rowCount;
+	private boolean exhausted;
+
+	/**
+	 * @param resultSet the result set to read, positioned before the first row to read
+	 * @param batchSize the maximum number of rows per batch
+	 * @param trimCharColumns whether to remove the trailing spaces of the values of <tt>CHAR</tt> columns
+	 */
+	public ColumnarReader(ResultSet resultSet, int batchSize, boolean trimCharColumns) throws SQLException {
+		this.resultSet = resultSet;
+		this.batchSize = batchSize;
+		ResultSetMetaData metaData = resultSet.getMetaData();
+		int columnCount = metaData.getColumnCount();
+		vectors = new ColumnVector[columnCount];
+		getters = new ColumnGetter[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			getters[i] = createGetter(metaData, i + 1, batchSize, trimCharColumns);
+			vectors[i] = getters[i].vector;
+		}
+	}
+
+	private static ColumnGetter createGetter(ResultSetMetaData metaData, int column, int capacity, boolean trimCharColumns) throws SQLException {
+		String label = metaData.getColumnLabel(column);
+		int type = metaData.getColumnType(column);
+		switch (type) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+				return new IntGetter(column, new ColumnVector(Kind.INT, label, capacity));
+			case Types.BIT:
+			case Types.BOOLEAN:
+				return new BooleanGetter(column, new ColumnVector(Kind.INT, label, capacity));
+			case Types.BIGINT:
+				return new LongGetter(column, new ColumnVector(Kind.LONG, label, capacity));
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				int precision = metaData.getPrecision(column);
+				if (metaData.getScale(column) == 0 && precision > 0 && precision <= 18) {
+					return new LongGetter(column, new ColumnVector(Kind.LONG, label, capacity));
+				}
+				return new DecimalGetter(column, new ColumnVector(Kind.STRING, label, capacity));
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return new DoubleGetter(column, new ColumnVector(Kind.DOUBLE, label, capacity));
+			case Types.DATE:
+			case Types.TIME:
+			case Types.TIMESTAMP:
+				return new TimestampGetter(column, new ColumnVector(Kind.LONG, label, capacity));
+			case Types.CHAR:
+			case Types.NCHAR:
+				return new StringGetter(column, new ColumnVector(Kind.STRING, label, capacity), trimCharColumns);
+			case Types.VARCHAR:
+			case Types.NVARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.LONGNVARCHAR:
+			case Types.CLOB:
+			case Types.NCLOB:
+				return new StringGetter(column, new ColumnVector(Kind.STRING, label, capacity), false);
+			case Types.BINARY:
+			case Types.VARBINARY:
+			case Types.LONGVARBINARY:
+			case Types.BLOB:
+				return new BinaryGetter(column, new ColumnVector(Kind.BINARY, label, capacity));
+			default:
+				return new ObjectGetter(column, new ColumnVector(Kind.OBJECT, label, capacity));
+		}
+	}
+
+	/**
+	 * Read the next batch of rows into the column vectors, replacing the previous batch.
+	 *
+	 * @return the number of rows read; 0 if the result set is exhausted
+	 */
+	public int read() throws SQLException {
+		for (ColumnVector vector : vectors) {
+			vector.reset();
+		}
+		int row = 0;
+		while (row < batchSize && !exhausted) {
+			if (!resultSet.next()) {
+				exhausted = true;
+				break;
+			}
+			for (ColumnGetter getter : getters) {
+				getter.read(resultSet, row);
+			}
+			row++;
+		}
+		for (ColumnVector vector : vectors) {
+			vector.finish();
+		}
+		rowCount = row;
+		return row;
+	}
+
+	/**
+	 * @return the number of rows of the current batch
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColumnCount() {
+		return vectors.length;
+	}
+
+	/**
+	 * @param column the column index, starting at 1 like in JDBC
+	 * @return the values of the column in the current batch
+	 */
+	public ColumnVector getColumn(int column) {
+		return vectors[column - 1];
+	}
+
+}
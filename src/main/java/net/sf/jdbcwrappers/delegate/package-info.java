@@ -0,0 +1,33 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+/**
+ * Concrete delegating implementations of the JDBC interfaces, generated at build time.
+ * <p>
+ * Each <tt>XxxDelegate</tt> class forwards every method of the JDBC 4.1 API (Java 7) to its target;
+ * the default methods added by later JDBC versions are inherited, not forwarded. Methods returning
+ * another JDBC object pass the result through a protected <tt>wrapXxx</tt> hook, so that a
+ * subclass can wrap the object graph by overriding the hooks, and intercept individual calls
+ * by overriding the typed methods. Contrary to {@link java.lang.reflect.Proxy} based wrappers,
+ * calls don't box primitive arguments or return values and don't allocate argument arrays.
+ */
+@GenerateDelegates({
+	java.sql.Connection.class,
+	java.sql.Statement.class,
+	java.sql.PreparedStatement.class,
+	java.sql.CallableStatement.class,
+	java.sql.ResultSet.class,
+	java.sql.DatabaseMetaData.class,
+	javax.sql.DataSource.class
+})
+package net.sf.jdbcwrappers.delegate;
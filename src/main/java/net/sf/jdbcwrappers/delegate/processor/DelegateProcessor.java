@@ -0,0 +1,260 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.delegate.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor generating the delegating classes requested by
+ * {@link net.sf.jdbcwrappers.delegate.GenerateDelegates}.
+ * <p>
+ * The classes are generated from the JDBC interfaces of the JDK used for the build, but only
+ * implement their abstract methods, i.e. the JDBC 4.1 API of Java 7, which the library targets.
+ * The methods added by later JDBC versions are default methods, which the delegates inherit
+ * instead of forwarding them; forwarding them would make the generated code depend on types
+ * such as <tt>java.sql.ShardingKey</tt> that don't exist in Java 7.
+ * The processor only depends on the JDK and is compiled in a separate compiler execution
+ * before the rest of the sources (see <tt>pom.xml</tt>).
+ *
+ * @author Peter Van den Bosch
+ */
+@SupportedAnnotationTypes(DelegateProcessor.ANNOTATION)
+public class DelegateProcessor extends AbstractProcessor {
+
+	static final String ANNOTATION = "net.sf.jdbcwrappers.delegate.GenerateDelegates";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (TypeElement annotation : annotations) {
+			for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+				PackageElement pkg = (PackageElement) element;
+				List<TypeElement> interfaces = getInterfaces(pkg);
+				for (TypeElement iface : interfaces) {
+					try {
+						generate(pkg.getQualifiedName().toString(), iface, interfaces);
+					} catch (IOException e) {
+						processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+							"Failed to generate delegate for " + iface + ": " + e, element);
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private List<TypeElement> getInterfaces(PackageElement pkg) {
+		List<TypeElement> result = new ArrayList<TypeElement>();
+		for (AnnotationMirror mirror : pkg.getAnnotationMirrors()) {
+			if (!ANNOTATION.equals(((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString())) {
+				continue;
+			}
+			for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+				@SuppressWarnings("unchecked")
+				List<? extends AnnotationValue> values = (List<? extends AnnotationValue>) entry.getValue().getValue();
+				for (AnnotationValue value : values) {
+					result.add((TypeElement) ((DeclaredType) value.getValue()).asElement());
+				}
+			}
+		}
+		return result;
+	}
+
+	private void generate(String packageName, TypeElement iface, List<TypeElement> interfaces) throws IOException {
+		String ifaceName = iface.getQualifiedName().toString();
+		String className = iface.getSimpleName() + "Delegate";
+		PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(packageName + "." + className, iface).openWriter());
+		try {
+			out.println("package " + packageName + ";");
+			out.println();
+			out.println("/**");
+			out.println(" * Delegating implementation of {@link " + ifaceName + "}.");
+			out.println(" * Generated by " + getClass().getName() + "; do not edit.");
+			out.println(" */");
+			out.println("public class " + className + " implements " + ifaceName + " {");
+			out.println();
+			out.println("\tprivate final " + ifaceName + " target;");
+			out.println();
+			out.println("\tpublic " + className + "(" + ifaceName + " target) {");
+			out.println("\t\tthis.target = target;");
+			out.println("\t}");
+			out.println();
+			out.println("\tpublic " + ifaceName + " getTarget() {");
+			out.println("\t\treturn target;");
+			out.println("\t}");
+
+			Map<String, TypeElement> hooks = new LinkedHashMap<String, TypeElement>();
+			for (ExecutableElement method : getMethods(iface)) {
+				TypeElement wrapped = getWrappedInterface(method.getReturnType(), interfaces);
+				if (wrapped != null) {
+					hooks.put(wrapped.getQualifiedName().toString(), wrapped);
+				}
+				out.println();
+				generateMethod(out, method, wrapped);
+			}
+
+			for (TypeElement hook : hooks.values()) {
+				String name = hook.getQualifiedName().toString();
+				String param = decapitalize(hook.getSimpleName().toString());
+				out.println();
+				out.println("\t/**");
+				out.println("\t * Hook called with every {@link " + name + "} returned by the target; returns the object unchanged by default.");
+				out.println("\t */");
+				out.println("\tprotected " + name + " wrap" + hook.getSimpleName() + "(" + name + " " + param + ") {");
+				out.println("\t\treturn " + param + ";");
+				out.println("\t}");
+			}
+			out.println("}");
+		} finally {
+			out.close();
+		}
+	}
+
+	private void generateMethod(PrintWriter out, ExecutableElement method, TypeElement wrapped) {
+		StringBuilder signature = new StringBuilder("\tpublic ");
+		List<? extends TypeParameterElement> typeParameters = method.getTypeParameters();
+		if (!typeParameters.isEmpty()) {
+			signature.append('<');
+			for (Iterator<? extends TypeParameterElement> it = typeParameters.iterator(); it.hasNext(); ) {
+				TypeParameterElement typeParameter = it.next();
+				signature.append(typeParameter.getSimpleName());
+				List<? extends TypeMirror> bounds = typeParameter.getBounds();
+				if (!(bounds.size() == 1 && "java.lang.Object".equals(bounds.get(0).toString()))) {
+					signature.append(" extends ");
+					for (Iterator<? extends TypeMirror> it2 = bounds.iterator(); it2.hasNext(); ) {
+						signature.append(it2.next());
+						if (it2.hasNext()) {
+							signature.append(" & ");
+						}
+					}
+				}
+				if (it.hasNext()) {
+					signature.append(", ");
+				}
+			}
+			signature.append("> ");
+		}
+		signature.append(method.getReturnType()).append(' ').append(method.getSimpleName()).append('(');
+		StringBuilder call = new StringBuilder("this.target.").append(method.getSimpleName()).append('(');
+		int i = 0;
+		for (VariableElement parameter : method.getParameters()) {
+			if (i > 0) {
+				signature.append(", ");
+				call.append(", ");
+			}
+			String name = "arg" + i;
+			TypeMirror type = parameter.asType();
+			if (method.isVarArgs() && i == method.getParameters().size() - 1) {
+				signature.append(type.toString().replaceFirst("\\[\\]$", "...")).append(' ').append(name);
+			} else {
+				signature.append(type).append(' ').append(name);
+			}
+			call.append(name);
+			i++;
+		}
+		signature.append(')');
+		call.append(')');
+		List<? extends TypeMirror> thrownTypes = method.getThrownTypes();
+		if (!thrownTypes.isEmpty()) {
+			signature.append(" throws ");
+			for (Iterator<? extends TypeMirror> it = thrownTypes.iterator(); it.hasNext(); ) {
+				signature.append(it.next());
+				if (it.hasNext()) {
+					signature.append(", ");
+				}
+			}
+		}
+
+		out.println("\t@Override");
+		out.println(signature + " {");
+		if (method.getReturnType().getKind() == TypeKind.VOID) {
+			out.println("\t\t" + call + ";");
+		} else if (wrapped != null) {
+			out.println("\t\treturn wrap" + wrapped.getSimpleName() + "(" + call + ");");
+		} else {
+			out.println("\t\treturn " + call + ";");
+		}
+		out.println("\t}");
+	}
+
+	/**
+	 * Collect the abstract methods of the interface and its superinterfaces, omitting overridden ones.
+	 * Default methods are skipped: they were added after JDBC 4.1 (see the class comment).
+	 */
+	private List<ExecutableElement> getMethods(TypeElement iface) {
+		Map<String, ExecutableElement> methods = new LinkedHashMap<String, ExecutableElement>();
+		for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(iface))) {
+			if (!method.getModifiers().contains(Modifier.ABSTRACT) || method.getEnclosingElement().getKind() != ElementKind.INTERFACE) {
+				continue;
+			}
+			StringBuilder key = new StringBuilder(method.getSimpleName());
+			for (VariableElement parameter : method.getParameters()) {
+				key.append(',').append(processingEnv.getTypeUtils().erasure(parameter.asType()));
+			}
+			if (!methods.containsKey(key.toString())) {
+				methods.put(key.toString(), method);
+			}
+		}
+		return new ArrayList<ExecutableElement>(methods.values());
+	}
+
+	private TypeElement getWrappedInterface(TypeMirror returnType, List<TypeElement> interfaces) {
+		if (returnType.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		Element element = ((DeclaredType) returnType).asElement();
+		for (TypeElement iface : interfaces) {
+			if (iface.equals(element)) {
+				return iface;
+			}
+		}
+		return null;
+	}
+
+	private static String decapitalize(String name) {
+		return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+	}
+
+}
@@ -0,0 +1,263 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.fetch;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.CompositeInvocationHandler;
+import net.sf.jdbcwrappers.Invocation;
+import net.sf.jdbcwrappers.ProxyHelper;
+import net.sf.jdbcwrappers.SqlFingerprint;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} setting the fetch size of statements from the number of
+ * rows the application consumed in previous executions of the same {@link SqlFingerprint SQL fingerprint}.
+ * <p>
+ * The rows read from each result set (until it is exhausted or closed) are added to an exponentially
+ * weighted moving average per fingerprint. Before a query is executed, the fetch size of the statement
+ * is set to that average plus one, so that the driver can usually detect the end of the result without
+ * another round trip, bounded by the configured minimum and maximum and by the maximum number of rows
+ * of the statement. The first execution of a fingerprint uses the default fetch size of the driver.
+ * <p>
+ * Statements on which the application set a fetch size itself are left alone. The learned fetch
+ * sizes are available through {@link #getFetchSizes()}.
+ *
+ * @author Peter Van den Bosch
+ */
+public class FetchSizeTuningWrapperFactory extends AbstractInterceptor {
+	// weight of a new sample in the moving average
+	private static final double WEIGHT = 0.25;
+
+	/**
+	 * The moving average of the rows consumed for a fingerprint. Updates are not synchronized; a
+	 * sample lost to a concurrent update doesn't matter for an estimate.
+	 */
+	private static class Estimate {
+		volatile double rows = -1;
+		// 0 until the first sample
+		volatile int fetchSize;
+	}
+
+	/**
+	 * State kept for statements.
+	 */
+	private static class StatementState {
+		// set when the application set the fetch size, or when the driver refused ours
+		boolean fixed;
+		long maxRows;
+		// the fetch size last set on the statement (0 for the driver's default)
+		int fetchSize;
+		// the estimate of the last execution
+		Estimate estimate;
+	}
+
+	/**
+	 * State kept for result sets.
+	 */
+	private static class ResultSetState {
+		final Estimate estimate;
+		int rows;
+		boolean done;
+
+		ResultSetState(Estimate estimate) {
+			this.estimate = estimate;
+		}
+	}
+
+	// state of result sets whose rows are not counted
+	private static final ResultSetState NOT_COUNTED = new ResultSetState(null);
+
+	static {
+		NOT_COUNTED.done = true;
+	}
+
+	private final ConcurrentMap<String, Estimate> estimates = new ConcurrentHashMap<String, Estimate>();
+	private int minFetchSize = 1;
+	private int maxFetchSize = 1000;
+	private int maxFingerprints = 1000;
+
+	/**
+	 * @param minFetchSize the smallest fetch size to set (default 1)
+	 */
+	public void setMinFetchSize(int minFetchSize) {
+		this.minFetchSize = minFetchSize;
+	}
+
+	/**
+	 * @param maxFetchSize the largest fetch size to set (default 1000)
+	 */
+	public void setMaxFetchSize(int maxFetchSize) {
+		this.maxFetchSize = maxFetchSize;
+	}
+
+	/**
+	 * @param maxFingerprints the maximum number of fingerprints for which a fetch size is learned (default 1000)
+	 */
+	public void setMaxFingerprints(int maxFingerprints) {
+		this.maxFingerprints = maxFingerprints;
+	}
+
+	/**
+	 * @return the learned fetch sizes by fingerprint
+	 */
+	public Map<String, Integer> getFetchSizes() {
+		Map<String, Integer> result = new HashMap<String, Integer>();
+		for (Map.Entry<String, Estimate> entry : estimates.entrySet()) {
+			int fetchSize = entry.getValue().fetchSize;
+			if (fetchSize > 0) {
+				result.put(entry.getKey(), fetchSize);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param sql SQL text or fingerprint
+	 * @return the fetch size learned for the fingerprint of the SQL text, or 0 if none was learned yet
+	 */
+	public int getFetchSize(String sql) {
+		Estimate estimate = estimates.get(SqlFingerprint.of(sql));
+		return estimate == null ? 0 : estimate.fetchSize;
+	}
+
+	/**
+	 * Discard the learned fetch sizes.
+	 */
+	public void reset() {
+		estimates.clear();
+	}
+
+	private Estimate getEstimate(String fingerprint) {
+		Estimate result = estimates.get(fingerprint);
+		if (result == null) {
+			if (estimates.size() >= maxFingerprints) {
+				return null;
+			}
+			result = new Estimate();
+			Estimate existing = estimates.putIfAbsent(fingerprint, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		return result;
+	}
+
+	private void record(Estimate estimate, int rows) {
+		double average = estimate.rows < 0 ? rows : estimate.rows + WEIGHT * (rows - estimate.rows);
+		estimate.rows = average;
+		estimate.fetchSize = (int) Math.max(minFetchSize, Math.min(maxFetchSize, Math.ceil(average) + 1));
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		String name = method.getName();
+		if (ResultSet.class.equals(jdbcClass)) {
+			return name.equals("next") || name.equals("close");
+		} else if (Statement.class.isAssignableFrom(jdbcClass)) {
+			return name.equals("executeQuery") || name.equals("execute") || name.equals("setFetchSize")
+					|| name.equals("setMaxRows") || name.equals("setLargeMaxRows");
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		if (ResultSet.class.equals(jdbcClass)) {
+			return ProxyHelper.isQueryResultSet(ownerClass, origin.getName());
+		}
+		return DataSource.class.equals(jdbcClass) || Connection.class.equals(jdbcClass) || Statement.class.isAssignableFrom(jdbcClass);
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		if (ResultSet.class.equals(invocation.getJdbcClass())) {
+			return invokeResultSet(invocation);
+		}
+		StatementState state = (StatementState) invocation.getState();
+		if (state == null) {
+			state = new StatementState();
+			invocation.setState(state);
+		}
+		String name = invocation.getMethod().getName();
+		Object[] args = invocation.getArgs();
+		if (name.equals("setFetchSize")) {
+			state.fixed = true;
+		} else if (name.equals("setMaxRows") || name.equals("setLargeMaxRows")) {
+			state.maxRows = ((Number) args[0]).longValue();
+		} else if (!state.fixed) {
+			String sql = args != null && args.length > 0 ? (String) args[0] : invocation.getHandler().getOriginSql();
+			state.estimate = sql == null ? null : getEstimate(SqlFingerprint.of(sql));
+			if (state.estimate != null) {
+				applyFetchSize(state, (Statement) invocation.getTarget());
+			}
+		}
+		return invocation.proceed();
+	}
+
+	private static void applyFetchSize(StatementState state, Statement statement) {
+		int fetchSize = state.estimate.fetchSize;
+		if (state.maxRows > 0 && fetchSize > state.maxRows) {
+			fetchSize = (int) state.maxRows;
+		}
+		if (fetchSize > 0 && fetchSize != state.fetchSize) {
+			try {
+				statement.setFetchSize(fetchSize);
+				state.fetchSize = fetchSize;
+			} catch (SQLException ex) {
+				// the driver doesn't accept the fetch size for this statement; leave it alone
+				state.fixed = true;
+			}
+		}
+	}
+
+	private Object invokeResultSet(Invocation invocation) throws Throwable {
+		ResultSetState state = (ResultSetState) invocation.getState();
+		if (state == null) {
+			CompositeInvocationHandler parent = invocation.getHandler().getParent();
+			StatementState statementState = parent == null ? null : (StatementState) invocation.getState(parent);
+			state = statementState == null || statementState.fixed || statementState.estimate == null
+					? NOT_COUNTED : new ResultSetState(statementState.estimate);
+			invocation.setState(state);
+		}
+		if (state.done) {
+			return invocation.proceed();
+		}
+		if (invocation.getMethod().getName().equals("close")) {
+			state.done = true;
+			record(state.estimate, state.rows);
+			return invocation.proceed();
+		}
+		Object result = invocation.proceed();
+		if (Boolean.TRUE.equals(result)) {
+			state.rows++;
+		} else {
+			state.done = true;
+			record(state.estimate, state.rows);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.lazy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.MethodDispatcher;
+import net.sf.jdbcwrappers.ProxyHelper;
+
+/**
+ * Invocation handler of a {@link Connection} that gets its physical connection from the data source
+ * on the first call that needs it.
+ * <p>
+ * Until then, the auto-commit mode, transaction isolation and read-only flag are recorded and
+ * returned by the getters (falling back to the defaults of the data source, if known), and
+ * <tt>commit</tt>, <tt>rollback</tt>, <tt>close</tt> and the warnings methods don't need a
+ * physical connection.
+ *
+ * @author Peter Van den Bosch
+ */
+class LazyConnection implements InvocationHandler {
+	private final LazyConnectionWrapperFactory factory;
+	private final DataSource dataSource;
+	// null if the connection was requested without credentials
+	private final String user;
+	private final String password;
+	private Connection target;
+	private Boolean autoCommit;
+	private Integer transactionIsolation;
+	private Boolean readOnly;
+	private boolean closed;
+	// set by the factory when the physical connection is acquired, e.g. the replica it was acquired from
+	Object route;
+
+	LazyConnection(LazyConnectionWrapperFactory factory, DataSource dataSource, String user, String password) {
+		this.factory = factory;
+		this.dataSource = dataSource;
+		this.user = user;
+		this.password = password;
+	}
+
+	Connection createProxy() {
+		return ProxyHelper.createProxy(Connection.class, this);
+	}
+
+	private Connection getTarget() throws SQLException {
+		if (target == null) {
+			if (closed) {
+				throw new SQLException("Connection is closed");
+			}
+			Connection connection = factory.acquire(this, dataSource, user, password, Boolean.TRUE.equals(readOnly));
+			try {
+				factory.learnDefaults(connection);
+				// explicitly set values are always replayed: a pooled connection may not be in its default state
+				if (readOnly != null) {
+					connection.setReadOnly(readOnly);
+				}
+				if (transactionIsolation != null) {
+					connection.setTransactionIsolation(transactionIsolation);
+				}
+				if (autoCommit != null) {
+					connection.setAutoCommit(autoCommit);
+				}
+			} catch (SQLException ex) {
+				try {
+					connection.close();
+				} finally {
+					factory.release(this);
+				}
+				throw ex;
+			}
+			target = connection;
+		}
+		return target;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (method.getDeclaringClass() == Object.class) {
+			if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else {
+				return "LazyConnection[" + (target != null ? target : closed ? "closed" : "not acquired") + "]";
+			}
+		}
+		if (target == null) {
+			if (name.equals("close") || name.equals("abort")) {
+				closed = true;
+				return null;
+			} else if (name.equals("isClosed")) {
+				return closed;
+			} else if (closed) {
+				throw new SQLException("Connection is closed");
+			} else if (name.equals("setAutoCommit")) {
+				autoCommit = (Boolean) args[0];
+				return null;
+			} else if (name.equals("setTransactionIsolation")) {
+				transactionIsolation = (Integer) args[0];
+				return null;
+			} else if (name.equals("setReadOnly")) {
+				readOnly = (Boolean) args[0];
+				return null;
+			} else if (name.equals("getAutoCommit") && (autoCommit != null || factory.getDefaultAutoCommit() != null)) {
+				return autoCommit != null ? autoCommit : factory.getDefaultAutoCommit();
+			} else if (name.equals("getTransactionIsolation") && (transactionIsolation != null || factory.getDefaultTransactionIsolation() != null)) {
+				return transactionIsolation != null ? transactionIsolation : factory.getDefaultTransactionIsolation();
+			} else if (name.equals("isReadOnly") && (readOnly != null || factory.getDefaultReadOnly() != null)) {
+				return readOnly != null ? readOnly : factory.getDefaultReadOnly();
+			} else if ((name.equals("commit") || name.equals("rollback")) && args == null) {
+				// nothing was executed
+				return null;
+			} else if (name.equals("getWarnings")) {
+				return null;
+			} else if (name.equals("clearWarnings")) {
+				return null;
+			}
+		} else if ((name.equals("close") || name.equals("abort")) && !closed) {
+			closed = true;
+			try {
+				return MethodDispatcher.forMethod(method).invoke(target, args);
+			} finally {
+				factory.release(this);
+			}
+		}
+		return MethodDispatcher.forMethod(method).invoke(getTarget(), args);
+	}
+
+}
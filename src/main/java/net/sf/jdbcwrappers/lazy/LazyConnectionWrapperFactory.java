@@ -0,0 +1,159 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.lazy;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.Invocation;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} deferring the acquisition of physical connections until
+ * they are needed.
+ * <p>
+ * {@link DataSource#getConnection()} returns a connection that gets its physical connection from the
+ * wrapped data source on the first call that needs one, such as creating a statement or reading the
+ * database metadata. Calls to <tt>setAutoCommit</tt>, <tt>setTransactionIsolation</tt> and
+ * <tt>setReadOnly</tt> made before that are recorded and applied when the physical connection is
+ * acquired, and <tt>commit</tt>, <tt>rollback</tt> and <tt>close</tt> don't acquire it. This shortens
+ * the time pooled connections are held by code that gets a connection up front (e.g. a transaction
+ * template) but executes no SQL, or only late.
+ * <p>
+ * The getters of the recorded settings return the values of the first physical connection if they
+ * weren't set, so they only acquire a connection before the first one was acquired, unless the defaults
+ * are configured.
+ * <p>
+ * Other interceptors composed with this one see the lazy connection as their target. Since the physical
+ * connection is requested from the target data source directly, interceptors following this one in a
+ * {@link net.sf.jdbcwrappers.CompositeWrapperFactory} don't see the <tt>getConnection</tt> calls; wrap
+ * the data source in a separate factory to intercept them.
+ *
+ * @author Peter Van den Bosch
+ */
+public class LazyConnectionWrapperFactory extends AbstractInterceptor {
+	private volatile Boolean defaultAutoCommit;
+	private volatile Integer defaultTransactionIsolation;
+	private volatile Boolean defaultReadOnly;
+	private final AtomicLong connections = new AtomicLong();
+	private final AtomicLong acquisitions = new AtomicLong();
+
+	/**
+	 * @param defaultAutoCommit the auto-commit mode of new physical connections
+	 */
+	public void setDefaultAutoCommit(boolean defaultAutoCommit) {
+		this.defaultAutoCommit = defaultAutoCommit;
+	}
+
+	/**
+	 * @param defaultTransactionIsolation the transaction isolation of new physical connections
+	 */
+	public void setDefaultTransactionIsolation(int defaultTransactionIsolation) {
+		this.defaultTransactionIsolation = defaultTransactionIsolation;
+	}
+
+	/**
+	 * @param defaultReadOnly the read-only flag of new physical connections
+	 */
+	public void setDefaultReadOnly(boolean defaultReadOnly) {
+		this.defaultReadOnly = defaultReadOnly;
+	}
+
+	Boolean getDefaultAutoCommit() {
+		return defaultAutoCommit;
+	}
+
+	Integer getDefaultTransactionIsolation() {
+		return defaultTransactionIsolation;
+	}
+
+	Boolean getDefaultReadOnly() {
+		return defaultReadOnly;
+	}
+
+	/**
+	 * @return the number of connections returned by the wrapped data sources
+	 */
+	public long getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * @return the number of physical connections acquired
+	 */
+	public long getAcquisitions() {
+		return acquisitions.get();
+	}
+
+	/**
+	 * Take the settings of a new physical connection as defaults, unless they are known already.
+	 */
+	void learnDefaults(Connection connection) throws SQLException {
+		if (defaultAutoCommit == null) {
+			defaultAutoCommit = connection.getAutoCommit();
+		}
+		if (defaultTransactionIsolation == null) {
+			defaultTransactionIsolation = connection.getTransactionIsolation();
+		}
+		if (defaultReadOnly == null) {
+			defaultReadOnly = connection.isReadOnly();
+		}
+	}
+
+	/**
+	 * Get the physical connection of a lazy connection.
+	 *
+	 * @param dataSource the wrapped data source
+	 * @param user the user, or null if the connection was requested without credentials
+	 * @param readOnly true if the connection was set read-only before it was used
+	 */
+	Connection acquire(LazyConnection connection, DataSource dataSource, String user, String password, boolean readOnly) throws SQLException {
+		Connection physicalConnection = user == null ? dataSource.getConnection() : dataSource.getConnection(user, password);
+		acquisitions.incrementAndGet();
+		return physicalConnection;
+	}
+
+	/**
+	 * Called when the physical connection returned by {@link #acquire(LazyConnection, DataSource, String, String, boolean)}
+	 * is closed.
+	 */
+	void release(LazyConnection connection) {
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		return DataSource.class.equals(jdbcClass) && method.getName().equals("getConnection");
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		return DataSource.class.equals(jdbcClass);
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		Object[] args = invocation.getArgs();
+		DataSource dataSource = (DataSource) invocation.getTarget();
+		LazyConnection connection = args == null || args.length == 0
+				? new LazyConnection(this, dataSource, null, null)
+				: new LazyConnection(this, dataSource, (String) args[0], (String) args[1]);
+		connections.incrementAndGet();
+		return connection.createProxy();
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.lazy;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} sending the connections that are read-only to replicas.
+ * <p>
+ * The wrapped data source is the primary. Like with {@link LazyConnectionWrapperFactory}, the physical
+ * connection is acquired on the first call that needs it; if the connection was set read-only before
+ * that, it is acquired from the replica with the fewest open connections (ties are broken round robin),
+ * and from the primary otherwise. Setting a connection read-only after it was used doesn't move it to a
+ * replica, and a replica connection that is set back to read-write stays on the replica.
+ * <p>
+ * A replica whose <tt>getConnection</tt> fails is ejected for the configured time, and the next best
+ * replica is tried. If no replica is available, read-only connections fall back to the primary.
+ * Replicas are assumed to accept the credentials used for the primary.
+ *
+ * @author Peter Van den Bosch
+ */
+public class ReadWriteSplittingWrapperFactory extends LazyConnectionWrapperFactory {
+	private static final Log LOG = LogFactory.getLog(ReadWriteSplittingWrapperFactory.class);
+
+	private static class Replica {
+		final DataSource dataSource;
+		final int index;
+		final AtomicInteger outstanding = new AtomicInteger();
+		volatile long ejectedUntil;
+
+		Replica(DataSource dataSource, int index) {
+			this.dataSource = dataSource;
+			this.index = index;
+		}
+	}
+
+	private Replica[] replicas = new Replica[0];
+	private long ejectionMillis = 30000;
+	private final AtomicInteger nextReplica = new AtomicInteger();
+	private final AtomicLong primaryConnections = new AtomicLong();
+	private final AtomicLong replicaConnections = new AtomicLong();
+	private final AtomicLong ejections = new AtomicLong();
+
+	/**
+	 * @param replicas the data sources of the replicas
+	 */
+	public void setReplicas(List<DataSource> replicas) {
+		Replica[] newReplicas = new Replica[replicas.size()];
+		for (int i = 0; i < newReplicas.length; i++) {
+			newReplicas[i] = new Replica(replicas.get(i), i);
+		}
+		this.replicas = newReplicas;
+	}
+
+	/**
+	 * @param ejectionMillis the time a replica isn't used after a failure to get a connection from it (default 30000)
+	 */
+	public void setEjectionMillis(long ejectionMillis) {
+		this.ejectionMillis = ejectionMillis;
+	}
+
+	/**
+	 * @return the number of physical connections acquired from the primary
+	 */
+	public long getPrimaryConnections() {
+		return primaryConnections.get();
+	}
+
+	/**
+	 * @return the number of physical connections acquired from replicas
+	 */
+	public long getReplicaConnections() {
+		return replicaConnections.get();
+	}
+
+	/**
+	 * @return the number of times a replica was ejected
+	 */
+	public long getEjections() {
+		return ejections.get();
+	}
+
+	@Override
+	Connection acquire(LazyConnection connection, DataSource dataSource, String user, String password, boolean readOnly) throws SQLException {
+		if (readOnly) {
+			Replica[] replicas = this.replicas;
+			int start = replicas.length == 0 ? 0 : (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicas.length;
+			// each failure ejects the replica, so that the next iteration selects another one
+			for (int attempt = 0; attempt < replicas.length; attempt++) {
+				Replica replica = select(replicas, start);
+				if (replica == null) {
+					break;
+				}
+				replica.outstanding.incrementAndGet();
+				try {
+					Connection physicalConnection = super.acquire(connection, replica.dataSource, user, password, true);
+					connection.route = replica;
+					replicaConnections.incrementAndGet();
+					return physicalConnection;
+				} catch (SQLException ex) {
+					replica.outstanding.decrementAndGet();
+					replica.ejectedUntil = System.currentTimeMillis() + ejectionMillis;
+					ejections.incrementAndGet();
+					LOG.warn("Ejecting replica " + replica.index + " for " + ejectionMillis + " ms", ex);
+				}
+			}
+		}
+		Connection physicalConnection = super.acquire(connection, dataSource, user, password, readOnly);
+		primaryConnections.incrementAndGet();
+		return physicalConnection;
+	}
+
+	/**
+	 * @return the available replica with the fewest outstanding connections, or null if all replicas are ejected
+	 */
+	private static Replica select(Replica[] replicas, int start) {
+		long now = System.currentTimeMillis();
+		Replica best = null;
+		int bestOutstanding = Integer.MAX_VALUE;
+		for (int i = 0; i < replicas.length; i++) {
+			Replica replica = replicas[(start + i) % replicas.length];
+			if (replica.ejectedUntil > now) {
+				continue;
+			}
+			int outstanding = replica.outstanding.get();
+			if (outstanding < bestOutstanding) {
+				best = replica;
+				bestOutstanding = outstanding;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	void release(LazyConnection connection) {
+		if (connection.route != null) {
+			((Replica) connection.route).outstanding.decrementAndGet();
+			connection.route = null;
+		}
+	}
+
+}
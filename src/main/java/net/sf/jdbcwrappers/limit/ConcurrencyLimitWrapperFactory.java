@@ -0,0 +1,305 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.limit;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.Invocation;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} limiting the number of connections in use, with a limit
+ * adapted to the latency of the statements.
+ * <p>
+ * Each connection returned by {@link DataSource#getConnection()} counts as in flight until it is closed.
+ * The limit starts at the configured initial limit and follows the latency of the statements executed
+ * through the wrapped data source: it grows while the latency is stable, and shrinks when the latency
+ * rises, i.e. when the database starts queueing (see {@link GradientLimit}). When the limit is reached,
+ * <tt>getConnection</tt> waits for a connection to be closed for at most <tt>maxWaitMillis</tt> (by
+ * default, it doesn't wait), and then throws a {@link SQLTransientConnectionException}.
+ * <p>
+ * Optionally, the limit is divided in partitions, each guaranteed a share of it. A thread selects its
+ * partition with {@link #setCallerPartition(String)}. A partition may use more than its share while
+ * the limit isn't reached; once it is, a partition still below its share gets its connections anyway
+ * (temporarily exceeding the limit), while the other callers wait. This way, batch jobs can't starve
+ * interactive traffic. Callers without a (known) partition only get a connection below the limit.
+ * <p>
+ * The connections are associated with their permits by identity, so the connection returned by the
+ * wrapped data source must be the one the application closes (i.e. no other interceptor composed with
+ * this one may replace it).
+ *
+ * @author Peter Van den Bosch
+ */
+public class ConcurrencyLimitWrapperFactory extends AbstractInterceptor {
+
+	private static class Partition {
+		final String name;
+		final double share;
+		int inFlight;
+
+		Partition(String name, double share) {
+			this.name = name;
+			this.share = share;
+		}
+	}
+
+	private int initialLimit = 20;
+	private int minLimit = 1;
+	private int maxLimit = 200;
+	private double smoothing = 0.2;
+	private long maxWaitMillis;
+	private volatile GradientLimit limit;
+	private Map<String, Partition> partitions = Collections.emptyMap();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+	// written with the lock held
+	private volatile int inFlight;
+	// permit of callers without partition
+	private final Partition noPartition = new Partition(null, 0);
+	private final Map<Object, Partition> permits = new IdentityHashMap<Object, Partition>();
+	private final ThreadLocal<String> callerPartition = new ThreadLocal<String>();
+	private final AtomicLong rejections = new AtomicLong();
+
+	/**
+	 * @param initialLimit the limit used until the latency is known (default 20)
+	 */
+	public void setInitialLimit(int initialLimit) {
+		this.initialLimit = initialLimit;
+		limit = null;
+	}
+
+	/**
+	 * @param minLimit the lowest limit (default 1)
+	 */
+	public void setMinLimit(int minLimit) {
+		this.minLimit = minLimit;
+		limit = null;
+	}
+
+	/**
+	 * @param maxLimit the highest limit (default 200)
+	 */
+	public void setMaxLimit(int maxLimit) {
+		this.maxLimit = maxLimit;
+		limit = null;
+	}
+
+	/**
+	 * @param smoothing the weight of a new estimate of the limit, between 0 and 1 (default 0.2)
+	 */
+	public void setSmoothing(double smoothing) {
+		this.smoothing = smoothing;
+		limit = null;
+	}
+
+	/**
+	 * @param maxWaitMillis the time <tt>getConnection</tt> waits for a connection to be closed when the limit is reached (default 0)
+	 */
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * @param partitions the share of the limit guaranteed to each partition, by name (e.g. 0.7 for 70%)
+	 */
+	public void setPartitions(Map<String, Double> partitions) {
+		Map<String, Partition> newPartitions = new HashMap<String, Partition>();
+		for (Map.Entry<String, Double> entry : partitions.entrySet()) {
+			newPartitions.put(entry.getKey(), new Partition(entry.getKey(), entry.getValue()));
+		}
+		lock.lock();
+		try {
+			this.partitions = newPartitions;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Select the partition of the connections requested by the current thread.
+	 *
+	 * @param partition the name of the partition, or null to clear it
+	 */
+	public void setCallerPartition(String partition) {
+		if (partition == null) {
+			callerPartition.remove();
+		} else {
+			callerPartition.set(partition);
+		}
+	}
+
+	private GradientLimit getGradientLimit() {
+		GradientLimit result = limit;
+		if (result == null) {
+			result = new GradientLimit(initialLimit, minLimit, maxLimit, smoothing);
+			limit = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the current limit
+	 */
+	public int getLimit() {
+		return getGradientLimit().getLimit();
+	}
+
+	/**
+	 * @return the number of connections in use
+	 */
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return the number of connections of a partition in use
+	 */
+	public int getInFlight(String partition) {
+		lock.lock();
+		try {
+			Partition p = partitions.get(partition);
+			return p == null ? 0 : p.inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of <tt>getConnection</tt> calls rejected because of the limit
+	 */
+	public long getRejections() {
+		return rejections.get();
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		String name = method.getName();
+		if (DataSource.class.equals(jdbcClass)) {
+			return name.equals("getConnection");
+		} else if (Connection.class.equals(jdbcClass)) {
+			return name.equals("close") || name.equals("abort");
+		} else if (Statement.class.isAssignableFrom(jdbcClass)) {
+			return name.startsWith("execute");
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		return DataSource.class.equals(jdbcClass) || Connection.class.equals(jdbcClass) || Statement.class.isAssignableFrom(jdbcClass);
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		Class<?> jdbcClass = invocation.getJdbcClass();
+		if (DataSource.class.equals(jdbcClass)) {
+			Partition partition = acquire();
+			Object connection;
+			try {
+				connection = invocation.proceed();
+			} catch (Throwable ex) {
+				release(partition);
+				throw ex;
+			}
+			lock.lock();
+			try {
+				permits.put(connection, partition);
+			} finally {
+				lock.unlock();
+			}
+			return connection;
+		} else if (Connection.class.equals(jdbcClass)) {
+			try {
+				return invocation.proceed();
+			} finally {
+				Partition partition;
+				lock.lock();
+				try {
+					partition = permits.remove(invocation.getTarget());
+				} finally {
+					lock.unlock();
+				}
+				if (partition != null) {
+					release(partition);
+				}
+			}
+		} else {
+			long start = System.nanoTime();
+			Object result = invocation.proceed();
+			// failures may be fast or slow for reasons unrelated to the load; only successes are sampled
+			getGradientLimit().onSample(System.nanoTime() - start, getInFlight());
+			return result;
+		}
+	}
+
+	private Partition acquire() throws SQLTransientConnectionException {
+		String name = callerPartition.get();
+		GradientLimit gradientLimit = getGradientLimit();
+		lock.lock();
+		try {
+			Partition partition = name == null ? null : partitions.get(name);
+			if (partition == null) {
+				partition = noPartition;
+			}
+			long remainingNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+			while (true) {
+				int currentLimit = gradientLimit.getLimit();
+				if (inFlight < currentLimit || partition.inFlight < Math.ceil(currentLimit * partition.share)) {
+					inFlight++;
+					partition.inFlight++;
+					return partition;
+				}
+				if (remainingNanos <= 0) {
+					rejections.incrementAndGet();
+					throw new SQLTransientConnectionException("Concurrency limit of " + currentLimit + " connections reached"
+							+ (partition.name == null ? "" : " (partition " + partition.name + ")"));
+				}
+				try {
+					remainingNanos = released.awaitNanos(remainingNanos);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new SQLTransientConnectionException("Interrupted while waiting for a connection");
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void release(Partition partition) {
+		lock.lock();
+		try {
+			inFlight--;
+			partition.inFlight--;
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
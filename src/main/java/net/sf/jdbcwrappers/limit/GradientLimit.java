@@ -0,0 +1,79 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.limit;
+
+/**
+ * Concurrency limit estimated from the ratio between the long term and the short term average latency.
+ * <p>
+ * While the latency stays at its long term average, the limit grows by about its square root per
+ * update; when the short term latency rises (the database is queueing), the limit shrinks
+ * proportionally, by at most half per update. Samples taken while less than half of the limit is used
+ * don't say anything about the capacity of the database and are ignored. The long term average is
+ * pulled down quickly when the latency drops, so that it doesn't keep the limit low after a recovery.
+ *
+ * @author Peter Van den Bosch
+ */
+final class GradientLimit {
+	private static final double SHORT_ALPHA = 2.0 / (10 + 1);
+	private static final double LONG_ALPHA = 2.0 / (600 + 1);
+	// latency increase accepted before the limit is reduced
+	private static final double TOLERANCE = 1.5;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double smoothing;
+	private double estimatedLimit;
+	private double shortRtt;
+	private double longRtt;
+	private volatile int limit;
+
+	GradientLimit(int initialLimit, int minLimit, int maxLimit, double smoothing) {
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.smoothing = smoothing;
+		this.estimatedLimit = initialLimit;
+		this.limit = initialLimit;
+	}
+
+	int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @param rttNanos the latency of an operation
+	 * @param inFlight the number of operations in flight when it completed
+	 */
+	synchronized void onSample(long rttNanos, int inFlight) {
+		if (longRtt == 0) {
+			shortRtt = rttNanos;
+			longRtt = rttNanos;
+			return;
+		}
+		shortRtt += (rttNanos - shortRtt) * SHORT_ALPHA;
+		longRtt += (rttNanos - longRtt) * LONG_ALPHA;
+		if (longRtt / shortRtt > 2) {
+			// the load dropped
+			longRtt *= 0.95;
+		}
+		if (inFlight < estimatedLimit / 2) {
+			return;
+		}
+		double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+		double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+		newLimit = estimatedLimit * (1 - smoothing) + newLimit * smoothing;
+		estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		limit = (int) estimatedLimit;
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring buffer of preallocated {@link StatementEvent}s, with multiple producers and a
+ * single consumer.
+ * <p>
+ * Every slot has a sequence number telling whether it is free for the producer claiming a given
+ * position (sequence == position) or published for the consumer (sequence == position + 1).
+ * A producer claims a position by incrementing the tail, fills the event and publishes it;
+ * when the buffer is full, {@link #claim()} fails instead of waiting.
+ *
+ * @author Peter Van den Bosch
+ */
+class EventRingBuffer {
+	private final StatementEvent[] events;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	// only accessed by the consumer
+	private long head;
+
+	EventRingBuffer(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		events = new StatementEvent[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			events[i] = new StatementEvent();
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+	}
+
+	int getCapacity() {
+		return events.length;
+	}
+
+	/**
+	 * Claim a slot. The caller must fill {@link #get(long) the event} and {@link #publish(long) publish} it.
+	 *
+	 * @return the claimed position, or -1 if the buffer is full
+	 */
+	long claim() {
+		long position = tail.get();
+		while (true) {
+			long sequence = sequences.get((int) position & mask);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					return position;
+				}
+				position = tail.get();
+			} else if (sequence < position) {
+				// the slot still holds the event published one round earlier
+				return -1;
+			} else {
+				// another producer claimed the position
+				position = tail.get();
+			}
+		}
+	}
+
+	StatementEvent get(long position) {
+		return events[(int) position & mask];
+	}
+
+	void publish(long position) {
+		sequences.lazySet((int) position & mask, position + 1);
+	}
+
+	/**
+	 * Get the next published event, to be {@link #release() released} after use. Must only be called by the consumer.
+	 *
+	 * @return the event, or null if there is none
+	 */
+	StatementEvent peek() {
+		int index = (int) head & mask;
+		return sequences.get(index) == head + 1 ? events[index] : null;
+	}
+
+	void release() {
+		int index = (int) head & mask;
+		events[index].clear();
+		sequences.lazySet(index, head + events.length);
+		head++;
+	}
+
+}
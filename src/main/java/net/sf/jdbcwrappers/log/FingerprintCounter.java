@@ -0,0 +1,109 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.log;
+
+import java.util.Arrays;
+
+/**
+ * Counts of SQL fingerprints, in an open addressing hash table of two parallel arrays. Fingerprints
+ * are usually the same string instances from one execution to the next, so lookups mostly compare
+ * references. Not thread safe.
+ *
+ * @author Peter Van den Bosch
+ */
+final class FingerprintCounter {
+	private static final int INITIAL_CAPACITY = 16;
+	// a table that grew beyond this capacity is reallocated at its initial size by clear()
+	private static final int MAX_RETAINED_CAPACITY = 256;
+
+	private String[] keys = new String[INITIAL_CAPACITY];
+	private int[] counts = new int[INITIAL_CAPACITY];
+	private int size;
+
+	/**
+	 * @return the count of the fingerprint, after incrementing it
+	 */
+	int increment(String fingerprint) {
+		int mask = keys.length - 1;
+		int i = mix(fingerprint.hashCode()) & mask;
+		while (true) {
+			String key = keys[i];
+			if (key == null) {
+				break;
+			}
+			if (key == fingerprint || key.equals(fingerprint)) {
+				return ++counts[i];
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = fingerprint;
+		counts[i] = 1;
+		if (++size > keys.length / 2) {
+			resize();
+		}
+		return 1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	String getKey(int slot) {
+		return keys[slot];
+	}
+
+	int getCount(int slot) {
+		return counts[slot];
+	}
+
+	/**
+	 * @return the number of slots, to iterate over with {@link #getKey(int)} (null for empty slots) and {@link #getCount(int)}
+	 */
+	int capacity() {
+		return keys.length;
+	}
+
+	void clear() {
+		if (keys.length > MAX_RETAINED_CAPACITY) {
+			keys = new String[INITIAL_CAPACITY];
+			counts = new int[INITIAL_CAPACITY];
+		} else if (size > 0) {
+			Arrays.fill(keys, null);
+		}
+		size = 0;
+	}
+
+	private void resize() {
+		String[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new String[oldKeys.length * 2];
+		counts = new int[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != null) {
+				int i = mix(oldKeys[j].hashCode()) & mask;
+				while (keys[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				counts[i] = oldCounts[j];
+			}
+		}
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+}
@@ -0,0 +1,230 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.log;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.CompositeInvocationHandler;
+import net.sf.jdbcwrappers.Invocation;
+import net.sf.jdbcwrappers.SqlFingerprint;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} detecting transactions that execute the same query many
+ * times (typically the N+1 selects of a lazy loading ORM), or too many statements altogether.
+ * <p>
+ * The statements executed on a connection are counted per {@link SqlFingerprint fingerprint} until the
+ * transaction ends, i.e. until <tt>commit</tt>, <tt>rollback</tt>, a change of the auto-commit mode,
+ * or <tt>close</tt>. Statements executed in auto-commit mode are transactions of their own and are not
+ * counted.
+ * When a fingerprint reaches the repeat threshold, or the transaction reaches the statement threshold,
+ * the stack of that execution is captured, and when the transaction ends, it is reported at
+ * <tt>WARN</tt> level with the repeated queries and their counts.
+ * <p>
+ * Only the configured fraction of the transactions is tracked; the others only cost a test per
+ * statement. The fingerprint of a prepared statement is computed once.
+ *
+ * @author Peter Van den Bosch
+ */
+public class RepeatedQueryWrapperFactory extends AbstractInterceptor {
+
+	/**
+	 * State kept for connections: the statements of the current transaction.
+	 */
+	private static class ConnectionState {
+		// the auto-commit mode, read when the state is created and tracked by setAutoCommit
+		boolean autoCommit;
+		// null until the first statement of the transaction is executed
+		Boolean sampled;
+		final FingerprintCounter counter = new FingerprintCounter();
+		int statements;
+		// the stack of the execution that exceeded a threshold first
+		Throwable callSite;
+
+		void reset() {
+			sampled = null;
+			if (statements > 0) {
+				counter.clear();
+				statements = 0;
+			}
+			callSite = null;
+		}
+	}
+
+	private int repeatThreshold = 50;
+	private int statementThreshold = 1000;
+	private double sampleRate = 1;
+	private Log log = LogFactory.getLog(RepeatedQueryWrapperFactory.class);
+	private final AtomicLong trackedTransactions = new AtomicLong();
+	private final AtomicLong flaggedTransactions = new AtomicLong();
+
+	/**
+	 * @param repeatThreshold the number of executions of a query in a transaction from which it is reported (default 50)
+	 */
+	public void setRepeatThreshold(int repeatThreshold) {
+		this.repeatThreshold = repeatThreshold;
+	}
+
+	/**
+	 * @param statementThreshold the number of statements in a transaction from which it is reported (default 1000)
+	 */
+	public void setStatementThreshold(int statementThreshold) {
+		this.statementThreshold = statementThreshold;
+	}
+
+	/**
+	 * @param sampleRate the fraction of the transactions that is tracked (default 1)
+	 */
+	public void setSampleRate(double sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * @param log the log to write to (default the log of this class)
+	 */
+	public void setLog(Log log) {
+		this.log = log;
+	}
+
+	/**
+	 * @return the number of transactions tracked
+	 */
+	public long getTrackedTransactions() {
+		return trackedTransactions.get();
+	}
+
+	/**
+	 * @return the number of transactions that exceeded a threshold
+	 */
+	public long getFlaggedTransactions() {
+		return flaggedTransactions.get();
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		String name = method.getName();
+		if (Connection.class.equals(jdbcClass)) {
+			return name.equals("createStatement") || name.startsWith("prepare") || name.equals("setAutoCommit")
+					|| name.equals("commit") || (name.equals("rollback") && method.getParameterTypes().length == 0)
+					|| name.equals("close");
+		} else if (Statement.class.isAssignableFrom(jdbcClass)) {
+			return name.startsWith("execute");
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		return DataSource.class.equals(jdbcClass) || Connection.class.equals(jdbcClass) || Statement.class.isAssignableFrom(jdbcClass);
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		if (Connection.class.equals(invocation.getJdbcClass())) {
+			return invokeConnection(invocation);
+		}
+		CompositeInvocationHandler parent = invocation.getHandler().getParent();
+		ConnectionState connectionState = parent != null && Connection.class.equals(parent.getJdbcClass())
+				? (ConnectionState) invocation.getState(parent) : null;
+		if (connectionState != null && !connectionState.autoCommit) {
+			if (connectionState.sampled == null) {
+				connectionState.sampled = sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+				if (connectionState.sampled) {
+					trackedTransactions.incrementAndGet();
+				}
+			}
+			if (connectionState.sampled) {
+				count(invocation, connectionState);
+			}
+		}
+		return invocation.proceed();
+	}
+
+	private void count(Invocation invocation, ConnectionState connectionState) {
+		Object[] args = invocation.getArgs();
+		String fingerprint;
+		if (args != null && args.length > 0 && args[0] instanceof String) {
+			fingerprint = SqlFingerprint.of((String) args[0]);
+		} else {
+			fingerprint = (String) invocation.getState();
+			if (fingerprint == null) {
+				String sql = invocation.getHandler().getOriginSql();
+				if (sql == null) {
+					// executeBatch of a plain statement
+					return;
+				}
+				fingerprint = SqlFingerprint.of(sql);
+				invocation.setState(fingerprint);
+			}
+		}
+		int count = connectionState.counter.increment(fingerprint);
+		connectionState.statements++;
+		if (connectionState.callSite == null && (count == repeatThreshold || connectionState.statements == statementThreshold)) {
+			connectionState.callSite = new Throwable("Call site exceeding the threshold");
+		}
+	}
+
+	private Object invokeConnection(Invocation invocation) throws Throwable {
+		ConnectionState state = (ConnectionState) invocation.getState();
+		if (state == null) {
+			state = new ConnectionState();
+			state.autoCommit = ((Connection) invocation.getTarget()).getAutoCommit();
+			invocation.setState(state);
+		}
+		String name = invocation.getMethod().getName();
+		if (name.equals("createStatement") || name.startsWith("prepare")) {
+			// only used to create the state before the statements are executed
+			return invocation.proceed();
+		}
+		try {
+			Object result = invocation.proceed();
+			if (name.equals("setAutoCommit")) {
+				state.autoCommit = (Boolean) invocation.getArgs()[0];
+			}
+			return result;
+		} finally {
+			if (state.callSite != null) {
+				report(state);
+			}
+			state.reset();
+		}
+	}
+
+	private void report(ConnectionState state) {
+		flaggedTransactions.incrementAndGet();
+		if (!log.isWarnEnabled()) {
+			return;
+		}
+		StringBuilder message = new StringBuilder();
+		message.append("Transaction executed ").append(state.statements).append(" statements");
+		FingerprintCounter counter = state.counter;
+		for (int i = 0; i < counter.capacity(); i++) {
+			if (counter.getKey(i) != null && counter.getCount(i) >= repeatThreshold) {
+				message.append("\n  ").append(counter.getCount(i)).append(" x ").append(counter.getKey(i));
+			}
+		}
+		log.warn(message, state.callSite);
+	}
+
+}
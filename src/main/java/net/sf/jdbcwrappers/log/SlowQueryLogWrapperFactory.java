@@ -0,0 +1,301 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.log;
+
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.Invocation;
+import net.sf.jdbcwrappers.ProxyHelper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} logging slow statement executions, and optionally a
+ * random sample of all executions, together with the parameters bound to prepared statements.
+ * <p>
+ * The executing thread only measures the execution and, if it is to be logged, copies the SQL text
+ * and parameter references into a slot of a preallocated lock-free ring buffer. A background daemon
+ * thread formats the events and writes them to the {@link Log}: slow executions at <tt>WARN</tt>,
+ * sampled executions at <tt>INFO</tt>. When the buffer is full, events are dropped and counted
+ * rather than blocking the caller. Parameter values are formatted by the background thread, so
+ * mutable values (e.g. arrays) changed by the application right after the execution may be logged
+ * with their new value.
+ *
+ * @author Peter Van den Bosch
+ */
+public class SlowQueryLogWrapperFactory extends AbstractInterceptor {
+	private static final Object[] NO_PARAMETERS = new Object[0];
+
+	// time the logging thread sleeps when the buffer is empty
+	private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	// states of the logging thread
+	private static final int STOPPED = 0;
+	private static final int RUNNING = 1;
+	// shutting down: the thread logs the pending events and terminates
+	private static final int DRAINING = 2;
+
+	/**
+	 * State kept for statements.
+	 */
+	private static class StatementState {
+		Object[] parameters = NO_PARAMETERS;
+		int parameterCount;
+		int batchSize;
+
+		void setParameter(int index, Object value) {
+			if (index < 1) {
+				return;
+			}
+			if (index > parameters.length) {
+				parameters = Arrays.copyOf(parameters, Math.max(index, parameters.length * 2));
+			}
+			parameters[index-1] = value;
+			parameterCount = Math.max(parameterCount, index);
+		}
+
+		void clearParameters() {
+			Arrays.fill(parameters, 0, parameterCount, null);
+			parameterCount = 0;
+		}
+	}
+
+	private long thresholdNanos = TimeUnit.SECONDS.toNanos(1);
+	private double sampleRate;
+	private boolean logParameters = true;
+	private Log log = LogFactory.getLog(SlowQueryLogWrapperFactory.class);
+	private EventRingBuffer buffer = new EventRingBuffer(1024);
+	private final AtomicLong droppedEvents = new AtomicLong();
+	private final AtomicLong loggedEvents = new AtomicLong();
+	private final AtomicInteger state = new AtomicInteger(STOPPED);
+	private volatile Thread loggingThread;
+
+	/**
+	 * @param thresholdMillis the execution time from which a statement is logged as slow (default 1000)
+	 */
+	public void setThresholdMillis(long thresholdMillis) {
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+	}
+
+	/**
+	 * @param sampleRate the fraction of the executions below the threshold that is logged (default 0)
+	 */
+	public void setSampleRate(double sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * @param logParameters whether to capture and log the parameters of prepared statements (default true)
+	 */
+	public void setLogParameters(boolean logParameters) {
+		this.logParameters = logParameters;
+	}
+
+	/**
+	 * @param log the log to write to (default the log of this class)
+	 */
+	public void setLog(Log log) {
+		this.log = log;
+	}
+
+	/**
+	 * @param bufferSize the maximum number of events waiting to be logged, rounded up to a power of two (default 1024)
+	 * @throws IllegalStateException if the logging thread is running; call {@link #shutdown()} first
+	 */
+	public void setBufferSize(int bufferSize) {
+		if (state.get() != STOPPED) {
+			throw new IllegalStateException("Can't change the buffer size while the logging thread is running");
+		}
+		this.buffer = new EventRingBuffer(bufferSize);
+	}
+
+	/**
+	 * @return the number of events dropped because the buffer was full
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents.get();
+	}
+
+	/**
+	 * @return the number of events written to the log
+	 */
+	public long getLoggedEvents() {
+		return loggedEvents.get();
+	}
+
+	/**
+	 * Stop the logging thread after it has logged the pending events. The thread is started again by the next event to be logged.
+	 */
+	public void shutdown() throws InterruptedException {
+		state.compareAndSet(RUNNING, DRAINING);
+		Thread thread = loggingThread;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			thread.join();
+		}
+	}
+
+	private void ensureRunning() {
+		// while the thread is draining, it is restarted by the thread itself if needed (see drain)
+		if (state.get() == STOPPED && state.compareAndSet(STOPPED, RUNNING)) {
+			Thread thread = new Thread("jdbcwrappers-slow-query-log") {
+				@Override
+				public void run() {
+					drain();
+				}
+			};
+			thread.setDaemon(true);
+			loggingThread = thread;
+			thread.start();
+		}
+	}
+
+	private void drain() {
+		EventRingBuffer buffer = this.buffer;
+		try {
+			while (true) {
+				StatementEvent event = buffer.peek();
+				if (event == null) {
+					if (state.get() != RUNNING) {
+						return;
+					}
+					LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+					continue;
+				}
+				try {
+					if (event.slow) {
+						if (log.isWarnEnabled()) {
+							log.warn(event.format());
+						}
+					} else if (log.isInfoEnabled()) {
+						log.info(event.format());
+					}
+					loggedEvents.incrementAndGet();
+				} catch (RuntimeException ex) {
+					// don't let a failing log or toString() stop the thread
+					log.error("Failed to log statement", ex);
+				} finally {
+					buffer.release();
+				}
+			}
+		} finally {
+			state.set(STOPPED);
+			// events published after the last check of the buffer didn't start a new thread, since this one was still draining
+			if (buffer.peek() != null) {
+				ensureRunning();
+			}
+		}
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		if (!Statement.class.isAssignableFrom(jdbcClass)) {
+			return false;
+		}
+		String name = method.getName();
+		if (name.startsWith("execute") || name.equals("addBatch") || name.equals("clearBatch")) {
+			return true;
+		}
+		if (logParameters && PreparedStatement.class.isAssignableFrom(jdbcClass)) {
+			if (name.equals("clearParameters")) {
+				return true;
+			}
+			Class<?>[] parameterTypes = method.getParameterTypes();
+			return name.startsWith("set") && parameterTypes.length >= 2 && parameterTypes[0] == int.class;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		return !ResultSet.class.equals(jdbcClass) && ProxyHelper.isQueryResultSetPath(jdbcClass, ownerClass, origin.getName());
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		String name = invocation.getMethod().getName();
+		StatementState state = (StatementState) invocation.getState();
+		if (state == null) {
+			state = new StatementState();
+			invocation.setState(state);
+		}
+		if (name.startsWith("execute")) {
+			return invokeExecute(invocation, state, name.equals("executeBatch") || name.equals("executeLargeBatch"));
+		}
+		Object result = invocation.proceed();
+		if (name.equals("addBatch")) {
+			state.batchSize++;
+		} else if (name.equals("clearBatch")) {
+			state.batchSize = 0;
+		} else if (name.equals("clearParameters")) {
+			state.clearParameters();
+		} else {
+			Object[] args = invocation.getArgs();
+			state.setParameter((Integer) args[0], name.equals("setNull") ? null : args[1]);
+		}
+		return result;
+	}
+
+	private Object invokeExecute(Invocation invocation, StatementState state, boolean batch) throws Throwable {
+		long start = System.nanoTime();
+		Throwable failure = null;
+		try {
+			return invocation.proceed();
+		} catch (Throwable ex) {
+			failure = ex;
+			throw ex;
+		} finally {
+			long duration = System.nanoTime() - start;
+			boolean slow = duration >= thresholdNanos;
+			if (slow || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+				Object[] args = invocation.getArgs();
+				String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : invocation.getHandler().getOriginSql();
+				offer(slow, sql, duration, state, batch ? state.batchSize : 0, failure);
+			}
+			if (batch) {
+				state.batchSize = 0;
+			}
+		}
+	}
+
+	private void offer(boolean slow, String sql, long duration, StatementState state, int batchSize, Throwable failure) {
+		EventRingBuffer buffer = this.buffer;
+		long position = buffer.claim();
+		if (position < 0) {
+			droppedEvents.incrementAndGet();
+			return;
+		}
+		StatementEvent event = buffer.get(position);
+		event.slow = slow;
+		event.sql = sql;
+		event.durationNanos = duration;
+		event.batchSize = batchSize;
+		event.failure = failure == null ? null : failure.toString();
+		event.setParameters(state.parameters, state.parameterCount);
+		buffer.publish(position);
+		ensureRunning();
+	}
+
+}
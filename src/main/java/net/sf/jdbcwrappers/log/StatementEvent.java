@@ -0,0 +1,94 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.log;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Blob;
+import java.sql.Clob;
+
+/**
+ * Slot of an {@link EventRingBuffer}, describing a statement execution to be logged.
+ * Instances are reused; they are filled by the executing thread and formatted by the logging thread.
+ *
+ * @author Peter Van den Bosch
+ */
+class StatementEvent {
+	boolean slow;
+	String sql;
+	long durationNanos;
+	int batchSize;
+	String failure;
+	Object[] parameters = new Object[16];
+	int parameterCount;
+
+	void setParameters(Object[] values, int count) {
+		if (parameters.length < count) {
+			parameters = new Object[count];
+		}
+		System.arraycopy(values, 0, parameters, 0, count);
+		parameterCount = count;
+	}
+
+	/**
+	 * Drop the references held by the event, so that the buffer doesn't retain parameter values.
+	 */
+	void clear() {
+		sql = null;
+		failure = null;
+		for (int i = 0; i < parameterCount; i++) {
+			parameters[i] = null;
+		}
+		parameterCount = 0;
+	}
+
+	String format() {
+		StringBuilder buffer = new StringBuilder(sql == null ? 64 : sql.length() + 64);
+		buffer.append(slow ? "Slow statement (" : "Sampled statement (");
+		buffer.append(durationNanos / 1000 / 1000.0).append(" ms): ");
+		buffer.append(sql == null ? "<batch>" : sql);
+		if (parameterCount > 0) {
+			buffer.append(" [parameters: ");
+			for (int i = 0; i < parameterCount; i++) {
+				if (i > 0) {
+					buffer.append(", ");
+				}
+				formatValue(buffer, parameters[i]);
+			}
+			buffer.append(']');
+		}
+		if (batchSize > 0) {
+			buffer.append(" [batch size: ").append(batchSize).append(']');
+		}
+		if (failure != null) {
+			buffer.append(" failed: ").append(failure);
+		}
+		return buffer.toString();
+	}
+
+	private static void formatValue(StringBuilder buffer, Object value) {
+		if (value == null) {
+			buffer.append("NULL");
+		} else if (value instanceof String) {
+			buffer.append('\'').append(value).append('\'');
+		} else if (value instanceof byte[]) {
+			buffer.append('<').append(((byte[]) value).length).append(" bytes>");
+		} else if (value instanceof InputStream || value instanceof Reader || value instanceof Blob || value instanceof Clob) {
+			buffer.append('<').append(value.getClass().getSimpleName()).append('>');
+		} else {
+			buffer.append(value);
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free histogram of non-negative long values with logarithmic buckets (four per power of two,
+ * so percentiles are accurate to about 20%).
+ * <p>
+ * Values are recorded into one of several stripes chosen by thread, so that threads recording
+ * concurrently rarely update the same counters. Stripes are allocated on first use, so a histogram
+ * that is only updated by a few threads stays small. {@link #snapshot()} sums the stripes; it doesn't
+ * block recording and may miss values recorded concurrently.
+ *
+ * @author Peter Van den Bosch
+ */
+public class Histogram {
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// values of 2^43 (about 2.4 hours in nanoseconds) and more are counted in the last bucket
+	private static final int MAX_EXPONENT = 42;
+	static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+	private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+	// layout of a stripe: the bucket counts followed by the sum and the maximum
+	private static final int SUM = BUCKETS;
+	private static final int MAX = BUCKETS + 1;
+	private static final int STRIPE_LENGTH = BUCKETS + 2;
+
+	private static final int STRIPES;
+
+	static {
+		int stripes = 1;
+		while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 64) {
+			stripes <<= 1;
+		}
+		STRIPES = stripes;
+	}
+
+	private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		AtomicLongArray stripe = getStripe();
+		stripe.incrementAndGet(bucket(value));
+		stripe.addAndGet(SUM, value);
+		long max;
+		while (value > (max = stripe.get(MAX))) {
+			if (stripe.compareAndSet(MAX, max, value)) {
+				break;
+			}
+		}
+	}
+
+	private AtomicLongArray getStripe() {
+		long id = Thread.currentThread().getId();
+		// spread consecutive thread ids (Fibonacci hashing)
+		int index = (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & (STRIPES - 1);
+		AtomicLongArray stripe = stripes.get(index);
+		if (stripe == null) {
+			stripes.compareAndSet(index, null, new AtomicLongArray(STRIPE_LENGTH));
+			stripe = stripes.get(index);
+		}
+		return stripe;
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		if (value > MAX_VALUE) {
+			value = MAX_VALUE;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the smallest value counted in the given bucket
+	 */
+	static long lowerBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * @return the largest value counted in the given bucket
+	 */
+	static long upperBound(int bucket) {
+		return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+	}
+
+	public HistogramSnapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		long sum = 0;
+		long max = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			AtomicLongArray stripe = stripes.get(i);
+			if (stripe != null) {
+				for (int j = 0; j < BUCKETS; j++) {
+					counts[j] += stripe.get(j);
+				}
+				sum += stripe.get(SUM);
+				max = Math.max(max, stripe.get(MAX));
+			}
+		}
+		return new HistogramSnapshot(counts, sum, max);
+	}
+
+	/**
+	 * Discard all recorded values. Values recorded concurrently may partially survive the reset.
+	 */
+	public void reset() {
+		for (int i = 0; i < STRIPES; i++) {
+			stripes.set(i, null);
+		}
+	}
+
+}
@@ -0,0 +1,394 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.metrics;
+
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.CompositeInvocationHandler;
+import net.sf.jdbcwrappers.Invocation;
+import net.sf.jdbcwrappers.ProxyHelper;
+import net.sf.jdbcwrappers.SqlFingerprint;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} recording latency and row count histograms per
+ * {@link SqlFingerprint SQL fingerprint}:
+ * <ul>
+ * <li>the time spent in the execute methods of statements;</li>
+ * <li>the time from the start of the execution until the first row of the result set was fetched;</li>
+ * <li>the time from the end of the execution until the result set was exhausted or closed
+ *     (result sets that are neither exhausted nor closed are not counted);</li>
+ * <li>the number of rows fetched per result set;</li>
+ * <li>the update counts returned by <tt>executeUpdate</tt> and <tt>executeBatch</tt>.</li>
+ * </ul>
+ * In addition, the time spent in {@link DataSource#getConnection()} is recorded for the data source
+ * as a whole. Batches of plain statements are recorded under {@link #BATCH}.
+ * <p>
+ * The metrics are available through {@link #getSnapshots()} and, if an {@link MBeanServer} is set,
+ * as MBeans named <tt>net.sf.jdbcwrappers:type=Metrics,name=<i>name</i></tt> for the factory and
+ * <tt>net.sf.jdbcwrappers:type=SqlMetrics,name=<i>name</i>,sql=<i>fingerprint</i></tt> for each
+ * fingerprint. Recording only updates {@link Histogram}s, so it is lock-free.
+ *
+ * @author Peter Van den Bosch
+ */
+public class MetricsWrapperFactory extends AbstractInterceptor implements MetricsWrapperFactoryMBean {
+	private static final Log LOG = LogFactory.getLog(MetricsWrapperFactory.class);
+
+	/**
+	 * Fingerprint under which the executions of new SQL statements are recorded once the maximum
+	 * number of fingerprints is reached.
+	 */
+	public static final String OTHER = "<other>";
+
+	/**
+	 * Fingerprint under which batches of plain statements (with SQL added through {@link Statement#addBatch(String)})
+	 * are recorded.
+	 */
+	public static final String BATCH = "<batch>";
+
+	private static final String DOMAIN = "net.sf.jdbcwrappers";
+
+	/**
+	 * State kept for statements: the last execution.
+	 */
+	private static class ExecutionState {
+		SqlMetrics metrics;
+		long start;
+		long end;
+	}
+
+	/**
+	 * State kept for result sets.
+	 */
+	private static class ResultSetState {
+		final SqlMetrics metrics;
+		final long executeStart;
+		final long executeEnd;
+		int rows;
+		boolean done;
+
+		ResultSetState(SqlMetrics metrics, long executeStart, long executeEnd) {
+			this.metrics = metrics;
+			this.executeStart = executeStart;
+			this.executeEnd = executeEnd;
+		}
+
+		void finish() {
+			if (!done) {
+				done = true;
+				metrics.iterationTime.record(System.nanoTime() - executeEnd);
+				metrics.rowsFetched.record(rows);
+			}
+		}
+	}
+
+	// state of result sets that are not produced by a statement execution
+	private static final ResultSetState NOT_RECORDED = new ResultSetState(null, 0, 0);
+
+	static {
+		NOT_RECORDED.done = true;
+	}
+
+	private final Histogram connectionWait = new Histogram();
+	private final ConcurrentMap<String, SqlMetrics> metrics = new ConcurrentHashMap<String, SqlMetrics>();
+	private int maxFingerprints = 1000;
+	private String name = "default";
+	private MBeanServer mbeanServer;
+	private volatile boolean registered;
+	private final List<ObjectName> registeredNames = new CopyOnWriteArrayList<ObjectName>();
+
+	/**
+	 * @param maxFingerprints the maximum number of fingerprints for which separate metrics are kept (default 1000)
+	 */
+	public void setMaxFingerprints(int maxFingerprints) {
+		this.maxFingerprints = maxFingerprints;
+	}
+
+	/**
+	 * @param name the value of the <tt>name</tt> key of the MBean names (default <tt>default</tt>)
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Set the server to register the MBeans with. The MBeans are registered when the first connection
+	 * is requested, so that this can be set in any order with the other properties.
+	 */
+	public void setMBeanServer(MBeanServer mbeanServer) {
+		this.mbeanServer = mbeanServer;
+	}
+
+	/**
+	 * Unregister all MBeans registered by this factory.
+	 */
+	public void unregisterMBeans() {
+		for (ObjectName objectName : registeredNames) {
+			try {
+				mbeanServer.unregisterMBean(objectName);
+			} catch (JMException ex) {
+				LOG.warn("Failed to unregister " + objectName, ex);
+			}
+		}
+		registeredNames.clear();
+		registered = false;
+	}
+
+	private void register(Object mbean, String properties) {
+		try {
+			ObjectName objectName = new ObjectName(DOMAIN + ":" + properties);
+			if (registeredNames.contains(objectName)) {
+				// registered concurrently by ensureRegistered()
+				return;
+			}
+			mbeanServer.registerMBean(mbean, objectName);
+			registeredNames.add(objectName);
+		} catch (JMException ex) {
+			LOG.warn("Failed to register MBean " + properties, ex);
+		}
+	}
+
+	private void ensureRegistered() {
+		if (!registered && mbeanServer != null) {
+			synchronized (this) {
+				if (!registered) {
+					register(this, "type=Metrics,name=" + name);
+					for (SqlMetrics sqlMetrics : metrics.values()) {
+						register(sqlMetrics, getObjectNameProperties(sqlMetrics));
+					}
+					registered = true;
+				}
+			}
+		}
+	}
+
+	private String getObjectNameProperties(SqlMetrics sqlMetrics) {
+		return "type=SqlMetrics,name=" + name + ",sql=" + ObjectName.quote(sqlMetrics.getFingerprint());
+	}
+
+	private SqlMetrics getMetrics(String fingerprint) {
+		SqlMetrics result = metrics.get(fingerprint);
+		if (result == null) {
+			if (metrics.size() >= maxFingerprints && !fingerprint.equals(OTHER)) {
+				return getMetrics(OTHER);
+			}
+			result = new SqlMetrics(fingerprint);
+			SqlMetrics existing = metrics.putIfAbsent(fingerprint, result);
+			if (existing != null) {
+				result = existing;
+			} else if (registered) {
+				synchronized (this) {
+					register(result, getObjectNameProperties(result));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a snapshot of the time spent in {@link DataSource#getConnection()}, in nanoseconds
+	 */
+	public HistogramSnapshot getConnectionWait() {
+		return connectionWait.snapshot();
+	}
+
+	/**
+	 * @return snapshots of the metrics of all fingerprints, by descending total execution time
+	 */
+	public List<SqlMetricsSnapshot> getSnapshots() {
+		List<SqlMetricsSnapshot> result = new ArrayList<SqlMetricsSnapshot>(metrics.size());
+		for (SqlMetrics sqlMetrics : metrics.values()) {
+			result.add(sqlMetrics.snapshot());
+		}
+		Collections.sort(result, new Comparator<SqlMetricsSnapshot>() {
+			@Override
+			public int compare(SqlMetricsSnapshot o1, SqlMetricsSnapshot o2) {
+				long sum1 = o1.getExecuteTime().getSum();
+				long sum2 = o2.getExecuteTime().getSum();
+				return sum1 < sum2 ? 1 : sum1 == sum2 ? 0 : -1;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @param sql SQL text or fingerprint
+	 * @return a snapshot of the metrics recorded for the fingerprint of the SQL text, or null if none were recorded
+	 */
+	public SqlMetricsSnapshot getSnapshot(String sql) {
+		SqlMetrics sqlMetrics = metrics.get(SqlFingerprint.of(sql));
+		return sqlMetrics == null ? null : sqlMetrics.snapshot();
+	}
+
+	@Override
+	public long getConnectionCount() {
+		return connectionWait.snapshot().getCount();
+	}
+
+	@Override
+	public double getConnectionWaitMeanMillis() {
+		return connectionWait.snapshot().getMean() / 1000000.0;
+	}
+
+	@Override
+	public double getConnectionWaitP99Millis() {
+		return connectionWait.snapshot().getPercentile(99) / 1000000.0;
+	}
+
+	@Override
+	public double getConnectionWaitMaxMillis() {
+		return connectionWait.snapshot().getMax() / 1000000.0;
+	}
+
+	@Override
+	public int getFingerprintCount() {
+		return metrics.size();
+	}
+
+	/**
+	 * Discard the recorded values. The fingerprints (and their MBeans) are kept.
+	 */
+	@Override
+	public void reset() {
+		connectionWait.reset();
+		for (SqlMetrics sqlMetrics : metrics.values()) {
+			sqlMetrics.reset();
+		}
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		String methodName = method.getName();
+		if (DataSource.class.equals(jdbcClass)) {
+			return methodName.equals("getConnection");
+		} else if (ResultSet.class.equals(jdbcClass)) {
+			return methodName.equals("next") || methodName.equals("close");
+		} else if (Statement.class.isAssignableFrom(jdbcClass)) {
+			return methodName.startsWith("execute");
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		return ProxyHelper.isQueryResultSetPath(jdbcClass, ownerClass, origin.getName());
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		Class<?> jdbcClass = invocation.getJdbcClass();
+		if (DataSource.class.equals(jdbcClass)) {
+			ensureRegistered();
+			long start = System.nanoTime();
+			try {
+				return invocation.proceed();
+			} finally {
+				connectionWait.record(System.nanoTime() - start);
+			}
+		} else if (ResultSet.class.equals(jdbcClass)) {
+			return invokeResultSet(invocation);
+		} else {
+			return invokeExecute(invocation);
+		}
+	}
+
+	private Object invokeExecute(Invocation invocation) throws Throwable {
+		Object[] args = invocation.getArgs();
+		String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : invocation.getHandler().getOriginSql();
+		SqlMetrics sqlMetrics = getMetrics(sql == null ? BATCH : SqlFingerprint.of(sql));
+		long start = System.nanoTime();
+		Object result;
+		try {
+			result = invocation.proceed();
+		} finally {
+			long end = System.nanoTime();
+			sqlMetrics.executeTime.record(end - start);
+			ExecutionState state = (ExecutionState) invocation.getState();
+			if (state == null) {
+				state = new ExecutionState();
+				invocation.setState(state);
+			}
+			state.metrics = sqlMetrics;
+			state.start = start;
+			state.end = end;
+		}
+		if (result instanceof Integer || result instanceof Long) {
+			// executeUpdate or executeLargeUpdate
+			sqlMetrics.rowsUpdated.record(((Number) result).longValue());
+		} else if (result instanceof int[]) {
+			long total = 0;
+			for (int count : (int[]) result) {
+				// ignore SUCCESS_NO_INFO
+				if (count > 0) {
+					total += count;
+				}
+			}
+			sqlMetrics.rowsUpdated.record(total);
+		} else if (result instanceof long[]) {
+			long total = 0;
+			for (long count : (long[]) result) {
+				if (count > 0) {
+					total += count;
+				}
+			}
+			sqlMetrics.rowsUpdated.record(total);
+		}
+		return result;
+	}
+
+	private Object invokeResultSet(Invocation invocation) throws Throwable {
+		ResultSetState state = (ResultSetState) invocation.getState();
+		if (state == null) {
+			CompositeInvocationHandler parent = invocation.getHandler().getParent();
+			ExecutionState execution = parent == null ? null : (ExecutionState) invocation.getState(parent);
+			state = execution == null ? NOT_RECORDED : new ResultSetState(execution.metrics, execution.start, execution.end);
+			invocation.setState(state);
+		}
+		if (state.done) {
+			return invocation.proceed();
+		}
+		if (invocation.getMethod().getName().equals("close")) {
+			state.finish();
+			return invocation.proceed();
+		}
+		Object result = invocation.proceed();
+		if (Boolean.TRUE.equals(result)) {
+			if (state.rows++ == 0) {
+				state.metrics.firstRowTime.record(System.nanoTime() - state.executeStart);
+			}
+		} else {
+			state.finish();
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.metrics;
+
+/**
+ * The metrics recorded for a single SQL fingerprint. Times are recorded in nanoseconds.
+ *
+ * @author Peter Van den Bosch
+ */
+public class SqlMetrics implements SqlMetricsMBean {
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	private final String fingerprint;
+	// time spent in the execute methods
+	final Histogram executeTime = new Histogram();
+	// time from the start of the execution until the first row was available
+	final Histogram firstRowTime = new Histogram();
+	// time from the end of the execution until the result set was exhausted or closed
+	final Histogram iterationTime = new Histogram();
+	// number of rows fetched per result set
+	final Histogram rowsFetched = new Histogram();
+	// update count per execution (the sum of the update counts for a batch)
+	final Histogram rowsUpdated = new Histogram();
+
+	SqlMetrics(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	@Override
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @return an immutable copy of the recorded values
+	 */
+	public SqlMetricsSnapshot snapshot() {
+		return new SqlMetricsSnapshot(fingerprint, executeTime.snapshot(), firstRowTime.snapshot(),
+				iterationTime.snapshot(), rowsFetched.snapshot(), rowsUpdated.snapshot());
+	}
+
+	@Override
+	public void reset() {
+		executeTime.reset();
+		firstRowTime.reset();
+		iterationTime.reset();
+		rowsFetched.reset();
+		rowsUpdated.reset();
+	}
+
+	@Override
+	public long getExecuteCount() {
+		return executeTime.snapshot().getCount();
+	}
+
+	@Override
+	public double getExecuteMeanMillis() {
+		return executeTime.snapshot().getMean() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getExecuteP99Millis() {
+		return executeTime.snapshot().getPercentile(99) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getExecuteMaxMillis() {
+		return executeTime.snapshot().getMax() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getFirstRowMeanMillis() {
+		return firstRowTime.snapshot().getMean() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getFirstRowP99Millis() {
+		return firstRowTime.snapshot().getPercentile(99) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getIterationMeanMillis() {
+		return iterationTime.snapshot().getMean() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getIterationP99Millis() {
+		return iterationTime.snapshot().getPercentile(99) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public long getRowsFetched() {
+		return rowsFetched.snapshot().getSum();
+	}
+
+	@Override
+	public double getRowsFetchedMean() {
+		return rowsFetched.snapshot().getMean();
+	}
+
+	@Override
+	public long getRowsUpdated() {
+		return rowsUpdated.snapshot().getSum();
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.metrics;
+
+/**
+ * JMX interface of {@link SqlMetrics}. Times are in milliseconds.
+ *
+ * @author Peter Van den Bosch
+ */
+public interface SqlMetricsMBean {
+	String getFingerprint();
+
+	long getExecuteCount();
+	double getExecuteMeanMillis();
+	double getExecuteP99Millis();
+	double getExecuteMaxMillis();
+
+	double getFirstRowMeanMillis();
+	double getFirstRowP99Millis();
+
+	double getIterationMeanMillis();
+	double getIterationP99Millis();
+
+	long getRowsFetched();
+	double getRowsFetchedMean();
+
+	long getRowsUpdated();
+
+	void reset();
+}
@@ -0,0 +1,88 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.metrics;
+
+import java.io.Serializable;
+
+/**
+ * Immutable copy of the {@link SqlMetrics} of a SQL fingerprint. Times are in nanoseconds.
+ *
+ * @author Peter Van den Bosch
+ */
+public class SqlMetricsSnapshot implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final String fingerprint;
+	private final HistogramSnapshot executeTime;
+	private final HistogramSnapshot firstRowTime;
+	private final HistogramSnapshot iterationTime;
+	private final HistogramSnapshot rowsFetched;
+	private final HistogramSnapshot rowsUpdated;
+
+	SqlMetricsSnapshot(String fingerprint, HistogramSnapshot executeTime, HistogramSnapshot firstRowTime,
+			HistogramSnapshot iterationTime, HistogramSnapshot rowsFetched, HistogramSnapshot rowsUpdated) {
+		this.fingerprint = fingerprint;
+		this.executeTime = executeTime;
+		this.firstRowTime = firstRowTime;
+		this.iterationTime = iterationTime;
+		this.rowsFetched = rowsFetched;
+		this.rowsUpdated = rowsUpdated;
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @return the time spent in the execute methods
+	 */
+	public HistogramSnapshot getExecuteTime() {
+		return executeTime;
+	}
+
+	/**
+	 * @return the time from the start of the execution until the first row was available
+	 */
+	public HistogramSnapshot getFirstRowTime() {
+		return firstRowTime;
+	}
+
+	/**
+	 * @return the time from the end of the execution until the result set was exhausted or closed
+	 */
+	public HistogramSnapshot getIterationTime() {
+		return iterationTime;
+	}
+
+	/**
+	 * @return the number of rows fetched per result set
+	 */
+	public HistogramSnapshot getRowsFetched() {
+		return rowsFetched;
+	}
+
+	/**
+	 * @return the update count per execution (the sum of the update counts for a batch)
+	 */
+	public HistogramSnapshot getRowsUpdated() {
+		return rowsUpdated;
+	}
+
+	@Override
+	public String toString() {
+		return fingerprint + ": execute[" + executeTime + "], firstRow[" + firstRowTime + "], iteration[" + iterationTime
+				+ "], rowsFetched[" + rowsFetched + "], rowsUpdated[" + rowsUpdated + "]";
+	}
+
+}
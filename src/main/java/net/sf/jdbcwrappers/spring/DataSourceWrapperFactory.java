@@ -13,30 +13,132 @@
  */
 package net.sf.jdbcwrappers.spring;
 
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import javax.sql.DataSource;
 
+import net.sf.jdbcwrappers.CompositeWrapperFactory;
+import net.sf.jdbcwrappers.ProxyHelper;
 import net.sf.jdbcwrappers.WrapperFactory;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 
 /**
  * Factory to create a DataSource wrapper in a Spring application context. 
+ * <p>
+ * Either a single <tt>wrapperFactory</tt> or a list of <tt>wrapperFactories</tt> must be set.
+ * The elements of the list are {@link WrapperFactory} and/or {@link net.sf.jdbcwrappers.Interceptor}
+ * instances, outermost first, and are combined with a {@link CompositeWrapperFactory}.
+ * <p>
+ * With <tt>warmUp</tt> enabled, the work that is otherwise done by the first requests is done when the
+ * context starts: the proxy classes of all wrapped jdbc classes are generated and their methods resolved,
+ * a connection is opened and its {@link DatabaseMetaData} read, and the statements of <tt>warmUpSql</tt>
+ * are prepared (and their result set metadata read) through the wrapped data source, which primes the
+ * caches of the driver and of the wrappers. The tasks run on <tt>warmUpThreads</tt> threads, each
+ * preparing its share of the statements with its own connection, for at most <tt>warmUpTimeoutMillis</tt>;
+ * tasks that fail or don't complete in time are logged, but don't fail the startup. The time of each task
+ * is logged at <tt>DEBUG</tt> level, and is available from {@link #getWarmUpTimings()}.
  * 
  */
 public class DataSourceWrapperFactory implements FactoryBean, InitializingBean {
+    private static final Log LOG = LogFactory.getLog(DataSourceWrapperFactory.class);
+    
+    /**
+     * A warm-up task, recording its time.
+     */
+    private abstract class WarmUpTask implements Callable<Void> {
+        private final String name;
+
+        WarmUpTask(String name) {
+            this.name = name;
+        }
+
+        public Void call() throws Exception {
+            long start = System.nanoTime();
+            run();
+            record(name, start);
+            return null;
+        }
+
+        abstract void run() throws Exception;
+    }
+
     private WrapperFactory wrapperFactory;
     private DataSource dataSource;
     private DataSource wrappedDataSource;
+    private boolean warmUp;
+    private List<String> warmUpSql = Collections.emptyList();
+    private int warmUpThreads = 4;
+    private long warmUpTimeoutMillis = 10000;
+    private final Map<String, Long> warmUpTimings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
     
     public void setWrapperFactory(WrapperFactory wrapperFactory) {
         this.wrapperFactory = wrapperFactory;
     }
 
+    public void setWrapperFactories(List<?> wrapperFactories) {
+        this.wrapperFactory = new CompositeWrapperFactory(wrapperFactories);
+    }
+
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
     }
 
+    /**
+     * @param warmUp whether to warm up the wrapped data source when the factory is initialized (default false)
+     */
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * @param warmUpSql the statements to prepare during the warm-up; null is the same as an empty list
+     */
+    public void setWarmUpSql(List<String> warmUpSql) {
+        this.warmUpSql = warmUpSql == null ? Collections.<String>emptyList() : warmUpSql;
+    }
+
+    /**
+     * @param warmUpThreads the number of threads, and connections, used by the warm-up (default 4)
+     */
+    public void setWarmUpThreads(int warmUpThreads) {
+        this.warmUpThreads = warmUpThreads;
+    }
+
+    /**
+     * @param warmUpTimeoutMillis the time after which the warm-up is abandoned (default 10000)
+     */
+    public void setWarmUpTimeoutMillis(long warmUpTimeoutMillis) {
+        this.warmUpTimeoutMillis = warmUpTimeoutMillis;
+    }
+
+    /**
+     * @return the time in milliseconds of each completed warm-up task, in order of completion
+     */
+    public Map<String, Long> getWarmUpTimings() {
+        synchronized (warmUpTimings) {
+            return new LinkedHashMap<String, Long>(warmUpTimings);
+        }
+    }
+
     public void afterPropertiesSet() throws Exception {
         if (wrapperFactory == null) {
             throw new Exception("wrapperFactory not set"); 
@@ -45,6 +147,114 @@ public class DataSourceWrapperFactory implements FactoryBean, InitializingBean {
             throw new Exception("dataSource not set"); 
         }
         wrappedDataSource = wrapperFactory.wrapDataSource(dataSource);
+        if (warmUp) {
+            warmUp();
+        }
+    }
+
+    private void record(String task, long start) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        warmUpTimings.put(task, millis);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Warm-up of " + task + " took " + millis + " ms");
+        }
+    }
+
+    private void warmUp() throws InterruptedException {
+        long start = System.nanoTime();
+        List<WarmUpTask> tasks = new ArrayList<WarmUpTask>();
+        // the proxies are created with the class loader of the invocation handlers of this library
+        final ClassLoader classLoader = ProxyHelper.class.getClassLoader();
+        for (final Class<?> clazz : ProxyHelper.getWrappedClasses()) {
+            tasks.add(new WarmUpTask("proxy " + clazz.getName()) {
+                @Override
+                void run() {
+                    ProxyHelper.preload(clazz, classLoader);
+                }
+            });
+        }
+        tasks.add(new WarmUpTask("metadata") {
+            @Override
+            void run() throws SQLException {
+                Connection connection = wrappedDataSource.getConnection();
+                try {
+                    DatabaseMetaData metaData = connection.getMetaData();
+                    metaData.getDatabaseProductName();
+                    metaData.getDatabaseProductVersion();
+                    metaData.getDriverName();
+                    metaData.getIdentifierQuoteString();
+                } finally {
+                    connection.close();
+                }
+            }
+        });
+        int threads = Math.max(1, warmUpThreads);
+        for (int i = 0; i < threads && i < warmUpSql.size(); i++) {
+            final List<String> share = new ArrayList<String>();
+            for (int j = i; j < warmUpSql.size(); j += threads) {
+                share.add(warmUpSql.get(j));
+            }
+            tasks.add(new WarmUpTask("statements " + (i + 1)) {
+                @Override
+                void run() throws SQLException {
+                    prepare(share);
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = threadFactory.newThread(runnable);
+                thread.setName("jdbcwrappers-warm-up");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<Void>> futures = executor.invokeAll(tasks, warmUpTimeoutMillis, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < futures.size(); i++) {
+                Future<Void> future = futures.get(i);
+                if (future.isCancelled()) {
+                    LOG.warn("Warm-up of " + tasks.get(i).name + " didn't complete in " + warmUpTimeoutMillis + " ms");
+                } else {
+                    try {
+                        future.get();
+                    } catch (ExecutionException ex) {
+                        LOG.warn("Warm-up of " + tasks.get(i).name + " failed", ex.getCause());
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        LOG.info("Warm-up completed in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    private void prepare(List<String> statements) throws SQLException {
+        Connection connection = wrappedDataSource.getConnection();
+        try {
+            for (String sql : statements) {
+                long start = System.nanoTime();
+                PreparedStatement statement;
+                try {
+                    statement = connection.prepareStatement(sql);
+                } catch (SQLException ex) {
+                    LOG.warn("Failed to prepare " + sql, ex);
+                    continue;
+                }
+                try {
+                    statement.getMetaData();
+                } catch (SQLException ex) {
+                    // not supported by all drivers; the statement is prepared anyway
+                } finally {
+                    statement.close();
+                }
+                record("statement " + sql, start);
+            }
+        } finally {
+            connection.close();
+        }
     }
 
     public boolean isSingleton() {
@@ -0,0 +1,279 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.timeout;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.AbstractInterceptor;
+import net.sf.jdbcwrappers.CompositeInvocationHandler;
+import net.sf.jdbcwrappers.Invocation;
+import net.sf.jdbcwrappers.ProxyHelper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link net.sf.jdbcwrappers.WrapperFactory} cancelling statements that run past their deadline.
+ * <p>
+ * Every <tt>execute*</tt> call gets a deadline; for <tt>executeQuery</tt>, the deadline also covers the
+ * iteration of the result set, until it is exhausted or closed (or the statement is closed or executed
+ * again). When the deadline passes, {@link Statement#cancel()} is called from the thread of a timer shared
+ * by all instances, instead of relying on the driver's implementation of <tt>setQueryTimeout</tt>. The
+ * call that fails because of the cancellation, and any later <tt>next</tt> on the result set, throw a
+ * {@link SQLTimeoutException}.
+ * <p>
+ * The timeout of a statement is, in order of precedence:
+ * <ol>
+ * <li>the timeout of its connection, set with <tt>setClientInfo(</tt>{@link #TIMEOUT_PROPERTY}<tt>, millis)</tt>
+ * (the property isn't passed to the driver, and a null value removes the timeout of the connection);</li>
+ * <li>the timeout of the first pattern (see {@link #setTimeouts(Map)}) found in its SQL;</li>
+ * <li>the default timeout.</li>
+ * </ol>
+ * A timeout of 0 means no deadline. Deadlines are enforced with a precision of 10 ms.
+ *
+ * @author Peter Van den Bosch
+ */
+public class DeadlineWrapperFactory extends AbstractInterceptor {
+	/**
+	 * Name of the client info property setting the timeout of the statements of a connection, in milliseconds.
+	 */
+	public static final String TIMEOUT_PROPERTY = "jdbcwrappers.timeoutMillis";
+
+	private static final Log LOG = LogFactory.getLog(DeadlineWrapperFactory.class);
+
+	/**
+	 * State kept for connections: the timeout set with {@link #TIMEOUT_PROPERTY}, -1 if none.
+	 */
+	private static class ConnectionState {
+		long timeoutMillis = -1;
+	}
+
+	/**
+	 * State kept for statements: the deadline, reused by all executions.
+	 */
+	private class StatementDeadline extends TimerWheel.Timeout {
+		final Statement statement;
+		// timeout matching the SQL of a prepared statement, -1 until it is looked up
+		long sqlTimeoutMillis = -1;
+		long timeoutMillis;
+
+		StatementDeadline(Statement statement) {
+			this.statement = statement;
+		}
+
+		@Override
+		void expire() {
+			cancellations.incrementAndGet();
+			try {
+				statement.cancel();
+			} catch (SQLException ex) {
+				LOG.warn("Failed to cancel statement after " + timeoutMillis + " ms", ex);
+			}
+		}
+
+		SQLTimeoutException createException(SQLException cause) {
+			return new SQLTimeoutException("Statement cancelled after its timeout of " + timeoutMillis + " ms", cause);
+		}
+	}
+
+	private long defaultTimeoutMillis;
+	private Map<Pattern, Long> timeouts = new LinkedHashMap<Pattern, Long>();
+	private final AtomicLong cancellations = new AtomicLong();
+
+	/**
+	 * @param defaultTimeoutMillis the timeout of the statements matching no pattern (default 0, i.e. none)
+	 */
+	public void setDefaultTimeoutMillis(long defaultTimeoutMillis) {
+		this.defaultTimeoutMillis = defaultTimeoutMillis;
+	}
+
+	/**
+	 * @param timeouts the timeouts in milliseconds, by regular expression searched in the SQL of the
+	 *            statements; the expressions are tried in the iteration order of the map
+	 */
+	public void setTimeouts(Map<String, Long> timeouts) {
+		Map<Pattern, Long> newTimeouts = new LinkedHashMap<Pattern, Long>();
+		for (Map.Entry<String, Long> entry : timeouts.entrySet()) {
+			newTimeouts.put(Pattern.compile(entry.getKey()), entry.getValue());
+		}
+		this.timeouts = newTimeouts;
+	}
+
+	/**
+	 * @return the number of statements cancelled because of their deadline
+	 */
+	public long getCancellations() {
+		return cancellations.get();
+	}
+
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		String name = method.getName();
+		if (Connection.class.equals(jdbcClass)) {
+			return name.equals("createStatement") || name.startsWith("prepare")
+					|| (name.equals("setClientInfo") && method.getParameterTypes().length == 2);
+		} else if (Statement.class.isAssignableFrom(jdbcClass)) {
+			return name.startsWith("execute") || name.equals("close");
+		} else if (ResultSet.class.equals(jdbcClass)) {
+			return name.equals("next") || name.equals("close");
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		if (ResultSet.class.equals(jdbcClass)) {
+			// the deadline of execute() ends when it returns, so getResultSet() isn't covered
+			return origin.getName().equals("executeQuery") && ProxyHelper.isQueryResultSet(ownerClass, origin.getName());
+		}
+		return DataSource.class.equals(jdbcClass) || Connection.class.equals(jdbcClass) || Statement.class.isAssignableFrom(jdbcClass);
+	}
+
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		Class<?> jdbcClass = invocation.getJdbcClass();
+		if (Connection.class.equals(jdbcClass)) {
+			return invokeConnection(invocation);
+		} else if (ResultSet.class.equals(jdbcClass)) {
+			return invokeResultSet(invocation);
+		}
+		StatementDeadline deadline = (StatementDeadline) invocation.getState();
+		if (deadline == null) {
+			deadline = new StatementDeadline((Statement) invocation.getTarget());
+			invocation.setState(deadline);
+		}
+		TimerWheel timer = TimerWheel.SHARED;
+		String name = invocation.getMethod().getName();
+		if (name.equals("close")) {
+			timer.cancel(deadline);
+			return invocation.proceed();
+		}
+		long timeoutMillis = getTimeoutMillis(invocation, deadline);
+		if (timeoutMillis <= 0) {
+			// the deadline of the result set of the previous execution
+			timer.cancel(deadline);
+			return invocation.proceed();
+		}
+		deadline.timeoutMillis = timeoutMillis;
+		timer.schedule(deadline, TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+		boolean iterating = false;
+		try {
+			Object result = invocation.proceed();
+			iterating = result != null && name.equals("executeQuery");
+			return result;
+		} catch (SQLException ex) {
+			if (timer.cancel(deadline)) {
+				throw deadline.createException(ex);
+			}
+			throw ex;
+		} finally {
+			if (!iterating) {
+				timer.cancel(deadline);
+			}
+		}
+	}
+
+	private long getTimeoutMillis(Invocation invocation, StatementDeadline deadline) {
+		CompositeInvocationHandler parent = invocation.getHandler().getParent();
+		if (parent != null && Connection.class.equals(parent.getJdbcClass())) {
+			ConnectionState connectionState = (ConnectionState) invocation.getState(parent);
+			if (connectionState != null && connectionState.timeoutMillis >= 0) {
+				return connectionState.timeoutMillis;
+			}
+		}
+		Map<Pattern, Long> timeouts = this.timeouts;
+		if (timeouts.isEmpty()) {
+			return defaultTimeoutMillis;
+		}
+		String sql = invocation.getHandler().getOriginSql();
+		if (sql != null) {
+			if (deadline.sqlTimeoutMillis < 0) {
+				deadline.sqlTimeoutMillis = lookup(timeouts, sql);
+			}
+			return deadline.sqlTimeoutMillis;
+		}
+		Object[] args = invocation.getArgs();
+		return args != null && args.length > 0 && args[0] instanceof String ? lookup(timeouts, (String) args[0]) : defaultTimeoutMillis;
+	}
+
+	private long lookup(Map<Pattern, Long> timeouts, String sql) {
+		for (Map.Entry<Pattern, Long> entry : timeouts.entrySet()) {
+			if (entry.getKey().matcher(sql).find()) {
+				return entry.getValue();
+			}
+		}
+		return defaultTimeoutMillis;
+	}
+
+	private Object invokeConnection(Invocation invocation) throws Throwable {
+		ConnectionState state = (ConnectionState) invocation.getState();
+		if (state == null) {
+			state = new ConnectionState();
+			invocation.setState(state);
+		}
+		Object[] args = invocation.getArgs();
+		if (invocation.getMethod().getName().equals("setClientInfo") && TIMEOUT_PROPERTY.equals(args[0])) {
+			String value = (String) args[1];
+			try {
+				state.timeoutMillis = value == null ? -1 : Long.parseLong(value.trim());
+			} catch (NumberFormatException ex) {
+				throw new SQLException("Invalid value for " + TIMEOUT_PROPERTY + ": " + value);
+			}
+			return null;
+		}
+		return invocation.proceed();
+	}
+
+	private Object invokeResultSet(Invocation invocation) throws Throwable {
+		CompositeInvocationHandler parent = invocation.getHandler().getParent();
+		StatementDeadline deadline = (StatementDeadline) invocation.getState(parent);
+		if (deadline == null) {
+			return invocation.proceed();
+		}
+		TimerWheel timer = TimerWheel.SHARED;
+		if (invocation.getMethod().getName().equals("close")) {
+			timer.cancel(deadline);
+			return invocation.proceed();
+		}
+		if (deadline.isExpired()) {
+			throw deadline.createException(null);
+		}
+		try {
+			Object result = invocation.proceed();
+			if (Boolean.FALSE.equals(result)) {
+				timer.cancel(deadline);
+			}
+			return result;
+		} catch (SQLException ex) {
+			if (timer.cancel(deadline)) {
+				throw deadline.createException(ex);
+			}
+			throw ex;
+		}
+	}
+
+}
@@ -0,0 +1,224 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.timeout;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Hashed timer wheel expiring {@link Timeout}s from a single daemon thread.
+ * <p>
+ * Time is divided in ticks; a timeout is linked into the bucket of the tick in which it expires
+ * (modulo the number of buckets), and the timer thread scans one bucket per tick, expiring the
+ * timeouts whose tick has come and leaving those of later rounds. Scheduling and cancelling only
+ * link and unlink the timeout in its bucket, and the timeout objects are meant to be reused, so
+ * neither allocates. Each bucket has its own lock, so callers rarely contend.
+ * <p>
+ * {@link Timeout#expire()} is called from the timer thread, with the lock of the timeout held: a
+ * {@link #cancel(Timeout)} that races with the expiration waits for it to complete, so that the
+ * timeout can't expire after it was cancelled and scheduled again.
+ *
+ * @author Peter Van den Bosch
+ */
+final class TimerWheel {
+	/**
+	 * The timer shared by all wrapper factories.
+	 */
+	static final TimerWheel SHARED = new TimerWheel("jdbcwrappers-deadline-timer", TimeUnit.MILLISECONDS.toNanos(10), 512);
+
+	private static final Log LOG = LogFactory.getLog(TimerWheel.class);
+
+	/**
+	 * An action to execute after a delay, unless cancelled.
+	 */
+	abstract static class Timeout {
+		// guarded by this
+		private boolean armed;
+		private long generation;
+		private volatile boolean expired;
+		// guarded by the lock of the bucket
+		private volatile Bucket bucket;
+		private Timeout previous;
+		private Timeout next;
+		private long tick;
+		// used by the timer thread only
+		private long expiringGeneration;
+		private Timeout nextExpired;
+
+		/**
+		 * @return whether the timeout expired since it was last scheduled
+		 */
+		boolean isExpired() {
+			return expired;
+		}
+
+		abstract void expire();
+	}
+
+	private static final class Bucket {
+		Timeout head;
+	}
+
+	private final long tickNanos;
+	private final Bucket[] buckets;
+	private final int mask;
+	private final long startNanos;
+	// the last tick whose bucket was scanned; written with the lock of that bucket held
+	private volatile long processedTick;
+
+	/**
+	 * @param bucketCount the number of buckets, a power of two
+	 */
+	TimerWheel(String threadName, long tickNanos, int bucketCount) {
+		this.tickNanos = tickNanos;
+		buckets = new Bucket[bucketCount];
+		for (int i = 0; i < bucketCount; i++) {
+			buckets[i] = new Bucket();
+		}
+		mask = bucketCount - 1;
+		startNanos = System.nanoTime();
+		Thread thread = new Thread(threadName) {
+			@Override
+			public void run() {
+				work();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Schedule a timeout, cancelling it first if it was scheduled already. The timeout expires after
+	 * the delay, or up to one tick later.
+	 */
+	void schedule(Timeout timeout, long delayNanos) {
+		cancel(timeout);
+		synchronized (timeout) {
+			timeout.generation++;
+			timeout.armed = true;
+			timeout.expired = false;
+		}
+		long deadlineTick = (System.nanoTime() - startNanos + delayNanos + tickNanos - 1) / tickNanos;
+		while (true) {
+			// if the timer thread is behind, the tick may already be scanned; link into the next one then
+			long tick = Math.max(deadlineTick, processedTick + 1);
+			Bucket bucket = buckets[(int) tick & mask];
+			synchronized (bucket) {
+				if (tick > processedTick) {
+					timeout.tick = tick;
+					timeout.previous = null;
+					timeout.next = bucket.head;
+					if (bucket.head != null) {
+						bucket.head.previous = timeout;
+					}
+					bucket.head = timeout;
+					timeout.bucket = bucket;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Cancel a timeout. If it is expiring, wait until {@link Timeout#expire()} has returned.
+	 *
+	 * @return whether the timeout expired
+	 */
+	boolean cancel(Timeout timeout) {
+		synchronized (timeout) {
+			timeout.armed = false;
+		}
+		while (true) {
+			Bucket bucket = timeout.bucket;
+			if (bucket == null) {
+				break;
+			}
+			synchronized (bucket) {
+				if (timeout.bucket == bucket) {
+					unlink(bucket, timeout);
+					break;
+				}
+			}
+		}
+		return timeout.expired;
+	}
+
+	private static void unlink(Bucket bucket, Timeout timeout) {
+		if (timeout.previous == null) {
+			bucket.head = timeout.next;
+		} else {
+			timeout.previous.next = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.bucket = null;
+	}
+
+	private void work() {
+		long tick = 1;
+		while (true) {
+			long sleepNanos = startNanos + tick * tickNanos - System.nanoTime();
+			if (sleepNanos > 0) {
+				LockSupport.parkNanos(this, sleepNanos);
+				continue;
+			}
+			Timeout expired = null;
+			Bucket bucket = buckets[(int) tick & mask];
+			synchronized (bucket) {
+				Timeout timeout = bucket.head;
+				while (timeout != null) {
+					Timeout next = timeout.next;
+					if (timeout.tick <= tick) {
+						unlink(bucket, timeout);
+						timeout.expiringGeneration = timeout.generation;
+						timeout.nextExpired = expired;
+						expired = timeout;
+					}
+					timeout = next;
+				}
+				processedTick = tick;
+			}
+			while (expired != null) {
+				Timeout timeout = expired;
+				expired = timeout.nextExpired;
+				timeout.nextExpired = null;
+				expire(timeout);
+			}
+			tick++;
+		}
+	}
+
+	private static void expire(Timeout timeout) {
+		synchronized (timeout) {
+			// the timeout may have been cancelled, or even scheduled again, since it was unlinked
+			if (!timeout.armed || timeout.generation != timeout.expiringGeneration) {
+				return;
+			}
+			timeout.armed = false;
+			timeout.expired = true;
+			try {
+				timeout.expire();
+			} catch (RuntimeException ex) {
+				LOG.error("Timeout failed", ex);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.trim;
+
+import java.io.Reader;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Lazily determines which columns of a {@link ResultSet} are <tt>CHAR</tt> columns.
+ * Shared by the proxy, delegate and interceptor based trimming wrappers.
+ * <p>
+ * If the SQL text of the query is known, the column information is looked up in (and added to)
+ * a {@link ColumnInfoCache}, so that a query executed repeatedly only fetches the metadata of its
+ * columns once. Cached entries are not validated against the result set (that would require its metadata):
+ * instead, the cache is invalidated by the schema changes executed through the wrappers, see {@link TrimmingContext}.
+ * 
+ * @author Andreas Veithen
+ * @author Peter Van den Bosch
+ */
+class CharColumns {
+	
+	private final static Log LOG = LogFactory.getLog(CharColumns.class);
+	private final ResultSet target;
+	private final ColumnInfoCache cache;
+	private final StringDeduplicator deduplicator;
+	private final String sql;
+	private final long cacheGeneration;
+	private ColumnInfo columnInfo;
+	
+	/**
+	 * @param context the factory's shared state, or null
+	 * @param sql the SQL text identifying the columns of the result set (see {@link #getCacheKey}), or null if unknown
+	 */
+	CharColumns(ResultSet target, TrimmingContext context, String sql) {
+		this.target = target;
+		this.cache = context == null ? null : context.getColumnInfoCache();
+		this.deduplicator = context == null ? null : context.getDeduplicator();
+		this.sql = sql;
+		this.cacheGeneration = cache == null ? 0 : cache.getGeneration();
+	}
+	
+	/**
+	 * Determine the SQL text identifying the columns of a result set, based on how it was created.
+	 * Only single result queries qualify: stored procedures and {@link java.sql.Statement#execute(String)}
+	 * may produce several result sets with different columns.
+	 * 
+	 * @param statementClass jdbc class of the statement that returned the result set
+	 * @param methodName method that returned the result set
+	 * @param args arguments of that method
+	 * @param preparedSql the SQL text of the statement, if it is a prepared statement
+	 * @return the SQL text, or null if the result set can't be identified by SQL text
+	 */
+	static String getCacheKey(Class<?> statementClass, String methodName, Object[] args, String preparedSql) {
+		if (!"executeQuery".equals(methodName) || CallableStatement.class.isAssignableFrom(statementClass)) {
+			return null;
+		}
+		if (args != null && args.length > 0) {
+			return (String) args[0];
+		}
+		return preparedSql;
+	}
+	
+    private ColumnInfo getColumnInfo() throws SQLException {
+        if (columnInfo == null) {
+            if (cache != null && sql != null) {
+                columnInfo = cache.get(target.getClass(), sql);
+                if (columnInfo == null) {
+                    columnInfo = ColumnInfo.fetch(target.getMetaData());
+                    cache.put(target.getClass(), sql, columnInfo, cacheGeneration);
+                }
+            } else {
+                columnInfo = ColumnInfo.fetch(target.getMetaData());
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(columnInfo);
+            }
+        }
+        return columnInfo;
+    }
+    
+    boolean isCharColumn(int columnIndex) throws SQLException {
+        return getColumnInfo().isCharColumn(columnIndex);
+    }
+    
+    boolean isCharColumn(String columnLabel) throws SQLException {
+        return getColumnInfo().isCharColumn(columnLabel);
+    }
+    
+    /**
+     * Trim a string retrieved from the given column, if it is a <tt>CHAR</tt> column.
+     * 
+     * @param value the value returned by the driver, possibly null
+     */
+    String trimString(int columnIndex, String value) throws SQLException {
+        if (value == null || !isCharColumn(columnIndex)) {
+            return value;
+        }
+        return deduplicator == null ? trim(value) : columnInfo.getDeduplicationColumn(deduplicator, columnIndex).trim(value);
+    }
+    
+    String trimString(String columnLabel, String value) throws SQLException {
+        if (value == null) {
+            return value;
+        }
+        int columnIndex = getColumnInfo().findColumn(columnLabel);
+        return columnIndex > 0 ? trimString(columnIndex, value) : value;
+    }
+    
+    /**
+     * Trim a value retrieved from the given column by one of the {@link #isTrimmedGetter(String) trimmed getters},
+     * if it is a <tt>CHAR</tt> column.
+     */
+    Object trimValue(int columnIndex, Object value) throws SQLException {
+        if (value instanceof String) {
+            return trimString(columnIndex, (String) value);
+        }
+        return isTrimmable(value) && isCharColumn(columnIndex) ? trimValue(value) : value;
+    }
+    
+    Object trimValue(String columnLabel, Object value) throws SQLException {
+        if (value instanceof String) {
+            return trimString(columnLabel, (String) value);
+        }
+        return isTrimmable(value) && isCharColumn(columnLabel) ? trimValue(value) : value;
+    }
+    
+    /**
+     * @return true if the given {@link ResultSet} method returns a column value that is trimmed for <tt>CHAR</tt> columns
+     */
+    static boolean isTrimmedGetter(String methodName) {
+        return "getString".equals(methodName) || "getObject".equals(methodName)
+            || "getNString".equals(methodName) || "getCharacterStream".equals(methodName)
+            || "getNCharacterStream".equals(methodName) || "getClob".equals(methodName);
+    }
+    
+    /**
+     * @return true if {@link #trimValue(Object)} applies to the value
+     */
+    static boolean isTrimmable(Object value) {
+        return value instanceof String || value instanceof Reader || value instanceof Clob;
+    }
+    
+    /**
+     * Trim a value of a <tt>CHAR</tt> column returned by one of the {@link #isTrimmedGetter(String) trimmed getters}.
+     * Streams and LOBs are trimmed incrementally, without reading the whole value.
+     */
+    static Object trimValue(Object value) {
+        if (value instanceof String) {
+            return trim((String) value);
+        } else if (value instanceof Reader) {
+            return new TrimmingReader((Reader) value);
+        } else if (value instanceof Clob) {
+            return new TrimmingClob((Clob) value);
+        } else {
+            return value;
+        }
+    }
+    
+    static String trim(String string) {
+        int length = string.length();
+        int trimmedLength = length;
+        while (trimmedLength > 0 && string.charAt(trimmedLength-1) == ' ') {
+            trimmedLength--;
+        }
+        return trimmedLength == length ? string : string.substring(0, trimmedLength);
+    }
+    
+}
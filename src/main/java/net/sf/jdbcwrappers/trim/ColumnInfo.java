@@ -0,0 +1,141 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.trim;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Immutable description of the columns of a result set, as needed for trimming: which columns
+ * are <tt>CHAR</tt> or <tt>NCHAR</tt> columns, and a case insensitive column label to index table.
+ * Label lookups don't allocate: the table is an open addressing hash table using a case
+ * insensitive hash code.
+ * <p>
+ * Apart from the lazily created deduplication tables, instances are immutable and can be shared
+ * by all result sets of a query.
+ * 
+ * @author Peter Van den Bosch
+ */
+final class ColumnInfo {
+	private final boolean[] isCharColumn;
+	private final String[] labels;
+	// slot -> column index + 1, 0 for an empty slot
+	private final int[] table;
+	// created lazily when deduplication is enabled
+	private StringDeduplicator.Column[] deduplicationColumns;
+	
+	private ColumnInfo(boolean[] isCharColumn, String[] labels) {
+		this.isCharColumn = isCharColumn;
+		this.labels = labels;
+		int size = Integer.highestOneBit(Math.max(labels.length, 1) * 2) * 2;
+		table = new int[size];
+		for (int i = 0; i < labels.length; i++) {
+			int slot = hash(labels[i]) & (size-1);
+			while (table[slot] != 0) {
+				if (labels[table[slot]-1].equalsIgnoreCase(labels[i])) {
+					// JDBC uses the first matching column
+					break;
+				}
+				slot = (slot+1) & (size-1);
+			}
+			if (table[slot] == 0) {
+				table[slot] = i+1;
+			}
+		}
+	}
+	
+	static ColumnInfo fetch(ResultSetMetaData metadata) throws SQLException {
+		int columnCount = metadata.getColumnCount();
+		boolean[] isCharColumn = new boolean[columnCount];
+		String[] labels = new String[columnCount];
+		for (int i = 1; i <= columnCount; i++) {
+			int type = metadata.getColumnType(i);
+			isCharColumn[i-1] = type == Types.CHAR || type == Types.NCHAR;
+			labels[i-1] = metadata.getColumnLabel(i);
+		}
+		return new ColumnInfo(isCharColumn, labels);
+	}
+	
+	private static int hash(String label) {
+		int h = 0;
+		for (int i = 0; i < label.length(); i++) {
+			h = 31*h + Character.toUpperCase(label.charAt(i));
+		}
+		return h ^ (h >>> 16);
+	}
+	
+	/**
+	 * @return whether the column is a <tt>CHAR</tt> column; false for an invalid index, which the driver reports
+	 */
+	boolean isCharColumn(int columnIndex) {
+		return columnIndex >= 1 && columnIndex <= isCharColumn.length && isCharColumn[columnIndex-1];
+	}
+	
+	/**
+	 * @return the index (starting at 1) of the first column with the given label, or -1 if there is no such column
+	 */
+	int findColumn(String columnLabel) {
+		int mask = table.length-1;
+		int slot = hash(columnLabel) & mask;
+		int column;
+		while ((column = table[slot]) != 0) {
+			if (labels[column-1].equalsIgnoreCase(columnLabel)) {
+				return column;
+			}
+			slot = (slot+1) & mask;
+		}
+		return -1;
+	}
+	
+	boolean isCharColumn(String columnLabel) {
+		int column = findColumn(columnLabel);
+		return column > 0 && isCharColumn[column-1];
+	}
+	
+	/**
+	 * Get the deduplication table of a column. Since a ColumnInfo is shared by all executions of a query,
+	 * so are the tables. Concurrent initialization may create redundant tables; this is harmless.
+	 */
+	StringDeduplicator.Column getDeduplicationColumn(StringDeduplicator deduplicator, int columnIndex) {
+		StringDeduplicator.Column[] columns = deduplicationColumns;
+		if (columns == null) {
+			columns = new StringDeduplicator.Column[isCharColumn.length];
+			deduplicationColumns = columns;
+		}
+		StringDeduplicator.Column column = columns[columnIndex-1];
+		if (column == null) {
+			column = deduplicator.newColumn();
+			columns[columnIndex-1] = column;
+		}
+		return column;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder buffer = new StringBuilder("CHAR columns: [");
+		boolean first = true;
+		for (int i = 0; i < labels.length; i++) {
+			if (isCharColumn[i]) {
+				if (!first) {
+					buffer.append(", ");
+				}
+				buffer.append(labels[i]);
+				first = false;
+			}
+		}
+		return buffer.append(']').toString();
+	}
+	
+}
@@ -0,0 +1,89 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.trim;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of {@link ColumnInfo} shared by all connections of a wrapped data source,
+ * keyed by driver (the class of the driver's result set) and SQL text.
+ * When the cache is full, arbitrary entries are evicted to make room.
+ * <p>
+ * The cache is {@link #invalidate() invalidated} when a schema change is executed through the
+ * wrappers. Entries are stored with the generation read before their metadata was fetched, so
+ * that metadata fetched before an invalidation doesn't end up in the cache afterwards.
+ * 
+ * @author Peter Van den Bosch
+ */
+class ColumnInfoCache {
+	private final int maxSize;
+	private final ConcurrentMap<Class<?>, ConcurrentMap<String, ColumnInfo>> cache = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, ColumnInfo>>();
+	private final ConcurrentMap<String, ColumnInfo> empty = new ConcurrentHashMap<String, ColumnInfo>();
+	private final AtomicLong generation = new AtomicLong();
+	
+	ColumnInfoCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+	
+	ColumnInfo get(Class<?> driverClass, String sql) {
+		ConcurrentMap<String, ColumnInfo> entries = cache.get(driverClass);
+		return (entries == null ? empty : entries).get(sql);
+	}
+	
+	/**
+	 * @return the current generation, to be passed to {@link #put(Class, String, ColumnInfo, long)}
+	 */
+	long getGeneration() {
+		return generation.get();
+	}
+	
+	/**
+	 * Add an entry, unless the cache was invalidated since the given generation.
+	 */
+	void put(Class<?> driverClass, String sql, ColumnInfo info, long expectedGeneration) {
+		ConcurrentMap<String, ColumnInfo> entries = cache.get(driverClass);
+		if (entries == null) {
+			entries = new ConcurrentHashMap<String, ColumnInfo>();
+			ConcurrentMap<String, ColumnInfo> existing = cache.putIfAbsent(driverClass, entries);
+			if (existing != null) {
+				entries = existing;
+			}
+		}
+		// there is normally one driver per data source, so bounding each driver's map is enough
+		Iterator<String> it = entries.keySet().iterator();
+		while (entries.size() >= maxSize && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+		entries.put(sql, info);
+		if (generation.get() != expectedGeneration) {
+			// raced with invalidate()
+			entries.remove(sql, info);
+		}
+	}
+	
+	/**
+	 * Remove all entries.
+	 */
+	void invalidate() {
+		generation.incrementAndGet();
+		for (ConcurrentMap<String, ColumnInfo> entries : cache.values()) {
+			entries.clear();
+		}
+	}
+	
+}
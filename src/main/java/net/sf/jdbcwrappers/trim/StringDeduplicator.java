@@ -0,0 +1,131 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.trim;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Canonicalizes trimmed values of low cardinality <tt>CHAR</tt> columns (status codes, currencies, ...),
+ * so that repeated values share a single {@link String} instance instead of a new substring per row.
+ * <p>
+ * Each column gets a small direct mapped table of recently seen values ({@link Column}). A lookup
+ * compares the padded value with the table entry in place, so a hit doesn't allocate. The tables are
+ * lock free: entries are plain racy writes of immutable strings. A column whose values miss the table
+ * too often (i.e. a column with too many distinct values) turns deduplication off for itself.
+ * Statistics are accumulated per column and published periodically, to keep the hot path contention free.
+ * 
+ * @author Peter Van den Bosch
+ */
+class StringDeduplicator {
+	// number of lookups after which a column evaluates its hit rate and publishes its statistics
+	private static final int WINDOW = 1024;
+	// a column with more misses than this in a window is considered high cardinality
+	private static final int MAX_MISSES = WINDOW / 2;
+	
+	private final int tableSize;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong columns = new AtomicLong();
+	private final AtomicLong disabledColumns = new AtomicLong();
+	
+	/**
+	 * Per column table. Instances are shared by all result sets of the same query
+	 * (through {@link ColumnInfo}) and may be used concurrently.
+	 */
+	final class Column {
+		private final String[] entries = new String[tableSize];
+		private boolean disabled;
+		// racy counters: a lost update only makes the statistics slightly less accurate
+		private int lookups;
+		private int windowMisses;
+		
+		/**
+		 * @return the value without trailing blanks, shared with previous calls returning an equal string where possible
+		 */
+		String trim(String value) {
+			if (disabled) {
+				return CharColumns.trim(value);
+			}
+			int length = value.length();
+			while (length > 0 && value.charAt(length-1) == ' ') {
+				length--;
+			}
+			int hash = 0;
+			for (int i = 0; i < length; i++) {
+				hash = 31*hash + value.charAt(i);
+			}
+			int slot = (hash ^ (hash >>> 16)) & (entries.length-1);
+			String entry = entries[slot];
+			String result;
+			if (entry != null && entry.length() == length && value.regionMatches(0, entry, 0, length)) {
+				result = entry;
+			} else {
+				result = length == value.length() ? value : value.substring(0, length);
+				entries[slot] = result;
+				windowMisses++;
+			}
+			// >= rather than ==: concurrent increments may step over WINDOW
+			if (++lookups >= WINDOW) {
+				endWindow();
+			}
+			return result;
+		}
+		
+		private void endWindow() {
+			int lookups = this.lookups;
+			int windowMisses = Math.min(this.windowMisses, lookups);
+			hits.addAndGet(lookups - windowMisses);
+			misses.addAndGet(windowMisses);
+			this.lookups = 0;
+			this.windowMisses = 0;
+			if (windowMisses > MAX_MISSES) {
+				disabled = true;
+				disabledColumns.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * @param tableSize number of entries per column; rounded up to a power of two
+	 */
+	StringDeduplicator(int tableSize) {
+		this.tableSize = Integer.highestOneBit(Math.max(tableSize, 1) * 2 - 1);
+	}
+	
+	Column newColumn() {
+		columns.incrementAndGet();
+		return new Column();
+	}
+	
+	int getTableSize() {
+		return tableSize;
+	}
+	
+	long getHits() {
+		return hits.get();
+	}
+	
+	long getMisses() {
+		return misses.get();
+	}
+	
+	long getColumns() {
+		return columns.get();
+	}
+	
+	long getDisabledColumns() {
+		return disabledColumns.get();
+	}
+	
+}
@@ -0,0 +1,164 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.trim;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Clob;
+import java.sql.SQLException;
+
+/**
+ * {@link Clob} hiding the trailing blanks of the underlying value.
+ * <p>
+ * The trimmed length is determined by reading the value backwards in bounded chunks, starting
+ * from the end, so the padded value is never copied as a whole.
+ * 
+ * @author Peter Van den Bosch
+ */
+class TrimmingClob implements Clob {
+	private static final int CHUNK_SIZE = 1024;
+	
+	private final Clob target;
+	private long length = -1;
+	
+	TrimmingClob(Clob target) {
+		this.target = target;
+	}
+	
+	@Override
+	public long length() throws SQLException {
+		if (length < 0) {
+			long remaining = target.length();
+			while (remaining > 0) {
+				int chunkLength = (int) Math.min(CHUNK_SIZE, remaining);
+				String chunk = target.getSubString(remaining - chunkLength + 1, chunkLength);
+				int i = chunk.length();
+				while (i > 0 && chunk.charAt(i-1) == ' ') {
+					i--;
+				}
+				if (i > 0) {
+					remaining = remaining - chunkLength + i;
+					break;
+				}
+				remaining -= chunkLength;
+			}
+			length = remaining;
+		}
+		return length;
+	}
+	
+	private int clamp(long pos, long len) throws SQLException {
+		return (int) Math.max(0, Math.min(len, length() - pos + 1));
+	}
+	
+	@Override
+	public String getSubString(long pos, int len) throws SQLException {
+		return target.getSubString(pos, clamp(pos, len));
+	}
+	
+	@Override
+	public Reader getCharacterStream() throws SQLException {
+		return new TrimmingReader(target.getCharacterStream());
+	}
+	
+	@Override
+	public Reader getCharacterStream(long pos, long len) throws SQLException {
+		return target.getCharacterStream(pos, clamp(pos, len));
+	}
+	
+	@Override
+	public InputStream getAsciiStream() throws SQLException {
+		// one byte per character
+		final long trimmedLength = length();
+		return new FilterInputStream(target.getAsciiStream()) {
+			private long remaining = trimmedLength;
+			
+			@Override
+			public int read() throws IOException {
+				if (remaining == 0) {
+					return -1;
+				}
+				int b = super.read();
+				if (b >= 0) {
+					remaining--;
+				}
+				return b;
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (remaining == 0) {
+					return -1;
+				}
+				int read = super.read(b, off, (int) Math.min(len, remaining));
+				if (read > 0) {
+					remaining -= read;
+				}
+				return read;
+			}
+		};
+	}
+	
+	@Override
+	public long position(String searchstr, long start) throws SQLException {
+		long result = target.position(searchstr, start);
+		return result > 0 && result + searchstr.length() - 1 <= length() ? result : -1;
+	}
+	
+	@Override
+	public long position(Clob searchstr, long start) throws SQLException {
+		long result = target.position(searchstr, start);
+		return result > 0 && result + searchstr.length() - 1 <= length() ? result : -1;
+	}
+	
+	@Override
+	public int setString(long pos, String str) throws SQLException {
+		length = -1;
+		return target.setString(pos, str);
+	}
+	
+	@Override
+	public int setString(long pos, String str, int offset, int len) throws SQLException {
+		length = -1;
+		return target.setString(pos, str, offset, len);
+	}
+	
+	@Override
+	public OutputStream setAsciiStream(long pos) throws SQLException {
+		length = -1;
+		return target.setAsciiStream(pos);
+	}
+	
+	@Override
+	public Writer setCharacterStream(long pos) throws SQLException {
+		length = -1;
+		return target.setCharacterStream(pos);
+	}
+	
+	@Override
+	public void truncate(long len) throws SQLException {
+		length = -1;
+		target.truncate(len);
+	}
+	
+	@Override
+	public void free() throws SQLException {
+		target.free();
+	}
+	
+}
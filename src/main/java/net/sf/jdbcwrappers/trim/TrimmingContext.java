@@ -0,0 +1,137 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.trim;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import net.sf.jdbcwrappers.cache.SqlTables;
+
+/**
+ * The shared state of the wrappers created by a {@link TrimmingWrapperFactory}.
+ * <p>
+ * Every connection gets its own context (see {@link #forConnection()}), which keeps track of the
+ * schema changes executed through the connection: the {@link ColumnInfoCache} is keyed by SQL text,
+ * which no longer identifies the columns of a query after a DDL statement, or on a connection that
+ * switched to another default schema. Schema changes made by other applications, or through
+ * connections that aren't wrapped, aren't detected.
+ * 
+ * @author Peter Van den Bosch
+ */
+class TrimmingContext {
+	private final ColumnInfoCache columnInfoCache;
+	private final StringDeduplicator deduplicator;
+	// the connection switched to another default schema
+	private volatile boolean schemaSwitched;
+	// the current transaction of the connection contains (possibly batched) DDL statements
+	private volatile boolean schemaChanged;
+	private volatile boolean definitionBatched;
+	
+	/**
+	 * @param columnInfoCache the column info cache, or null
+	 * @param deduplicator the deduplicator for trimmed values, or null
+	 */
+	TrimmingContext(ColumnInfoCache columnInfoCache, StringDeduplicator deduplicator) {
+		this.columnInfoCache = columnInfoCache;
+		this.deduplicator = deduplicator;
+	}
+	
+	/**
+	 * @return a new context for a connection, sharing the cache and deduplicator of this one
+	 */
+	TrimmingContext forConnection() {
+		return new TrimmingContext(columnInfoCache, deduplicator);
+	}
+	
+	/**
+	 * @return the column info cache, or null if it is disabled or can't be used by the connection
+	 */
+	ColumnInfoCache getColumnInfoCache() {
+		return schemaSwitched || schemaChanged ? null : columnInfoCache;
+	}
+	
+	StringDeduplicator getDeduplicator() {
+		return deduplicator;
+	}
+	
+	/**
+	 * Called after a statement of the connection executed the given SQL text (or tried to).
+	 * 
+	 * @param statement the statement, used to determine whether the connection is in auto-commit mode
+	 * @param sql the SQL text, or null if unknown
+	 */
+	void executed(Statement statement, String sql) throws SQLException {
+		if (columnInfoCache == null || sql == null) {
+			return;
+		}
+		if (SqlTables.isDefinition(sql)) {
+			definitionExecuted(statement);
+		} else if (SqlTables.isSchemaSwitch(sql)) {
+			schemaSwitched = true;
+		}
+	}
+	
+	/**
+	 * Called when SQL text is added to a batch of a statement of the connection.
+	 */
+	void batched(String sql) {
+		if (columnInfoCache == null || sql == null) {
+			return;
+		}
+		if (SqlTables.isDefinition(sql)) {
+			definitionBatched = true;
+		} else if (SqlTables.isSchemaSwitch(sql)) {
+			// the connection stops using the cache a bit early, which is harmless
+			schemaSwitched = true;
+		}
+	}
+	
+	/**
+	 * Called after a batch of a statement of the connection was executed (or tried to).
+	 */
+	void batchExecuted(Statement statement) throws SQLException {
+		if (definitionBatched) {
+			definitionBatched = false;
+			definitionExecuted(statement);
+		}
+	}
+	
+	private void definitionExecuted(Statement statement) throws SQLException {
+		columnInfoCache.invalidate();
+		if (!statement.getConnection().getAutoCommit()) {
+			// other connections still see the old schema and may fill the cache with it
+			schemaChanged = true;
+		}
+	}
+	
+	/**
+	 * Called when the connection switched to another schema or catalog with
+	 * {@link java.sql.Connection#setSchema(String)} or {@link java.sql.Connection#setCatalog(String)}.
+	 */
+	void schemaSwitched() {
+		schemaSwitched = true;
+	}
+	
+	/**
+	 * Called after the connection committed or rolled back its transaction, including by changing the auto-commit mode.
+	 */
+	void transactionEnded() {
+		if (schemaChanged) {
+			// other connections only see the change now, and a rollback may undo it
+			schemaChanged = false;
+			columnInfoCache.invalidate();
+		}
+	}
+	
+}
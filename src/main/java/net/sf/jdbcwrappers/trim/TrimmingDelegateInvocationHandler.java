@@ -15,15 +15,19 @@ package net.sf.jdbcwrappers.trim;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.sql.Connection;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 
+import net.sf.jdbcwrappers.MethodDispatcher;
 import net.sf.jdbcwrappers.ProxyHelper;
-import net.sf.jdbcwrappers.ProxyHelper.MethodInvocation;
 
 /**
  * Proxy for jdbc classes which wraps any jdbc objects returned by its methods.
  * ResultSet objects are wrapped with the {@link TrimmingResultSetInvocationHandler}.
+ * Objects that don't lead to a query result set (e.g. {@link java.sql.DatabaseMetaData})
+ * are returned unwrapped.
  *  
  * @author Peter Van den Bosch
  *
@@ -31,10 +35,21 @@ import net.sf.jdbcwrappers.ProxyHelper.MethodInvocation;
  */
 public class TrimmingDelegateInvocationHandler<T> implements InvocationHandler {
 	private final T target;
+	private final Class<?> jdbcClass;
+	private final TrimmingContext context;
+	// SQL text of a prepared statement
+	private final String sql;
 	
 	
 	public TrimmingDelegateInvocationHandler(T target) {
+		this(target, null, null);
+	}
+	
+	TrimmingDelegateInvocationHandler(T target, TrimmingContext context, String sql) {
 		this.target = target;
+		this.jdbcClass = ProxyHelper.getJdbcClass(target);
+		this.context = context;
+		this.sql = sql;
 	}
 	
 	public T getTarget() {
@@ -43,17 +58,27 @@ public class TrimmingDelegateInvocationHandler<T> implements InvocationHandler {
 	
 	@Override
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-		MethodInvocation methodInvocation = new MethodInvocation(target, method, args);
-		Object result = methodInvocation.invoke();
+		MethodDispatcher dispatcher = MethodDispatcher.forMethod(method);
+		Object result;
+		try {
+			result = dispatcher.invoke(target, args);
+		} finally {
+			if (context != null) {
+				trackSchemaChanges(dispatcher.getName(), args);
+			}
+		}
 		
-		Class<?> clazz = ProxyHelper.getJdbcClass(result);
+		Class<?> clazz = dispatcher.getJdbcClass(result);
 		if (clazz != null
-			&& !ProxyHelper.isWrapped(result, TrimmingResultSetInvocationHandler.class) 
-			&& !ProxyHelper.isWrapped(result, TrimmingDelegateInvocationHandler.class)) {
-				if(target instanceof Statement && ResultSet.class.equals(clazz) && !"getGeneratedKeys".equals(method.getName())) {
-					return ProxyHelper.createProxy(ResultSet.class, new TrimmingResultSetInvocationHandler((ResultSet) result));
+			&& ProxyHelper.isQueryResultSetPath(clazz, jdbcClass, dispatcher.getName())
+			&& !ProxyHelper.isWrapped(result, TrimmingResultSetInvocationHandler.class, TrimmingDelegateInvocationHandler.class)) {
+				if(ResultSet.class.equals(clazz)) {
+					String resultSql = CharColumns.getCacheKey(jdbcClass, dispatcher.getName(), args, sql);
+					return ProxyHelper.createProxy(ResultSet.class, new TrimmingResultSetInvocationHandler((ResultSet) result, context, resultSql));
 				} else {
-					return ProxyHelper.createProxy(clazz, new TrimmingDelegateInvocationHandler<Object>(result));
+					String resultSql = Connection.class.equals(jdbcClass) && dispatcher.getName().startsWith("prepare") ? (String) args[0] : null;
+					TrimmingContext resultContext = Connection.class.equals(clazz) && context != null ? context.forConnection() : context;
+					return ProxyHelper.createProxy(clazz, new TrimmingDelegateInvocationHandler<Object>(result, resultContext, resultSql));
 				}
 		} 
 
@@ -61,4 +86,26 @@ public class TrimmingDelegateInvocationHandler<T> implements InvocationHandler {
 		
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * Let the connection's context know about the schema changes executed through the connection.
+	 */
+	private void trackSchemaChanges(String name, Object[] args) throws SQLException {
+		if (Connection.class.equals(jdbcClass)) {
+			if (name.equals("setSchema") || name.equals("setCatalog")) {
+				context.schemaSwitched();
+			} else if (name.equals("commit") || name.equals("rollback") || name.equals("setAutoCommit")) {
+				context.transactionEnded();
+			}
+		} else if (Statement.class.isAssignableFrom(jdbcClass)) {
+			String statementSql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+			if (name.equals("addBatch")) {
+				context.batched(statementSql);
+			} else if (name.equals("executeBatch") || name.equals("executeLargeBatch")) {
+				context.batchExecuted((Statement) target);
+			} else if (name.startsWith("execute") && !name.equals("executeQuery")) {
+				context.executed((Statement) target, statementSql);
+			}
+		}
+	}
+	
+}
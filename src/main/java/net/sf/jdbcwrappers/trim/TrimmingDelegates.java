@@ -0,0 +1,650 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.trim;
+
+import java.io.Reader;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.delegate.CallableStatementDelegate;
+import net.sf.jdbcwrappers.delegate.ConnectionDelegate;
+import net.sf.jdbcwrappers.delegate.DataSourceDelegate;
+import net.sf.jdbcwrappers.delegate.PreparedStatementDelegate;
+import net.sf.jdbcwrappers.delegate.ResultSetDelegate;
+import net.sf.jdbcwrappers.delegate.StatementDelegate;
+
+/**
+ * Trimming wrappers built on the generated delegates of {@link net.sf.jdbcwrappers.delegate}.
+ * They have the same semantics as {@link TrimmingDelegateInvocationHandler} and
+ * {@link TrimmingResultSetInvocationHandler}, but avoid the reflective dispatch, boxing
+ * and argument arrays of {@link java.lang.reflect.Proxy}.
+ *
+ * @author Peter Van den Bosch
+ */
+final class TrimmingDelegates {
+
+	private TrimmingDelegates() {
+	}
+
+	static class TrimmingDataSource extends DataSourceDelegate {
+		private final TrimmingContext context;
+
+		TrimmingDataSource(DataSource target, TrimmingContext context) {
+			super(target);
+			this.context = context;
+		}
+
+		@Override
+		protected Connection wrapConnection(Connection connection) {
+			return connection == null ? null : new TrimmingConnection(connection, context.forConnection());
+		}
+	}
+
+	static class TrimmingConnection extends ConnectionDelegate {
+		private final TrimmingContext context;
+
+		TrimmingConnection(Connection target, TrimmingContext context) {
+			super(target);
+			this.context = context;
+		}
+
+		@Override
+		protected Statement wrapStatement(Statement statement) {
+			return statement == null ? null : new TrimmingStatement(statement, this, context);
+		}
+
+		private PreparedStatement wrap(PreparedStatement statement, String sql) {
+			return statement == null ? null : new TrimmingPreparedStatement(statement, this, context, sql);
+		}
+
+		private CallableStatement wrap(CallableStatement statement) {
+			return statement == null ? null : new TrimmingCallableStatement(statement, this, context);
+		}
+
+		// the prepareXxx methods are overridden instead of the hooks, to keep track of the SQL text
+
+		@Override
+		public PreparedStatement prepareStatement(String sql) throws SQLException {
+			return wrap(getTarget().prepareStatement(sql), sql);
+		}
+
+		@Override
+		public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+			return wrap(getTarget().prepareStatement(sql, resultSetType, resultSetConcurrency), sql);
+		}
+
+		@Override
+		public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+			return wrap(getTarget().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql);
+		}
+
+		@Override
+		public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+			return wrap(getTarget().prepareStatement(sql, autoGeneratedKeys), sql);
+		}
+
+		@Override
+		public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+			return wrap(getTarget().prepareStatement(sql, columnIndexes), sql);
+		}
+
+		@Override
+		public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+			return wrap(getTarget().prepareStatement(sql, columnNames), sql);
+		}
+
+		@Override
+		protected CallableStatement wrapCallableStatement(CallableStatement statement) {
+			return wrap(statement);
+		}
+
+		@Override
+		public void setSchema(String schema) throws SQLException {
+			super.setSchema(schema);
+			context.schemaSwitched();
+		}
+
+		@Override
+		public void setCatalog(String catalog) throws SQLException {
+			super.setCatalog(catalog);
+			context.schemaSwitched();
+		}
+
+		@Override
+		public void setAutoCommit(boolean autoCommit) throws SQLException {
+			super.setAutoCommit(autoCommit);
+			context.transactionEnded();
+		}
+
+		@Override
+		public void commit() throws SQLException {
+			super.commit();
+			context.transactionEnded();
+		}
+
+		@Override
+		public void rollback() throws SQLException {
+			super.rollback();
+			context.transactionEnded();
+		}
+	}
+
+	static class TrimmingStatement extends StatementDelegate {
+		private final Connection connection;
+		private final TrimmingContext context;
+
+		TrimmingStatement(Statement target, Connection connection, TrimmingContext context) {
+			super(target);
+			this.connection = connection;
+			this.context = context;
+		}
+
+		@Override
+		public Connection getConnection() {
+			return connection;
+		}
+
+		@Override
+		public ResultSet executeQuery(String sql) throws SQLException {
+			ResultSet resultSet = getTarget().executeQuery(sql);
+			return resultSet == null ? null : new TrimmingResultSet(resultSet, this, context, sql);
+		}
+
+		@Override
+		public boolean execute(String sql) throws SQLException {
+			try {
+				return super.execute(sql);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+			try {
+				return super.execute(sql, autoGeneratedKeys);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+			try {
+				return super.execute(sql, columnIndexes);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public boolean execute(String sql, String[] columnNames) throws SQLException {
+			try {
+				return super.execute(sql, columnNames);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate(String sql) throws SQLException {
+			try {
+				return super.executeUpdate(sql);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+			try {
+				return super.executeUpdate(sql, autoGeneratedKeys);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+			try {
+				return super.executeUpdate(sql, columnIndexes);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+			try {
+				return super.executeUpdate(sql, columnNames);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public void addBatch(String sql) throws SQLException {
+			super.addBatch(sql);
+			context.batched(sql);
+		}
+
+		@Override
+		public int[] executeBatch() throws SQLException {
+			try {
+				return super.executeBatch();
+			} finally {
+				context.batchExecuted(getTarget());
+			}
+		}
+
+		@Override
+		public ResultSet getGeneratedKeys() throws SQLException {
+			// generated keys aren't read from CHAR columns of a query
+			return getTarget().getGeneratedKeys();
+		}
+
+		@Override
+		protected ResultSet wrapResultSet(ResultSet resultSet) {
+			return resultSet == null ? null : new TrimmingResultSet(resultSet, this, context, null);
+		}
+	}
+
+	static class TrimmingPreparedStatement extends PreparedStatementDelegate {
+		private final Connection connection;
+		private final TrimmingContext context;
+		private final String sql;
+
+		TrimmingPreparedStatement(PreparedStatement target, Connection connection, TrimmingContext context, String sql) {
+			super(target);
+			this.connection = connection;
+			this.context = context;
+			this.sql = sql;
+		}
+
+		@Override
+		public Connection getConnection() {
+			return connection;
+		}
+
+		@Override
+		public ResultSet executeQuery() throws SQLException {
+			ResultSet resultSet = getTarget().executeQuery();
+			return resultSet == null ? null : new TrimmingResultSet(resultSet, this, context, sql);
+		}
+
+		@Override
+		public ResultSet executeQuery(String sql) throws SQLException {
+			ResultSet resultSet = getTarget().executeQuery(sql);
+			return resultSet == null ? null : new TrimmingResultSet(resultSet, this, context, sql);
+		}
+
+		@Override
+		public boolean execute(String sql) throws SQLException {
+			try {
+				return super.execute(sql);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+			try {
+				return super.execute(sql, autoGeneratedKeys);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+			try {
+				return super.execute(sql, columnIndexes);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public boolean execute(String sql, String[] columnNames) throws SQLException {
+			try {
+				return super.execute(sql, columnNames);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate(String sql) throws SQLException {
+			try {
+				return super.executeUpdate(sql);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+			try {
+				return super.executeUpdate(sql, autoGeneratedKeys);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+			try {
+				return super.executeUpdate(sql, columnIndexes);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+			try {
+				return super.executeUpdate(sql, columnNames);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public boolean execute() throws SQLException {
+			try {
+				return super.execute();
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate() throws SQLException {
+			try {
+				return super.executeUpdate();
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public void addBatch(String sql) throws SQLException {
+			super.addBatch(sql);
+			context.batched(sql);
+		}
+
+		@Override
+		public void addBatch() throws SQLException {
+			super.addBatch();
+			context.batched(sql);
+		}
+
+		@Override
+		public int[] executeBatch() throws SQLException {
+			try {
+				return super.executeBatch();
+			} finally {
+				context.batchExecuted(getTarget());
+			}
+		}
+
+		@Override
+		public ResultSet getGeneratedKeys() throws SQLException {
+			return getTarget().getGeneratedKeys();
+		}
+
+		@Override
+		protected ResultSet wrapResultSet(ResultSet resultSet) {
+			return resultSet == null ? null : new TrimmingResultSet(resultSet, this, context, null);
+		}
+	}
+
+	static class TrimmingCallableStatement extends CallableStatementDelegate {
+		private final Connection connection;
+		private final TrimmingContext context;
+
+		TrimmingCallableStatement(CallableStatement target, Connection connection, TrimmingContext context) {
+			super(target);
+			this.connection = connection;
+			this.context = context;
+		}
+
+		@Override
+		public Connection getConnection() {
+			return connection;
+		}
+
+		@Override
+		public boolean execute(String sql) throws SQLException {
+			try {
+				return super.execute(sql);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+			try {
+				return super.execute(sql, autoGeneratedKeys);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+			try {
+				return super.execute(sql, columnIndexes);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public boolean execute(String sql, String[] columnNames) throws SQLException {
+			try {
+				return super.execute(sql, columnNames);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate(String sql) throws SQLException {
+			try {
+				return super.executeUpdate(sql);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+			try {
+				return super.executeUpdate(sql, autoGeneratedKeys);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+			try {
+				return super.executeUpdate(sql, columnIndexes);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+			try {
+				return super.executeUpdate(sql, columnNames);
+			} finally {
+				context.executed(getTarget(), sql);
+			}
+		}
+
+		@Override
+		public void addBatch(String sql) throws SQLException {
+			super.addBatch(sql);
+			context.batched(sql);
+		}
+
+		@Override
+		public int[] executeBatch() throws SQLException {
+			try {
+				return super.executeBatch();
+			} finally {
+				context.batchExecuted(getTarget());
+			}
+		}
+
+		@Override
+		public ResultSet getGeneratedKeys() throws SQLException {
+			return getTarget().getGeneratedKeys();
+		}
+
+		@Override
+		protected ResultSet wrapResultSet(ResultSet resultSet) {
+			// stored procedures may return several differently shaped result sets, so they are not cached
+			return resultSet == null ? null : new TrimmingResultSet(resultSet, this, context, null);
+		}
+	}
+
+	static class TrimmingResultSet extends ResultSetDelegate {
+		private final Statement statement;
+		private final CharColumns charColumns;
+
+		TrimmingResultSet(ResultSet target, Statement statement, TrimmingContext context, String sql) {
+			super(target);
+			this.statement = statement;
+			this.charColumns = new CharColumns(target, context, sql);
+		}
+
+		@Override
+		public Statement getStatement() {
+			return statement;
+		}
+
+		@Override
+		public String getString(int columnIndex) throws SQLException {
+			String result = super.getString(columnIndex);
+			return charColumns.trimString(columnIndex, result);
+		}
+
+		@Override
+		public String getString(String columnLabel) throws SQLException {
+			String result = super.getString(columnLabel);
+			return charColumns.trimString(columnLabel, result);
+		}
+
+		@Override
+		public String getNString(int columnIndex) throws SQLException {
+			String result = super.getNString(columnIndex);
+			return charColumns.trimString(columnIndex, result);
+		}
+
+		@Override
+		public String getNString(String columnLabel) throws SQLException {
+			String result = super.getNString(columnLabel);
+			return charColumns.trimString(columnLabel, result);
+		}
+
+		@Override
+		public Reader getCharacterStream(int columnIndex) throws SQLException {
+			Reader result = super.getCharacterStream(columnIndex);
+			return (Reader) charColumns.trimValue(columnIndex, result);
+		}
+
+		@Override
+		public Reader getCharacterStream(String columnLabel) throws SQLException {
+			Reader result = super.getCharacterStream(columnLabel);
+			return (Reader) charColumns.trimValue(columnLabel, result);
+		}
+
+		@Override
+		public Reader getNCharacterStream(int columnIndex) throws SQLException {
+			Reader result = super.getNCharacterStream(columnIndex);
+			return (Reader) charColumns.trimValue(columnIndex, result);
+		}
+
+		@Override
+		public Reader getNCharacterStream(String columnLabel) throws SQLException {
+			Reader result = super.getNCharacterStream(columnLabel);
+			return (Reader) charColumns.trimValue(columnLabel, result);
+		}
+
+		@Override
+		public Clob getClob(int columnIndex) throws SQLException {
+			Clob result = super.getClob(columnIndex);
+			return (Clob) charColumns.trimValue(columnIndex, result);
+		}
+
+		@Override
+		public Clob getClob(String columnLabel) throws SQLException {
+			Clob result = super.getClob(columnLabel);
+			return (Clob) charColumns.trimValue(columnLabel, result);
+		}
+
+		@Override
+		public Object getObject(int columnIndex) throws SQLException {
+			Object result = super.getObject(columnIndex);
+			return charColumns.trimValue(columnIndex, result);
+		}
+
+		@Override
+		public Object getObject(String columnLabel) throws SQLException {
+			Object result = super.getObject(columnLabel);
+			return charColumns.trimValue(columnLabel, result);
+		}
+
+		@Override
+		public Object getObject(int columnIndex, Map<String, Class<?>> map) throws SQLException {
+			Object result = super.getObject(columnIndex, map);
+			return charColumns.trimValue(columnIndex, result);
+		}
+
+		@Override
+		public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException {
+			Object result = super.getObject(columnLabel, map);
+			return charColumns.trimValue(columnLabel, result);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+			T result = super.getObject(columnIndex, type);
+			return (T) charColumns.trimValue(columnIndex, result);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> T getObject(String columnLabel, Class<T> type) throws SQLException {
+			T result = super.getObject(columnLabel, type);
+			return (T) charColumns.trimValue(columnLabel, result);
+		}
+	}
+
+}
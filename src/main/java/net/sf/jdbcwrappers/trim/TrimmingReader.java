@@ -0,0 +1,95 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.trim;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * {@link Reader} that strips trailing blanks from the underlying character stream.
+ * <p>
+ * Blanks are held back until a non blank character proves that they aren't trailing. Since all
+ * blanks are identical, only their number is kept, so the memory used is bounded by the read
+ * buffer, whatever the length of the value or of its padding.
+ * 
+ * @author Peter Van den Bosch
+ */
+class TrimmingReader extends Reader {
+	private static final int BUFFER_SIZE = 1024;
+	
+	private final Reader in;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int position;
+	private int limit;
+	// blanks read from the underlying stream but not returned yet
+	private long pendingBlanks;
+	// non blank character following the pending blanks, or -1
+	private int held = -1;
+	private boolean eof;
+	
+	TrimmingReader(Reader in) {
+		this.in = in;
+	}
+	
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		int count = 0;
+		while (count < len) {
+			if (held >= 0) {
+				if (pendingBlanks > 0) {
+					cbuf[off + count++] = ' ';
+					pendingBlanks--;
+				} else {
+					cbuf[off + count++] = (char) held;
+					held = -1;
+				}
+				continue;
+			}
+			if (position == limit) {
+				// don't block for more input if some characters can already be returned
+				if (eof || count > 0) {
+					break;
+				}
+				int read = in.read(buffer, 0, BUFFER_SIZE);
+				if (read < 0) {
+					// the blanks still pending are trailing blanks
+					eof = true;
+					pendingBlanks = 0;
+					break;
+				}
+				position = 0;
+				limit = read;
+				continue;
+			}
+			char c = buffer[position++];
+			if (c == ' ') {
+				pendingBlanks++;
+			} else if (pendingBlanks > 0) {
+				held = c;
+			} else {
+				cbuf[off + count++] = c;
+			}
+		}
+		return count == 0 && eof ? -1 : count;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+	
+}
@@ -17,20 +17,14 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
-import java.sql.Types;
-import java.util.HashSet;
-import java.util.Set;
 
+import net.sf.jdbcwrappers.MethodDispatcher;
 import net.sf.jdbcwrappers.ProxyHelper;
-import net.sf.jdbcwrappers.ProxyHelper.MethodInvocation;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 
 /**
  * {@link java.sql.ResultSet} wrapper that automatically trims strings retrieved
  * from <tt>CHAR</tt> columns.
+ * Character streams and {@link java.sql.Clob}s are trimmed incrementally.
  * Note that trimming is strictly limited to <tt>CHAR</tt> columns; values
  * retrieved from <tt>VARCHAR</tt> columns remain unchanged.
  * The wrapper relies on {@link ResultSetMetaData} to determine the column
@@ -42,89 +36,58 @@ import org.apache.commons.logging.LogFactory;
  */
 public class TrimmingResultSetInvocationHandler implements InvocationHandler {
     
-	private final static Log LOG = LogFactory.getLog(TrimmingResultSetInvocationHandler.class);
-	private Set<String> charColumns;
-	private boolean[] isCharColumn;
-	private ResultSet target;
+	private final ResultSet target;
+	private final TrimmingContext context;
+	private final CharColumns charColumns;
 	
 	public TrimmingResultSetInvocationHandler(ResultSet wrappedObject) {
+		this(wrappedObject, null, null);
+	}
+	
+	/**
+	 * @param sql the SQL text of the query, used as key in the cache; null if not known
+	 */
+	TrimmingResultSetInvocationHandler(ResultSet wrappedObject, TrimmingContext context, String sql) {
 		this.target = wrappedObject;
+		this.context = context;
+		this.charColumns = new CharColumns(wrappedObject, context, sql);
 	}
 	
 	@Override
 	/**
-	 * Modifies getObject and getString behavior. 
-	 * If the column is of type <tt>CHAR</tt>, the returned object is
-	 * a {@link String} holding the column value without trailing spaces.
+	 * Modifies getObject, getString, getNString, getCharacterStream, getNCharacterStream and getClob behavior. 
+	 * If the column is of type <tt>CHAR</tt> or <tt>NCHAR</tt>, the returned object holds
+	 * the column value without trailing spaces.
 	 */
 	public Object invoke(Object proxy, Method method, Object[] args)
 			throws Throwable {
-		MethodInvocation methodInvocation = new MethodInvocation(target, method, args);
-		Object result = methodInvocation.invoke();
+		MethodDispatcher dispatcher = MethodDispatcher.forMethod(method);
+		Object result = dispatcher.invoke(target, args);
 
-		if(result instanceof String && ("getObject".equals(method.getName()) || "getString".equals(method.getName()))) {
-			String stringResult = (String) result;
-			
-			if(method.getParameterTypes().length < 1) {
+		if(CharColumns.isTrimmable(result) && CharColumns.isTrimmedGetter(dispatcher.getName())) {
+			if(dispatcher.getParameterCount() < 1) {
 				throw new IllegalStateException("Method signature not expected on class ResultSet: " + method.toGenericString());
 			}
 					
-			if(int.class.equals(method.getParameterTypes()[0])) {
+			if(int.class.equals(dispatcher.getParameterType(0))) {
 				int columnIndex = (Integer) args[0]; 
-		        return isCharColumn(columnIndex) ? trim(stringResult) : stringResult;
-			} else if (String.class.equals(method.getParameterTypes()[0])) {
+		        return charColumns.trimValue(columnIndex, result);
+			} else if (String.class.equals(dispatcher.getParameterType(0))) {
 				String columnLabel = (String) args[0];
-		        return isCharColumn(columnLabel) ? trim(stringResult) : stringResult;
+		        return charColumns.trimValue(columnLabel, result);
 			} else {
 				throw new IllegalStateException("Method signature not expected on class ResultSet: " + method.toGenericString());
 			}
 		} else {
-			Class<?> clazz = ProxyHelper.getJdbcClass(result);
+			Class<?> clazz = dispatcher.getJdbcClass(result);
 			if (clazz != null
-					&& !ProxyHelper.isWrapped(result, TrimmingResultSetInvocationHandler.class) 
-					&& !ProxyHelper.isWrapped(result, TrimmingDelegateInvocationHandler.class)) {
-				return ProxyHelper.createProxy(clazz, new TrimmingDelegateInvocationHandler<Object>(result));
+					&& ProxyHelper.isQueryResultSetPath(clazz, ResultSet.class, dispatcher.getName())
+					&& !ProxyHelper.isWrapped(result, TrimmingResultSetInvocationHandler.class, TrimmingDelegateInvocationHandler.class)) {
+				return ProxyHelper.createProxy(clazz, new TrimmingDelegateInvocationHandler<Object>(result, context, null));
 			} else {
 				return result;
 			}
 		}
 	}
     
-    private void fetchCharColumns() throws SQLException {
-        if (charColumns == null) {
-            ResultSetMetaData metadata = target.getMetaData();
-            int columnCount = metadata.getColumnCount();
-            charColumns = new HashSet<String>();
-            isCharColumn = new boolean[columnCount];
-            for (int i = 1; i <= columnCount; i++) {
-                if (metadata.getColumnType(i) == Types.CHAR) {
-                    charColumns.add(metadata.getColumnLabel(i).toUpperCase());
-                    isCharColumn[i-1] = true;
-                }
-            }
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("CHAR columns: " + charColumns);
-            }
-        }
-    }
-    
-    private boolean isCharColumn(int columnIndex) throws SQLException {
-        fetchCharColumns();
-        return isCharColumn[columnIndex-1];
-    }
-    
-    private boolean isCharColumn(String columnLabel) throws SQLException {
-        fetchCharColumns();
-        return charColumns.contains(columnLabel.toUpperCase());
-    }
-    
-    private String trim(String string) {
-        int length = string.length();
-        int trimmedLength = length;
-        while (trimmedLength > 0 && string.charAt(trimmedLength-1) == ' ') {
-            trimmedLength--;
-        }
-        return trimmedLength == length ? string : string.substring(0, trimmedLength);
-    }
-    
 }
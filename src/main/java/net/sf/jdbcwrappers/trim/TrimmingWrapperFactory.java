@@ -13,16 +13,236 @@
  */
 package net.sf.jdbcwrappers.trim;
 
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
 import javax.sql.DataSource;
 
+import net.sf.jdbcwrappers.CompositeInvocationHandler;
+import net.sf.jdbcwrappers.Interceptor;
+import net.sf.jdbcwrappers.Invocation;
 import net.sf.jdbcwrappers.ProxyHelper;
 import net.sf.jdbcwrappers.WrapperFactory;
 
+/**
+ * {@link WrapperFactory} trimming strings retrieved from <tt>CHAR</tt> columns.
+ * <p>
+ * By default the wrappers are {@link java.lang.reflect.Proxy} instances using
+ * {@link TrimmingDelegateInvocationHandler}. When <tt>useDelegates</tt> is set, the generated
+ * delegates of {@link net.sf.jdbcwrappers.delegate} are used instead, which avoids boxing and
+ * reflection on the hot {@link java.sql.ResultSet} getters.
+ * <p>
+ * The factory is also an {@link Interceptor}, so that it can share a single proxy layer with
+ * other interceptors in a {@link net.sf.jdbcwrappers.CompositeWrapperFactory}.
+ * <p>
+ * With all three variants, only the objects on the path from the {@link DataSource} to the
+ * result sets of queries are wrapped: {@link DatabaseMetaData} and the result sets returned by
+ * {@link Statement#getGeneratedKeys()} are returned unwrapped.
+ * 
+ * @author Peter Van den Bosch
+ */
+public class TrimmingWrapperFactory implements WrapperFactory, Interceptor {
+	// state of result sets that must not be trimmed
+	private static final Object NOT_TRIMMED = new Object();
+	
+	private boolean useDelegates;
+	private ColumnInfoCache columnInfoCache = new ColumnInfoCache(1000);
+	private StringDeduplicator deduplicator;
+	private TrimmingContext context = new TrimmingContext(columnInfoCache, null);
+	
+	public void setUseDelegates(boolean useDelegates) {
+		this.useDelegates = useDelegates;
+	}
+	
+	/**
+	 * Set the maximum number of queries for which the <tt>CHAR</tt> columns are cached.
+	 * The cache is shared by all data sources wrapped by this factory and is keyed by driver and
+	 * SQL text, so use separate factories for databases with different schemas. The cache is cleared
+	 * when a DDL statement is executed through the wrappers, and connections that switch to another
+	 * default schema (<tt>SET SCHEMA</tt> or {@link Connection#setSchema(String)}) stop using it.
+	 * Schema changes made in any other way require a restart, or a column info cache size of 0.
+	 * 
+	 * @param columnInfoCacheSize the maximum size, or 0 to fetch the metadata of every result set (default 1000)
+	 */
+	public void setColumnInfoCacheSize(int columnInfoCacheSize) {
+		this.columnInfoCache = columnInfoCacheSize > 0 ? new ColumnInfoCache(columnInfoCacheSize) : null;
+		this.context = new TrimmingContext(columnInfoCache, deduplicator);
+	}
+	
+	/**
+	 * Enable deduplication of trimmed values: repeated values of a <tt>CHAR</tt> column are returned as
+	 * the same {@link String} instance, which saves a substring allocation per value for low cardinality
+	 * columns. Columns that turn out to have too many distinct values turn deduplication off for themselves.
+	 * Deduplication works best in combination with the column info cache, since the tables are then
+	 * shared by all executions of a query.
+	 * 
+	 * @param deduplicationTableSize number of values remembered per column (rounded up to a power of two), or 0 to
+	 *        disable deduplication (default)
+	 */
+	public void setDeduplicationTableSize(int deduplicationTableSize) {
+		this.deduplicator = deduplicationTableSize > 0 ? new StringDeduplicator(deduplicationTableSize) : null;
+		this.context = new TrimmingContext(columnInfoCache, deduplicator);
+	}
+	
+	/**
+	 * @return the number of values remembered per column, or 0 if deduplication is disabled
+	 */
+	public int getDeduplicationTableSize() {
+		return deduplicator == null ? 0 : deduplicator.getTableSize();
+	}
+	
+	/**
+	 * @return the number of deduplication tables (one per column and cached query)
+	 */
+	public long getDeduplicationColumns() {
+		return deduplicator == null ? 0 : deduplicator.getColumns();
+	}
+	
+	/**
+	 * @return the number of columns for which deduplication was turned off because of too many distinct values
+	 */
+	public long getDeduplicationDisabledColumns() {
+		return deduplicator == null ? 0 : deduplicator.getDisabledColumns();
+	}
+	
+	/**
+	 * Get the number of values found in the deduplication tables. The statistics are published by
+	 * each column after every 1024 values, so they lag slightly behind.
+	 */
+	public long getDeduplicationHits() {
+		return deduplicator == null ? 0 : deduplicator.getHits();
+	}
+	
+	public long getDeduplicationMisses() {
+		return deduplicator == null ? 0 : deduplicator.getMisses();
+	}
+	
+	/**
+	 * @return the ratio of hits to lookups, or 0 if there were no lookups yet
+	 */
+	public double getDeduplicationHitRate() {
+		long hits = getDeduplicationHits();
+		long lookups = hits + getDeduplicationMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+	
+	/**
+	 * Trim a value of a <tt>CHAR</tt> column the way the wrappers of this factory do, i.e. remove the trailing spaces.
+	 */
+	public static String trim(String value) {
+		return CharColumns.trim(value);
+	}
 
-public class TrimmingWrapperFactory implements WrapperFactory {
 	@Override
 	public DataSource wrapDataSource(DataSource dataSource) {
-		return ProxyHelper.createProxy(DataSource.class, new TrimmingDelegateInvocationHandler<DataSource>(dataSource));
+		if (useDelegates) {
+			return new TrimmingDelegates.TrimmingDataSource(dataSource, context);
+		}
+		return ProxyHelper.createProxy(DataSource.class, new TrimmingDelegateInvocationHandler<DataSource>(dataSource, context, null));
+	}
+	
+	@Override
+	public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+		String name = method.getName();
+		if (ResultSet.class.equals(jdbcClass)) {
+			return CharColumns.isTrimmedGetter(name) && method.getParameterTypes().length > 0;
+		} else if (Connection.class.equals(jdbcClass)) {
+			// the statement factories create the connection's state
+			return name.equals("createStatement") || name.startsWith("prepare") || name.equals("setSchema")
+				|| name.equals("setCatalog") || name.equals("commit") || name.equals("rollback") || name.equals("setAutoCommit");
+		} else if (Statement.class.isAssignableFrom(jdbcClass)) {
+			return (name.startsWith("execute") && !name.equals("executeQuery")) || name.equals("addBatch");
+		} else {
+			return false;
+		}
+	}
+	
+	@Override
+	public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+		return ProxyHelper.isQueryResultSetPath(jdbcClass, ownerClass, origin.getName());
+	}
+	
+	@Override
+	public Object invoke(Invocation invocation) throws Throwable {
+		Class<?> jdbcClass = invocation.getJdbcClass();
+		if (Connection.class.equals(jdbcClass)) {
+			return invokeConnection(invocation);
+		} else if (!ResultSet.class.equals(jdbcClass)) {
+			return invokeStatement(invocation);
+		}
+		Object result = invocation.proceed();
+		if (!CharColumns.isTrimmable(result)) {
+			return result;
+		}
+		Object state = invocation.getState();
+		if (state == null) {
+			// same rule as TrimmingDelegateInvocationHandler: only trim result sets produced by statements
+			CompositeInvocationHandler handler = invocation.getHandler();
+			CompositeInvocationHandler parent = handler.getParent();
+			if (parent != null && ProxyHelper.isQueryResultSet(parent.getJdbcClass(), handler.getOrigin().getName())) {
+				String sql = CharColumns.getCacheKey(parent.getJdbcClass(), handler.getOrigin().getName(), handler.getOriginArgs(), parent.getOriginSql());
+				state = new CharColumns((ResultSet) invocation.getTarget(), getConnectionContext(invocation, parent), sql);
+			} else {
+				state = NOT_TRIMMED;
+			}
+			invocation.setState(state);
+		}
+		if (state == NOT_TRIMMED) {
+			return result;
+		}
+		CharColumns charColumns = (CharColumns) state;
+		Object column = invocation.getArgs()[0];
+		return column instanceof Integer ? charColumns.trimValue((Integer) column, result) : charColumns.trimValue((String) column, result);
+	}
+	
+	private Object invokeConnection(Invocation invocation) throws Throwable {
+		TrimmingContext connectionContext = (TrimmingContext) invocation.getState();
+		if (connectionContext == null) {
+			connectionContext = context.forConnection();
+			invocation.setState(connectionContext);
+		}
+		String name = invocation.getMethod().getName();
+		Object result = invocation.proceed();
+		if (name.equals("setSchema") || name.equals("setCatalog")) {
+			connectionContext.schemaSwitched();
+		} else if (name.equals("commit") || name.equals("rollback") || name.equals("setAutoCommit")) {
+			connectionContext.transactionEnded();
+		}
+		return result;
+	}
+	
+	private Object invokeStatement(Invocation invocation) throws Throwable {
+		TrimmingContext connectionContext = getConnectionContext(invocation, invocation.getHandler());
+		String name = invocation.getMethod().getName();
+		Object[] args = invocation.getArgs();
+		String sql = args != null && args.length > 0 ? (String) args[0] : invocation.getHandler().getOriginSql();
+		if (name.equals("addBatch")) {
+			Object result = invocation.proceed();
+			connectionContext.batched(sql);
+			return result;
+		}
+		try {
+			return invocation.proceed();
+		} finally {
+			if (name.equals("executeBatch") || name.equals("executeLargeBatch")) {
+				connectionContext.batchExecuted((Statement) invocation.getTarget());
+			} else {
+				connectionContext.executed((Statement) invocation.getTarget(), sql);
+			}
+		}
+	}
+	
+	/**
+	 * @return the context of the connection of the given statement, or the factory's context if it isn't known
+	 */
+	private TrimmingContext getConnectionContext(Invocation invocation, CompositeInvocationHandler statement) {
+		CompositeInvocationHandler connection = statement.getParent();
+		TrimmingContext connectionContext = connection != null && Connection.class.equals(connection.getJdbcClass())
+			? (TrimmingContext) invocation.getState(connection) : null;
+		return connectionContext == null ? context : connectionContext;
 	}
 	
 }
@@ -0,0 +1,100 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CompositeWrapperFactoryTest {
+    private static EmbeddedDataSource rawDataSource;
+    
+    static class CountingInterceptor implements Interceptor {
+        private final Class<?> jdbcClass;
+        private final String methodName;
+        int count;
+        
+        CountingInterceptor(Class<?> jdbcClass, String methodName) {
+            this.jdbcClass = jdbcClass;
+            this.methodName = methodName;
+        }
+
+        @Override
+        public boolean isInterestedIn(Class<?> jdbcClass, Method method) {
+            return this.jdbcClass.equals(jdbcClass) && (methodName == null || methodName.equals(method.getName()));
+        }
+
+        @Override
+        public boolean wraps(Class<?> jdbcClass, Class<?> ownerClass, Method origin) {
+            return !DatabaseMetaData.class.equals(jdbcClass);
+        }
+
+        @Override
+        public Object invoke(Invocation invocation) throws Throwable {
+            count++;
+            return invocation.proceed();
+        }
+    }
+    
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("composite");
+    }
+    
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+    
+    @Test
+    public void testSingleProxyLayer() throws SQLException {
+        CountingInterceptor nextCounter = new CountingInterceptor(ResultSet.class, "next");
+        CountingInterceptor resultSetCounter = new CountingInterceptor(ResultSet.class, null);
+        DataSource dataSource = new CompositeWrapperFactory(nextCounter, resultSetCounter).wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("VALUES 1");
+            CompositeInvocationHandler handler = (CompositeInvocationHandler) Proxy.getInvocationHandler(rs);
+            assertFalse(handler.getTarget() instanceof Proxy);
+            assertSame(ResultSet.class, handler.getJdbcClass());
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            assertFalse(rs.next());
+            rs.close();
+            statement.close();
+            assertEquals(2, nextCounter.count);
+            assertEquals(4, resultSetCounter.count);
+            assertFalse(connection.getMetaData() instanceof Proxy);
+        } finally {
+            connection.close();
+        }
+    }
+}
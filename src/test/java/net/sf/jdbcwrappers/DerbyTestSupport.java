@@ -0,0 +1,69 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+
+/**
+ * Creates and destroys the embedded Derby databases used by the tests.
+ */
+public final class DerbyTestSupport {
+    private DerbyTestSupport() {}
+
+    /**
+     * Create a new database in <tt>target/&lt;name&gt;DB</tt>, replacing any database left by a previous run.
+     *
+     * @param name the name of the database
+     * @param sql the statements to execute on the new database, e.g. to create its tables
+     * @return the data source of the database
+     */
+    public static EmbeddedDataSource create(String name, String... sql) throws Exception {
+        FileUtils.deleteDirectory(new File("target/" + name + "DB"));
+        EmbeddedDataSource dataSource = new EmbeddedDataSource();
+        dataSource.setDatabaseName("target/" + name + "DB");
+        dataSource.setUser("test");
+        dataSource.setCreateDatabase("create");
+        // Need to request at least one connection for the database to be created
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            for (String s : sql) {
+                statement.execute(s);
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        return dataSource;
+    }
+
+    /**
+     * Shut down a database created by {@link #create(String, String...)} and delete it.
+     */
+    public static void destroy(EmbeddedDataSource dataSource) throws Exception {
+        dataSource.setShutdownDatabase("shutdown");
+        try {
+            dataSource.getConnection();
+        } catch (SQLException ex) {
+            // This always throws an exception; just continue
+        }
+        FileUtils.deleteDirectory(new File(dataSource.getDatabaseName()));
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class SqlFingerprintTest {
+    @Test
+    public void testLiterals() {
+        assertEquals("SELECT * FROM T WHERE A = ? AND B = -? AND C IN (?, ?)",
+                SqlFingerprint.of("SELECT * FROM T WHERE A = 'it''s' AND B = -1.5e3 AND C IN (1,  2)"));
+        assertEquals("SELECT COL1, T2.X FROM T2 WHERE Y > ?", SqlFingerprint.of("SELECT COL1, T2.X FROM T2 WHERE Y > 42"));
+        assertEquals("SELECT \"a 'b' 1\" FROM T", SqlFingerprint.of("SELECT \"a 'b' 1\" FROM T"));
+    }
+
+    @Test
+    public void testWhitespaceAndComments() {
+        assertEquals("SELECT A FROM T WHERE B = ?",
+                SqlFingerprint.of("  SELECT A\n\tFROM T -- comment\n WHERE /* inline */ B = ?  "));
+    }
+
+    @Test
+    public void testCached() {
+        String sql = "SELECT A FROM T WHERE B = 'x'";
+        assertSame(SqlFingerprint.of(sql), SqlFingerprint.of(sql));
+        assertNull(SqlFingerprint.of(null));
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.sf.jdbcwrappers.DerbyTestSupport;
+import net.sf.jdbcwrappers.trim.TrimmingWrapperFactory;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AsyncDataSourceTest {
+    private static final RowMapper<Integer> ID_MAPPER = new RowMapper<Integer>() {
+        @Override
+        public Integer mapRow(ResultSet resultSet) throws SQLException {
+            return resultSet.getInt(1);
+        }
+    };
+
+    private static EmbeddedDataSource rawDataSource;
+
+    private AsyncDataSource dataSource;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("async", "CREATE TABLE ITEM (ID INTEGER, NAME CHAR(10))");
+        Connection connection = rawDataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            for (int i = 0; i < 25; i++) {
+                statement.execute("INSERT INTO ITEM VALUES (" + i + ", 'item')");
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Before
+    public void createAsyncDataSource() {
+        dataSource = new AsyncDataSource(new TrimmingWrapperFactory().wrapDataSource(rawDataSource), 2);
+    }
+
+    @After
+    public void shutdown() {
+        dataSource.shutdown();
+    }
+
+    @Test
+    public void testQueryAndUpdate() throws Exception {
+        assertEquals(Integer.valueOf(1), dataSource.update("UPDATE ITEM SET NAME = ? WHERE ID = ?", "first", 0).get());
+        List<String> names = dataSource.query("SELECT NAME FROM ITEM WHERE ID < ? ORDER BY ID", new Object[] { 2 }, new RowMapper<String>() {
+            @Override
+            public String mapRow(ResultSet resultSet) throws SQLException {
+                return resultSet.getString(1);
+            }
+        }).get();
+        assertEquals(2, names.size());
+        // the connection is wrapped by the factory
+        assertEquals("first", names.get(0));
+        assertEquals("item", names.get(1));
+        dataSource.update("UPDATE ITEM SET NAME = 'item' WHERE ID = 0").get();
+    }
+
+    @Test
+    public void testCallbacks() throws Exception {
+        final List<Object> outcomes = Collections.synchronizedList(new ArrayList<Object>());
+        AsyncCallback<Object> callback = new AsyncCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                outcomes.add(result);
+            }
+
+            @Override
+            public void onFailure(Throwable failure) {
+                outcomes.add(failure.getClass());
+            }
+        };
+        AsyncResult<List<Integer>> result = dataSource.query("SELECT ID FROM ITEM WHERE ID = 3", null, ID_MAPPER);
+        AsyncResult<Integer> failure = dataSource.update("UPDATE NO_SUCH_TABLE SET ID = 1");
+        result.get();
+        try {
+            failure.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof SQLException);
+        }
+        // callbacks added to complete results are called immediately
+        result.addCallback(callback);
+        failure.addCallback(callback);
+        assertEquals(Collections.singletonList(3), outcomes.get(0));
+        assertTrue(SQLException.class.isAssignableFrom((Class<?>) outcomes.get(1)));
+    }
+
+    @Test
+    public void testBoundedConcurrency() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        List<AsyncResult<Boolean>> results = new ArrayList<AsyncResult<Boolean>>();
+        for (int i = 0; i < 6; i++) {
+            results.add(dataSource.execute(new ConnectionCallback<Boolean>() {
+                @Override
+                public Boolean doInConnection(Connection connection) throws SQLException {
+                    int current = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), current));
+                    }
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException ex) {
+                        throw new SQLException("Interrupted");
+                    }
+                    running.decrementAndGet();
+                    return connection.isClosed();
+                }
+            }));
+        }
+        assertTrue(dataSource.getQueueSize() > 0);
+        for (AsyncResult<Boolean> result : results) {
+            assertFalse(result.get());
+        }
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        final AtomicReference<BatchSubscriber.Subscription> subscription = new AtomicReference<BatchSubscriber.Subscription>();
+        final List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<List<Integer>>());
+        final CountDownLatch firstBatch = new CountDownLatch(1);
+        AsyncResult<Long> result = dataSource.stream("SELECT ID FROM ITEM ORDER BY ID", null, 10, ID_MAPPER, new BatchSubscriber<Integer>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription.set(s);
+            }
+
+            @Override
+            public void onBatch(List<Integer> rows) {
+                batches.add(rows);
+                firstBatch.countDown();
+            }
+        });
+        Thread.sleep(100);
+        // nothing is delivered until requested
+        assertTrue(batches.isEmpty());
+        subscription.get().request(1);
+        assertTrue(firstBatch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, batches.size());
+        assertFalse(result.isDone());
+        subscription.get().request(Long.MAX_VALUE);
+        assertEquals(Long.valueOf(25), result.get());
+        assertEquals(3, batches.size());
+        assertEquals(10, batches.get(1).size());
+        assertEquals(Integer.valueOf(20), batches.get(2).get(0));
+        assertEquals(5, batches.get(2).size());
+    }
+
+    @Test(timeout = 30000)
+    public void testStreamExactBatches() throws Exception {
+        final List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<List<Integer>>());
+        AsyncResult<Long> result = dataSource.stream("SELECT ID FROM ITEM", null, 5, ID_MAPPER, new BatchSubscriber<Integer>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                // the number of rows is a multiple of the batch size: no further request is needed to end the stream
+                s.request(5);
+            }
+
+            @Override
+            public void onBatch(List<Integer> rows) {
+                batches.add(rows);
+            }
+        });
+        assertEquals(Long.valueOf(25), result.get());
+        assertEquals(5, batches.size());
+    }
+
+    @Test
+    public void testStreamCancel() throws Exception {
+        AsyncResult<Long> result = dataSource.stream("SELECT ID FROM ITEM", null, 10, ID_MAPPER, new BatchSubscriber<Integer>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription = s;
+                s.request(1);
+            }
+
+            @Override
+            public void onBatch(List<Integer> rows) {
+                subscription.cancel();
+            }
+        });
+        assertEquals(Long.valueOf(10), result.get());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.DerbyTestSupport;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AutoBatchingWrapperFactoryTest {
+    private static final String INSERT = "INSERT INTO ITEM VALUES (?, ?)";
+
+    private static EmbeddedDataSource rawDataSource;
+    private AutoBatchingWrapperFactory factory;
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("autoBatching", "CREATE TABLE ITEM (ID INTEGER PRIMARY KEY, NAME VARCHAR(20))");
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Before
+    public void createFactory() throws SQLException {
+        Connection connection = rawDataSource.getConnection();
+        try {
+            connection.createStatement().execute("DELETE FROM ITEM");
+        } finally {
+            connection.close();
+        }
+        factory = new AutoBatchingWrapperFactory();
+        factory.setStatements(Arrays.asList("INSERT INTO ITEM\n  VALUES (?, ?)"));
+        factory.setBatchSize(3);
+        dataSource = factory.wrapDataSource(rawDataSource);
+    }
+
+    private static int count(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM ITEM");
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void insert(PreparedStatement statement, int id) throws SQLException {
+        statement.setInt(1, id);
+        statement.setString(2, "item" + id);
+        assertEquals(1, statement.executeUpdate());
+    }
+
+    @Test
+    public void testBatching() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(INSERT);
+            for (int i = 1; i <= 4; i++) {
+                insert(statement, i);
+            }
+            // the first three were executed when the batch was full
+            assertEquals(1, factory.getBatches());
+            // the query executes the remaining one
+            assertEquals(4, count(connection));
+            assertEquals(2, factory.getBatches());
+            insert(statement, 5);
+            statement.close();
+            assertEquals(3, factory.getBatches());
+            connection.commit();
+            assertEquals(5, count(connection));
+            assertEquals(5, factory.getDeferredUpdates());
+            // end the transaction started by the query
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testFlushOnCommit() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(INSERT);
+            insert(statement, 1);
+            insert(statement, 2);
+            assertEquals(0, factory.getBatches());
+            connection.commit();
+            assertEquals(1, factory.getBatches());
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        connection = rawDataSource.getConnection();
+        try {
+            assertEquals(2, count(connection));
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testRollback() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(INSERT);
+            insert(statement, 1);
+            connection.rollback();
+            assertEquals(0, count(connection));
+            assertEquals(0, factory.getBatches());
+            statement.close();
+            connection.rollback();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testNotBatched() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            // auto-commit
+            PreparedStatement statement = connection.prepareStatement(INSERT);
+            insert(statement, 1);
+            statement.close();
+            // SQL not configured
+            connection.setAutoCommit(false);
+            statement = connection.prepareStatement("INSERT INTO ITEM (ID, NAME) VALUES (?, ?)");
+            insert(statement, 2);
+            statement.close();
+            assertEquals(0, factory.getDeferredUpdates());
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testDeferredError() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(INSERT);
+            insert(statement, 1);
+            insert(statement, 1);
+            try {
+                connection.commit();
+                fail("Expected BatchUpdateException");
+            } catch (BatchUpdateException ex) {
+                // expected: duplicate key
+            }
+            connection.rollback();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
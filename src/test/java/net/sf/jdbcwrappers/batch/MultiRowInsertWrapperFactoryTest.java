@@ -0,0 +1,159 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.batch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.DerbyTestSupport;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MultiRowInsertWrapperFactoryTest {
+    private static EmbeddedDataSource rawDataSource;
+    private MultiRowInsertWrapperFactory factory;
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("multiRowInsert", "CREATE TABLE ITEM (ID INTEGER PRIMARY KEY, NAME VARCHAR(20), KIND CHAR(1))");
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Before
+    public void createFactory() throws SQLException {
+        Connection connection = rawDataSource.getConnection();
+        try {
+            connection.createStatement().execute("DELETE FROM ITEM");
+        } finally {
+            connection.close();
+        }
+        factory = new MultiRowInsertWrapperFactory();
+        factory.setMaxRows(2);
+        dataSource = factory.wrapDataSource(rawDataSource);
+    }
+
+    private static String names(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery("SELECT NAME, KIND FROM ITEM ORDER BY ID");
+            StringBuilder names = new StringBuilder();
+            while (rs.next()) {
+                names.append(rs.getString(1)).append(rs.getString(2));
+            }
+            return names.toString();
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Test
+    public void testParse() {
+        MultiRowInsert insert = MultiRowInsert.parse("INSERT INTO ITEM (ID, NAME) VALUES (?, 'a''?')");
+        assertEquals(1, insert.getParameterCount());
+        assertEquals("INSERT INTO ITEM (ID, NAME) VALUES (?, 'a''?'), (?, 'a''?')", insert.getSql(2));
+        assertNull(MultiRowInsert.parse("INSERT INTO ITEM SELECT * FROM ITEM WHERE ID = ?"));
+        assertNull(MultiRowInsert.parse("INSERT INTO ITEM VALUES (?, ?, ?), (?, ?, ?)"));
+        assertNull(MultiRowInsert.parse("UPDATE ITEM SET NAME = ? WHERE ID = ?"));
+        assertNull(MultiRowInsert.parse("INSERT INTO ITEM VALUES (1, 'a', 'b')"));
+    }
+
+    @Test
+    public void testRewrite() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement("INSERT INTO ITEM VALUES (?, ?, 'x')");
+            for (int i = 1; i <= 5; i++) {
+                statement.setInt(1, i);
+                statement.setString(2, "n" + i);
+                statement.addBatch();
+            }
+            assertArrayEquals(new int[] { 1, 1, 1, 1, 1 }, statement.executeBatch());
+            assertEquals(1, factory.getRewrittenBatches());
+            assertEquals(3, factory.getExecutedInserts());
+            // the parameters are still set
+            statement.setInt(1, 6);
+            statement.addBatch();
+            assertArrayEquals(new int[] { 1 }, statement.executeBatch());
+            assertEquals(1, factory.getRewrittenBatches());
+            statement.close();
+            assertEquals("n1xn2xn3xn4xn5xn5x", names(connection));
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testFailure() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement("INSERT INTO ITEM VALUES (?, ?, ?)");
+            int[] ids = { 1, 2, 2, 3 };
+            for (int id : ids) {
+                statement.setInt(1, id);
+                statement.setString(2, "n" + id);
+                statement.setString(3, "y");
+                statement.addBatch();
+            }
+            try {
+                statement.executeBatch();
+                fail("Expected BatchUpdateException");
+            } catch (BatchUpdateException ex) {
+                assertArrayEquals(new int[] { 1, 1 }, ex.getUpdateCounts());
+            }
+            statement.close();
+            assertEquals("n1yn2y", names(connection));
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testNotRewritten() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement("INSERT INTO ITEM SELECT ?, ?, 'z' FROM SYSIBM.SYSDUMMY1");
+            for (int i = 1; i <= 3; i++) {
+                statement.setInt(1, i);
+                statement.setString(2, "n" + i);
+                statement.addBatch();
+            }
+            assertArrayEquals(new int[] { 1, 1, 1 }, statement.executeBatch());
+            assertEquals(0, factory.getRewrittenBatches());
+            statement.close();
+            assertEquals("n1zn2zn3z", names(connection));
+        } finally {
+            connection.close();
+        }
+    }
+}
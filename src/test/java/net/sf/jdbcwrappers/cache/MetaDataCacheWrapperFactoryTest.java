@@ -0,0 +1,162 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.DerbyTestSupport;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MetaDataCacheWrapperFactoryTest {
+    private static EmbeddedDataSource rawDataSource;
+    private MetaDataCacheWrapperFactory factory;
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("metaDataCache", "CREATE TABLE ITEM (ID INTEGER PRIMARY KEY, NAME VARCHAR(20))");
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Before
+    public void createFactory() {
+        factory = new MetaDataCacheWrapperFactory();
+        dataSource = factory.wrapDataSource(rawDataSource);
+    }
+
+    private static int countColumns(DatabaseMetaData metaData, String table) throws SQLException {
+        ResultSet rs = metaData.getColumns(null, "TEST", table, null);
+        try {
+            int columns = 0;
+            while (rs.next()) {
+                columns++;
+                assertEquals(table, rs.getString("TABLE_NAME"));
+                assertEquals(columns, rs.getInt("ORDINAL_POSITION"));
+            }
+            return columns;
+        } finally {
+            rs.close();
+        }
+    }
+
+    @Test
+    public void testCache() throws SQLException {
+        for (int i = 0; i < 2; i++) {
+            Connection connection = dataSource.getConnection();
+            try {
+                DatabaseMetaData metaData = connection.getMetaData();
+                assertEquals(2, countColumns(metaData, "ITEM"));
+                assertEquals(2, countColumns(metaData, "ITEM"));
+                ResultSet rs = metaData.getPrimaryKeys(null, "TEST", "ITEM");
+                assertTrue(rs.next());
+                assertEquals("ID", rs.getString("COLUMN_NAME"));
+                assertFalse(rs.next());
+                rs.close();
+            } finally {
+                connection.close();
+            }
+        }
+        assertEquals(2, factory.getMisses());
+        assertEquals(4, factory.getHits());
+        assertEquals(2, factory.getSize());
+
+        factory.invalidate();
+        assertEquals(0, factory.getSize());
+    }
+
+    @Test
+    public void testTableTypes() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String[] types = { "TABLE" };
+            ResultSet rs = metaData.getTables(null, "TEST", "%", types);
+            assertTrue(rs.next());
+            rs.close();
+            // changing the array must not change the cached entry
+            types[0] = "VIEW";
+            rs = metaData.getTables(null, "TEST", "%", types);
+            assertFalse(rs.next());
+            rs.close();
+            rs = metaData.getTables(null, "TEST", "%", new String[] { "TABLE" });
+            assertTrue(rs.next());
+            rs.close();
+            assertEquals(2, factory.getMisses());
+            assertEquals(1, factory.getHits());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testSchemaChange() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            DatabaseMetaData metaData = connection.getMetaData();
+            assertEquals(0, countColumns(metaData, "OTHER"));
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE OTHER (ID INTEGER)");
+            assertEquals(0, factory.getSize());
+            assertEquals(1, countColumns(metaData, "OTHER"));
+            statement.execute("ALTER TABLE OTHER ADD COLUMN NAME VARCHAR(20)");
+            assertEquals(2, countColumns(metaData, "OTHER"));
+            statement.execute("DROP TABLE OTHER");
+            statement.close();
+            assertEquals(0, countColumns(metaData, "OTHER"));
+            assertEquals(4, factory.getMisses());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testRollback() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            DatabaseMetaData metaData = connection.getMetaData();
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE TEMP (ID INTEGER)");
+            statement.close();
+            assertEquals(1, countColumns(metaData, "TEMP"));
+            // the uncommitted table is not cached
+            assertEquals(0, factory.getSize());
+            connection.rollback();
+            assertEquals(0, countColumns(metaData, "TEMP"));
+            // end the transaction started by the query
+            connection.rollback();
+        } finally {
+            connection.close();
+        }
+    }
+}
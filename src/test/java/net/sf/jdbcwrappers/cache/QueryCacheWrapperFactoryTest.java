@@ -0,0 +1,318 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.CompositeWrapperFactory;
+import net.sf.jdbcwrappers.DerbyTestSupport;
+import net.sf.jdbcwrappers.trim.TrimmingWrapperFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryCacheWrapperFactoryTest {
+    private static final String QUERY = "SELECT CODE, LABEL, RANK FROM REF WHERE CODE = ?";
+
+    private static EmbeddedDataSource rawDataSource;
+    private QueryCacheWrapperFactory factory;
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("queryCache",
+                "CREATE TABLE REF (CODE CHAR(5), LABEL VARCHAR(20), RANK INTEGER)",
+                "INSERT INTO REF VALUES ('A', 'first', 1), ('B', 'second', 2)",
+                "CREATE TABLE OTHER (ID INTEGER)");
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Before
+    public void createFactory() throws SQLException {
+        factory = new QueryCacheWrapperFactory();
+        factory.setQueries(Arrays.asList(QUERY, "SELECT COUNT(*) FROM REF WHERE RANK > 0"));
+        dataSource = factory.wrapDataSource(rawDataSource);
+        execute("UPDATE REF SET LABEL = 'first' WHERE CODE = 'A'");
+    }
+
+    private void execute(String sql) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            statement.executeUpdate(sql);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private String queryLabel(Connection connection, String code) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(QUERY);
+        try {
+            statement.setString(1, code);
+            long hits = factory.getHits();
+            ResultSet rs = statement.executeQuery();
+            if (factory.getHits() > hits) {
+                assertSame(statement, rs.getStatement());
+            }
+            assertTrue(rs.next());
+            String label = rs.getString("label");
+            assertEquals(Types.CHAR, rs.getMetaData().getColumnType(1));
+            assertFalse(rs.next());
+            rs.close();
+            return label;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private String queryLabel(String code) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            return queryLabel(connection, code);
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testCache() throws SQLException {
+        assertEquals("first", queryLabel("A"));
+        assertEquals("first", queryLabel("A"));
+        assertEquals("second", queryLabel("B"));
+        assertEquals(1, factory.getHits());
+        assertEquals(2, factory.getMisses());
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            for (int i = 0; i < 2; i++) {
+                ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM REF WHERE RANK > " + i);
+                assertTrue(rs.next());
+                assertEquals(2 - i, rs.getInt(1));
+                assertEquals(Integer.toString(2 - i), rs.getString(1));
+                assertTrue(rs.isLast());
+                rs.beforeFirst();
+                assertTrue(rs.next());
+                rs.close();
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        assertEquals(4, factory.getMisses());
+    }
+
+    @Test
+    public void testInvalidation() throws SQLException {
+        assertEquals("first", queryLabel("A"));
+        execute("INSERT INTO OTHER VALUES (1)");
+        assertEquals("first", queryLabel("A"));
+        assertEquals(1, factory.getHits());
+        execute("UPDATE REF SET LABEL = 'changed' WHERE CODE = 'A'");
+        assertEquals(1, factory.getInvalidations());
+        assertEquals("changed", queryLabel("A"));
+        assertEquals(1, factory.getHits());
+    }
+
+    @Test
+    public void testTransaction() throws SQLException {
+        assertEquals("first", queryLabel("A"));
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            Statement statement = connection.createStatement();
+            statement.executeUpdate("UPDATE REF SET LABEL = 'changed' WHERE CODE = 'A'");
+            statement.close();
+            assertEquals(0, factory.getSize());
+            // the uncommitted change is visible but not cached
+            assertEquals("changed", queryLabel(connection, "A"));
+            assertEquals(0, factory.getSize());
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } finally {
+            connection.close();
+        }
+        assertEquals("first", queryLabel("A"));
+        assertEquals(1, factory.getSize());
+    }
+
+    @Test
+    public void testMutableValues() throws SQLException {
+        String sql = "SELECT TIMESTAMP('2020-01-01 00:00:00') FROM REF WHERE CODE = 'A'";
+        factory.setQueries(Arrays.asList(sql));
+        Timestamp expected = Timestamp.valueOf("2020-01-01 00:00:00");
+        for (int i = 0; i < 3; i++) {
+            Connection connection = dataSource.getConnection();
+            try {
+                Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery(sql);
+                assertTrue(rs.next());
+                Timestamp timestamp = rs.getTimestamp(1);
+                assertEquals(expected, timestamp);
+                // changing the returned value must not change the cached row
+                timestamp.setTime(0);
+                assertEquals(expected, rs.getObject(1));
+                rs.close();
+                statement.close();
+            } finally {
+                connection.close();
+            }
+        }
+        assertEquals(2, factory.getHits());
+    }
+
+    @Test
+    public void testTransactionAfterRefill() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            Statement statement = connection.createStatement();
+            // invalidates REF without locking the rows the other connection reads
+            statement.executeUpdate("DELETE FROM REF WHERE CODE = 'Z'");
+            statement.close();
+            // another connection fills the cache again
+            assertEquals("first", queryLabel("A"));
+            assertEquals(1, factory.getSize());
+            // the dirty transaction doesn't read the cache, since it might miss its own updates
+            assertEquals("first", queryLabel(connection, "A"));
+            assertEquals(0, factory.getHits());
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        factory.setTimeToLiveMillis(1);
+        assertEquals("first", queryLabel("A"));
+        Thread.sleep(10);
+        assertEquals("first", queryLabel("A"));
+        assertEquals(0, factory.getHits());
+    }
+
+    @Test
+    public void testMaxRows() throws SQLException {
+        factory.setMaxRows(1);
+        factory.setQueries(Arrays.asList("SELECT LABEL FROM REF ORDER BY RANK"));
+        for (int i = 0; i < 2; i++) {
+            Connection connection = dataSource.getConnection();
+            try {
+                Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT LABEL FROM REF ORDER BY RANK");
+                assertTrue(rs.next());
+                assertEquals("first", rs.getString(1));
+                assertTrue(rs.next());
+                assertEquals("second", rs.getString(1));
+                assertFalse(rs.next());
+                rs.close();
+                statement.close();
+            } finally {
+                connection.close();
+            }
+        }
+        assertEquals(0, factory.getHits());
+    }
+
+    @Test
+    public void testTrimming() throws Exception {
+        TrimmingWrapperFactory trimmingWrapperFactory = new TrimmingWrapperFactory();
+        dataSource = new CompositeWrapperFactory(trimmingWrapperFactory, factory).wrapDataSource(rawDataSource);
+        for (int i = 0; i < 2; i++) {
+            Connection connection = dataSource.getConnection();
+            try {
+                PreparedStatement statement = connection.prepareStatement(QUERY);
+                statement.setString(1, "A");
+                ResultSet rs = statement.executeQuery();
+                assertTrue(rs.next());
+                assertEquals("A", rs.getString(1));
+                rs.close();
+                statement.close();
+            } finally {
+                connection.close();
+            }
+        }
+        assertEquals(1, factory.getHits());
+
+        factory.setTrimCharColumns(true);
+        factory.invalidate();
+        dataSource = factory.wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(QUERY);
+            statement.setString(1, "A");
+            ResultSet rs = statement.executeQuery();
+            assertTrue(rs.next());
+            assertEquals("A", rs.getString("CODE"));
+            assertEquals("A", rs.getObject(1));
+            rs.close();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+
+        // the rows following the cached ones are trimmed too
+        factory.setMaxRows(1);
+        factory.setQueries(Arrays.asList("SELECT CODE FROM REF ORDER BY RANK"));
+        connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT CODE FROM REF ORDER BY RANK");
+            assertTrue(rs.next());
+            assertEquals("A", rs.getString(1));
+            assertTrue(rs.next());
+            assertEquals("B", rs.getString(1));
+            assertEquals("B", rs.getObject("CODE"));
+            assertEquals("B", IOUtils.toString(rs.getCharacterStream(1)));
+            assertFalse(rs.next());
+            rs.close();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testSqlTables() {
+        assertEquals(new HashSet<String>(Arrays.asList("A", "B", "C", "D")),
+                SqlTables.getTables("SELECT * FROM s.a x, b AS y JOIN \"C\" ON 1=1 WHERE x.id IN (SELECT id FROM d)"));
+        assertEquals(new HashSet<String>(Arrays.asList("T")), SqlTables.getTables("update t set c = 'FROM x'"));
+        assertTrue(SqlTables.isQuery("(VALUES 1)"));
+        assertFalse(SqlTables.isQuery("DELETE FROM T"));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.CompositeWrapperFactory;
+import net.sf.jdbcwrappers.DerbyTestSupport;
+import net.sf.jdbcwrappers.trim.TrimmingWrapperFactory;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ReadAheadWrapperFactoryTest {
+    private static final String QUERY = "SELECT ID, CODE FROM ITEM WHERE ID <= ? ORDER BY ID -- READ_AHEAD";
+
+    private static EmbeddedDataSource rawDataSource;
+    private ReadAheadWrapperFactory factory;
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("readAhead", "CREATE TABLE ITEM (ID INTEGER, CODE CHAR(5))");
+        Connection connection = rawDataSource.getConnection();
+        try {
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO ITEM VALUES (?, ?)");
+            for (int i = 1; i <= 500; i++) {
+                insert.setInt(1, i);
+                insert.setString(2, "C" + (i % 10));
+                insert.executeUpdate();
+            }
+            insert.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Before
+    public void createFactory() {
+        factory = new ReadAheadWrapperFactory();
+        factory.setBufferSize(100);
+        dataSource = factory.wrapDataSource(rawDataSource);
+    }
+
+    @Test
+    public void testReadAhead() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(QUERY);
+            statement.setInt(1, 500);
+            ResultSet rs = statement.executeQuery();
+            assertSame(statement, rs.getStatement());
+            assertSame(rs, statement.getResultSet());
+            assertTrue(rs.isBeforeFirst());
+            int rows = 0;
+            while (rs.next()) {
+                rows++;
+                assertEquals(rows, rs.getInt("ID"));
+                assertEquals(rows, rs.getRow());
+                assertEquals("C" + (rows % 10) + "   ", rs.getString(2));
+            }
+            assertEquals(500, rows);
+            assertTrue(rs.isAfterLast());
+            rs.close();
+            assertEquals(1, factory.getResultSets());
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testClose() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(QUERY);
+            statement.setInt(1, 500);
+            ResultSet rs = statement.executeQuery();
+            assertTrue(rs.next());
+            // executing the statement again closes the result set, although the producer is still busy
+            statement.setInt(1, 0);
+            ResultSet rs2 = statement.executeQuery();
+            assertTrue(rs.isClosed());
+            try {
+                rs.next();
+                fail("Expected SQLException");
+            } catch (SQLException ex) {
+                // expected
+            }
+            assertFalse(rs2.next());
+            statement.close();
+            assertTrue(rs2.isClosed());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testConnectionClosed() throws Exception {
+        final CountDownLatch finished = new CountDownLatch(1);
+        factory.setExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                new Thread() {
+                    @Override
+                    public void run() {
+                        command.run();
+                        finished.countDown();
+                    }
+                }.start();
+            }
+        });
+        Connection connection = dataSource.getConnection();
+        ResultSet rs;
+        try {
+            PreparedStatement statement = connection.prepareStatement(QUERY);
+            statement.setInt(1, 500);
+            rs = statement.executeQuery();
+            assertTrue(rs.next());
+            // let the producer fill the buffer
+            Thread.sleep(100);
+        } finally {
+            // neither the result set nor the statement is closed
+            connection.close();
+        }
+        // the producer must not keep waiting for space in the buffer
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        // and the consumer must not wait for rows that will never come
+        try {
+            for (int i = 1; i < 500; i++) {
+                assertTrue(rs.next());
+            }
+            fail("Expected SQLException");
+        } catch (SQLException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNoHint() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT ID FROM ITEM");
+            assertTrue(rs.next());
+            rs.close();
+            statement.close();
+            assertEquals(0, factory.getResultSets());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testTrimming() throws SQLException {
+        dataSource = new CompositeWrapperFactory(new TrimmingWrapperFactory(), factory).wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(QUERY);
+            statement.setInt(1, 1);
+            ResultSet rs = statement.executeQuery();
+            assertTrue(rs.next());
+            assertEquals("C1", rs.getString("CODE"));
+            rs.close();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        assertEquals(1, factory.getResultSets());
+
+        factory.setTrimCharColumns(true);
+        dataSource = factory.wrapDataSource(rawDataSource);
+        connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(QUERY);
+            statement.setInt(1, 1);
+            ResultSet rs = statement.executeQuery();
+            assertTrue(rs.next());
+            assertEquals("C1", rs.getObject(2));
+            rs.close();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.CompositeInvocationHandler;
+import net.sf.jdbcwrappers.DerbyTestSupport;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class StatementCacheWrapperFactoryTest {
+    private static EmbeddedDataSource rawDataSource;
+    private StatementCacheWrapperFactory factory;
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("statementCache",
+                "CREATE TABLE ITEM (ID INTEGER, NAME VARCHAR(20))",
+                "INSERT INTO ITEM VALUES (1, 'one'), (2, 'two')");
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Before
+    public void createFactory() {
+        factory = new StatementCacheWrapperFactory();
+        dataSource = factory.wrapDataSource(rawDataSource);
+    }
+
+    private static Object getTarget(Object proxy) {
+        return ((CompositeInvocationHandler) Proxy.getInvocationHandler(proxy)).getTarget();
+    }
+
+    private static String queryName(PreparedStatement statement, int id) throws SQLException {
+        statement.setInt(1, id);
+        ResultSet rs = statement.executeQuery();
+        try {
+            rs.next();
+            assertSame(statement, rs.getStatement());
+            return rs.getString(1);
+        } finally {
+            rs.close();
+        }
+    }
+
+    @Test
+    public void testReuse() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement("SELECT NAME FROM ITEM WHERE ID = ?");
+            Object target = getTarget(statement);
+            assertEquals("one", queryName(statement, 1));
+            statement.close();
+            statement.close();
+            try {
+                statement.executeQuery();
+                fail("Expected SQLException");
+            } catch (SQLException ex) {
+                // expected
+            }
+            PreparedStatement statement2 = connection.prepareStatement("SELECT NAME FROM ITEM WHERE ID = ?");
+            assertNotSame(statement, statement2);
+            assertSame(target, getTarget(statement2));
+            // a second statement with the same SQL while the first is in use
+            PreparedStatement statement3 = connection.prepareStatement("SELECT NAME FROM ITEM WHERE ID = ?");
+            assertNotSame(target, getTarget(statement3));
+            assertEquals("two", queryName(statement3, 2));
+            statement3.close();
+            statement2.close();
+            // different result set type
+            connection.prepareStatement("SELECT NAME FROM ITEM WHERE ID = ?", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY).close();
+            assertEquals(1, factory.getHits());
+            assertEquals(3, factory.getMisses());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testEviction() throws SQLException {
+        factory.setCacheSize(1);
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement("SELECT NAME FROM ITEM WHERE ID = ?");
+            PreparedStatement target = (PreparedStatement) getTarget(statement);
+            statement.close();
+            connection.prepareStatement("SELECT ID FROM ITEM WHERE NAME = ?").close();
+            assertEquals(1, factory.getEvictions());
+            try {
+                target.executeQuery();
+                fail("Expected SQLException");
+            } catch (SQLException ex) {
+                // expected: the evicted statement was closed
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testModifiedStatementNotCached() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement("SELECT NAME FROM ITEM WHERE ID = ?");
+            statement.setMaxRows(1);
+            statement.close();
+            statement = connection.prepareStatement("SELECT NAME FROM ITEM WHERE ID = ?");
+            assertEquals(0, statement.getMaxRows());
+            statement.close();
+            assertEquals(0, factory.getHits());
+            // a statement prepared with generated keys is not cached
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO ITEM VALUES (3, 'three')", Statement.RETURN_GENERATED_KEYS);
+            insert.close();
+            assertEquals(2, factory.getMisses());
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.columnar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.DerbyTestSupport;
+import net.sf.jdbcwrappers.trim.TrimmingWrapperFactory;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ColumnarReaderTest {
+    private static EmbeddedDataSource rawDataSource;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("columnar", "CREATE TABLE ITEM (ID INTEGER, QUANTITY BIGINT, PRICE DOUBLE, AMOUNT DECIMAL(10,2), CODE CHAR(5), NAME VARCHAR(20))");
+        Connection connection = rawDataSource.getConnection();
+        try {
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO ITEM VALUES (?, ?, ?, ?, ?, ?)");
+            for (int i = 1; i <= 10; i++) {
+                insert.setInt(1, i);
+                insert.setLong(2, i * 1000000000000L);
+                insert.setDouble(3, i / 4.0);
+                insert.setBigDecimal(4, new java.math.BigDecimal(i + ".50"));
+                if (i % 3 == 0) {
+                    insert.setNull(5, java.sql.Types.CHAR);
+                } else {
+                    insert.setString(5, "C" + i);
+                }
+                insert.setString(6, "\u00e9l\u00e8ve " + i);
+                insert.executeUpdate();
+            }
+            insert.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Test
+    public void testRead() throws SQLException {
+        Connection connection = rawDataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT * FROM ITEM ORDER BY ID");
+            ColumnarReader reader = new ColumnarReader(rs, 4, true);
+            assertEquals(6, reader.getColumnCount());
+            assertEquals(ColumnVector.Kind.INT, reader.getColumn(1).getKind());
+            assertEquals(ColumnVector.Kind.LONG, reader.getColumn(2).getKind());
+            assertEquals(ColumnVector.Kind.DOUBLE, reader.getColumn(3).getKind());
+            assertEquals(ColumnVector.Kind.STRING, reader.getColumn(4).getKind());
+            assertEquals("CODE", reader.getColumn(5).getLabel());
+            int id = 0;
+            int rows;
+            int batches = 0;
+            while ((rows = reader.read()) > 0) {
+                batches++;
+                for (int row = 0; row < rows; row++) {
+                    id++;
+                    assertEquals(id, reader.getColumn(1).getInts()[row]);
+                    assertEquals(id * 1000000000000L, reader.getColumn(2).getLongs()[row]);
+                    assertEquals(id / 4.0, reader.getColumn(3).getDoubles()[row], 0);
+                    assertEquals(id + ".50", reader.getColumn(4).getString(row));
+                    if (id % 3 == 0) {
+                        assertTrue(reader.getColumn(5).isNull(row));
+                        assertNull(reader.getColumn(5).getString(row));
+                    } else {
+                        assertFalse(reader.getColumn(5).isNull(row));
+                        assertEquals("C" + id, reader.getColumn(5).getString(row));
+                    }
+                    assertEquals("\u00e9l\u00e8ve " + id, reader.getColumn(6).getString(row));
+                }
+            }
+            assertEquals(10, id);
+            assertEquals(3, batches);
+            assertEquals(0, reader.getRowCount());
+            rs.close();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testWrappedResultSet() throws SQLException {
+        DataSource dataSource = new TrimmingWrapperFactory().wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT CODE FROM ITEM WHERE ID = 1");
+            ColumnarReader reader = new ColumnarReader(rs, 100, false);
+            assertEquals(1, reader.read());
+            ColumnVector code = reader.getColumn(1);
+            assertEquals(0, code.getOffsets()[0]);
+            assertEquals(2, code.getOffsets()[1]);
+            assertEquals(2, code.getData().limit());
+            assertEquals("C1", code.getString(0));
+            assertEquals(0, reader.read());
+            rs.close();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.fetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.CompositeInvocationHandler;
+import net.sf.jdbcwrappers.DerbyTestSupport;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FetchSizeTuningWrapperFactoryTest {
+    private static final String QUERY = "SELECT ID FROM ITEM WHERE ID <= ?";
+
+    private static EmbeddedDataSource rawDataSource;
+    private FetchSizeTuningWrapperFactory factory;
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("fetchSize", "CREATE TABLE ITEM (ID INTEGER)");
+        Connection connection = rawDataSource.getConnection();
+        try {
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO ITEM VALUES (?)");
+            for (int i = 1; i <= 100; i++) {
+                insert.setInt(1, i);
+                insert.executeUpdate();
+            }
+            insert.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Before
+    public void createFactory() {
+        factory = new FetchSizeTuningWrapperFactory();
+        factory.setMaxFetchSize(50);
+        dataSource = factory.wrapDataSource(rawDataSource);
+    }
+
+    private static Statement getTarget(Statement proxy) {
+        return (Statement) ((CompositeInvocationHandler) Proxy.getInvocationHandler(proxy)).getTarget();
+    }
+
+    private static int query(PreparedStatement statement, int maxId) throws SQLException {
+        statement.setInt(1, maxId);
+        ResultSet rs = statement.executeQuery();
+        int rows = 0;
+        while (rs.next()) {
+            rows++;
+        }
+        rs.close();
+        return rows;
+    }
+
+    @Test
+    public void testTuning() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(QUERY);
+            assertEquals(0, factory.getFetchSize(QUERY));
+            assertEquals(1, query(statement, 1));
+            assertEquals(2, factory.getFetchSize(QUERY));
+            query(statement, 1);
+            assertEquals(2, getTarget(statement).getFetchSize());
+            // large results are bounded by the maximum
+            for (int i = 0; i < 20; i++) {
+                query(statement, 100);
+            }
+            assertEquals(50, factory.getFetchSize(QUERY));
+            assertEquals(Integer.valueOf(50), factory.getFetchSizes().get(QUERY));
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testPartialRead() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(QUERY);
+            statement.setInt(1, 100);
+            ResultSet rs = statement.executeQuery();
+            for (int i = 0; i < 5; i++) {
+                rs.next();
+            }
+            rs.close();
+            assertEquals(6, factory.getFetchSize(QUERY));
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testApplicationFetchSize() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(QUERY);
+            statement.setFetchSize(7);
+            query(statement, 10);
+            query(statement, 10);
+            assertEquals(7, getTarget(statement).getFetchSize());
+            assertTrue(factory.getFetchSizes().isEmpty());
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
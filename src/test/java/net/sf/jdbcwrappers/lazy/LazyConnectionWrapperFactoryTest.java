@@ -0,0 +1,176 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.lazy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.DerbyTestSupport;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LazyConnectionWrapperFactoryTest {
+    private static EmbeddedDataSource rawDataSource;
+    private LazyConnectionWrapperFactory factory;
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("lazyConnection", "CREATE TABLE ITEM (ID INTEGER)");
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Before
+    public void createFactory() {
+        factory = new LazyConnectionWrapperFactory();
+        dataSource = factory.wrapDataSource(rawDataSource);
+    }
+
+    @Test
+    public void testUnused() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        connection.setAutoCommit(false);
+        assertFalse(connection.getAutoCommit());
+        connection.setReadOnly(true);
+        connection.commit();
+        connection.rollback();
+        assertFalse(connection.isClosed());
+        connection.close();
+        assertTrue(connection.isClosed());
+        assertEquals(1, factory.getConnections());
+        assertEquals(0, factory.getAcquisitions());
+        try {
+            connection.createStatement();
+            fail("Expected SQLException");
+        } catch (SQLException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReplay() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            Statement statement = connection.createStatement();
+            assertEquals(1, factory.getAcquisitions());
+            statement.executeUpdate("INSERT INTO ITEM VALUES (1)");
+            statement.close();
+            assertFalse(connection.getAutoCommit());
+            assertEquals(Connection.TRANSACTION_SERIALIZABLE, connection.getTransactionIsolation());
+            connection.rollback();
+        } finally {
+            connection.close();
+        }
+        connection = rawDataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM ITEM");
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1));
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testDefaults() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            // the first connection needs the physical connection to answer this
+            assertTrue(connection.getAutoCommit());
+            assertEquals(1, factory.getAcquisitions());
+        } finally {
+            connection.close();
+        }
+        connection = dataSource.getConnection();
+        try {
+            assertTrue(connection.getAutoCommit());
+            assertFalse(connection.isReadOnly());
+            assertEquals(1, factory.getAcquisitions());
+            connection.getMetaData();
+            assertEquals(2, factory.getAcquisitions());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testReplayDefaultValues() throws SQLException {
+        // a pool handing out connections in the state the previous user left them in
+        final Connection[] physicalConnection = new Connection[1];
+        DataSource dirtyDataSource = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class }, new InvocationHandler() {
+            private boolean first = true;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result;
+                try {
+                    result = method.invoke(rawDataSource, args);
+                } catch (InvocationTargetException ex) {
+                    throw ex.getCause();
+                }
+                if (result instanceof Connection) {
+                    physicalConnection[0] = (Connection) result;
+                    if (!first) {
+                        physicalConnection[0].setAutoCommit(false);
+                    }
+                }
+                first = false;
+                return result;
+            }
+        });
+        dataSource = factory.wrapDataSource(dirtyDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            // learns the defaults
+            assertTrue(connection.getAutoCommit());
+        } finally {
+            connection.close();
+        }
+        connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(true);
+            Statement statement = connection.createStatement();
+            statement.close();
+            assertEquals(2, factory.getAcquisitions());
+            assertTrue(physicalConnection[0].getAutoCommit());
+        } finally {
+            connection.close();
+        }
+    }
+}
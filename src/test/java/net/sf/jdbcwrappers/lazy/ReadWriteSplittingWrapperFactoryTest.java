@@ -0,0 +1,134 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.lazy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.DerbyTestSupport;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ReadWriteSplittingWrapperFactoryTest {
+    private static final String[] DATABASES = { "primary", "replica1", "replica2" };
+
+    private static List<EmbeddedDataSource> rawDataSources = new ArrayList<EmbeddedDataSource>();
+    private ReadWriteSplittingWrapperFactory factory;
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void createDataSources() throws Exception {
+        for (String database : DATABASES) {
+            rawDataSources.add(DerbyTestSupport.create(database,
+                    "CREATE TABLE ORIGIN (NAME VARCHAR(10))",
+                    "INSERT INTO ORIGIN VALUES ('" + database + "')"));
+        }
+    }
+
+    @AfterClass
+    public static void destroyDataSources() throws Exception {
+        for (EmbeddedDataSource rawDataSource : rawDataSources) {
+            DerbyTestSupport.destroy(rawDataSource);
+        }
+    }
+
+    @Before
+    public void createFactory() {
+        factory = new ReadWriteSplittingWrapperFactory();
+        factory.setReplicas(Arrays.<DataSource>asList(rawDataSources.get(1), rawDataSources.get(2)));
+        dataSource = factory.wrapDataSource(rawDataSources.get(0));
+    }
+
+    private static String getOrigin(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery("SELECT NAME FROM ORIGIN");
+            assertTrue(rs.next());
+            return rs.getString(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Test
+    public void testRouting() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            assertEquals("primary", getOrigin(connection));
+            // too late to move to a replica
+            connection.setReadOnly(true);
+            assertEquals("primary", getOrigin(connection));
+        } finally {
+            connection.close();
+        }
+        Connection connection1 = dataSource.getConnection();
+        Connection connection2 = dataSource.getConnection();
+        try {
+            connection1.setReadOnly(true);
+            connection2.setReadOnly(true);
+            String origin1 = getOrigin(connection1);
+            String origin2 = getOrigin(connection2);
+            assertTrue(origin1.startsWith("replica"));
+            assertTrue(origin2.startsWith("replica"));
+            // the second connection goes to the replica with the fewest open connections
+            assertTrue(!origin1.equals(origin2));
+        } finally {
+            connection1.close();
+            connection2.close();
+        }
+        assertEquals(1, factory.getPrimaryConnections());
+        assertEquals(2, factory.getReplicaConnections());
+    }
+
+    @Test
+    public void testEjection() throws SQLException {
+        EmbeddedDataSource missing = new EmbeddedDataSource();
+        missing.setDatabaseName("target/missingDB");
+        factory.setReplicas(Arrays.<DataSource>asList(missing, rawDataSources.get(1)));
+        for (int i = 0; i < 3; i++) {
+            Connection connection = dataSource.getConnection();
+            try {
+                connection.setReadOnly(true);
+                assertEquals("replica1", getOrigin(connection));
+            } finally {
+                connection.close();
+            }
+        }
+        assertEquals(1, factory.getEjections());
+
+        factory.setReplicas(Arrays.<DataSource>asList(missing));
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setReadOnly(true);
+            assertEquals("primary", getOrigin(connection));
+        } finally {
+            connection.close();
+        }
+        assertEquals(2, factory.getEjections());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.DerbyTestSupport;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ConcurrencyLimitWrapperFactoryTest {
+    private static EmbeddedDataSource rawDataSource;
+    private ConcurrencyLimitWrapperFactory factory;
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("concurrencyLimit");
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Before
+    public void createFactory() {
+        factory = new ConcurrencyLimitWrapperFactory();
+        factory.setInitialLimit(2);
+        factory.setMaxLimit(2);
+        dataSource = factory.wrapDataSource(rawDataSource);
+    }
+
+    @Test
+    public void testReject() throws SQLException {
+        Connection connection1 = dataSource.getConnection();
+        Connection connection2 = dataSource.getConnection();
+        assertEquals(2, factory.getInFlight());
+        try {
+            dataSource.getConnection();
+            fail("Expected SQLTransientConnectionException");
+        } catch (SQLTransientConnectionException ex) {
+            // expected
+        }
+        assertEquals(1, factory.getRejections());
+        connection1.close();
+        // closing twice releases the permit only once
+        connection1.close();
+        assertEquals(1, factory.getInFlight());
+        Connection connection3 = dataSource.getConnection();
+        connection2.close();
+        connection3.close();
+        assertEquals(0, factory.getInFlight());
+    }
+
+    @Test
+    public void testWait() throws Exception {
+        factory.setMaxWaitMillis(10000);
+        final Connection connection1 = dataSource.getConnection();
+        Connection connection2 = dataSource.getConnection();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                    connection1.close();
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+        thread.start();
+        long start = System.currentTimeMillis();
+        Connection connection3 = dataSource.getConnection();
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        thread.join();
+        connection2.close();
+        connection3.close();
+        assertEquals(0, factory.getRejections());
+    }
+
+    @Test
+    public void testPartitions() throws SQLException {
+        Map<String, Double> partitions = new HashMap<String, Double>();
+        partitions.put("interactive", 0.5);
+        partitions.put("batch", 0.5);
+        factory.setPartitions(partitions);
+        factory.setCallerPartition("batch");
+        Connection batch1 = dataSource.getConnection();
+        Connection batch2 = dataSource.getConnection();
+        try {
+            dataSource.getConnection();
+            fail("Expected SQLTransientConnectionException");
+        } catch (SQLTransientConnectionException ex) {
+            // expected
+        }
+        // the batch partition borrowed the whole limit, but interactive callers still get their share
+        factory.setCallerPartition("interactive");
+        Connection interactive = dataSource.getConnection();
+        assertEquals(3, factory.getInFlight());
+        assertEquals(2, factory.getInFlight("batch"));
+        assertEquals(1, factory.getInFlight("interactive"));
+        factory.setCallerPartition(null);
+        batch1.close();
+        batch2.close();
+        interactive.close();
+        assertEquals(0, factory.getInFlight());
+    }
+
+    @Test
+    public void testLimitAdapts() throws SQLException {
+        factory.setInitialLimit(10);
+        factory.setMaxLimit(100);
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            for (int i = 0; i < 100; i++) {
+                statement.execute("VALUES 1");
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        // a single connection uses less than half of the limit, which therefore doesn't change
+        assertEquals(10, factory.getLimit());
+    }
+}
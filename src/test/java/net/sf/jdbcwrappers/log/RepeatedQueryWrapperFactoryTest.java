@@ -0,0 +1,191 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.DerbyTestSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RepeatedQueryWrapperFactoryTest {
+    private static EmbeddedDataSource rawDataSource;
+
+    private RepeatedQueryWrapperFactory factory;
+    private List<String> messages;
+    private List<Throwable> callSites;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("repeatedQuery", "CREATE TABLE ITEM (ID INTEGER, NAME VARCHAR(20))");
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Before
+    public void createFactory() {
+        messages = new ArrayList<String>();
+        callSites = new ArrayList<Throwable>();
+        factory = new RepeatedQueryWrapperFactory();
+        factory.setRepeatThreshold(3);
+        factory.setStatementThreshold(10);
+        factory.setLog((Log) Proxy.newProxyInstance(Log.class.getClassLoader(), new Class<?>[] { Log.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().startsWith("is")) {
+                    return true;
+                }
+                messages.add(method.getName() + ": " + args[0]);
+                callSites.add(args.length > 1 ? (Throwable) args[1] : null);
+                return null;
+            }
+        }));
+    }
+
+    private static void select(Connection connection, int times) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("SELECT NAME FROM ITEM WHERE ID = ?");
+        try {
+            for (int i = 0; i < times; i++) {
+                statement.setInt(1, i);
+                statement.executeQuery().close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Test
+    public void testRepeatedQuery() throws Exception {
+        DataSource dataSource = factory.wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            select(connection, 2);
+            connection.commit();
+            assertEquals(0, messages.size());
+            select(connection, 5);
+            connection.createStatement().executeUpdate("DELETE FROM ITEM WHERE ID = 1");
+            connection.rollback();
+        } finally {
+            connection.close();
+        }
+        assertEquals(1, factory.getFlaggedTransactions());
+        assertEquals(1, messages.size());
+        String message = messages.get(0);
+        assertTrue(message, message.startsWith("warn: Transaction executed 6 statements"));
+        assertTrue(message, message.contains("5 x SELECT NAME FROM ITEM WHERE ID = ?"));
+        assertTrue(message, !message.contains("DELETE"));
+        boolean found = false;
+        for (StackTraceElement element : callSites.get(0).getStackTrace()) {
+            found |= element.getMethodName().equals("select");
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testStatementThreshold() throws Exception {
+        factory.setRepeatThreshold(100);
+        DataSource dataSource = factory.wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            Statement statement = connection.createStatement();
+            for (int i = 0; i < 12; i++) {
+                statement.executeQuery("SELECT NAME FROM ITEM WHERE ID = " + i).close();
+            }
+            statement.close();
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+        assertEquals(1, factory.getTrackedTransactions());
+        assertEquals(1, factory.getFlaggedTransactions());
+        assertEquals(1, messages.size());
+        assertEquals("warn: Transaction executed 12 statements", messages.get(0));
+    }
+
+    @Test
+    public void testAutoCommit() throws Exception {
+        DataSource dataSource = factory.wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            // every statement is a transaction of its own
+            select(connection, 5);
+            Statement statement = connection.createStatement();
+            for (int i = 0; i < 12; i++) {
+                statement.executeQuery("SELECT NAME FROM ITEM WHERE ID = " + i).close();
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        assertEquals(0, factory.getTrackedTransactions());
+        assertEquals(0, messages.size());
+    }
+
+    @Test
+    public void testSampling() throws Exception {
+        factory.setSampleRate(0);
+        DataSource dataSource = factory.wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            select(connection, 5);
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+        assertEquals(0, factory.getTrackedTransactions());
+        assertEquals(0, messages.size());
+    }
+
+    @Test
+    public void testCounter() {
+        FingerprintCounter counter = new FingerprintCounter();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, counter.increment("query " + i));
+        }
+        assertEquals(2, counter.increment("query 42"));
+        assertEquals(100, counter.size());
+        int total = 0;
+        for (int i = 0; i < counter.capacity(); i++) {
+            total += counter.getCount(i);
+        }
+        assertEquals(101, total);
+        counter.clear();
+        assertEquals(0, counter.size());
+        assertEquals(1, counter.increment("query 42"));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.DerbyTestSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SlowQueryLogWrapperFactoryTest {
+    private static EmbeddedDataSource rawDataSource;
+
+    /**
+     * Create a {@link Log} recording the messages as "level: message".
+     */
+    private static Log createLog(final List<String> messages) {
+        return (Log) Proxy.newProxyInstance(Log.class.getClassLoader(), new Class<?>[] { Log.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().startsWith("is")) {
+                    return true;
+                }
+                messages.add(method.getName() + ": " + args[0]);
+                return null;
+            }
+        });
+    }
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("log", "CREATE TABLE ITEM (ID INTEGER, NAME VARCHAR(20))");
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Test
+    public void testSlowStatements() throws Exception {
+        List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        SlowQueryLogWrapperFactory factory = new SlowQueryLogWrapperFactory();
+        factory.setThresholdMillis(0);
+        factory.setLog(createLog(messages));
+        DataSource dataSource = factory.wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement("INSERT INTO ITEM VALUES (?, ?)");
+            statement.setInt(1, 1);
+            statement.setString(2, "first");
+            statement.executeUpdate();
+            statement.setInt(1, 2);
+            statement.setNull(2, java.sql.Types.VARCHAR);
+            statement.addBatch();
+            statement.setInt(1, 3);
+            statement.setString(2, "third");
+            statement.addBatch();
+            statement.executeBatch();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        factory.shutdown();
+        assertEquals(2, factory.getLoggedEvents());
+        assertEquals(0, factory.getDroppedEvents());
+        String first = messages.get(0);
+        assertTrue(first, first.startsWith("warn: Slow statement ("));
+        assertTrue(first, first.endsWith("ms): INSERT INTO ITEM VALUES (?, ?) [parameters: 1, 'first']"));
+        assertTrue(messages.get(1), messages.get(1).endsWith(" [parameters: 3, 'third'] [batch size: 2]"));
+    }
+
+    @Test
+    public void testSampling() throws Exception {
+        List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        SlowQueryLogWrapperFactory factory = new SlowQueryLogWrapperFactory();
+        factory.setThresholdMillis(60000);
+        factory.setSampleRate(1);
+        factory.setLog(createLog(messages));
+        DataSource dataSource = factory.wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            statement.executeQuery("SELECT * FROM ITEM").close();
+            try {
+                statement.executeQuery("SELECT * FROM NO_SUCH_TABLE");
+            } catch (SQLException ex) {
+                // expected
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        try {
+            factory.setBufferSize(16);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected: the logging thread is running
+        }
+        factory.shutdown();
+        factory.setBufferSize(16);
+        assertEquals(2, messages.size());
+        assertTrue(messages.get(0), messages.get(0).matches("info: Sampled statement \\(.* ms\\): SELECT \\* FROM ITEM"));
+        assertTrue(messages.get(1), messages.get(1).contains(" failed: java.sql.SQLException"));
+    }
+
+    @Test
+    public void testRingBuffer() {
+        EventRingBuffer buffer = new EventRingBuffer(2);
+        long first = buffer.claim();
+        long second = buffer.claim();
+        assertEquals(-1, buffer.claim());
+        assertNull(buffer.peek());
+        buffer.get(first).sql = "first";
+        buffer.publish(first);
+        buffer.publish(second);
+        StatementEvent event = buffer.peek();
+        assertSame(buffer.get(first), event);
+        assertEquals("first", event.sql);
+        buffer.release();
+        assertNull(event.sql);
+        assertEquals(2, buffer.claim());
+        assertSame(buffer.get(second), buffer.peek());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.DerbyTestSupport;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MetricsWrapperFactoryTest {
+    private static EmbeddedDataSource rawDataSource;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("metrics", "CREATE TABLE ITEM (ID INTEGER, NAME VARCHAR(20))");
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        MetricsWrapperFactory factory = new MetricsWrapperFactory();
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        factory.setMBeanServer(mbeanServer);
+        factory.setName("test");
+        DataSource dataSource = factory.wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO ITEM VALUES (?, ?)");
+            for (int i = 0; i < 3; i++) {
+                insert.setInt(1, i);
+                insert.setString(2, "item" + i);
+                assertEquals(1, insert.executeUpdate());
+            }
+            insert.close();
+            Statement statement = connection.createStatement();
+            for (int i = 0; i < 2; i++) {
+                ResultSet rs = statement.executeQuery("SELECT NAME FROM ITEM WHERE ID >= " + i);
+                while (rs.next()) {
+                    rs.getString(1);
+                }
+                rs.close();
+            }
+            assertEquals(3, statement.executeUpdate("UPDATE ITEM SET NAME = 'x'"));
+            statement.close();
+            assertFalse(connection.getMetaData().getTables(null, null, "ITEM", null) instanceof java.lang.reflect.Proxy);
+        } finally {
+            connection.close();
+        }
+
+        SqlMetricsSnapshot insertMetrics = factory.getSnapshot("INSERT INTO ITEM VALUES (?, ?)");
+        assertEquals(3, insertMetrics.getExecuteTime().getCount());
+        assertEquals(3, insertMetrics.getRowsUpdated().getSum());
+
+        SqlMetricsSnapshot selectMetrics = factory.getSnapshot("SELECT NAME FROM ITEM WHERE ID >= 0");
+        assertEquals("SELECT NAME FROM ITEM WHERE ID >= ?", selectMetrics.getFingerprint());
+        assertEquals(2, selectMetrics.getExecuteTime().getCount());
+        assertEquals(2, selectMetrics.getFirstRowTime().getCount());
+        assertEquals(2, selectMetrics.getIterationTime().getCount());
+        assertEquals(5, selectMetrics.getRowsFetched().getSum());
+        assertEquals(3, selectMetrics.getRowsFetched().getMax());
+
+        assertEquals(3, factory.getSnapshot("UPDATE ITEM SET NAME = 'y'").getRowsUpdated().getSum());
+        assertEquals(3, factory.getSnapshots().size());
+        assertEquals(1, factory.getConnectionWait().getCount());
+
+        ObjectName name = new ObjectName("net.sf.jdbcwrappers:type=SqlMetrics,name=test,sql=" + ObjectName.quote(selectMetrics.getFingerprint()));
+        assertEquals(2L, mbeanServer.getAttribute(name, "ExecuteCount"));
+        assertEquals(1L, mbeanServer.getAttribute(new ObjectName("net.sf.jdbcwrappers:type=Metrics,name=test"), "ConnectionCount"));
+        factory.unregisterMBeans();
+        assertFalse(mbeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void testMaxFingerprints() throws SQLException {
+        MetricsWrapperFactory factory = new MetricsWrapperFactory();
+        factory.setMaxFingerprints(1);
+        DataSource dataSource = factory.wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            statement.executeQuery("VALUES 1").close();
+            statement.executeQuery("SELECT ID FROM ITEM").close();
+            statement.executeQuery("SELECT NAME FROM ITEM").close();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        assertEquals(2, factory.getFingerprintCount());
+        assertEquals(2, factory.getSnapshot(MetricsWrapperFactory.OTHER).getExecuteTime().getCount());
+    }
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000000L, snapshot.getMax());
+        assertEquals(500500000L, snapshot.getSum());
+        long p50 = snapshot.getPercentile(50);
+        assertTrue(p50 >= 500000 && p50 < 500000 * 1.25);
+        assertEquals(1000000L, snapshot.getPercentile(100));
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            assertEquals(i, Histogram.bucket(Histogram.lowerBound(i)));
+            if (i < Histogram.BUCKETS - 1) {
+                assertEquals(i, Histogram.bucket(Histogram.upperBound(i)));
+            }
+        }
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getCount());
+    }
+}
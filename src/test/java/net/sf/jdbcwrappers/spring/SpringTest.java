@@ -13,17 +13,19 @@
  */
 package net.sf.jdbcwrappers.spring;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
-import java.io.File;
 import java.lang.reflect.Proxy;
-import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
 
 import javax.sql.DataSource;
 
+import net.sf.jdbcwrappers.DerbyTestSupport;
 import net.sf.jdbcwrappers.trim.TrimmingDelegateInvocationHandler;
+import net.sf.jdbcwrappers.trim.TrimmingWrapperFactory;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.derby.jdbc.EmbeddedDataSource;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -35,24 +37,12 @@ public class SpringTest {
     
     @BeforeClass
     public static void createDataSource() throws Exception {
-        FileUtils.deleteDirectory(new File("target/testDB"));
-        dataSource = new EmbeddedDataSource();
-        dataSource.setDatabaseName("target/testDB");
-        dataSource.setUser("test");
-        dataSource.setCreateDatabase("create");
-        // Need to request at least one connection for the database to be created
-        dataSource.getConnection().close();
+        dataSource = DerbyTestSupport.create("test");
     }
     
     @AfterClass
     public static void destroyDataSource() throws Exception {
-        dataSource.setShutdownDatabase("shutdown");
-        try {
-            dataSource.getConnection();
-        } catch (SQLException ex) {
-            // This always throws an exception; just continue
-        }
-        FileUtils.deleteDirectory(new File("target/testDB"));
+        DerbyTestSupport.destroy(dataSource);
     }
 
     @Test
@@ -67,4 +57,34 @@ public class SpringTest {
             context.close();
         }
     }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        DataSourceWrapperFactory factory = new DataSourceWrapperFactory();
+        factory.setDataSource(dataSource);
+        factory.setWrapperFactory(new TrimmingWrapperFactory());
+        factory.setWarmUp(true);
+        factory.setWarmUpThreads(2);
+        // a statement that can't be prepared doesn't fail the startup
+        factory.setWarmUpSql(Arrays.asList("VALUES 1", "SELECT * FROM SYS.SYSTABLES WHERE TABLENAME = ?", "SELECT * FROM NO_SUCH_TABLE"));
+        factory.afterPropertiesSet();
+        Map<String, Long> timings = factory.getWarmUpTimings();
+        assertTrue(timings.containsKey("proxy java.sql.ResultSet"));
+        assertTrue(timings.containsKey("metadata"));
+        assertTrue(timings.containsKey("statement VALUES 1"));
+        assertTrue(timings.containsKey("statement SELECT * FROM SYS.SYSTABLES WHERE TABLENAME = ?"));
+        assertFalse(timings.containsKey("statement SELECT * FROM NO_SUCH_TABLE"));
+        ((DataSource) factory.getObject()).getConnection().close();
+    }
+
+    @Test
+    public void testWarmUpWithoutSql() throws Exception {
+        DataSourceWrapperFactory factory = new DataSourceWrapperFactory();
+        factory.setDataSource(dataSource);
+        factory.setWrapperFactory(new TrimmingWrapperFactory());
+        factory.setWarmUp(true);
+        factory.setWarmUpSql(null);
+        factory.afterPropertiesSet();
+        assertTrue(factory.getWarmUpTimings().containsKey("metadata"));
+    }
 }
@@ -0,0 +1,189 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.timeout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import net.sf.jdbcwrappers.DerbyTestSupport;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class DeadlineWrapperFactoryTest {
+    private static EmbeddedDataSource rawDataSource;
+
+    private DeadlineWrapperFactory factory;
+
+    @BeforeClass
+    public static void createDataSource() throws Exception {
+        rawDataSource = DerbyTestSupport.create("deadline", "CREATE TABLE ITEM (ID INTEGER)");
+        Connection connection = rawDataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            for (int i = 0; i < 10; i++) {
+                statement.execute("INSERT INTO ITEM VALUES (" + i + ")");
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @AfterClass
+    public static void destroyDataSource() throws Exception {
+        DerbyTestSupport.destroy(rawDataSource);
+    }
+
+    @Before
+    public void createFactory() {
+        factory = new DeadlineWrapperFactory();
+        factory.setDefaultTimeoutMillis(100);
+    }
+
+    /**
+     * Iterate over the result set, slower than the deadline.
+     *
+     * @return the number of rows read before the deadline
+     */
+    private static int iterateSlowly(ResultSet resultSet) throws Exception {
+        int rows = 0;
+        try {
+            while (resultSet.next()) {
+                rows++;
+                Thread.sleep(50);
+            }
+            fail("Expected SQLTimeoutException");
+        } catch (SQLTimeoutException ex) {
+            // expected
+        }
+        resultSet.close();
+        return rows;
+    }
+
+    @Test
+    public void testResultSetDeadline() throws Exception {
+        DataSource dataSource = factory.wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement("SELECT ID FROM ITEM");
+            int rows = iterateSlowly(statement.executeQuery());
+            assertTrue(rows > 0 && rows < 10);
+            assertEquals(1, factory.getCancellations());
+            // the next execution gets a new deadline
+            ResultSet resultSet = statement.executeQuery();
+            assertTrue(resultSet.next());
+            resultSet.close();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testCompletedStatements() throws Exception {
+        DataSource dataSource = factory.wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            assertEquals(10, statement.executeUpdate("UPDATE ITEM SET ID = ID"));
+            ResultSet resultSet = statement.executeQuery("SELECT ID FROM ITEM");
+            while (resultSet.next()) {
+                // just iterate
+            }
+            // an exhausted result set doesn't need to be closed to disarm its deadline
+            resultSet = statement.executeQuery("SELECT ID FROM ITEM");
+            resultSet.next();
+            resultSet.close();
+            Thread.sleep(300);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        assertEquals(0, factory.getCancellations());
+    }
+
+    @Test
+    public void testPrecedence() throws Exception {
+        factory.setTimeouts(Collections.singletonMap("(?i)^select id", 0L));
+        DataSource dataSource = factory.wrapDataSource(rawDataSource);
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet resultSet = statement.executeQuery("select id from ITEM");
+            int rows = 0;
+            while (resultSet.next()) {
+                rows++;
+                Thread.sleep(20);
+            }
+            assertEquals(10, rows);
+            connection.setClientInfo(DeadlineWrapperFactory.TIMEOUT_PROPERTY, "50");
+            assertTrue(iterateSlowly(statement.executeQuery("select id from ITEM")) < 10);
+            connection.setClientInfo(DeadlineWrapperFactory.TIMEOUT_PROPERTY, null);
+            assertTrue(iterateSlowly(statement.executeQuery("SELECT * FROM ITEM")) < 10);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        assertEquals(2, factory.getCancellations());
+    }
+
+    @Test
+    public void testTimerWheel() throws Exception {
+        TimerWheel timer = new TimerWheel("test-timer", TimeUnit.MILLISECONDS.toNanos(10), 4);
+        final AtomicInteger expirations = new AtomicInteger();
+        TimerWheel.Timeout[] timeouts = new TimerWheel.Timeout[3];
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = new TimerWheel.Timeout() {
+                @Override
+                void expire() {
+                    expirations.incrementAndGet();
+                }
+            };
+        }
+        timer.schedule(timeouts[0], TimeUnit.MILLISECONDS.toNanos(20));
+        // several rounds of the wheel
+        timer.schedule(timeouts[1], TimeUnit.MILLISECONDS.toNanos(150));
+        timer.schedule(timeouts[2], TimeUnit.MILLISECONDS.toNanos(20));
+        assertFalse(timer.cancel(timeouts[2]));
+        Thread.sleep(80);
+        assertEquals(1, expirations.get());
+        assertTrue(timeouts[0].isExpired());
+        assertFalse(timeouts[1].isExpired());
+        Thread.sleep(200);
+        assertEquals(2, expirations.get());
+        assertTrue(timer.cancel(timeouts[1]));
+        assertFalse(timeouts[2].isExpired());
+        // rescheduling resets the timeout
+        timer.schedule(timeouts[0], TimeUnit.SECONDS.toNanos(10));
+        assertFalse(timeouts[0].isExpired());
+        timer.cancel(timeouts[0]);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.trim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class StringDeduplicatorTest {
+    @Test
+    public void testSharedInstance() {
+        StringDeduplicator deduplicator = new StringDeduplicator(16);
+        StringDeduplicator.Column column = deduplicator.newColumn();
+        String first = column.trim(new String("EUR  "));
+        assertEquals("EUR", first);
+        for (int i = 0; i < 2000; i++) {
+            assertSame(first, column.trim(new String("EUR  ")));
+        }
+        assertEquals(1, deduplicator.getMisses());
+        assertEquals(1023, deduplicator.getHits());
+        assertEquals(0, deduplicator.getDisabledColumns());
+    }
+    
+    @Test
+    public void testHighCardinality() {
+        StringDeduplicator deduplicator = new StringDeduplicator(16);
+        StringDeduplicator.Column column = deduplicator.newColumn();
+        for (int i = 0; i < 1024; i++) {
+            assertEquals(String.valueOf(i), column.trim(i + "   "));
+        }
+        assertEquals(1, deduplicator.getDisabledColumns());
+        // still trimmed, but no longer shared
+        assertNotSame(column.trim("USD "), column.trim("USD "));
+    }
+}
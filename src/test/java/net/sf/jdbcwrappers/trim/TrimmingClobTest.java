@@ -0,0 +1,89 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.trim;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.Clob;
+import java.util.Arrays;
+
+import javax.sql.rowset.serial.SerialClob;
+import javax.sql.rowset.serial.SerialException;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class TrimmingClobTest {
+    private static String blanks(int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, ' ');
+        return new String(chars);
+    }
+    
+    private static Clob trim(String value) throws Exception {
+        return new TrimmingClob(new SerialClob(value.toCharArray()) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            public Reader getCharacterStream(long pos, long length) throws SerialException {
+                // SerialClob's implementation takes pos as 0-based
+                return new StringReader(getSubString(pos, (int) length));
+            }
+        });
+    }
+    
+    private static void assertTrimmed(String expected, String value) throws Exception {
+        Clob clob = trim(value);
+        assertEquals(expected.length(), clob.length());
+        assertEquals(expected, clob.getSubString(1, value.length()));
+        assertEquals(expected, IOUtils.toString(clob.getCharacterStream()));
+        assertEquals(expected, IOUtils.toString(clob.getCharacterStream(1, value.length())));
+    }
+    
+    @Test
+    public void testTrailingBlanks() throws Exception {
+        assertTrimmed("a b", "a b   ");
+        assertTrimmed("  a", "  a");
+        assertTrimmed("", "     ");
+    }
+    
+    @Test
+    public void testPaddingLongerThanChunk() throws Exception {
+        String value = "x" + blanks(3000) + "y";
+        assertTrimmed(value, value + blanks(5000));
+        assertTrimmed("", blanks(5000));
+    }
+    
+    @Test
+    public void testChunkBoundaries() throws Exception {
+        // the last non blank character at the start and at the end of a chunk read backwards
+        for (int padding : new int[] { 1023, 1024, 1025, 2048 }) {
+            assertTrimmed("x", "x" + blanks(padding));
+            String value = "x" + blanks(2000) + "y";
+            assertTrimmed(value, value + blanks(padding));
+        }
+    }
+    
+    @Test
+    public void testSubString() throws Exception {
+        Clob clob = trim("abc" + blanks(2000));
+        assertEquals("bc", clob.getSubString(2, 10));
+        assertEquals("", clob.getSubString(4, 10));
+        assertEquals("b", IOUtils.toString(clob.getCharacterStream(2, 1)));
+        assertEquals(3, clob.position("c", 1));
+        assertEquals(-1, clob.position(" ", 1));
+    }
+}
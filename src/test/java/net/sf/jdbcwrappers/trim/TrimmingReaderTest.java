@@ -0,0 +1,48 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.jdbcwrappers.trim;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class TrimmingReaderTest {
+    private static String blanks(int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, ' ');
+        return new String(chars);
+    }
+    
+    private static String read(String value) throws Exception {
+        return IOUtils.toString(new TrimmingReader(new StringReader(value)));
+    }
+    
+    @Test
+    public void testTrailingBlanks() throws Exception {
+        assertEquals("a b", read("a b   "));
+        assertEquals("", read("     "));
+        assertEquals("", read(""));
+        assertEquals("  a", read("  a"));
+    }
+    
+    @Test
+    public void testPaddingLongerThanBuffer() throws Exception {
+        String value = "x" + blanks(3000) + "y";
+        assertEquals(value, read(value + blanks(5000)));
+    }
+}
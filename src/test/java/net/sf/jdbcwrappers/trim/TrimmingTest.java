@@ -14,22 +14,36 @@
 package net.sf.jdbcwrappers.trim;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
-import java.io.File;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.CallableStatement;
+import java.sql.Clob;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
+import javax.sql.rowset.serial.SerialClob;
 
-import net.sf.jdbcwrappers.trim.TrimmingWrapperFactory;
+import net.sf.jdbcwrappers.CompositeWrapperFactory;
+import net.sf.jdbcwrappers.DerbyTestSupport;
+import net.sf.jdbcwrappers.ProxyHelper;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.derby.jdbc.EmbeddedDataSource;
 import org.apache.derby.tools.ij;
 import org.junit.After;
@@ -37,20 +51,108 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 
+@RunWith(Parameterized.class)
 public class TrimmingTest {
     private static EmbeddedDataSource rawDataSource;
-    private static DataSource dataSource;
     
+    private final String mode;
+    private final DataSource dataSource;
     private Connection connection;
     
+    public TrimmingTest(String mode) {
+        this.mode = mode;
+        dataSource = wrap(rawDataSource);
+    }
+    
+    private DataSource wrap(DataSource target) {
+        TrimmingWrapperFactory wrapperFactory = new TrimmingWrapperFactory();
+        if ("composite".equals(mode)) {
+            wrapperFactory.setDeduplicationTableSize(16);
+            return new CompositeWrapperFactory(wrapperFactory).wrapDataSource(target);
+        } else {
+            wrapperFactory.setUseDelegates("delegates".equals(mode));
+            return wrapperFactory.wrapDataSource(target);
+        }
+    }
+    
+    /**
+     * Wrap a jdbc object, and the jdbc objects it returns, counting the calls of {@link ResultSet#getMetaData()}.
+     */
+    private static Object countMetaDataCalls(final Object target, Class<?> jdbcClass, final AtomicInteger calls) {
+        return Proxy.newProxyInstance(TrimmingTest.class.getClassLoader(), new Class<?>[] { jdbcClass }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getMetaData") && ResultSet.class.equals(method.getDeclaringClass())) {
+                    calls.incrementAndGet();
+                }
+                Object result;
+                try {
+                    result = method.invoke(target, args);
+                } catch (InvocationTargetException ex) {
+                    throw ex.getCause();
+                }
+                Class<?> resultClass = ProxyHelper.getJdbcClass(result);
+                return resultClass == null ? result : countMetaDataCalls(result, resultClass, calls);
+            }
+        });
+    }
+    
+    /**
+     * Create a data source whose queries return a single <tt>NCHAR</tt> column with the value
+     * "abc" padded with blanks, for the getters Derby doesn't support on <tt>CHAR</tt> columns.
+     */
+    private static DataSource createNCharDataSource() {
+        return (DataSource) createNCharProxy(DataSource.class);
+    }
+    
+    private static Object createNCharProxy(Class<?> jdbcClass) {
+        return Proxy.newProxyInstance(TrimmingTest.class.getClassLoader(), new Class<?>[] { jdbcClass }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                Class<?> returnType = method.getReturnType();
+                if (name.equals("getNString")) {
+                    return "abc   ";
+                } else if (name.equals("getNCharacterStream")) {
+                    return new StringReader("abc   ");
+                } else if (name.equals("getClob")) {
+                    return new SerialClob("abc   ".toCharArray());
+                } else if (name.equals("getColumnType")) {
+                    return Types.NCHAR;
+                } else if (name.equals("getColumnLabel")) {
+                    return "N";
+                } else if (name.equals("getColumnCount") || name.equals("findColumn")) {
+                    return 1;
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (name.equals("equals")) {
+                    return proxy == args[0];
+                } else if (returnType == Connection.class || returnType == Statement.class
+                        || returnType == ResultSet.class || returnType == ResultSetMetaData.class) {
+                    return createNCharProxy(returnType);
+                } else if (returnType == boolean.class) {
+                    return name.equals("next");
+                } else if (returnType == int.class) {
+                    return 0;
+                } else {
+                    return null;
+                }
+            }
+        });
+    }
+    
+    @Parameters
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][] { { "proxy" }, { "delegates" }, { "composite" } });
+    }
+    
     @BeforeClass
     public static void createDataSource() throws Exception {
-        FileUtils.deleteDirectory(new File("target/testDB"));
-        rawDataSource = new EmbeddedDataSource();
-        rawDataSource.setDatabaseName("target/testDB");
-        rawDataSource.setUser("test");
-        rawDataSource.setCreateDatabase("create");
+        rawDataSource = DerbyTestSupport.create("test");
         Connection connection = rawDataSource.getConnection();
         try {
             if (ij.runScript(connection, TrimmingTest.class.getResourceAsStream("schema.sql"), "UTF-8", System.out, "UTF-8") > 0) {
@@ -59,18 +161,11 @@ public class TrimmingTest {
         } finally {
             connection.close();
         }
-        dataSource = new TrimmingWrapperFactory().wrapDataSource(rawDataSource);
     }
     
     @AfterClass
     public static void destroyDataSource() throws Exception {
-        rawDataSource.setShutdownDatabase("shutdown");
-        try {
-            rawDataSource.getConnection();
-        } catch (SQLException ex) {
-            // This always throws an exception; just continue
-        }
-        FileUtils.deleteDirectory(new File("target/testDB"));
+        DerbyTestSupport.destroy(rawDataSource);
     }
     
     @Before
@@ -118,6 +213,136 @@ public class TrimmingTest {
         }
     }
     
+    @Test
+    public void testRepeatedQuery() throws SQLException {
+        AtomicInteger metaDataCalls = new AtomicInteger();
+        DataSource countingDataSource = wrap((DataSource) countMetaDataCalls(rawDataSource, DataSource.class, metaDataCalls));
+        Connection countingConnection = countingDataSource.getConnection();
+        try {
+            for (int i = 0; i < 2; i++) {
+                PreparedStatement statement = countingConnection.prepareStatement("SELECT CHAR_COL, VARCHAR_COL AS char_col2 FROM TEST");
+                try {
+                    ResultSet rs = statement.executeQuery();
+                    rs.next();
+                    assertEquals("test", rs.getString("char_col"));
+                    assertEquals("test", rs.getString("Char_Col2"));
+                    assertEquals("test", rs.getString(1));
+                }
+                finally {
+                    statement.close();
+                }
+                // the second execution uses the cached column information, without looking at the metadata
+                assertEquals(1, metaDataCalls.get());
+            }
+        } finally {
+            countingConnection.close();
+        }
+    }
+    
+    @Test
+    public void testRepeatedQueryOtherSchema() throws SQLException {
+        Statement statement = connection.createStatement();
+        Connection otherConnection = dataSource.getConnection();
+        try {
+            statement.execute("CREATE TABLE S1.T (A CHAR(5))");
+            statement.execute("INSERT INTO S1.T VALUES ('a')");
+            statement.execute("CREATE TABLE T (A INTEGER, B CHAR(5))");
+            statement.execute("INSERT INTO T VALUES (1, 'b')");
+            // fill the cache
+            assertEquals("1", queryFirstColumn(otherConnection, "SELECT * FROM T"));
+            // same SQL text, other columns
+            statement.execute("SET SCHEMA S1");
+            assertEquals("a", queryFirstColumn(connection, "SELECT * FROM T"));
+            statement.execute("SET SCHEMA TEST");
+            assertEquals("1", queryFirstColumn(connection, "SELECT * FROM T"));
+            assertEquals("a", queryFirstColumn(connection, "SELECT * FROM S1.T"));
+        } finally {
+            otherConnection.close();
+            statement.execute("SET SCHEMA TEST");
+            statement.execute("DROP TABLE S1.T");
+            statement.execute("DROP TABLE T");
+            statement.execute("DROP SCHEMA S1 RESTRICT");
+            statement.close();
+        }
+    }
+    
+    @Test
+    public void testRepeatedQueryAfterDefinition() throws SQLException {
+        Statement statement = connection.createStatement();
+        Connection otherConnection = dataSource.getConnection();
+        try {
+            statement.execute("CREATE TABLE T (A VARCHAR(5))");
+            statement.execute("INSERT INTO T VALUES ('a  ')");
+            assertEquals("a  ", queryFirstColumn(otherConnection, "SELECT * FROM T"));
+            // same number of columns, other type
+            statement.execute("DROP TABLE T");
+            statement.execute("CREATE TABLE T (A CHAR(5))");
+            statement.execute("INSERT INTO T VALUES ('a')");
+            assertEquals("a", queryFirstColumn(otherConnection, "SELECT * FROM T"));
+            // a batch may change the schema as well
+            statement.addBatch("DROP TABLE T");
+            statement.addBatch("CREATE TABLE T (A VARCHAR(5))");
+            statement.addBatch("INSERT INTO T VALUES ('a  ')");
+            statement.executeBatch();
+            assertEquals("a  ", queryFirstColumn(otherConnection, "SELECT * FROM T"));
+        } finally {
+            otherConnection.close();
+            statement.execute("DROP TABLE T");
+            statement.close();
+        }
+    }
+    
+    @Test
+    public void testRepeatedQueryAfterUncommittedDefinition() throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("CREATE TABLE T (A VARCHAR(5))");
+            statement.execute("INSERT INTO T VALUES ('a  ')");
+            assertEquals("a  ", queryFirstColumn(connection, "SELECT * FROM T"));
+            connection.setAutoCommit(false);
+            statement.execute("DROP TABLE T");
+            statement.execute("CREATE TABLE T (A CHAR(5))");
+            statement.execute("INSERT INTO T VALUES ('a')");
+            assertEquals("a", queryFirstColumn(connection, "SELECT * FROM T"));
+            connection.rollback();
+            assertEquals("a  ", queryFirstColumn(connection, "SELECT * FROM T"));
+        } finally {
+            connection.setAutoCommit(true);
+            statement.execute("DROP TABLE T");
+            statement.close();
+        }
+    }
+    
+    private static String queryFirstColumn(Connection connection, String sql) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            ResultSet rs = statement.executeQuery();
+            rs.next();
+            return rs.getString(1);
+        } finally {
+            statement.close();
+        }
+    }
+    
+    @Test
+    public void testCharacterStream() throws Exception {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery("SELECT CHAR_COL FROM TEST");
+            rs.next();
+            assertEquals("test", IOUtils.toString(rs.getCharacterStream(1)));
+        }
+        finally {
+            statement.close();
+        }
+    }
+    
+    @Test
+    public void testMetaDataNotWrapped() throws SQLException {
+        // DatabaseMetaData is not on the path to query result sets, so it is returned as is
+        assertTrue(connection.getMetaData().getClass().getName().startsWith("org.apache.derby."));
+    }
+    
     public static void testProc(ResultSet[] resultSet) throws SQLException {
         Connection connection = DriverManager.getConnection("jdbc:default:connection");
         resultSet[0] = connection.createStatement().executeQuery("SELECT * FROM TEST");
@@ -136,4 +361,22 @@ public class TrimmingTest {
             statement.close();
         }
     }
+    
+    @Test
+    public void testNationalCharacterGetters() throws Exception {
+        Connection nCharConnection = wrap(createNCharDataSource()).getConnection();
+        try {
+            ResultSet rs = nCharConnection.createStatement().executeQuery("SELECT N FROM T");
+            rs.next();
+            assertEquals("abc", rs.getNString(1));
+            assertEquals("abc", rs.getNString("N"));
+            assertEquals("abc", IOUtils.toString(rs.getNCharacterStream(1)));
+            assertEquals("abc", IOUtils.toString(rs.getNCharacterStream("n")));
+            Clob clob = rs.getClob(1);
+            assertEquals(3, clob.length());
+            assertEquals("abc", IOUtils.toString(clob.getCharacterStream()));
+        } finally {
+            nCharConnection.close();
+        }
+    }
 }